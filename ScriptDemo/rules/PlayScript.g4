@@ -43,6 +43,8 @@ Antlr可以支持左递归的语法规则，参见additiveExpression和multiplic
 grammar PlayScript;
 
 //options { tokenVocab=CommonLexer; }
+//AST节点的基类,节点带有编号,见 AnnotatedContext
+options { contextSuperClass = play.compiler.script.compile.AnnotatedContext; }
 import CommonLexer;   //导入词法定义
 
 @header {
@@ -2,10 +2,29 @@ package play.compiler.script;
 
 import cfca.org.slf4j.Logger;
 import cfca.org.slf4j.LoggerFactory;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.misc.Interval;
+import play.compiler.script.asm.AsmGenerator;
 import play.compiler.script.compile.AnnotatedTree;
+import play.compiler.script.compile.CompilationLog;
+import play.compiler.script.compile.MappedCharStream;
 import play.compiler.script.compile.PlayScriptCompiler;
-
+import play.compiler.script.compile.ReplSession;
+import play.compiler.script.compile.ScriptImageLoader;
+import play.compiler.script.compile.Lowering;
+import play.compiler.script.compile.StreamingExecutor;
+import play.compiler.script.exec.NodeProgram;
+import play.compiler.script.lower.LoweredProgram;
+import play.compiler.script.lower.ScriptImage;
+
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -17,10 +36,6 @@ public class PlayScript {
     private static Logger LOG = LoggerFactory.getLogger(PlayScript.class);
 
     public static void main(String args[]) {
-        //脚本
-        String script = "int age = 44; for(int i = 0;i<10;i++) { age = age + 2;} int i = 8;";
-
-        LOG.info("PlayScript#script:{}", script);
         //是否生成汇编代码
         boolean genAsm = false;
 
@@ -35,11 +50,14 @@ public class PlayScript {
             if (help) {
                 showHelp();
             } else {
+                genAsm = params.containsKey("genAsm") ? (Boolean) params.get("genAsm") : false;
+
                 //从源代码读取脚本
                 scriptFile = params.containsKey("scriptFile") ? (String) params.get("scriptFile") : null;
-                if (scriptFile != null) {
-                    script = readTextFile(scriptFile);
-                }
+                //流式执行:逐条语句解析、执行,不读入整个文件,也不保留整个AST
+                boolean stream = params.containsKey("stream") ? (Boolean) params.get("stream") : false;
+                //生成 .playc 映像
+                boolean playc = params.containsKey("playc") ? (Boolean) params.get("playc") : false;
 
                 //打印编译过程中的信息
                 boolean verbose = params.containsKey("verbose") ? (Boolean) params.get("verbose") : false;
@@ -47,17 +65,41 @@ public class PlayScript {
                 //打印AST
                 boolean astDump = params.containsKey("ast_dump") ? (Boolean) params.get("ast_dump") : false;
 
-                //进入REPL
-                if (script == null) {
+                //执行 .playc 映像:参数是 .playc 文件,或者用 -image 指定使用源码文件旁边的映像
+                boolean runImage = params.containsKey("image") ? (Boolean) params.get("image") : false;
+                boolean useImage = scriptFile != null && !stream && !playc
+                        && (runImage || scriptFile.endsWith(ScriptImage.EXTENSION));
+
+                CharStream input = null;
+                if (scriptFile != null && !stream && !playc && !useImage) {
+                    input = readTextFile(scriptFile);
+                }
+
+                if (playc && scriptFile != null) {
+                    String outputFile = params.containsKey("outputFile") ? (String) params.get("outputFile") : null;
+                    Path source = Paths.get(scriptFile);
+                    Path image = outputFile != null ? Paths.get(outputFile) : ScriptImageLoader.imagePathOf(source);
+                    ScriptImageLoader.writeImage(source, image);
+                    LOG.info("PlayScript#playc:{} -> {}", source, image);
+                } else if (useImage) {
+                    Object result = NodeProgram.of(loadImage(Paths.get(scriptFile))).execute();
+                    LOG.debug("PlayScript#image result:{} ", result);
+                } else if (stream && scriptFile != null) {
+                    try (InputStream in = Files.newInputStream(Paths.get(scriptFile))) {
+                        Object result = new StreamingExecutor().execute(in);
+                        LOG.debug("PlayScript#stream result:{} ", result);
+                    }
+                } else if (input == null) {
+                    //没有脚本文件时进入REPL
                     REPL(verbose, astDump);
                 } else if (genAsm) {
                     //生成汇编代码 输出文件
                     String outputFile = params.containsKey("outputFile") ? (String) params.get("outputFile") : null;
-                    generateAsm(script, outputFile);
+                    generateAsm(input.getText(Interval.of(0, input.size() - 1)), outputFile);
                 } else {
                     //执行脚本
                     PlayScriptCompiler compiler = new PlayScriptCompiler();
-                    AnnotatedTree at = compiler.compile(script, verbose, astDump);
+                    AnnotatedTree at = compiler.compile(input, verbose, astDump);
 
                     if (!at.hasCompilationError()) {
                         Object result = compiler.Execute(at);
@@ -73,32 +115,127 @@ public class PlayScript {
         }
     }
 
+    /**
+     * 加载映像。参数是 .playc 文件时只读取映像本身;
+     * 参数是源码文件时(-image)使用旁边的 .playc 文件,映像不存在或过期时重新编译并重写映像。
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    private static LoweredProgram loadImage(Path file) throws IOException {
+        LoweredProgram result;
+        if (file.toString().endsWith(ScriptImage.EXTENSION)) {
+            result = ScriptImage.read(file);
+        } else {
+            result = new ScriptImageLoader().load(file);
+        }
+        return result;
+    }
+
     /**
      * 生成ASM
      *
      * @param script     脚本
      * @param outputFile 输出的文件名
      */
-    private static void generateAsm(String script, String outputFile) {
-
+    private static void generateAsm(String script, String outputFile) throws IOException {
+        PlayScriptCompiler compiler = new PlayScriptCompiler();
+        AnnotatedTree at = compiler.compile(script, false, false);
+        if (at.hasCompilationError()) {
+            for (CompilationLog log : at.getLogs()) {
+                if (log.getType() == CompilationLog.ERROR) {
+                    LOG.error("PlayScript#generateAsm:{}", log);
+                }
+            }
+        } else {
+            try {
+                String asm = AsmGenerator.generate(Lowering.lower(at, ""));
+                if (outputFile != null) {
+                    Files.write(Paths.get(outputFile), asm.getBytes(StandardCharsets.UTF_8));
+                } else {
+                    System.out.print(asm);
+                }
+            } catch (UnsupportedOperationException e) {
+                LOG.error("PlayScript#generateAsm:unsupported script:{}", e.getMessage());
+            }
+        }
     }
 
     /**
      * REPL:简单交互式的编程环境
+     * 一次输入可以有多行,括号闭合并且以';'或'}'结尾的行表示输入结束。输入 exit(); 退出。
      */
-    private static void REPL(boolean verbose, boolean astDump) {
+    private static void REPL(boolean verbose, boolean astDump) throws IOException {
+        System.out.println("Enter script, or exit(); to quit:");
+
+        ReplSession session = new ReplSession();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
+        StringBuilder script = new StringBuilder();
+
+        System.out.print("\n>");
+        String line;
+        //未闭合的'{'的个数,函数等跨行的输入要等到闭合之后再执行
+        int depth = 0;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if ("exit();".equals(line)) {
+                System.out.println("good bye!");
+                break;
+            }
 
+            script.append(line).append('\n');
+            depth += braceDepth(line);
+            if (depth <= 0 && (line.endsWith(";") || line.endsWith("}"))) {
+                try {
+                    Object result = session.eval(script.toString(), verbose, astDump);
+                    if (!session.getErrors().isEmpty()) {
+                        for (CompilationLog log : session.getErrors()) {
+                            System.out.println(log);
+                        }
+                    } else if (result != null) {
+                        System.out.println(result);
+                    }
+                } catch (RuntimeException e) {
+                    System.out.println(e.getMessage());
+                    LOG.debug("PlayScript#REPL", e);
+                }
+                script.setLength(0);
+                depth = 0;
+                System.out.print("\n>");
+            }
+        }
+    }
+
+    /**
+     * 一行中'{'比'}'多出的个数,不考虑字符串和注释中的括号
+     *
+     * @param line
+     * @return
+     */
+    private static int braceDepth(String line) {
+        int depth = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '{') {
+                depth++;
+            } else if (c == '}') {
+                depth--;
+            }
+        }
+        return depth;
     }
 
     /**
      * 读文本文件
+     * 用内存映射的方式读取,直接从映射的内存中解码字符,不会把整个文件复制成String
      *
      * @param pathName
      * @return
      * @throws IOException
      */
-    private static String readTextFile(String pathName) {
-        return null;
+    private static CharStream readTextFile(String pathName) throws IOException {
+        return MappedCharStream.fromPath(Paths.get(pathName));
     }
 
     /**
@@ -106,13 +243,16 @@ public class PlayScript {
      */
     private static void showHelp() {
         StringBuilder builder = new StringBuilder(1024);
-        builder.append("usage: java play.PlayScript [-h | --help | -o outputfile | -S | -v | -ast-dump] [scriptfile]");
+        builder.append("usage: java play.PlayScript [-h | --help | -o outputfile | -S | -v | -ast-dump | -stream | -playc | -image] [scriptfile]");
         builder.append("\t-h or --help : print this help information");
         builder.append("\t-v verbose mode : dump AST and symbols");
         builder.append("\t-ast-dump : dump AST in lisp style");
         builder.append("\t-o outputfile : file pathname used to save generated code, eg. assembly code");
         builder.append("\t-S : compile to assembly code");
-        builder.append("\tscriptfile : file contains playscript code");
+        builder.append("\t-stream : parse and execute scriptfile one statement at a time, for very large scripts");
+        builder.append("\t-playc : compile scriptfile to a .playc image, saved to -o outputfile or next to scriptfile");
+        builder.append("\t-image : execute the .playc image next to scriptfile, recompiling and rewriting it when missing or stale");
+        builder.append("\tscriptfile : file contains playscript code, or a .playc image");
 
         builder.append("\nexamples:");
         builder.append("\tjava play.PlayScript");
@@ -127,6 +267,18 @@ public class PlayScript {
         builder.append("\t>>compile and execute scratch.play");
         builder.append("\n");
 
+        builder.append("\tjava play.PlayScript -playc scratch.play");
+        builder.append("\t>>compile scratch.play to scratch.playc");
+        builder.append("\n");
+
+        builder.append("\tjava play.PlayScript scratch.playc");
+        builder.append("\t>>execute the image scratch.playc, without reading scratch.play");
+        builder.append("\n");
+
+        builder.append("\tjava play.PlayScript -image scratch.play");
+        builder.append("\t>>execute scratch.playc, recompiling it first when scratch.play has changed");
+        builder.append("\n");
+
         builder.append("\tjava play.PlayScript -v scratch.play");
         builder.append("\t>>compile and execute scratch.play in verbose mode, dump ast and symbols");
         builder.append("\n");
@@ -172,6 +324,27 @@ public class PlayScript {
                 params.put("ast_dump", true);
             }
 
+            /**
+             * 流式执行
+             */
+            else if (args[i].equals("-stream")) {
+                params.put("stream", true);
+            }
+
+            /**
+             * 生成 .playc 映像
+             */
+            else if (args[i].equals("-playc")) {
+                params.put("playc", true);
+            }
+
+            /**
+             * 执行 .playc 映像
+             */
+            else if (args[i].equals("-image")) {
+                params.put("image", true);
+            }
+
             /**
              * 输出文件
              */
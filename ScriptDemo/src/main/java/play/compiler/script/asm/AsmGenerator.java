@@ -0,0 +1,1552 @@
+package play.compiler.script.asm;
+
+import play.compiler.script.asm.AsmWriter.Label;
+import play.compiler.script.lower.LoweredFunction;
+import play.compiler.script.lower.LoweredNode;
+import play.compiler.script.lower.LoweredOp;
+import play.compiler.script.lower.LoweredOperators;
+import play.compiler.script.lower.LoweredProgram;
+import play.compiler.script.lower.LoweredScope;
+import play.compiler.script.runtime.PrimitiveType;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 把降级后的程序编译成x86-64汇编(AT&T语法,SysV ABI,位置无关),可以用 gcc 汇编、链接成可执行文件。
+ * 1.全局变量是.bss中的符号,函数是 play_f<序号>,脚本的主体是 main;
+ * 2.寄存器分配:按循环嵌套加权的使用次数,把整数变量放在被调用者保存的寄存器(rbx、r12~r15)里,
+ * 不调用函数的函数把浮点变量放在 xmm8~xmm15 里,其余的变量在栈桢里;
+ * 3.表达式的值在 %eax/%rax 或 %xmm0 里,右操作数是常量或变量时直接作为指令的操作数,否则暂存在栈桢里;
+ * 4.语义与 ASTEvaluator 相同:int是32位运算,除以-1、浮点数转整数、NaN的比较都按Java的规则,
+ * 除以0时输出异常信息并以1退出;
+ * 5.进程的退出码是脚本结果的低8位(int、long、char、boolean),其它结果为0;
+ * 6.只支持整数、浮点数、boolean和char,println只支持int、long、boolean和字符串常量
+ * (浮点数的输出格式与Java的不同),其它的抛出 UnsupportedOperationException。
+ */
+public final class AsmGenerator {
+    private static final String[] INT_ARGUMENTS_64 = {"%rdi", "%rsi", "%rdx", "%rcx", "%r8", "%r9"};
+    private static final String[] INT_ARGUMENTS_32 = {"%edi", "%esi", "%edx", "%ecx", "%r8d", "%r9d"};
+    private static final int FLOAT_ARGUMENTS = 8;
+
+    /**
+     * 计算使用次数时,循环每嵌套一层权重乘8,最多算到这么多层
+     */
+    private static final int MAX_LOOP_DEPTH = 6;
+
+    private static final String DIVISION_BY_ZERO = "play_div_zero";
+    private static final String FMOD = "play_fmod";
+
+    private final LoweredProgram program;
+
+    /**
+     * 每个作用域的变量类型,下标是槽位
+     */
+    private final PrimitiveType[][] variableTypes;
+
+    private final StringBuilder text = new StringBuilder();
+    private final StringBuilder rodata = new StringBuilder();
+
+    /**
+     * 常量的标签,键是常量的类型和值
+     */
+    private final Map<String, String> constants = new HashMap<String, String>();
+
+    /**
+     * 用到的运行时辅助函数
+     */
+    private final Set<String> helpers = new LinkedHashSet<String>();
+
+    private final Label divisionByZero = new Label(DIVISION_BY_ZERO);
+
+    private int labelCount = 0;
+
+    //=================================== 正在生成的函数 ===================================
+
+    private AsmWriter out;
+
+    /**
+     * 变量的位置,下标是作用域和槽位
+     */
+    private Location[][] homes;
+
+    /**
+     * 从外到内的栈桢所属的作用域
+     */
+    private final List<Integer> frames = new ArrayList<Integer>();
+
+    /**
+     * 从外到内的循环:{break的目标, continue的目标}
+     */
+    private final List<Label[]> loops = new ArrayList<Label[]>();
+
+    private boolean main;
+
+    /**
+     * 函数的返回值类型,void为null
+     */
+    private PrimitiveType returnType;
+
+    private Label returnLabel;
+
+    /**
+     * 用到的被调用者保存的寄存器个数
+     */
+    private int savedRegisters;
+
+    /**
+     * 栈桢中变量的槽数
+     */
+    private int slotCount;
+
+    private int tempCount;
+    private int maxTemps;
+
+    /**
+     * 脚本主体中保存结果(退出码)的位置
+     */
+    private Location result;
+
+    private AsmGenerator(LoweredProgram program) {
+        this.program = program;
+        List<LoweredScope> scopes = program.getScopes();
+        variableTypes = new PrimitiveType[scopes.size()][];
+        for (int i = 0; i < scopes.size(); i++) {
+            List<PrimitiveType> types = new ArrayList<PrimitiveType>();
+            for (LoweredScope.Member member : scopes.get(i).getMembers()) {
+                if (member.getKind() == LoweredScope.MEMBER_VARIABLE) {
+                    types.add(LoweredOperators.typeOf(member.getType()));
+                }
+            }
+            variableTypes[i] = types.toArray(new PrimitiveType[0]);
+        }
+    }
+
+    /**
+     * @param program
+     * @return 汇编代码
+     * @throws UnsupportedOperationException 程序中有无法编译的部分
+     */
+    public static String generate(LoweredProgram program) {
+        return new AsmGenerator(program).generate();
+    }
+
+    private String generate() {
+        text.append("\t.text\n");
+        LoweredFunction[] functions = program.getFunctions();
+        for (int i = 0; i < functions.length; i++) {
+            generateFunction(i, functions[i]);
+        }
+        generateMain();
+        generateHelpers();
+
+        StringBuilder rtn = new StringBuilder(text);
+        rtn.append("\t.section .rodata\n");
+        rtn.append(".Lfmt_int:\n\t.string \"%d\\n\"\n");
+        rtn.append(".Lfmt_long:\n\t.string \"%ld\\n\"\n");
+        rtn.append(".Ltrue:\n\t.string \"true\"\n");
+        rtn.append(".Lfalse:\n\t.string \"false\"\n");
+        rtn.append(".Lempty:\n\t.string \"\"\n");
+        rtn.append(rodata);
+
+        PrimitiveType[] globals = variableTypes[0];
+        if (globals.length > 0) {
+            rtn.append("\t.bss\n\t.p2align 3\n");
+            for (int slot = 0; slot < globals.length; slot++) {
+                rtn.append(globalSymbol(slot)).append(":\n\t.zero 8\n");
+            }
+        }
+        rtn.append("\t.section .note.GNU-stack,\"\",@progbits\n");
+        return rtn.toString();
+    }
+
+    private void generateFunction(int index, LoweredFunction function) {
+        int scope = function.getScope();
+        if (program.getScopes().get(scope).getParent() != 0) {
+            throw new UnsupportedOperationException("AsmGenerator#generateFunction:nested function f" + index);
+        }
+        main = false;
+        returnType = returnTypeOf(function);
+        out = new AsmWriter();
+        returnLabel = newLabel();
+
+        frames.clear();
+        frames.add(0);
+        frames.add(scope);
+        allocate(function.getBody(), scope);
+
+        //参数从寄存器移到分配的位置,其它变量清零
+        int ints = 0;
+        int floats = 0;
+        for (int slot = 0; slot < function.getParamCount(); slot++) {
+            PrimitiveType type = variableType(scope, slot);
+            String source;
+            if (isFloating(type)) {
+                if (floats == FLOAT_ARGUMENTS) {
+                    throw new UnsupportedOperationException("AsmGenerator#generateFunction:too many parameters");
+                }
+                source = "%xmm" + floats++;
+            } else {
+                if (ints == INT_ARGUMENTS_64.length) {
+                    throw new UnsupportedOperationException("AsmGenerator#generateFunction:too many parameters");
+                }
+                source = type == PrimitiveType.Long ? INT_ARGUMENTS_64[ints++] : INT_ARGUMENTS_32[ints++];
+            }
+            move(type, source, homes[scope][slot].operand(type));
+        }
+        for (int slot = function.getParamCount(); slot < variableTypes[scope].length; slot++) {
+            zero(variableType(scope, slot), homes[scope][slot]);
+        }
+
+        compileStatement(function.getBody(), false);
+        if (out.isReachable() && returnType != null) {
+            throw new UnsupportedOperationException("AsmGenerator#generateFunction:f" + index + " may complete without return");
+        }
+        out.bind(returnLabel);
+        emitFunction(functionSymbol(index), false);
+    }
+
+    private void generateMain() {
+        main = true;
+        returnType = null;
+        out = new AsmWriter();
+        returnLabel = newLabel();
+
+        frames.clear();
+        frames.add(0);
+        LoweredNode body = program.getMain();
+        allocate(body, -1);
+        result = Location.stack(slotOffset(slotCount++));
+        out.op("movl", "$0, " + result.operand(PrimitiveType.Integer));
+        for (int slot = 0; slot < variableTypes[0].length; slot++) {
+            if (homes[0][slot].isRegister()) {
+                zero(variableType(0, slot), homes[0][slot]);
+            }
+        }
+
+        for (int i = 0; i < body.getKidCount(); i++) {
+            compileStatement(body.getKid(i), i == body.getKidCount() - 1);
+        }
+        if (out.isReachable()) {
+            out.op("movl", result.operand(PrimitiveType.Integer) + ", %eax");
+        }
+        out.bind(returnLabel);
+        emitFunction("main", true);
+    }
+
+    /**
+     * 输出函数:序言、函数体和尾声。栈桢的大小在函数体生成之后才知道
+     */
+    private void emitFunction(String symbol, boolean global) {
+        int frameSize = 8 * (slotCount + maxTemps);
+        //进入函数时 %rsp 模16余8,压入 %rbp 和保存的寄存器之后,调用其它函数时要对齐到16
+        if ((8 * savedRegisters + frameSize) % 16 != 0) {
+            frameSize += 8;
+        }
+
+        text.append("\t.p2align 4\n");
+        if (global) {
+            text.append("\t.globl\t").append(symbol).append('\n');
+        }
+        text.append("\t.type\t").append(symbol).append(", @function\n");
+        text.append(symbol).append(":\n");
+        text.append("\tpushq\t%rbp\n\tmovq\t%rsp, %rbp\n");
+        for (int i = 0; i < savedRegisters; i++) {
+            text.append("\tpushq\t").append(Location.REGISTERS_64[i]).append('\n');
+        }
+        if (frameSize > 0) {
+            text.append("\tsubq\t$").append(frameSize).append(", %rsp\n");
+        }
+        text.append(out);
+        if (savedRegisters > 0) {
+            text.append("\tleaq\t").append(-8 * savedRegisters).append("(%rbp), %rsp\n");
+            for (int i = savedRegisters - 1; i >= 0; i--) {
+                text.append("\tpopq\t").append(Location.REGISTERS_64[i]).append('\n');
+            }
+        } else {
+            text.append("\tmovq\t%rbp, %rsp\n");
+        }
+        text.append("\tpopq\t%rbp\n\tret\n");
+        text.append("\t.size\t").append(symbol).append(", .-").append(symbol).append('\n');
+    }
+
+    //=================================== 寄存器分配 ===================================
+
+    /**
+     * 给函数(或脚本主体)中的变量分配位置
+     *
+     * @param body
+     * @param scope 函数的作用域,脚本主体为-1
+     */
+    private void allocate(LoweredNode body, int scope) {
+        homes = new Location[variableTypes.length][];
+        long[][] weights = new long[variableTypes.length][];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = new long[variableTypes[i].length];
+        }
+        List<Integer> owned = new ArrayList<Integer>();
+        if (scope >= 0) {
+            owned.add(scope);
+        }
+        boolean[] calls = new boolean[2];
+        count(body, 0, weights, owned, calls);
+
+        //调用了函数的脚本主体,全局变量要留在内存里
+        List<int[]> candidates = new ArrayList<int[]>();
+        if (main && !calls[0]) {
+            for (int slot = 0; slot < variableTypes[0].length; slot++) {
+                candidates.add(new int[]{0, slot});
+            }
+        }
+        for (int s : owned) {
+            for (int slot = 0; slot < variableTypes[s].length; slot++) {
+                candidates.add(new int[]{s, slot});
+            }
+        }
+        final long[][] w = weights;
+        Collections.sort(candidates, new Comparator<int[]>() {
+            @Override
+            public int compare(int[] a, int[] b) {
+                return Long.compare(w[b[0]][b[1]], w[a[0]][a[1]]);
+            }
+        });
+
+        homes[0] = new Location[variableTypes[0].length];
+        for (int s : owned) {
+            homes[s] = new Location[variableTypes[s].length];
+        }
+        //printf 和被调用的函数会改写所有的xmm寄存器
+        boolean xmmAvailable = !calls[0] && !calls[1];
+        int registers = 0;
+        int xmms = 0;
+        for (int[] candidate : candidates) {
+            PrimitiveType type = variableType(candidate[0], candidate[1]);
+            if (weights[candidate[0]][candidate[1]] > 0) {
+                if (isFloating(type)) {
+                    if (xmmAvailable && xmms < Location.XMM_COUNT) {
+                        homes[candidate[0]][candidate[1]] = Location.xmm(Location.FIRST_XMM + xmms++);
+                    }
+                } else if (registers < Location.REGISTERS_64.length) {
+                    homes[candidate[0]][candidate[1]] = Location.register(registers++);
+                }
+            }
+        }
+        savedRegisters = registers;
+
+        slotCount = 0;
+        tempCount = 0;
+        maxTemps = 0;
+        for (int slot = 0; slot < variableTypes[0].length; slot++) {
+            if (homes[0][slot] == null) {
+                homes[0][slot] = Location.global(globalSymbol(slot));
+            }
+        }
+        for (int s : owned) {
+            for (int slot = 0; slot < variableTypes[s].length; slot++) {
+                variableType(s, slot);
+                if (homes[s][slot] == null) {
+                    homes[s][slot] = Location.stack(slotOffset(slotCount++));
+                }
+            }
+        }
+    }
+
+    /**
+     * 统计变量的加权使用次数,以及是否调用了函数(calls[0])、println(calls[1])
+     */
+    private void count(LoweredNode node, int depth, long[][] weights, List<Integer> owned, boolean[] calls) {
+        int op = node.getOp();
+        //脚本主体的块属于全局作用域,不算
+        boolean framed = (op == LoweredOp.BLOCK || op == LoweredOp.FOR) && node.getA() > 0;
+        if (framed) {
+            frames.add(node.getA());
+            owned.add(node.getA());
+        }
+        if (op == LoweredOp.LOAD || op == LoweredOp.STORE || op == LoweredOp.INCDEC) {
+            weights[scopeOf(node.getA())][node.getB()] += 1L << (3 * Math.min(depth, MAX_LOOP_DEPTH));
+        } else if (op == LoweredOp.CALL) {
+            calls[0] = true;
+        } else if (op == LoweredOp.PRINTLN) {
+            calls[1] = true;
+        }
+        boolean loop = op == LoweredOp.WHILE || op == LoweredOp.DO || op == LoweredOp.FOR;
+        for (int i = 0; i < node.getKidCount(); i++) {
+            //for的初始化只执行一次
+            count(node.getKid(i), loop && !(op == LoweredOp.FOR && i == 0) ? depth + 1 : depth, weights, owned, calls);
+        }
+        if (framed) {
+            frames.remove(frames.size() - 1);
+        }
+    }
+
+    private int slotOffset(int slot) {
+        return -8 * (savedRegisters + slot + 1);
+    }
+
+    //=================================== 语句 ===================================
+
+    /**
+     * @param node
+     * @param tail 语句的值是否可能成为脚本的结果。循环里的语句和后面还有语句的语句都不会
+     */
+    private void compileStatement(LoweredNode node, boolean tail) {
+        switch (node.getOp()) {
+            case LoweredOp.NOP:
+                break;
+            case LoweredOp.BLOCK:
+                if (node.getA() >= 0) {
+                    enterFrame(node.getA());
+                }
+                for (int i = 0; i < node.getKidCount(); i++) {
+                    compileStatement(node.getKid(i), tail && i == node.getKidCount() - 1);
+                }
+                if (node.getA() >= 0) {
+                    frames.remove(frames.size() - 1);
+                }
+                break;
+            case LoweredOp.EXPR:
+                if (tail) {
+                    saveResult(compileValue(node.getKid(0)));
+                } else {
+                    compileEffect(node.getKid(0));
+                }
+                break;
+            case LoweredOp.DECL:
+                for (int i = 0; i < node.getKidCount(); i++) {
+                    LoweredNode kid = node.getKid(i);
+                    if (kid.getOp() != LoweredOp.STORE) {
+                        throw new UnsupportedOperationException("AsmGenerator#compileStatement:declaration without initializer");
+                    }
+                    if (tail && i == node.getKidCount() - 1) {
+                        saveResult(compileStore(kid, true));
+                    } else {
+                        compileEffect(kid);
+                    }
+                }
+                break;
+            case LoweredOp.IF:
+                Label otherwise = newLabel();
+                compileJump(node.getKid(0), false, otherwise);
+                compileStatement(node.getKid(1), tail);
+                if (node.getKidCount() > 2) {
+                    Label end = newLabel();
+                    out.jump("jmp", end);
+                    out.bind(otherwise);
+                    compileStatement(node.getKid(2), tail);
+                    out.bind(end);
+                } else {
+                    out.bind(otherwise);
+                }
+                break;
+            case LoweredOp.WHILE:
+                compileWhile(node);
+                break;
+            case LoweredOp.DO:
+                compileDo(node);
+                break;
+            case LoweredOp.FOR:
+                compileFor(node);
+                break;
+            case LoweredOp.RETURN:
+                compileReturn(node);
+                break;
+            case LoweredOp.BREAK:
+            case LoweredOp.CONTINUE:
+                if (loops.isEmpty()) {
+                    throw new UnsupportedOperationException("AsmGenerator#compileStatement:break or continue outside loop");
+                }
+                Label[] loop = loops.get(loops.size() - 1);
+                out.jump("jmp", node.getOp() == LoweredOp.BREAK ? loop[0] : loop[1]);
+                break;
+            default:
+                throw new IllegalStateException("AsmGenerator#compileStatement:unknown statement:" + node.getOp());
+        }
+    }
+
+    /**
+     * 条件放在循环的底部,每次循环只有一次跳转
+     */
+    private void compileWhile(LoweredNode node) {
+        Label body = newLabel();
+        Label next = newLabel();
+        Label end = newLabel();
+        //循环体从底部的条件跳转进入,绑定时还没有跳转指向它
+        body.referenced = out.isReachable();
+        out.jump("jmp", next);
+        out.bind(body);
+        compileLoopBody(node.getKid(1), end, next);
+        out.bind(next);
+        compileJump(node.getKid(0), true, body);
+        out.bind(end);
+    }
+
+    private void compileDo(LoweredNode node) {
+        Label body = newLabel();
+        Label next = newLabel();
+        Label end = newLabel();
+        out.bind(body);
+        compileLoopBody(node.getKid(0), end, next);
+        out.bind(next);
+        compileJump(node.getKid(1), true, body);
+        out.bind(end);
+    }
+
+    private void compileFor(LoweredNode node) {
+        if (node.getA() >= 0) {
+            enterFrame(node.getA());
+        }
+        LoweredNode init = node.getKid(0);
+        for (int i = 0; i < init.getKidCount(); i++) {
+            compileEffect(init.getKid(i));
+        }
+
+        Label body = newLabel();
+        Label next = newLabel();
+        Label test = newLabel();
+        Label end = newLabel();
+        LoweredNode condition = node.getKid(1);
+        if (condition.getOp() != LoweredOp.NOP) {
+            body.referenced = out.isReachable();
+            out.jump("jmp", test);
+        }
+        out.bind(body);
+        compileLoopBody(node.getKid(3), end, next);
+        out.bind(next);
+        LoweredNode update = node.getKid(2);
+        for (int i = 0; i < update.getKidCount(); i++) {
+            compileEffect(update.getKid(i));
+        }
+        out.bind(test);
+        if (condition.getOp() != LoweredOp.NOP) {
+            compileJump(condition, true, body);
+        } else {
+            out.jump("jmp", body);
+        }
+        out.bind(end);
+
+        if (node.getA() >= 0) {
+            frames.remove(frames.size() - 1);
+        }
+    }
+
+    private void compileLoopBody(LoweredNode body, Label exit, Label next) {
+        loops.add(new Label[]{exit, next});
+        compileStatement(body, false);
+        loops.remove(loops.size() - 1);
+    }
+
+    private void compileReturn(LoweredNode node) {
+        if (main) {
+            if (node.getKidCount() > 0) {
+                exitCode(compileValue(node.getKid(0)));
+            } else {
+                out.op("xorl", "%eax, %eax");
+            }
+        } else if (returnType == null) {
+            if (node.getKidCount() > 0) {
+                throw new UnsupportedOperationException("AsmGenerator#compileReturn:void function returns a value");
+            }
+        } else {
+            if (node.getKidCount() == 0) {
+                throw new UnsupportedOperationException("AsmGenerator#compileReturn:missing return value");
+            }
+            coerce(compileExpression(node.getKid(0)), returnType);
+        }
+        out.jump("jmp", returnLabel);
+    }
+
+    private void enterFrame(int scope) {
+        frames.add(scope);
+        for (int slot = 0; slot < variableTypes[scope].length; slot++) {
+            zero(variableType(scope, slot), homes[scope][slot]);
+        }
+    }
+
+    private void zero(PrimitiveType type, Location home) {
+        if (home.kind == Location.XMM) {
+            out.op("xorps", home.operand(type) + ", " + home.operand(type));
+        } else if (home.kind == Location.REGISTER) {
+            out.op("xorl", home.operand(PrimitiveType.Integer) + ", " + home.operand(PrimitiveType.Integer));
+        } else {
+            out.op("movq", "$0, " + home.operand(type));
+        }
+    }
+
+    /**
+     * 把结果转换成退出码保存起来
+     *
+     * @param type 值的类型,没有值时为null
+     */
+    private void saveResult(PrimitiveType type) {
+        exitCode(type);
+        out.op("movl", "%eax, " + result.operand(PrimitiveType.Integer));
+    }
+
+    /**
+     * 把值转换成退出码,放在 %eax 里
+     */
+    private void exitCode(PrimitiveType type) {
+        if (type == null || isFloating(type)) {
+            out.op("xorl", "%eax, %eax");
+        }
+    }
+
+    //=================================== 表达式 ===================================
+
+    /**
+     * 只为副作用求值
+     *
+     * @param node
+     */
+    private void compileEffect(LoweredNode node) {
+        switch (node.getOp()) {
+            case LoweredOp.STORE:
+                compileStore(node, false);
+                break;
+            case LoweredOp.INCDEC:
+                compileIncDec(node, false);
+                break;
+            default:
+                compileValue(node);
+                break;
+        }
+    }
+
+    /**
+     * 求值,可以没有值
+     *
+     * @param node
+     * @return 值的类型,没有值(println、void函数)时为null
+     */
+    private PrimitiveType compileValue(LoweredNode node) {
+        PrimitiveType rtn;
+        if (node.getOp() == LoweredOp.PRINTLN) {
+            compilePrintln(node);
+            rtn = null;
+        } else if (node.getOp() == LoweredOp.CALL) {
+            rtn = compileCall(node);
+        } else {
+            rtn = compileExpression(node);
+        }
+        return rtn;
+    }
+
+    /**
+     * @param node
+     * @return 值的类型,值在 %eax/%rax 或 %xmm0 里
+     */
+    private PrimitiveType compileExpression(LoweredNode node) {
+        PrimitiveType rtn;
+        switch (node.getOp()) {
+            case LoweredOp.CONST:
+                rtn = compileConstant(node.getValue());
+                break;
+            case LoweredOp.LOAD:
+                rtn = variableType(scopeOf(node.getA()), node.getB());
+                move(rtn, homeOf(node).operand(rtn), accumulator(rtn));
+                break;
+            case LoweredOp.STORE:
+                rtn = compileStore(node, true);
+                break;
+            case LoweredOp.INCDEC:
+                rtn = compileIncDec(node, true);
+                break;
+            case LoweredOp.BINARY:
+                rtn = isComparison(node.getA()) ? compileBoolean(node) : compileBinary(node);
+                break;
+            case LoweredOp.AND:
+            case LoweredOp.OR:
+                rtn = compileBoolean(node);
+                break;
+            case LoweredOp.NOT:
+                if (compileExpression(node.getKid(0)) != PrimitiveType.Boolean) {
+                    throw new UnsupportedOperationException("AsmGenerator#compileExpression:! on non-boolean");
+                }
+                out.op("xorl", "$1, %eax");
+                rtn = PrimitiveType.Boolean;
+                break;
+            case LoweredOp.COND:
+                rtn = required(node.getType());
+                Label otherwise = newLabel();
+                Label end = newLabel();
+                compileJump(node.getKid(0), false, otherwise);
+                coerce(compileExpression(node.getKid(1)), rtn);
+                out.jump("jmp", end);
+                out.bind(otherwise);
+                coerce(compileExpression(node.getKid(2)), rtn);
+                out.bind(end);
+                break;
+            case LoweredOp.NEG:
+                rtn = numeric(node.getType());
+                coerce(compileExpression(node.getKid(0)), rtn);
+                if (isFloating(rtn)) {
+                    //与 NumberUtils#minus(0, v) 相同:0 - 0.0 是 0.0
+                    move(rtn, "%xmm0", "%xmm1");
+                    out.op("xorps", "%xmm0, %xmm0");
+                    out.op("sub" + floatSuffix(rtn), "%xmm1, %xmm0");
+                } else {
+                    out.op("neg" + suffix(rtn), accumulator(rtn));
+                }
+                break;
+            case LoweredOp.BITNOT:
+                rtn = required(node.getType()) == PrimitiveType.Long ? PrimitiveType.Long : PrimitiveType.Integer;
+                coerce(compileExpression(node.getKid(0)), rtn);
+                out.op("not" + suffix(rtn), accumulator(rtn));
+                break;
+            case LoweredOp.CONVERT:
+                rtn = required(node.getType());
+                coerce(compileExpression(node.getKid(0)), rtn);
+                break;
+            case LoweredOp.CALL:
+                rtn = compileCall(node);
+                if (rtn == null) {
+                    throw new UnsupportedOperationException("AsmGenerator#compileExpression:value of void function");
+                }
+                break;
+            default:
+                throw new UnsupportedOperationException("AsmGenerator#compileExpression:value of operation " + node.getOp());
+        }
+        return rtn;
+    }
+
+    private PrimitiveType compileConstant(Object value) {
+        PrimitiveType rtn = constantType(value);
+        if (rtn == PrimitiveType.String || rtn == null) {
+            throw new UnsupportedOperationException("AsmGenerator#compileConstant:" + value);
+        }
+        String operand = constantOperand(value, rtn);
+        if (operand == null) {
+            out.op("movabsq", "$" + value + ", %rax");
+        } else if ("$0".equals(operand)) {
+            out.op("xorl", "%eax, %eax");
+        } else {
+            move(rtn, operand, accumulator(rtn));
+        }
+        return rtn;
+    }
+
+    private PrimitiveType compileStore(LoweredNode node, boolean needValue) {
+        Location home = homeOf(node);
+        PrimitiveType rtn = variableType(scopeOf(node.getA()), node.getB());
+        String operand = needValue ? null : operandOf(node.getKid(0), rtn);
+        if (operand != null && (home.isRegister() || !operand.endsWith(")"))) {
+            move(rtn, operand, home.operand(rtn));
+        } else if (needValue || !storeInPlace(node, home, rtn)) {
+            coerce(compileExpression(node.getKid(0)), rtn);
+            move(rtn, accumulator(rtn), home.operand(rtn));
+        }
+        return rtn;
+    }
+
+    /**
+     * x = x op y 直接在x的位置上运算,y是常量或变量。比如 addl $2, %ebx
+     *
+     * @return 是否生成了代码
+     */
+    private boolean storeInPlace(LoweredNode node, Location home, PrimitiveType type) {
+        LoweredNode value = node.getKid(0);
+        if (value.getOp() == LoweredOp.CONVERT && value.getType() == node.getType()) {
+            value = value.getKid(0);
+        }
+        boolean rtn = false;
+        if (value.getOp() == LoweredOp.BINARY && value.getType() == node.getType()) {
+            LoweredNode left = value.getKid(0);
+            int op = value.getA();
+            String mnemonic = null;
+            if (isFloating(type)) {
+                if (home.kind == Location.XMM && op >= LoweredOp.OP_ADD && op <= LoweredOp.OP_DIV) {
+                    mnemonic = floatArithmetic(op) + floatSuffix(type);
+                }
+            } else if (type != PrimitiveType.Char && (op == LoweredOp.OP_ADD || op == LoweredOp.OP_SUB
+                    || (op == LoweredOp.OP_MUL && home.kind == Location.REGISTER)
+                    || (op >= LoweredOp.OP_BITAND && op <= LoweredOp.OP_BITXOR))) {
+                mnemonic = arithmetic(op) + suffix(type);
+            }
+            String operand = mnemonic == null ? null : operandOf(value.getKid(1), type);
+            //两个操作数不能都在内存里
+            if (operand != null && !home.isRegister() && operand.endsWith(")")) {
+                operand = null;
+            }
+            if (operand != null && left.getOp() == LoweredOp.LOAD && left.getA() == node.getA()
+                    && left.getB() == node.getB() && left.getType() == node.getType()) {
+                out.op(mnemonic, operand + ", " + home.operand(type));
+                rtn = true;
+            }
+        }
+        return rtn;
+    }
+
+    private PrimitiveType compileIncDec(LoweredNode node, boolean needValue) {
+        Location home = homeOf(node);
+        PrimitiveType rtn = variableType(scopeOf(node.getA()), node.getB());
+        if (!isNumeric(rtn) || required(node.getType()) != rtn) {
+            throw new UnsupportedOperationException("AsmGenerator#compileIncDec:" + rtn);
+        }
+        boolean prefix = (node.getC() & LoweredOp.INCDEC_PREFIX) != 0;
+        boolean dec = (node.getC() & LoweredOp.INCDEC_DEC) != 0;
+        String operand = home.operand(rtn);
+        if (isFloating(rtn)) {
+            String one = constantOperand(1, rtn);
+            String mnemonic = (dec ? "sub" : "add") + floatSuffix(rtn);
+            if (!needValue && home.kind == Location.XMM) {
+                out.op(mnemonic, one + ", " + operand);
+            } else {
+                move(rtn, operand, "%xmm0");
+                if (needValue && !prefix) {
+                    move(rtn, "%xmm0", "%xmm1");
+                    out.op(mnemonic, one + ", %xmm1");
+                    move(rtn, "%xmm1", operand);
+                } else {
+                    out.op(mnemonic, one + ", %xmm0");
+                    move(rtn, "%xmm0", operand);
+                }
+            }
+        } else {
+            if (needValue && !prefix) {
+                move(rtn, operand, accumulator(rtn));
+            }
+            out.op((dec ? "dec" : "inc") + suffix(rtn), operand);
+            if (needValue && prefix) {
+                move(rtn, operand, accumulator(rtn));
+            }
+        }
+        return rtn;
+    }
+
+    private PrimitiveType compileBinary(LoweredNode node) {
+        PrimitiveType rtn = required(node.getType());
+        int op = node.getA();
+        if (op >= LoweredOp.OP_ADD && op <= LoweredOp.OP_MOD) {
+            if (!isNumeric(rtn)) {
+                throw new UnsupportedOperationException("AsmGenerator#compileBinary:arithmetic on " + rtn);
+            }
+            String right = compileOperands(node.getKid(0), rtn, node.getKid(1), rtn);
+            if (op == LoweredOp.OP_DIV || op == LoweredOp.OP_MOD) {
+                compileDivision(op, rtn, right);
+            } else if (isFloating(rtn)) {
+                out.op(floatArithmetic(op) + floatSuffix(rtn), right + ", %xmm0");
+            } else {
+                out.op(arithmetic(op) + suffix(rtn), right + ", " + accumulator(rtn));
+            }
+        } else if (op >= LoweredOp.OP_BITAND && op <= LoweredOp.OP_BITXOR) {
+            if (rtn != PrimitiveType.Integer && rtn != PrimitiveType.Long && rtn != PrimitiveType.Boolean) {
+                throw new UnsupportedOperationException("AsmGenerator#compileBinary:bitwise operation on " + rtn);
+            }
+            String right = compileOperands(node.getKid(0), rtn, node.getKid(1), rtn);
+            out.op(arithmetic(op) + suffix(rtn), right + ", " + accumulator(rtn));
+        } else {
+            if (rtn != PrimitiveType.Integer && rtn != PrimitiveType.Long) {
+                throw new UnsupportedOperationException("AsmGenerator#compileBinary:shift on " + rtn);
+            }
+            String right = compileOperands(node.getKid(0), rtn, node.getKid(1), PrimitiveType.Integer);
+            String mnemonic = (op == LoweredOp.OP_SHL ? "sal" : (op == LoweredOp.OP_SHR ? "sar" : "shr")) + suffix(rtn);
+            if (right.startsWith("$")) {
+                out.op(mnemonic, right + ", " + accumulator(rtn));
+            } else {
+                move(PrimitiveType.Integer, right, "%ecx");
+                out.op(mnemonic, "%cl, " + accumulator(rtn));
+            }
+        }
+        return rtn;
+    }
+
+    /**
+     * 除法和取余。整数除以0时退出;除以-1时不用idiv(MIN_VALUE / -1 会溢出),与Java一样结果是取反和0
+     */
+    private void compileDivision(int op, PrimitiveType type, String right) {
+        if (type == PrimitiveType.Float || type == PrimitiveType.Double) {
+            if (op == LoweredOp.OP_DIV) {
+                out.op("div" + floatSuffix(type), right + ", %xmm0");
+            } else {
+                move(type, right, "%xmm1");
+                if (type == PrimitiveType.Float) {
+                    out.op("cvtss2sd", "%xmm0, %xmm0");
+                    out.op("cvtss2sd", "%xmm1, %xmm1");
+                }
+                helpers.add(FMOD);
+                out.op("call", FMOD);
+                if (type == PrimitiveType.Float) {
+                    out.op("cvtsd2ss", "%xmm0, %xmm0");
+                }
+            }
+        } else {
+            String s = suffix(type);
+            String divisor = type == PrimitiveType.Long ? "%rcx" : "%ecx";
+            move(type, right, divisor);
+            //除数是常量时不用检查
+            boolean checked = !right.startsWith("$") || "$0".equals(right) || "$-1".equals(right);
+            Label minusOne = newLabel();
+            Label end = newLabel();
+            if (checked) {
+                out.op("test" + s, divisor + ", " + divisor);
+                helpers.add(DIVISION_BY_ZERO);
+                out.jump("je", divisionByZero);
+                out.op("cmp" + s, "$-1, " + divisor);
+                out.jump("je", minusOne);
+            }
+            out.op(type == PrimitiveType.Long ? "cqto" : "cltd");
+            out.op("idiv" + s, divisor);
+            if (op == LoweredOp.OP_MOD) {
+                move(type, type == PrimitiveType.Long ? "%rdx" : "%edx", accumulator(type));
+            }
+            if (checked) {
+                out.jump("jmp", end);
+                out.bind(minusOne);
+                if (op == LoweredOp.OP_DIV) {
+                    out.op("neg" + s, accumulator(type));
+                } else {
+                    out.op("xorl", "%eax, %eax");
+                }
+                out.bind(end);
+            }
+        }
+    }
+
+    /**
+     * 左操作数放在累加器里,返回右操作数。右操作数是常量或变量时直接返回它的位置,
+     * 否则先把左操作数暂存在栈桢里,右操作数算完之后放在 %ecx/%rcx 或 %xmm1 里
+     */
+    private String compileOperands(LoweredNode left, PrimitiveType leftType, LoweredNode right, PrimitiveType rightType) {
+        String rtn = operandOf(right, rightType);
+        coerce(compileExpression(left), leftType);
+        if (rtn == null) {
+            String temp = spill(leftType);
+            coerce(compileExpression(right), rightType);
+            rtn = scratch(rightType);
+            move(rightType, accumulator(rightType), rtn);
+            reload(leftType, temp);
+        }
+        return rtn;
+    }
+
+    /**
+     * 可以直接作为指令操作数的值:常量(long要在32位以内)和类型相同的变量
+     *
+     * @return 不能直接作为操作数时返回null
+     */
+    private String operandOf(LoweredNode node, PrimitiveType type) {
+        String rtn = null;
+        if (node.getOp() == LoweredOp.CONST) {
+            if (constantType(node.getValue()) == type) {
+                rtn = constantOperand(node.getValue(), type);
+            }
+        } else if (node.getOp() == LoweredOp.LOAD) {
+            if (variableType(scopeOf(node.getA()), node.getB()) == type) {
+                rtn = homeOf(node).operand(type);
+            }
+        } else if (node.getOp() == LoweredOp.CONVERT && node.getType() == type.ordinal()) {
+            LoweredNode kid = node.getKid(0);
+            if (kid.getOp() == LoweredOp.CONST && isNumeric(type) && kid.getValue() instanceof Number) {
+                rtn = constantOperand(convert((Number) kid.getValue(), type), type);
+            } else {
+                rtn = operandOf(kid, type);
+            }
+        }
+        return rtn;
+    }
+
+    private PrimitiveType compileCall(LoweredNode node) {
+        LoweredFunction function = program.getFunctions()[node.getA()];
+        if (node.getKidCount() != function.getParamCount()) {
+            throw new UnsupportedOperationException("AsmGenerator#compileCall:argument count");
+        }
+        int count = node.getKidCount();
+        PrimitiveType[] types = new PrimitiveType[count];
+        String[] registers = new String[count];
+        boolean simple = true;
+        int ints = 0;
+        int floats = 0;
+        for (int i = 0; i < count; i++) {
+            types[i] = variableType(function.getScope(), i);
+            registers[i] = isFloating(types[i]) ? "%xmm" + floats++
+                    : (types[i] == PrimitiveType.Long ? INT_ARGUMENTS_64[ints++] : INT_ARGUMENTS_32[ints++]);
+            simple = simple && operandOf(node.getKid(i), types[i]) != null;
+        }
+
+        if (simple) {
+            for (int i = 0; i < count; i++) {
+                move(types[i], operandOf(node.getKid(i), types[i]), registers[i]);
+            }
+        } else {
+            //先按顺序求出所有参数,再放进寄存器
+            String[] temps = new String[count];
+            for (int i = 0; i < count; i++) {
+                coerce(compileExpression(node.getKid(i)), types[i]);
+                temps[i] = spill(types[i]);
+            }
+            for (int i = 0; i < count; i++) {
+                move(types[i], temps[i], registers[i]);
+            }
+            tempCount -= count;
+        }
+        out.op("call", functionSymbol(node.getA()));
+        return returnTypeOf(function);
+    }
+
+    private void compilePrintln(LoweredNode node) {
+        if (node.getKidCount() == 0) {
+            out.op("leaq", ".Lempty(%rip), %rdi");
+            out.op("call", "puts@PLT");
+        } else if (constantType(node.getKid(0).getValue()) == PrimitiveType.String
+                && node.getKid(0).getOp() == LoweredOp.CONST) {
+            for (int i = 1; i < node.getKidCount(); i++) {
+                compileEffect(node.getKid(i));
+            }
+            out.op("leaq", stringConstant((String) node.getKid(0).getValue()) + ", %rdi");
+            out.op("call", "puts@PLT");
+        } else {
+            PrimitiveType type = compileExpression(node.getKid(0));
+            if (node.getKidCount() > 1) {
+                String temp = spill(type);
+                for (int i = 1; i < node.getKidCount(); i++) {
+                    compileEffect(node.getKid(i));
+                }
+                reload(type, temp);
+            }
+            switch (type) {
+                case Integer:
+                    out.op("movl", "%eax, %esi");
+                    out.op("leaq", ".Lfmt_int(%rip), %rdi");
+                    out.op("xorl", "%eax, %eax");
+                    out.op("call", "printf@PLT");
+                    break;
+                case Long:
+                    out.op("movq", "%rax, %rsi");
+                    out.op("leaq", ".Lfmt_long(%rip), %rdi");
+                    out.op("xorl", "%eax, %eax");
+                    out.op("call", "printf@PLT");
+                    break;
+                case Boolean:
+                    out.op("leaq", ".Ltrue(%rip), %rdi");
+                    out.op("leaq", ".Lfalse(%rip), %rcx");
+                    out.op("testl", "%eax, %eax");
+                    out.op("cmove", "%rcx, %rdi");
+                    out.op("call", "puts@PLT");
+                    break;
+                default:
+                    //Java的浮点数和char的输出格式无法用printf得到
+                    throw new UnsupportedOperationException("AsmGenerator#compilePrintln:" + type);
+            }
+        }
+    }
+
+    //=================================== 条件 ===================================
+
+    private static boolean isComparison(int op) {
+        return op >= LoweredOp.OP_EQ && op <= LoweredOp.OP_GE;
+    }
+
+    /**
+     * 生成布尔值:条件为真时1,否则0
+     */
+    private PrimitiveType compileBoolean(LoweredNode node) {
+        Label otherwise = newLabel();
+        Label end = newLabel();
+        compileJump(node, false, otherwise);
+        out.op("movl", "$1, %eax");
+        out.jump("jmp", end);
+        out.bind(otherwise);
+        out.op("xorl", "%eax, %eax");
+        out.bind(end);
+        return PrimitiveType.Boolean;
+    }
+
+    /**
+     * 条件的值等于when时跳转到target
+     */
+    private void compileJump(LoweredNode node, boolean when, Label target) {
+        switch (node.getOp()) {
+            case LoweredOp.NOT:
+                compileJump(node.getKid(0), !when, target);
+                break;
+            case LoweredOp.AND:
+            case LoweredOp.OR:
+                //AND为假、OR为真时,左边的值就决定了结果
+                boolean shortCircuit = node.getOp() == LoweredOp.OR;
+                if (when == shortCircuit) {
+                    compileJump(node.getKid(0), when, target);
+                    compileJump(node.getKid(1), when, target);
+                } else {
+                    Label skip = newLabel();
+                    compileJump(node.getKid(0), shortCircuit, skip);
+                    compileJump(node.getKid(1), when, target);
+                    out.bind(skip);
+                }
+                break;
+            case LoweredOp.CONST:
+                if (!(node.getValue() instanceof Boolean)) {
+                    throw new UnsupportedOperationException("AsmGenerator#compileJump:condition is not boolean");
+                }
+                if ((Boolean) node.getValue() == when) {
+                    out.jump("jmp", target);
+                }
+                break;
+            default:
+                if (node.getOp() == LoweredOp.BINARY && isComparison(node.getA())) {
+                    compileCompare(node, when, target);
+                } else {
+                    if (compileExpression(node) != PrimitiveType.Boolean) {
+                        throw new UnsupportedOperationException("AsmGenerator#compileJump:condition is not boolean");
+                    }
+                    out.op("testl", "%eax, %eax");
+                    out.jump(when ? "jne" : "je", target);
+                }
+                break;
+        }
+    }
+
+    private void compileCompare(LoweredNode node, boolean when, Label target) {
+        int op = node.getA();
+        PrimitiveType type = required(node.getType());
+        LoweredNode left = node.getKid(0);
+        LoweredNode right = node.getKid(1);
+        if (!isNumeric(type) && !((type == PrimitiveType.Boolean || type == PrimitiveType.Char)
+                && (op == LoweredOp.OP_EQ || op == LoweredOp.OP_NE) && typeOf(left) == type && typeOf(right) == type)) {
+            throw new UnsupportedOperationException("AsmGenerator#compileCompare:comparison on " + type);
+        }
+        //左操作数在通用寄存器里、右操作数是常量或变量时直接比较
+        String register = isFloating(type) ? null : operandOf(left, type);
+        String operand = register != null && register.startsWith("%") ? operandOf(right, type) : null;
+        if (operand == null) {
+            operand = compileOperands(left, type, right, type);
+            register = accumulator(type);
+        }
+        if (isFloating(type)) {
+            //NaN参与的比较都为假:只用ja、jae判断大于、大于等于,小于、小于等于交换操作数
+            String mnemonic = type == PrimitiveType.Float ? "ucomiss" : "ucomisd";
+            boolean swap = op == LoweredOp.OP_LT || op == LoweredOp.OP_LE;
+            if (swap) {
+                if (!operand.startsWith("%xmm")) {
+                    move(type, operand, "%xmm1");
+                    operand = "%xmm1";
+                }
+                out.op(mnemonic, "%xmm0, " + operand);
+            } else {
+                out.op(mnemonic, operand + ", %xmm0");
+            }
+            if (op == LoweredOp.OP_EQ || op == LoweredOp.OP_NE) {
+                //无序(NaN)时PF为1
+                if ((op == LoweredOp.OP_EQ) == when) {
+                    Label skip = newLabel();
+                    out.jump("jp", skip);
+                    out.jump("je", target);
+                    out.bind(skip);
+                } else {
+                    out.jump("jp", target);
+                    out.jump("jne", target);
+                }
+            } else {
+                boolean strict = op == LoweredOp.OP_GT || op == LoweredOp.OP_LT;
+                out.jump(when ? (strict ? "ja" : "jae") : (strict ? "jbe" : "jb"), target);
+            }
+        } else {
+            out.op("cmp" + suffix(type), operand + ", " + register);
+            out.jump(conditionalJump(when ? op : negate(op)), target);
+        }
+    }
+
+    private static String conditionalJump(int op) {
+        String rtn;
+        switch (op) {
+            case LoweredOp.OP_EQ:
+                rtn = "je";
+                break;
+            case LoweredOp.OP_NE:
+                rtn = "jne";
+                break;
+            case LoweredOp.OP_LT:
+                rtn = "jl";
+                break;
+            case LoweredOp.OP_LE:
+                rtn = "jle";
+                break;
+            case LoweredOp.OP_GT:
+                rtn = "jg";
+                break;
+            default:
+                rtn = "jge";
+                break;
+        }
+        return rtn;
+    }
+
+    private static int negate(int op) {
+        int rtn;
+        switch (op) {
+            case LoweredOp.OP_EQ:
+                rtn = LoweredOp.OP_NE;
+                break;
+            case LoweredOp.OP_NE:
+                rtn = LoweredOp.OP_EQ;
+                break;
+            case LoweredOp.OP_LT:
+                rtn = LoweredOp.OP_GE;
+                break;
+            case LoweredOp.OP_GE:
+                rtn = LoweredOp.OP_LT;
+                break;
+            case LoweredOp.OP_GT:
+                rtn = LoweredOp.OP_LE;
+                break;
+            default:
+                rtn = LoweredOp.OP_GT;
+                break;
+        }
+        return rtn;
+    }
+
+    /**
+     * 不生成代码,只推算表达式的值的类型
+     */
+    private PrimitiveType typeOf(LoweredNode node) {
+        PrimitiveType rtn;
+        switch (node.getOp()) {
+            case LoweredOp.CONST:
+                rtn = constantType(node.getValue());
+                break;
+            case LoweredOp.BINARY:
+                rtn = isComparison(node.getA()) ? PrimitiveType.Boolean : LoweredOperators.typeOf(node.getType());
+                break;
+            case LoweredOp.AND:
+            case LoweredOp.OR:
+            case LoweredOp.NOT:
+                rtn = PrimitiveType.Boolean;
+                break;
+            case LoweredOp.CALL:
+                rtn = returnTypeOf(program.getFunctions()[node.getA()]);
+                break;
+            default:
+                rtn = LoweredOperators.typeOf(node.getType());
+                break;
+        }
+        return rtn;
+    }
+
+    //=================================== 辅助方法 ===================================
+
+    /**
+     * 累加器里的值从from转换成to。数值之间的转换与 NumberUtils#convert 相同
+     */
+    private void coerce(PrimitiveType from, PrimitiveType to) {
+        if (from == PrimitiveType.Char && to != PrimitiveType.Char) {
+            //char按编码存放在32位寄存器里,提升为int不需要指令
+            from = PrimitiveType.Integer;
+        }
+        if (from == to) {
+            //不需要转换
+        } else if (!isNumeric(from) || !isNumeric(to)) {
+            throw new UnsupportedOperationException("AsmGenerator#coerce:" + from + " to " + to);
+        } else if (isFloating(from) && isFloating(to)) {
+            out.op(from == PrimitiveType.Float ? "cvtss2sd" : "cvtsd2ss", "%xmm0, %xmm0");
+        } else if (isFloating(to)) {
+            out.op("cvtsi2" + floatSuffix(to) + suffix(from), accumulator(from) + ", %xmm0");
+        } else if (isFloating(from)) {
+            truncate(from, to);
+        } else if (to == PrimitiveType.Long) {
+            out.op("movslq", "%eax, %rax");
+        }
+        //long转int只用低32位
+    }
+
+    /**
+     * 浮点数转整数。cvttsd2si 在NaN和溢出时得到最小值,这时调用辅助函数按Java的规则修正
+     */
+    private void truncate(PrimitiveType from, PrimitiveType to) {
+        out.op("cvtt" + floatSuffix(from) + "2si" + suffix(to), "%xmm0, " + accumulator(to));
+        if (to == PrimitiveType.Long) {
+            out.op("movabsq", "$" + Long.MIN_VALUE + ", %rcx");
+            out.op("cmpq", "%rcx, %rax");
+        } else {
+            out.op("cmpl", "$" + Integer.MIN_VALUE + ", %eax");
+        }
+        Label done = newLabel();
+        out.jump("jne", done);
+        String helper = "play_" + floatSuffix(from) + "2" + suffix(to);
+        helpers.add(helper);
+        out.op("call", helper);
+        out.bind(done);
+    }
+
+    private void move(PrimitiveType type, String source, String target) {
+        if (!source.equals(target)) {
+            if (isFloating(type) && source.startsWith("%xmm") && target.startsWith("%xmm")) {
+                out.op(type == PrimitiveType.Float ? "movaps" : "movapd", source + ", " + target);
+            } else {
+                String mnemonic = type == PrimitiveType.Float ? "movss"
+                        : (type == PrimitiveType.Double ? "movsd" : "mov" + suffix(type));
+                out.op(mnemonic, source + ", " + target);
+            }
+        }
+    }
+
+    /**
+     * 把累加器里的值暂存在栈桢里
+     *
+     * @return 暂存的位置
+     */
+    private String spill(PrimitiveType type) {
+        String rtn = slotOffset(slotCount + tempCount) + "(%rbp)";
+        tempCount++;
+        maxTemps = Math.max(maxTemps, tempCount);
+        move(type, accumulator(type), rtn);
+        return rtn;
+    }
+
+    private void reload(PrimitiveType type, String temp) {
+        move(type, temp, accumulator(type));
+        tempCount--;
+    }
+
+    /**
+     * 常量作为指令的操作数:整数是立即数,浮点数是.rodata中的标签
+     *
+     * @return 超出32位的long返回null
+     */
+    private String constantOperand(Object value, PrimitiveType type) {
+        String rtn;
+        switch (type) {
+            case Long:
+                long l = ((Number) value).longValue();
+                rtn = l >= Integer.MIN_VALUE && l <= Integer.MAX_VALUE ? "$" + l : null;
+                break;
+            case Float:
+                int bits = Float.floatToRawIntBits(((Number) value).floatValue());
+                rtn = constant("F" + bits, "\t.p2align 2\n", "\t.long\t" + bits + "\n");
+                break;
+            case Double:
+                long doubleBits = Double.doubleToRawLongBits(((Number) value).doubleValue());
+                rtn = constant("D" + doubleBits, "\t.p2align 3\n", "\t.quad\t" + doubleBits + "\n");
+                break;
+            case Boolean:
+                rtn = (Boolean) value ? "$1" : "$0";
+                break;
+            case Char:
+                rtn = "$" + (int) (Character) value;
+                break;
+            default:
+                rtn = "$" + ((Number) value).intValue();
+                break;
+        }
+        return rtn;
+    }
+
+    private String stringConstant(String value) {
+        StringBuilder bytes = new StringBuilder("\t.byte\t");
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            bytes.append(b & 0xFF).append(", ");
+        }
+        return constant("S" + value, "", bytes.append("0\n").toString());
+    }
+
+    private String constant(String key, String align, String data) {
+        String label = constants.get(key);
+        if (label == null) {
+            label = ".LC" + constants.size();
+            constants.put(key, label);
+            rodata.append(align).append(label).append(":\n").append(data);
+        }
+        return label + "(%rip)";
+    }
+
+    private static Number convert(Number value, PrimitiveType type) {
+        Number rtn;
+        switch (type) {
+            case Long:
+                rtn = value.longValue();
+                break;
+            case Float:
+                rtn = value.floatValue();
+                break;
+            case Double:
+                rtn = value.doubleValue();
+                break;
+            default:
+                rtn = value.intValue();
+                break;
+        }
+        return rtn;
+    }
+
+    private static PrimitiveType constantType(Object value) {
+        PrimitiveType rtn = null;
+        if (value instanceof Integer) {
+            rtn = PrimitiveType.Integer;
+        } else if (value instanceof Long) {
+            rtn = PrimitiveType.Long;
+        } else if (value instanceof Float) {
+            rtn = PrimitiveType.Float;
+        } else if (value instanceof Double) {
+            rtn = PrimitiveType.Double;
+        } else if (value instanceof Boolean) {
+            rtn = PrimitiveType.Boolean;
+        } else if (value instanceof Character) {
+            rtn = PrimitiveType.Char;
+        } else if (value instanceof String) {
+            rtn = PrimitiveType.String;
+        }
+        return rtn;
+    }
+
+    private void generateHelpers() {
+        for (String helper : helpers) {
+            text.append("\t.p2align 4\n").append(helper).append(":\n");
+            if (DIVISION_BY_ZERO.equals(helper)) {
+                //从函数体中跳转过来,先对齐栈
+                text.append("\tandq\t$-16, %rsp\n");
+                text.append("\tmovq\tstderr@GOTPCREL(%rip), %rax\n\tmovq\t(%rax), %rsi\n");
+                text.append("\tleaq\t").append(stringConstant("Exception in thread \"main\" java.lang.ArithmeticException: / by zero\n"))
+                        .append(", %rdi\n");
+                text.append("\tcall\tfputs@PLT\n\tmovl\t$1, %edi\n\tcall\texit@PLT\n");
+            } else if (FMOD.equals(helper)) {
+                //%xmm0 % %xmm1,与Java的%相同,即C的fmod
+                text.append("\tsubq\t$24, %rsp\n\tmovsd\t%xmm1, (%rsp)\n\tmovsd\t%xmm0, 8(%rsp)\n");
+                text.append("\tfldl\t(%rsp)\n\tfldl\t8(%rsp)\n");
+                text.append("1:\n\tfprem\n\tfnstsw\t%ax\n\ttestw\t$0x400, %ax\n\tjnz\t1b\n");
+                text.append("\tfstp\t%st(1)\n\tfstpl\t8(%rsp)\n\tmovsd\t8(%rsp), %xmm0\n\taddq\t$24, %rsp\n\tret\n");
+            } else {
+                //浮点数转整数的修正:NaN是0,正数溢出是最大值,负数溢出是最小值
+                boolean isFloat = helper.startsWith("play_ss");
+                boolean isLong = helper.endsWith("q");
+                String compare = isFloat ? "ucomiss" : "ucomisd";
+                text.append('\t').append(compare).append("\t%xmm0, %xmm0\n\tjp\t1f\n");
+                text.append("\txorps\t%xmm1, %xmm1\n\t").append(compare).append("\t%xmm1, %xmm0\n\tja\t2f\n");
+                text.append(isLong ? "\tmovabsq\t$" + Long.MIN_VALUE + ", %rax\n" : "\tmovl\t$" + Integer.MIN_VALUE + ", %eax\n");
+                text.append("\tret\n2:\n");
+                text.append(isLong ? "\tmovabsq\t$" + Long.MAX_VALUE + ", %rax\n" : "\tmovl\t$" + Integer.MAX_VALUE + ", %eax\n");
+                text.append("\tret\n1:\n\txorl\t%eax, %eax\n\tret\n");
+            }
+        }
+    }
+
+    private int scopeOf(int hops) {
+        int index = frames.size() - 1 - hops;
+        if (index < 0) {
+            throw new UnsupportedOperationException("AsmGenerator#scopeOf:variable of an enclosing function");
+        }
+        return frames.get(index);
+    }
+
+    private Location homeOf(LoweredNode node) {
+        return homes[scopeOf(node.getA())][node.getB()];
+    }
+
+    private PrimitiveType variableType(int scope, int slot) {
+        PrimitiveType rtn = variableTypes[scope][slot];
+        if (!isSupported(rtn)) {
+            throw new UnsupportedOperationException("AsmGenerator#variableType:" + rtn + " variable in "
+                    + program.getScopes().get(scope).getDisplay());
+        }
+        return rtn;
+    }
+
+    private static PrimitiveType returnTypeOf(LoweredFunction function) {
+        PrimitiveType rtn = LoweredOperators.typeOf(function.getReturnType());
+        if (rtn != null && !isSupported(rtn)) {
+            throw new UnsupportedOperationException("AsmGenerator#returnTypeOf:" + rtn);
+        }
+        return rtn;
+    }
+
+    private static PrimitiveType required(int type) {
+        PrimitiveType rtn = LoweredOperators.typeOf(type);
+        if (!isSupported(rtn)) {
+            throw new UnsupportedOperationException("AsmGenerator#required:" + rtn);
+        }
+        return rtn;
+    }
+
+    private static PrimitiveType numeric(int type) {
+        PrimitiveType rtn = required(type);
+        if (!isNumeric(rtn)) {
+            throw new UnsupportedOperationException("AsmGenerator#numeric:" + rtn);
+        }
+        return rtn;
+    }
+
+    private static boolean isSupported(PrimitiveType type) {
+        return isNumeric(type) || type == PrimitiveType.Boolean || type == PrimitiveType.Char;
+    }
+
+    private static boolean isNumeric(PrimitiveType type) {
+        return type == PrimitiveType.Integer || type == PrimitiveType.Long || isFloating(type);
+    }
+
+    private static boolean isFloating(PrimitiveType type) {
+        return type == PrimitiveType.Float || type == PrimitiveType.Double;
+    }
+
+    /**
+     * 通用寄存器指令的后缀
+     */
+    private static String suffix(PrimitiveType type) {
+        return type == PrimitiveType.Long ? "q" : "l";
+    }
+
+    private static String floatSuffix(PrimitiveType type) {
+        return type == PrimitiveType.Float ? "ss" : "sd";
+    }
+
+    private static String accumulator(PrimitiveType type) {
+        return isFloating(type) ? "%xmm0" : (type == PrimitiveType.Long ? "%rax" : "%eax");
+    }
+
+    private static String scratch(PrimitiveType type) {
+        return isFloating(type) ? "%xmm1" : (type == PrimitiveType.Long ? "%rcx" : "%ecx");
+    }
+
+    /**
+     * 加、减、乘、除和位运算的助记符,不带后缀
+     */
+    private static String arithmetic(int op) {
+        String rtn;
+        switch (op) {
+            case LoweredOp.OP_ADD:
+                rtn = "add";
+                break;
+            case LoweredOp.OP_SUB:
+                rtn = "sub";
+                break;
+            case LoweredOp.OP_MUL:
+                rtn = "imul";
+                break;
+            case LoweredOp.OP_DIV:
+                rtn = "div";
+                break;
+            case LoweredOp.OP_BITAND:
+                rtn = "and";
+                break;
+            case LoweredOp.OP_BITOR:
+                rtn = "or";
+                break;
+            default:
+                rtn = "xor";
+                break;
+        }
+        return rtn;
+    }
+
+    private static String floatArithmetic(int op) {
+        return op == LoweredOp.OP_MUL ? "mul" : arithmetic(op);
+    }
+
+    private Label newLabel() {
+        return new Label(".L" + labelCount++);
+    }
+
+    private static String globalSymbol(int slot) {
+        return "play_g" + slot;
+    }
+
+    private static String functionSymbol(int index) {
+        return "play_f" + index;
+    }
+}
@@ -0,0 +1,78 @@
+package play.compiler.script.asm;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 一个函数的汇编指令(AT&T语法)。
+ * 无条件跳转和ret之后的指令不可达,直到绑定一个有可达跳转指向的标签,不可达的指令不输出。
+ */
+final class AsmWriter {
+    private final StringBuilder text = new StringBuilder();
+
+    private boolean reachable = true;
+
+    boolean isReachable() {
+        return reachable;
+    }
+
+    void op(String mnemonic) {
+        if (reachable) {
+            text.append('\t').append(mnemonic).append('\n');
+            if ("ret".equals(mnemonic)) {
+                reachable = false;
+            }
+        }
+    }
+
+    void op(String mnemonic, String operands) {
+        if (reachable) {
+            text.append('\t').append(mnemonic).append('\t').append(operands).append('\n');
+        }
+    }
+
+    /**
+     * @param mnemonic jmp或者条件跳转
+     * @param target
+     */
+    void jump(String mnemonic, Label target) {
+        if (reachable) {
+            target.referenced = true;
+            text.append('\t').append(mnemonic).append('\t').append(target.name).append('\n');
+            if ("jmp".equals(mnemonic)) {
+                reachable = false;
+            }
+        }
+    }
+
+    /**
+     * 之前的代码不可达时,只有有跳转指向的标签才使后面的代码可达
+     *
+     * @param label
+     */
+    void bind(Label label) {
+        if (reachable) {
+            label.referenced = true;
+        } else if (label.referenced) {
+            reachable = true;
+        }
+        text.append(label.name).append(":\n");
+    }
+
+    @Override
+    public String toString() {
+        return text.toString();
+    }
+
+    /**
+     * 局部标签,名字以.L开头,不进入目标文件的符号表
+     */
+    static final class Label {
+        final String name;
+
+        boolean referenced = false;
+
+        Label(String name) {
+            this.name = name;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package play.compiler.script.asm;
+
+import play.compiler.script.runtime.PrimitiveType;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 变量的位置:被调用者保存的通用寄存器、xmm寄存器、栈桢里的槽或者全局变量的符号
+ */
+final class Location {
+    static final int REGISTER = 0;
+    static final int XMM = 1;
+    static final int STACK = 2;
+    static final int GLOBAL = 3;
+
+    /**
+     * 按分配的顺序排列,调用函数之后值不变
+     */
+    static final String[] REGISTERS_64 = {"%rbx", "%r12", "%r13", "%r14", "%r15"};
+    static final String[] REGISTERS_32 = {"%ebx", "%r12d", "%r13d", "%r14d", "%r15d"};
+
+    /**
+     * SysV ABI 中xmm寄存器都由调用者保存,只在不调用函数的函数里分配
+     */
+    static final int FIRST_XMM = 8;
+    static final int XMM_COUNT = 8;
+
+    final int kind;
+
+    /**
+     * REGISTER、XMM:寄存器序号;STACK:相对%rbp的偏移
+     */
+    final int index;
+
+    /**
+     * GLOBAL:符号
+     */
+    final String symbol;
+
+    private Location(int kind, int index, String symbol) {
+        this.kind = kind;
+        this.index = index;
+        this.symbol = symbol;
+    }
+
+    static Location register(int index) {
+        return new Location(REGISTER, index, null);
+    }
+
+    static Location xmm(int index) {
+        return new Location(XMM, index, null);
+    }
+
+    static Location stack(int offset) {
+        return new Location(STACK, offset, null);
+    }
+
+    static Location global(String symbol) {
+        return new Location(GLOBAL, 0, symbol);
+    }
+
+    boolean isRegister() {
+        return kind == REGISTER || kind == XMM;
+    }
+
+    /**
+     * @param type 决定通用寄存器的宽度,long用64位,其它用32位
+     * @return 汇编指令的操作数
+     */
+    String operand(PrimitiveType type) {
+        String rtn;
+        switch (kind) {
+            case REGISTER:
+                rtn = type == PrimitiveType.Long ? REGISTERS_64[index] : REGISTERS_32[index];
+                break;
+            case XMM:
+                rtn = "%xmm" + index;
+                break;
+            case STACK:
+                rtn = index + "(%rbp)";
+                break;
+            default:
+                rtn = symbol + "(%rip)";
+                break;
+        }
+        return rtn;
+    }
+}
@@ -0,0 +1,1112 @@
+package play.compiler.script.bytecode;
+
+import play.compiler.script.lower.LoweredFunction;
+import play.compiler.script.lower.LoweredNode;
+import play.compiler.script.lower.LoweredOp;
+import play.compiler.script.lower.LoweredOperators;
+import play.compiler.script.lower.LoweredProgram;
+import play.compiler.script.lower.LoweredScope;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 把降级后的程序编译成一个JVM类,父类是 ScriptBody。
+ * 1.全局变量是实例字段 g<槽位>,函数是实例方法 f<序号>,参数和返回值用JVM的基础类型;
+ * 2.函数和语句块的栈桢里的变量是局部变量,进入作用域时清零,int、long、double等都不装箱;
+ * 3.脚本的主体是 run(),语句的值只在可能成为结果的语句(最后执行的语句)上装箱保存;
+ * 4.语义与 NodeProgram 相同,做不到时抛出 UnsupportedOperationException,
+ * 比如嵌套的函数、没有初始化的变量声明、short和byte类型、可能不经过return结束的有返回值的函数。
+ */
+final class BytecodeCompiler {
+    static final String SUPER_NAME = "play/compiler/script/bytecode/ScriptBody";
+
+    private static final String PRINT_STREAM = "java/io/PrintStream";
+
+    private static final String OBJECT_DESCRIPTOR = "Ljava/lang/Object;";
+
+    /**
+     * 比较运算符对应的条件跳转相对IFEQ的偏移,下标是 运算符 - OP_EQ
+     */
+    private static final int[] CONDITIONS = {0, 1, 2, 5, 4, 3};
+
+    private final LoweredProgram program;
+
+    private final ClassFileWriter writer;
+
+    /**
+     * 每个作用域的变量类型,下标是槽位。不支持的类型为null
+     */
+    private final JvmType[][] variableTypes;
+
+    /**
+     * 每个函数的方法描述符
+     */
+    private final String[] descriptors;
+
+    //=================================== 正在生成的方法 ===================================
+
+    private Code code;
+
+    /**
+     * 从外到内的栈桢,最外面是全局变量
+     */
+    private final List<Frame> frames = new ArrayList<Frame>();
+
+    /**
+     * 从外到内的循环:{break的目标, continue的目标}
+     */
+    private final List<Label[]> loops = new ArrayList<Label[]>();
+
+    private int nextLocal;
+
+    /**
+     * 函数的返回值类型,脚本主体为null
+     */
+    private JvmType returnType;
+
+    /**
+     * 脚本主体中保存语句的值的局部变量
+     */
+    private int valueLocal;
+
+    private BytecodeCompiler(LoweredProgram program, String className) {
+        this.program = program;
+        this.writer = new ClassFileWriter(className, SUPER_NAME);
+
+        List<LoweredScope> scopes = program.getScopes();
+        variableTypes = new JvmType[scopes.size()][];
+        for (int i = 0; i < scopes.size(); i++) {
+            List<JvmType> types = new ArrayList<JvmType>();
+            for (LoweredScope.Member member : scopes.get(i).getMembers()) {
+                if (member.getKind() == LoweredScope.MEMBER_VARIABLE) {
+                    types.add(JvmType.of(LoweredOperators.typeOf(member.getType())));
+                }
+            }
+            variableTypes[i] = types.toArray(new JvmType[0]);
+        }
+
+        LoweredFunction[] functions = program.getFunctions();
+        descriptors = new String[functions.length];
+        for (int i = 0; i < functions.length; i++) {
+            StringBuilder descriptor = new StringBuilder("(");
+            for (int slot = 0; slot < functions[i].getParamCount(); slot++) {
+                descriptor.append(variableType(functions[i].getScope(), slot).descriptor);
+            }
+            descriptors[i] = descriptor.append(')').append(returnTypeOf(functions[i]).descriptor).toString();
+        }
+    }
+
+    /**
+     * @param program
+     * @param className 生成的类的内部名称
+     * @return class文件
+     * @throws UnsupportedOperationException 程序中有无法编译的部分
+     */
+    static byte[] compile(LoweredProgram program, String className) {
+        return new BytecodeCompiler(program, className).compile();
+    }
+
+    private byte[] compile() {
+        JvmType[] globals = variableTypes[0];
+        for (int slot = 0; slot < globals.length; slot++) {
+            writer.addField(Opcodes.ACC_PRIVATE, fieldName(slot), variableType(0, slot).descriptor);
+        }
+
+        code = new Code(1);
+        code.local(Opcodes.ALOAD, 0, 1);
+        code.op2(Opcodes.INVOKESPECIAL, writer.pool.methodRef(SUPER_NAME, "<init>", "()V"), -1);
+        code.op(Opcodes.RETURN, 0);
+        writer.addMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", code);
+
+        LoweredFunction[] functions = program.getFunctions();
+        for (int i = 0; i < functions.length; i++) {
+            compileFunction(i, functions[i]);
+        }
+        compileMain();
+        return writer.toByteArray();
+    }
+
+    private void compileFunction(int index, LoweredFunction function) {
+        if (program.getScopes().get(function.getScope()).getParent() != 0) {
+            throw new UnsupportedOperationException("BytecodeCompiler#compileFunction:nested function f" + index);
+        }
+        returnType = returnTypeOf(function);
+
+        int[] locals = new int[function.getFrameSize()];
+        int parameterEnd = 1;
+        nextLocal = 1;
+        for (int slot = 0; slot < locals.length; slot++) {
+            locals[slot] = nextLocal;
+            nextLocal += variableType(function.getScope(), slot).size();
+            if (slot < function.getParamCount()) {
+                parameterEnd = nextLocal;
+            }
+        }
+        //参数已经在局部变量里,其它变量清零
+        code = new Code(parameterEnd);
+        code.useLocals(nextLocal);
+        for (int slot = function.getParamCount(); slot < locals.length; slot++) {
+            zero(variableType(function.getScope(), slot), locals[slot]);
+        }
+
+        frames.clear();
+        frames.add(new Frame(0, null));
+        frames.add(new Frame(function.getScope(), locals));
+        compileStatement(function.getBody(), false);
+        if (code.isReachable()) {
+            if (returnType != JvmType.VOID) {
+                throw new UnsupportedOperationException("BytecodeCompiler#compileFunction:f" + index + " may complete without return");
+            }
+            code.op(Opcodes.RETURN, 0);
+        }
+        writer.addMethod(Opcodes.ACC_PRIVATE, methodName(index), descriptors[index], code);
+    }
+
+    private void compileMain() {
+        returnType = null;
+        code = new Code(1);
+        valueLocal = 1;
+        nextLocal = 2;
+        code.useLocals(nextLocal);
+        code.op(Opcodes.ACONST_NULL, 1);
+        code.local(Opcodes.ASTORE, valueLocal, -1);
+
+        //主体的栈桢就是全局变量
+        frames.clear();
+        frames.add(new Frame(0, null));
+        LoweredNode main = program.getMain();
+        for (int i = 0; i < main.getKidCount(); i++) {
+            compileStatement(main.getKid(i), i == main.getKidCount() - 1);
+        }
+        if (code.isReachable()) {
+            code.local(Opcodes.ALOAD, valueLocal, 1);
+            code.op(Opcodes.ARETURN, -1);
+        }
+        writer.addMethod(Opcodes.ACC_PUBLIC, "run", "()" + OBJECT_DESCRIPTOR, code);
+    }
+
+    //=================================== 语句 ===================================
+
+    /**
+     * @param node
+     * @param tail 语句的值是否可能成为脚本的结果。循环里的语句和后面还有语句的语句都不会
+     */
+    private void compileStatement(LoweredNode node, boolean tail) {
+        switch (node.getOp()) {
+            case LoweredOp.NOP:
+                break;
+            case LoweredOp.BLOCK:
+                if (node.getA() >= 0) {
+                    enterFrame(node.getA());
+                }
+                for (int i = 0; i < node.getKidCount(); i++) {
+                    compileStatement(node.getKid(i), tail && i == node.getKidCount() - 1);
+                }
+                if (node.getA() >= 0) {
+                    exitFrame();
+                }
+                break;
+            case LoweredOp.EXPR:
+                if (tail) {
+                    saveValue(compileExpression(node.getKid(0)));
+                } else {
+                    compileEffect(node.getKid(0));
+                }
+                break;
+            case LoweredOp.DECL:
+                for (int i = 0; i < node.getKidCount(); i++) {
+                    LoweredNode kid = node.getKid(i);
+                    if (kid.getOp() != LoweredOp.STORE) {
+                        throw new UnsupportedOperationException("BytecodeCompiler#compileStatement:declaration without initializer");
+                    }
+                    if (tail && i == node.getKidCount() - 1) {
+                        saveValue(compileExpression(kid));
+                    } else {
+                        compileEffect(kid);
+                    }
+                }
+                break;
+            case LoweredOp.IF:
+                compileIf(node, tail);
+                break;
+            case LoweredOp.WHILE:
+                compileWhile(node);
+                break;
+            case LoweredOp.DO:
+                compileDo(node);
+                break;
+            case LoweredOp.FOR:
+                compileFor(node);
+                break;
+            case LoweredOp.RETURN:
+                compileReturn(node);
+                break;
+            case LoweredOp.BREAK:
+            case LoweredOp.CONTINUE:
+                if (loops.isEmpty()) {
+                    throw new UnsupportedOperationException("BytecodeCompiler#compileStatement:break or continue outside loop");
+                }
+                Label[] loop = loops.get(loops.size() - 1);
+                code.jump(Opcodes.GOTO, node.getOp() == LoweredOp.BREAK ? loop[0] : loop[1], 0);
+                break;
+            default:
+                throw new IllegalStateException("BytecodeCompiler#compileStatement:unknown statement:" + node.getOp());
+        }
+    }
+
+    private void compileIf(LoweredNode node, boolean tail) {
+        Label otherwise = new Label();
+        compileJump(node.getKid(0), false, otherwise);
+        compileStatement(node.getKid(1), tail);
+        if (node.getKidCount() > 2) {
+            Label end = new Label();
+            code.jump(Opcodes.GOTO, end, 0);
+            code.bind(otherwise);
+            compileStatement(node.getKid(2), tail);
+            code.bind(end);
+        } else {
+            code.bind(otherwise);
+        }
+    }
+
+    private void compileWhile(LoweredNode node) {
+        Label top = new Label();
+        Label end = new Label();
+        code.bind(top);
+        compileJump(node.getKid(0), false, end);
+        compileLoopBody(node.getKid(1), end, top);
+        code.jump(Opcodes.GOTO, top, 0);
+        code.bind(end);
+    }
+
+    private void compileDo(LoweredNode node) {
+        Label top = new Label();
+        Label next = new Label();
+        Label end = new Label();
+        code.bind(top);
+        compileLoopBody(node.getKid(0), end, next);
+        code.bind(next);
+        compileJump(node.getKid(1), true, top);
+        code.bind(end);
+    }
+
+    private void compileFor(LoweredNode node) {
+        if (node.getA() >= 0) {
+            enterFrame(node.getA());
+        }
+        LoweredNode init = node.getKid(0);
+        for (int i = 0; i < init.getKidCount(); i++) {
+            compileEffect(init.getKid(i));
+        }
+
+        Label top = new Label();
+        Label next = new Label();
+        Label end = new Label();
+        code.bind(top);
+        if (node.getKid(1).getOp() != LoweredOp.NOP) {
+            compileJump(node.getKid(1), false, end);
+        }
+        compileLoopBody(node.getKid(3), end, next);
+        code.bind(next);
+        LoweredNode update = node.getKid(2);
+        for (int i = 0; i < update.getKidCount(); i++) {
+            compileEffect(update.getKid(i));
+        }
+        code.jump(Opcodes.GOTO, top, 0);
+        code.bind(end);
+
+        if (node.getA() >= 0) {
+            exitFrame();
+        }
+    }
+
+    private void compileLoopBody(LoweredNode body, Label exit, Label next) {
+        loops.add(new Label[]{exit, next});
+        compileStatement(body, false);
+        loops.remove(loops.size() - 1);
+    }
+
+    private void compileReturn(LoweredNode node) {
+        if (returnType == null) {
+            //脚本主体中的return,值就是脚本的结果
+            if (node.getKidCount() > 0) {
+                coerce(compileExpression(node.getKid(0)), JvmType.OBJECT);
+            } else {
+                code.op(Opcodes.ACONST_NULL, 1);
+            }
+            code.op(Opcodes.ARETURN, -1);
+        } else if (returnType == JvmType.VOID) {
+            if (node.getKidCount() > 0) {
+                throw new UnsupportedOperationException("BytecodeCompiler#compileReturn:void function returns a value");
+            }
+            code.op(Opcodes.RETURN, 0);
+        } else {
+            if (node.getKidCount() == 0) {
+                throw new UnsupportedOperationException("BytecodeCompiler#compileReturn:missing return value");
+            }
+            coerce(compileExpression(node.getKid(0)), returnType);
+            code.op(returnType.returnOp, -returnType.size());
+        }
+    }
+
+    /**
+     * 把栈顶的值装箱,作为脚本主体的结果
+     */
+    private void saveValue(JvmType type) {
+        coerce(type, JvmType.OBJECT);
+        code.local(Opcodes.ASTORE, valueLocal, -1);
+    }
+
+    private void enterFrame(int scope) {
+        JvmType[] types = variableTypes[scope];
+        int[] locals = new int[types.length];
+        for (int slot = 0; slot < locals.length; slot++) {
+            JvmType type = variableType(scope, slot);
+            locals[slot] = nextLocal;
+            nextLocal += type.size();
+            code.useLocals(nextLocal);
+            zero(type, locals[slot]);
+        }
+        frames.add(new Frame(scope, locals));
+    }
+
+    private void exitFrame() {
+        Frame frame = frames.remove(frames.size() - 1);
+        if (frame.locals.length > 0) {
+            nextLocal = frame.locals[0];
+        }
+    }
+
+    private void zero(JvmType type, int local) {
+        switch (type) {
+            case LONG:
+                code.op(Opcodes.LCONST_0, 2);
+                break;
+            case FLOAT:
+                code.op(Opcodes.FCONST_0, 1);
+                break;
+            case DOUBLE:
+                code.op(Opcodes.DCONST_0, 2);
+                break;
+            case STRING:
+                code.op(Opcodes.ACONST_NULL, 1);
+                break;
+            default:
+                code.op(Opcodes.ICONST_0, 1);
+                break;
+        }
+        code.local(type.storeOp, local, -type.size());
+    }
+
+    //=================================== 表达式 ===================================
+
+    /**
+     * 只为副作用求值,不在栈上留下值
+     *
+     * @param node
+     */
+    private void compileEffect(LoweredNode node) {
+        switch (node.getOp()) {
+            case LoweredOp.STORE:
+                compileStore(node, false);
+                break;
+            case LoweredOp.INCDEC:
+                compileIncDec(node, false);
+                break;
+            case LoweredOp.PRINTLN:
+                compilePrintln(node);
+                break;
+            case LoweredOp.CALL:
+                pop(compileCall(node));
+                break;
+            default:
+                pop(compileExpression(node));
+                break;
+        }
+    }
+
+    /**
+     * @param node
+     * @return 留在栈上的值的类型
+     */
+    private JvmType compileExpression(LoweredNode node) {
+        JvmType rtn;
+        switch (node.getOp()) {
+            case LoweredOp.NOP:
+                code.op(Opcodes.ACONST_NULL, 1);
+                rtn = JvmType.OBJECT;
+                break;
+            case LoweredOp.CONST:
+                rtn = compileConstant(node.getValue());
+                break;
+            case LoweredOp.LOAD:
+                rtn = compileLoad(node);
+                break;
+            case LoweredOp.STORE:
+                rtn = compileStore(node, true);
+                break;
+            case LoweredOp.INCDEC:
+                rtn = compileIncDec(node, true);
+                break;
+            case LoweredOp.BINARY:
+                rtn = isComparison(node.getA()) ? compileBoolean(node) : compileBinary(node);
+                break;
+            case LoweredOp.AND:
+            case LoweredOp.OR:
+            case LoweredOp.NOT:
+                rtn = compileBoolean(node);
+                break;
+            case LoweredOp.COND:
+                rtn = required(node.getType());
+                Label otherwise = new Label();
+                Label end = new Label();
+                compileJump(node.getKid(0), false, otherwise);
+                coerce(compileExpression(node.getKid(1)), rtn);
+                code.jump(Opcodes.GOTO, end, 0);
+                code.bind(otherwise);
+                coerce(compileExpression(node.getKid(2)), rtn);
+                code.bind(end);
+                break;
+            case LoweredOp.NEG:
+                rtn = compileNeg(node);
+                break;
+            case LoweredOp.BITNOT:
+                rtn = required(node.getType()) == JvmType.LONG ? JvmType.LONG : JvmType.INT;
+                coerce(compileExpression(node.getKid(0)), rtn);
+                if (rtn == JvmType.LONG) {
+                    code.op2(Opcodes.LDC2_W, writer.pool.longValue(-1L), 2);
+                    code.op(Opcodes.LXOR, -2);
+                } else {
+                    code.op(Opcodes.ICONST_M1, 1);
+                    code.op(Opcodes.IXOR, -1);
+                }
+                break;
+            case LoweredOp.CONVERT:
+                rtn = required(node.getType());
+                coerce(compileExpression(node.getKid(0)), rtn);
+                break;
+            case LoweredOp.CALL:
+                rtn = compileCall(node);
+                if (rtn == JvmType.VOID) {
+                    code.op(Opcodes.ACONST_NULL, 1);
+                    rtn = JvmType.OBJECT;
+                }
+                break;
+            case LoweredOp.PRINTLN:
+                compilePrintln(node);
+                code.op(Opcodes.ACONST_NULL, 1);
+                rtn = JvmType.OBJECT;
+                break;
+            default:
+                throw new IllegalStateException("BytecodeCompiler#compileExpression:unknown expression:" + node.getOp());
+        }
+        return rtn;
+    }
+
+    /**
+     * 不生成代码,只推算表达式的值的类型,与 compileExpression 一致
+     *
+     * @param node
+     * @return
+     */
+    private JvmType typeOf(LoweredNode node) {
+        JvmType rtn;
+        switch (node.getOp()) {
+            case LoweredOp.CONST:
+                rtn = constantType(node.getValue());
+                break;
+            case LoweredOp.BINARY:
+                rtn = isComparison(node.getA()) ? JvmType.BOOLEAN : required(node.getType());
+                break;
+            case LoweredOp.AND:
+            case LoweredOp.OR:
+            case LoweredOp.NOT:
+                rtn = JvmType.BOOLEAN;
+                break;
+            case LoweredOp.BITNOT:
+                rtn = required(node.getType()) == JvmType.LONG ? JvmType.LONG : JvmType.INT;
+                break;
+            case LoweredOp.LOAD:
+            case LoweredOp.STORE:
+            case LoweredOp.INCDEC:
+            case LoweredOp.COND:
+            case LoweredOp.NEG:
+            case LoweredOp.CONVERT:
+                rtn = required(node.getType());
+                break;
+            case LoweredOp.CALL:
+                rtn = returnTypeOf(program.getFunctions()[node.getA()]);
+                rtn = rtn == JvmType.VOID ? JvmType.OBJECT : rtn;
+                break;
+            default:
+                rtn = JvmType.OBJECT;
+                break;
+        }
+        return rtn;
+    }
+
+    private JvmType compileConstant(Object value) {
+        JvmType rtn = constantType(value);
+        switch (rtn) {
+            case INT:
+                pushInt((Integer) value);
+                break;
+            case CHAR:
+                pushInt((Character) value);
+                break;
+            case BOOLEAN:
+                code.op((Boolean) value ? Opcodes.ICONST_1 : Opcodes.ICONST_0, 1);
+                break;
+            case LONG:
+                long l = (Long) value;
+                if (l == 0L || l == 1L) {
+                    code.op(Opcodes.LCONST_0 + (int) l, 2);
+                } else {
+                    code.op2(Opcodes.LDC2_W, writer.pool.longValue(l), 2);
+                }
+                break;
+            case FLOAT:
+                float f = (Float) value;
+                if (Float.floatToRawIntBits(f) == 0 || f == 1.0f || f == 2.0f) {
+                    code.op(Opcodes.FCONST_0 + (int) f, 1);
+                } else {
+                    ldc(writer.pool.floatValue(f));
+                }
+                break;
+            case DOUBLE:
+                double d = (Double) value;
+                if (Double.doubleToRawLongBits(d) == 0L || d == 1.0) {
+                    code.op(Opcodes.DCONST_0 + (int) d, 2);
+                } else {
+                    code.op2(Opcodes.LDC2_W, writer.pool.doubleValue(d), 2);
+                }
+                break;
+            case STRING:
+                ldc(writer.pool.string((String) value));
+                break;
+            default:
+                code.op(Opcodes.ACONST_NULL, 1);
+                break;
+        }
+        return rtn;
+    }
+
+    private static JvmType constantType(Object value) {
+        JvmType rtn;
+        if (value == null) {
+            rtn = JvmType.OBJECT;
+        } else if (value instanceof Integer) {
+            rtn = JvmType.INT;
+        } else if (value instanceof Long) {
+            rtn = JvmType.LONG;
+        } else if (value instanceof Float) {
+            rtn = JvmType.FLOAT;
+        } else if (value instanceof Double) {
+            rtn = JvmType.DOUBLE;
+        } else if (value instanceof Boolean) {
+            rtn = JvmType.BOOLEAN;
+        } else if (value instanceof Character) {
+            rtn = JvmType.CHAR;
+        } else if (value instanceof String) {
+            rtn = JvmType.STRING;
+        } else {
+            throw new UnsupportedOperationException("BytecodeCompiler#constantType:" + value.getClass().getName());
+        }
+        return rtn;
+    }
+
+    private JvmType compileLoad(LoweredNode node) {
+        Frame frame = frameOf(node.getA());
+        JvmType rtn = variableType(frame.scope, node.getB());
+        if (frame.locals == null) {
+            code.local(Opcodes.ALOAD, 0, 1);
+            code.op2(Opcodes.GETFIELD, field(node.getB(), rtn), rtn.size() - 1);
+        } else {
+            code.local(rtn.loadOp, frame.locals[node.getB()], rtn.size());
+        }
+        return rtn;
+    }
+
+    private JvmType compileStore(LoweredNode node, boolean needValue) {
+        Frame frame = frameOf(node.getA());
+        JvmType rtn = variableType(frame.scope, node.getB());
+        if (frame.locals == null) {
+            code.local(Opcodes.ALOAD, 0, 1);
+            coerce(compileExpression(node.getKid(0)), rtn);
+            if (needValue) {
+                code.op(rtn.size() == 2 ? Opcodes.DUP2_X1 : Opcodes.DUP_X1, rtn.size());
+            }
+            code.op2(Opcodes.PUTFIELD, field(node.getB(), rtn), -1 - rtn.size());
+        } else {
+            coerce(compileExpression(node.getKid(0)), rtn);
+            if (needValue) {
+                code.op(rtn.size() == 2 ? Opcodes.DUP2 : Opcodes.DUP, rtn.size());
+            }
+            code.local(rtn.storeOp, frame.locals[node.getB()], -rtn.size());
+        }
+        return rtn;
+    }
+
+    private JvmType compileIncDec(LoweredNode node, boolean needValue) {
+        Frame frame = frameOf(node.getA());
+        JvmType rtn = variableType(frame.scope, node.getB());
+        if (!rtn.isNumeric() || required(node.getType()) != rtn) {
+            throw new UnsupportedOperationException("BytecodeCompiler#compileIncDec:" + rtn);
+        }
+        boolean prefix = (node.getC() & LoweredOp.INCDEC_PREFIX) != 0;
+        boolean dec = (node.getC() & LoweredOp.INCDEC_DEC) != 0;
+        int size = rtn.size();
+        if (frame.locals == null) {
+            code.local(Opcodes.ALOAD, 0, 1);
+            code.op(Opcodes.DUP, 1);
+            code.op2(Opcodes.GETFIELD, field(node.getB(), rtn), size - 1);
+            if (needValue && !prefix) {
+                code.op(size == 2 ? Opcodes.DUP2_X1 : Opcodes.DUP_X1, size);
+            }
+            pushOne(rtn);
+            code.op(arithmetic(dec ? Opcodes.ISUB : Opcodes.IADD, rtn), -size);
+            if (needValue && prefix) {
+                code.op(size == 2 ? Opcodes.DUP2_X1 : Opcodes.DUP_X1, size);
+            }
+            code.op2(Opcodes.PUTFIELD, field(node.getB(), rtn), -1 - size);
+        } else {
+            int local = frame.locals[node.getB()];
+            if (rtn == JvmType.INT) {
+                if (needValue && !prefix) {
+                    code.local(Opcodes.ILOAD, local, 1);
+                }
+                code.iinc(local, dec ? -1 : 1);
+                if (needValue && prefix) {
+                    code.local(Opcodes.ILOAD, local, 1);
+                }
+            } else {
+                code.local(rtn.loadOp, local, size);
+                if (needValue && !prefix) {
+                    code.op(size == 2 ? Opcodes.DUP2 : Opcodes.DUP, size);
+                }
+                pushOne(rtn);
+                code.op(arithmetic(dec ? Opcodes.ISUB : Opcodes.IADD, rtn), -size);
+                if (needValue && prefix) {
+                    code.op(size == 2 ? Opcodes.DUP2 : Opcodes.DUP, size);
+                }
+                code.local(rtn.storeOp, local, -size);
+            }
+        }
+        return rtn;
+    }
+
+    private JvmType compileBinary(LoweredNode node) {
+        JvmType rtn = required(node.getType());
+        int op = node.getA();
+        if (op == LoweredOp.OP_ADD && rtn == JvmType.STRING) {
+            //与 NumberUtils#add 相同:String.valueOf(left) + right
+            toStringValue(compileExpression(node.getKid(0)));
+            toStringValue(compileExpression(node.getKid(1)));
+            code.op2(Opcodes.INVOKEVIRTUAL, writer.pool.methodRef("java/lang/String", "concat",
+                    "(Ljava/lang/String;)Ljava/lang/String;"), -1);
+        } else if (op >= LoweredOp.OP_ADD && op <= LoweredOp.OP_MOD) {
+            if (!rtn.isNumeric()) {
+                throw new UnsupportedOperationException("BytecodeCompiler#compileBinary:arithmetic on " + rtn);
+            }
+            coerce(compileExpression(node.getKid(0)), rtn);
+            coerce(compileExpression(node.getKid(1)), rtn);
+            int base = op == LoweredOp.OP_ADD ? Opcodes.IADD : (op == LoweredOp.OP_SUB ? Opcodes.ISUB
+                    : (op == LoweredOp.OP_MUL ? Opcodes.IMUL : (op == LoweredOp.OP_DIV ? Opcodes.IDIV : Opcodes.IREM)));
+            code.op(arithmetic(base, rtn), -rtn.size());
+        } else if (op >= LoweredOp.OP_BITAND && op <= LoweredOp.OP_BITXOR) {
+            if (rtn != JvmType.INT && rtn != JvmType.LONG && rtn != JvmType.BOOLEAN) {
+                throw new UnsupportedOperationException("BytecodeCompiler#compileBinary:bitwise operation on " + rtn);
+            }
+            coerce(compileExpression(node.getKid(0)), rtn);
+            coerce(compileExpression(node.getKid(1)), rtn);
+            int base = op == LoweredOp.OP_BITAND ? Opcodes.IAND : (op == LoweredOp.OP_BITOR ? Opcodes.IOR : Opcodes.IXOR);
+            code.op(rtn == JvmType.LONG ? base + 1 : base, -rtn.size());
+        } else {
+            if (rtn != JvmType.INT && rtn != JvmType.LONG) {
+                throw new UnsupportedOperationException("BytecodeCompiler#compileBinary:shift on " + rtn);
+            }
+            coerce(compileExpression(node.getKid(0)), rtn);
+            coerce(compileExpression(node.getKid(1)), JvmType.INT);
+            int base = op == LoweredOp.OP_SHL ? Opcodes.ISHL : (op == LoweredOp.OP_SHR ? Opcodes.ISHR : Opcodes.IUSHR);
+            code.op(rtn == JvmType.LONG ? base + 1 : base, -1);
+        }
+        return rtn;
+    }
+
+    private JvmType compileNeg(LoweredNode node) {
+        JvmType rtn = required(node.getType());
+        //与 NumberUtils#minus(0, v) 相同,浮点数不用fneg、dneg:0 - 0.0 是 0.0
+        switch (rtn) {
+            case INT:
+            case LONG:
+                coerce(compileExpression(node.getKid(0)), rtn);
+                code.op(arithmetic(Opcodes.INEG, rtn), 0);
+                break;
+            case FLOAT:
+                code.op(Opcodes.FCONST_0, 1);
+                coerce(compileExpression(node.getKid(0)), rtn);
+                code.op(Opcodes.FSUB, -1);
+                break;
+            case DOUBLE:
+                code.op(Opcodes.DCONST_0, 2);
+                coerce(compileExpression(node.getKid(0)), rtn);
+                code.op(Opcodes.DSUB, -2);
+                break;
+            default:
+                throw new UnsupportedOperationException("BytecodeCompiler#compileNeg:" + rtn);
+        }
+        return rtn;
+    }
+
+    private JvmType compileCall(LoweredNode node) {
+        LoweredFunction function = program.getFunctions()[node.getA()];
+        if (node.getKidCount() != function.getParamCount()) {
+            throw new UnsupportedOperationException("BytecodeCompiler#compileCall:argument count");
+        }
+        JvmType rtn = returnTypeOf(function);
+        code.local(Opcodes.ALOAD, 0, 1);
+        int argumentSize = 0;
+        for (int i = 0; i < node.getKidCount(); i++) {
+            JvmType type = variableType(function.getScope(), i);
+            coerce(compileExpression(node.getKid(i)), type);
+            argumentSize += type.size();
+        }
+        code.op2(Opcodes.INVOKESPECIAL, writer.pool.methodRef(writer.getName(), methodName(node.getA()),
+                descriptors[node.getA()]), rtn.size() - 1 - argumentSize);
+        return rtn;
+    }
+
+    private void compilePrintln(LoweredNode node) {
+        code.local(Opcodes.ALOAD, 0, 1);
+        code.op2(Opcodes.GETFIELD, writer.pool.fieldRef(SUPER_NAME, "out", "Ljava/io/PrintStream;"), 0);
+        if (node.getKidCount() == 0) {
+            code.op2(Opcodes.INVOKEVIRTUAL, writer.pool.methodRef(PRINT_STREAM, "println", "()V"), -1);
+        } else {
+            JvmType type = compileExpression(node.getKid(0));
+            //多余的参数也要求值
+            for (int i = 1; i < node.getKidCount(); i++) {
+                compileEffect(node.getKid(i));
+            }
+            String descriptor = type == JvmType.OBJECT || type == JvmType.STRING ? OBJECT_DESCRIPTOR : type.descriptor;
+            code.op2(Opcodes.INVOKEVIRTUAL, writer.pool.methodRef(PRINT_STREAM, "println", "(" + descriptor + ")V"),
+                    -1 - type.size());
+        }
+    }
+
+    //=================================== 条件 ===================================
+
+    private static boolean isComparison(int op) {
+        return op >= LoweredOp.OP_EQ && op <= LoweredOp.OP_GE;
+    }
+
+    /**
+     * 生成布尔值:条件为真时1,否则0
+     */
+    private JvmType compileBoolean(LoweredNode node) {
+        Label otherwise = new Label();
+        Label end = new Label();
+        compileJump(node, false, otherwise);
+        code.op(Opcodes.ICONST_1, 1);
+        code.jump(Opcodes.GOTO, end, 0);
+        code.bind(otherwise);
+        code.op(Opcodes.ICONST_0, 1);
+        code.bind(end);
+        return JvmType.BOOLEAN;
+    }
+
+    /**
+     * 条件的值等于when时跳转到target。与、或、非和比较直接生成跳转,不生成中间的布尔值
+     *
+     * @param node
+     * @param when
+     * @param target
+     */
+    private void compileJump(LoweredNode node, boolean when, Label target) {
+        switch (node.getOp()) {
+            case LoweredOp.NOT:
+                compileJump(node.getKid(0), !when, target);
+                break;
+            case LoweredOp.AND:
+            case LoweredOp.OR:
+                //AND为假、OR为真时,左边的值就决定了结果
+                boolean shortCircuit = node.getOp() == LoweredOp.OR;
+                if (when == shortCircuit) {
+                    compileJump(node.getKid(0), when, target);
+                    compileJump(node.getKid(1), when, target);
+                } else {
+                    Label skip = new Label();
+                    compileJump(node.getKid(0), shortCircuit, skip);
+                    compileJump(node.getKid(1), when, target);
+                    code.bind(skip);
+                }
+                break;
+            case LoweredOp.BINARY:
+                if (isComparison(node.getA())) {
+                    compileCompare(node, when, target);
+                } else {
+                    compileTest(node, when, target);
+                }
+                break;
+            case LoweredOp.CONST:
+                if (Boolean.valueOf(when).equals(node.getValue())) {
+                    code.jump(Opcodes.GOTO, target, 0);
+                } else if (!(node.getValue() instanceof Boolean)) {
+                    throw new UnsupportedOperationException("BytecodeCompiler#compileJump:condition is not boolean");
+                }
+                break;
+            default:
+                compileTest(node, when, target);
+                break;
+        }
+    }
+
+    private void compileTest(LoweredNode node, boolean when, Label target) {
+        if (compileExpression(node) != JvmType.BOOLEAN) {
+            throw new UnsupportedOperationException("BytecodeCompiler#compileTest:condition is not boolean");
+        }
+        code.jump(when ? Opcodes.IFNE : Opcodes.IFEQ, target, -1);
+    }
+
+    private void compileCompare(LoweredNode node, boolean when, Label target) {
+        int op = node.getA();
+        int condition = CONDITIONS[(when ? op : negate(op)) - LoweredOp.OP_EQ];
+        JvmType type = required(node.getType());
+        LoweredNode left = node.getKid(0);
+        LoweredNode right = node.getKid(1);
+        if (type.isNumeric()) {
+            coerce(compileExpression(left), type);
+            coerce(compileExpression(right), type);
+            switch (type) {
+                case INT:
+                    code.jump(Opcodes.IF_ICMPEQ + condition, target, -2);
+                    break;
+                case LONG:
+                    code.op(Opcodes.LCMP, -3);
+                    code.jump(Opcodes.IFEQ + condition, target, -1);
+                    break;
+                default:
+                    //NaN参与的比较都为假:<、<=用xCMPG,其它用xCMPL
+                    boolean less = op == LoweredOp.OP_LT || op == LoweredOp.OP_LE;
+                    if (type == JvmType.FLOAT) {
+                        code.op(less ? Opcodes.FCMPG : Opcodes.FCMPL, -1);
+                    } else {
+                        code.op(less ? Opcodes.DCMPG : Opcodes.DCMPL, -3);
+                    }
+                    code.jump(Opcodes.IFEQ + condition, target, -1);
+                    break;
+            }
+        } else if (op == LoweredOp.OP_EQ || op == LoweredOp.OP_NE) {
+            if ((type == JvmType.BOOLEAN || type == JvmType.CHAR) && typeOf(left) == type && typeOf(right) == type) {
+                compileExpression(left);
+                compileExpression(right);
+                code.jump(Opcodes.IF_ICMPEQ + condition, target, -2);
+            } else {
+                //与 LogicUtils#EQ 相同,用 Objects.equals 比较
+                coerce(compileExpression(left), JvmType.OBJECT);
+                coerce(compileExpression(right), JvmType.OBJECT);
+                code.op2(Opcodes.INVOKESTATIC, writer.pool.methodRef("java/util/Objects", "equals",
+                        "(Ljava/lang/Object;Ljava/lang/Object;)Z"), -1);
+                code.jump(condition == 0 ? Opcodes.IFNE : Opcodes.IFEQ, target, -1);
+            }
+        } else {
+            throw new UnsupportedOperationException("BytecodeCompiler#compileCompare:comparison on " + type);
+        }
+    }
+
+    private static int negate(int op) {
+        int rtn;
+        switch (op) {
+            case LoweredOp.OP_EQ:
+                rtn = LoweredOp.OP_NE;
+                break;
+            case LoweredOp.OP_NE:
+                rtn = LoweredOp.OP_EQ;
+                break;
+            case LoweredOp.OP_LT:
+                rtn = LoweredOp.OP_GE;
+                break;
+            case LoweredOp.OP_GE:
+                rtn = LoweredOp.OP_LT;
+                break;
+            case LoweredOp.OP_GT:
+                rtn = LoweredOp.OP_LE;
+                break;
+            default:
+                rtn = LoweredOp.OP_GT;
+                break;
+        }
+        return rtn;
+    }
+
+    //=================================== 辅助方法 ===================================
+
+    /**
+     * 把栈顶的值从from转换成to。数值之间的转换与 NumberUtils#convert 相同,转换成OBJECT时装箱
+     *
+     * @param from
+     * @param to
+     */
+    private void coerce(JvmType from, JvmType to) {
+        if (from == to) {
+            //不需要转换
+        } else if (to == JvmType.OBJECT) {
+            if (from.boxClass != null) {
+                code.op2(Opcodes.INVOKESTATIC, writer.pool.methodRef(from.boxClass, "valueOf",
+                        "(" + from.descriptor + ")L" + from.boxClass + ";"), 1 - from.size());
+            }
+        } else if (from.isNumeric() && to.isNumeric()) {
+            code.op(conversion(from, to), to.size() - from.size());
+        } else if (from != JvmType.OBJECT || to != JvmType.STRING) {
+            //OBJECT类型的值只可能是null,可以当作字符串
+            throw new UnsupportedOperationException("BytecodeCompiler#coerce:" + from + " to " + to);
+        }
+    }
+
+    private static int conversion(JvmType from, JvmType to) {
+        int rtn;
+        switch (from) {
+            case INT:
+                rtn = to == JvmType.LONG ? Opcodes.I2L : (to == JvmType.FLOAT ? Opcodes.I2F : Opcodes.I2D);
+                break;
+            case LONG:
+                rtn = to == JvmType.INT ? Opcodes.L2I : (to == JvmType.FLOAT ? Opcodes.L2F : Opcodes.L2D);
+                break;
+            case FLOAT:
+                rtn = to == JvmType.INT ? Opcodes.F2I : (to == JvmType.LONG ? Opcodes.F2L : Opcodes.F2D);
+                break;
+            default:
+                rtn = to == JvmType.INT ? Opcodes.D2I : (to == JvmType.LONG ? Opcodes.D2L : Opcodes.D2F);
+                break;
+        }
+        return rtn;
+    }
+
+    /**
+     * 把栈顶的值换成 String.valueOf 的结果
+     */
+    private void toStringValue(JvmType type) {
+        String descriptor = type == JvmType.OBJECT || type == JvmType.STRING ? OBJECT_DESCRIPTOR : type.descriptor;
+        code.op2(Opcodes.INVOKESTATIC, writer.pool.methodRef("java/lang/String", "valueOf",
+                "(" + descriptor + ")Ljava/lang/String;"), 1 - type.size());
+    }
+
+    /**
+     * 类型相关的指令。xADD、xSUB、xMUL、xDIV、xREM、xNEG都按int、long、float、double的顺序排列
+     */
+    private static int arithmetic(int intOpcode, JvmType type) {
+        return intOpcode + (type == JvmType.LONG ? 1 : (type == JvmType.FLOAT ? 2 : (type == JvmType.DOUBLE ? 3 : 0)));
+    }
+
+    private void pushOne(JvmType type) {
+        switch (type) {
+            case LONG:
+                code.op(Opcodes.LCONST_1, 2);
+                break;
+            case FLOAT:
+                code.op(Opcodes.FCONST_1, 1);
+                break;
+            case DOUBLE:
+                code.op(Opcodes.DCONST_1, 2);
+                break;
+            default:
+                code.op(Opcodes.ICONST_1, 1);
+                break;
+        }
+    }
+
+    private void pushInt(int value) {
+        if (value >= -1 && value <= 5) {
+            code.op(Opcodes.ICONST_0 + value, 1);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            code.op1(Opcodes.BIPUSH, value, 1);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            code.op2(Opcodes.SIPUSH, value, 1);
+        } else {
+            ldc(writer.pool.integer(value));
+        }
+    }
+
+    private void ldc(int index) {
+        if (index <= 255) {
+            code.op1(Opcodes.LDC, index, 1);
+        } else {
+            code.op2(Opcodes.LDC_W, index, 1);
+        }
+    }
+
+    private void pop(JvmType type) {
+        if (type.size() == 2) {
+            code.op(Opcodes.POP2, -2);
+        } else if (type.size() == 1) {
+            code.op(Opcodes.POP, -1);
+        }
+    }
+
+    private Frame frameOf(int hops) {
+        int index = frames.size() - 1 - hops;
+        if (index < 0) {
+            throw new UnsupportedOperationException("BytecodeCompiler#frameOf:variable of an enclosing function");
+        }
+        return frames.get(index);
+    }
+
+    private JvmType variableType(int scope, int slot) {
+        JvmType rtn = variableTypes[scope][slot];
+        if (rtn == null) {
+            throw new UnsupportedOperationException("BytecodeCompiler#variableType:slot " + slot + " of "
+                    + program.getScopes().get(scope).getDisplay());
+        }
+        return rtn;
+    }
+
+    private static JvmType returnTypeOf(LoweredFunction function) {
+        //没有基础类型的返回值的函数当作void:返回对象和函数的函数无法降级
+        JvmType rtn = function.getReturnType() < 0 ? JvmType.VOID
+                : JvmType.of(LoweredOperators.typeOf(function.getReturnType()));
+        if (rtn == null) {
+            throw new UnsupportedOperationException("BytecodeCompiler#returnTypeOf:"
+                    + LoweredOperators.typeOf(function.getReturnType()));
+        }
+        return rtn;
+    }
+
+    private static JvmType required(int type) {
+        JvmType rtn = JvmType.of(LoweredOperators.typeOf(type));
+        if (rtn == null) {
+            throw new UnsupportedOperationException("BytecodeCompiler#required:" + LoweredOperators.typeOf(type));
+        }
+        return rtn;
+    }
+
+    private int field(int slot, JvmType type) {
+        return writer.pool.fieldRef(writer.getName(), fieldName(slot), type.descriptor);
+    }
+
+    private static String fieldName(int slot) {
+        return "g" + slot;
+    }
+
+    private static String methodName(int index) {
+        return "f" + index;
+    }
+
+    /**
+     * 编译期的栈桢
+     */
+    private static final class Frame {
+        final int scope;
+
+        /**
+         * 每个槽位对应的局部变量序号,全局变量(实例字段)为null
+         */
+        final int[] locals;
+
+        Frame(int scope, int[] locals) {
+            this.scope = scope;
+            this.locals = locals;
+        }
+    }
+}
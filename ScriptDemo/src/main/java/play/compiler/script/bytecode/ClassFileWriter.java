@@ -0,0 +1,105 @@
+package play.compiler.script.bytecode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 生成class文件。
+ * 版本号用49(Java 5),不需要StackMapTable,由类型推导的校验器校验。
+ */
+final class ClassFileWriter {
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final int MAJOR_VERSION = 49;
+
+    final ConstantPool pool = new ConstantPool();
+
+    private final String name;
+    private final String superName;
+
+    private final ByteArrayOutputStream fields = new ByteArrayOutputStream();
+    private int fieldCount = 0;
+
+    private final ByteArrayOutputStream methods = new ByteArrayOutputStream();
+    private int methodCount = 0;
+
+    /**
+     * @param name      内部名称,比如 play/compiler/script/bytecode/Script
+     * @param superName
+     */
+    ClassFileWriter(String name, String superName) {
+        this.name = name;
+        this.superName = superName;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    void addField(int access, String fieldName, String descriptor) {
+        try {
+            DataOutputStream out = new DataOutputStream(fields);
+            out.writeShort(access);
+            out.writeShort(pool.utf8(fieldName));
+            out.writeShort(pool.utf8(descriptor));
+            out.writeShort(0);
+            fieldCount++;
+        } catch (IOException e) {
+            throw new IllegalStateException("ClassFileWriter#addField:" + e.getMessage(), e);
+        }
+    }
+
+    void addMethod(int access, String methodName, String descriptor, Code code) {
+        byte[] bytes = code.toByteArray();
+        try {
+            DataOutputStream out = new DataOutputStream(methods);
+            out.writeShort(access);
+            out.writeShort(pool.utf8(methodName));
+            out.writeShort(pool.utf8(descriptor));
+            //只有Code属性
+            out.writeShort(1);
+            out.writeShort(pool.utf8("Code"));
+            out.writeInt(12 + bytes.length);
+            out.writeShort(code.getMaxStack());
+            out.writeShort(code.getMaxLocals());
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            //没有异常表和属性
+            out.writeShort(0);
+            out.writeShort(0);
+            methodCount++;
+        } catch (IOException e) {
+            throw new IllegalStateException("ClassFileWriter#addMethod:" + e.getMessage(), e);
+        }
+    }
+
+    byte[] toByteArray() {
+        int thisClass = pool.classRef(name);
+        int superClass = pool.classRef(superName);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeShort(0);
+            out.writeShort(MAJOR_VERSION);
+            out.writeShort(pool.getCount());
+            out.write(pool.toByteArray());
+            out.writeShort(Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            //没有接口
+            out.writeShort(0);
+            out.writeShort(fieldCount);
+            out.write(fields.toByteArray());
+            out.writeShort(methodCount);
+            out.write(methods.toByteArray());
+            //没有类的属性
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException("ClassFileWriter#toByteArray:" + e.getMessage(), e);
+        }
+        return bytes.toByteArray();
+    }
+}
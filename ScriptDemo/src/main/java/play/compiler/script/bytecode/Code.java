@@ -0,0 +1,240 @@
+package play.compiler.script.bytecode;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 一个方法的字节码。
+ * 1.记录操作数栈的深度和最大深度、局部变量的最大个数,写class文件时用;
+ * 2.无条件跳转和return之后的代码不可达,直到绑定一个有可达跳转指向的标签,不可达的指令不生成;
+ * 3.超出JVM限制(代码长度、跳转偏移)时抛出 UnsupportedOperationException。
+ */
+final class Code {
+    private static final int MAX_CODE_LENGTH = 65535;
+
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    private byte[] code = null;
+
+    /**
+     * 所有跳转,生成完之后统一回填偏移量
+     */
+    private final List<Label> targets = new ArrayList<Label>();
+    private final List<Integer> positions = new ArrayList<Integer>();
+
+    private int stackDepth = 0;
+    private int maxStack = 0;
+    private int maxLocals;
+
+    private boolean reachable = true;
+
+    /**
+     * @param maxLocals 参数占用的局部变量数,包括this
+     */
+    Code(int maxLocals) {
+        this.maxLocals = maxLocals;
+    }
+
+    boolean isReachable() {
+        return reachable;
+    }
+
+    int getMaxStack() {
+        return maxStack;
+    }
+
+    int getMaxLocals() {
+        return maxLocals;
+    }
+
+    int getStackDepth() {
+        return stackDepth;
+    }
+
+    int length() {
+        return code == null ? bytes.size() : code.length;
+    }
+
+    /**
+     * 占用局部变量,用于更新 maxLocals
+     *
+     * @param end 用到的最后一个局部变量的下一个序号
+     */
+    void useLocals(int end) {
+        maxLocals = Math.max(maxLocals, end);
+    }
+
+    //=================================== 指令 ===================================
+
+    /**
+     * 没有操作数的指令
+     *
+     * @param opcode
+     * @param stackDelta 操作数栈深度的变化
+     */
+    void op(int opcode, int stackDelta) {
+        if (reachable) {
+            bytes.write(opcode);
+            adjust(stackDelta);
+            if (opcode >= Opcodes.IRETURN && opcode <= Opcodes.RETURN) {
+                reachable = false;
+            }
+        }
+    }
+
+    /**
+     * 带一个字节操作数的指令,比如bipush、ldc
+     */
+    void op1(int opcode, int operand, int stackDelta) {
+        if (reachable) {
+            bytes.write(opcode);
+            bytes.write(operand);
+            adjust(stackDelta);
+        }
+    }
+
+    /**
+     * 带两个字节操作数的指令,比如sipush、getfield、invokevirtual
+     */
+    void op2(int opcode, int operand, int stackDelta) {
+        if (reachable) {
+            bytes.write(opcode);
+            writeShort(operand);
+            adjust(stackDelta);
+        }
+    }
+
+    /**
+     * 加载或保存局部变量,序号超过255时加wide前缀
+     *
+     * @param opcode xLOAD或xSTORE
+     * @param index
+     * @param stackDelta
+     */
+    void local(int opcode, int index, int stackDelta) {
+        if (reachable) {
+            if (index > 255) {
+                bytes.write(Opcodes.WIDE);
+                bytes.write(opcode);
+                writeShort(index);
+            } else {
+                bytes.write(opcode);
+                bytes.write(index);
+            }
+            adjust(stackDelta);
+        }
+    }
+
+    void iinc(int index, int increment) {
+        if (reachable) {
+            if (index > 255 || increment < Byte.MIN_VALUE || increment > Byte.MAX_VALUE) {
+                bytes.write(Opcodes.WIDE);
+                bytes.write(Opcodes.IINC);
+                writeShort(index);
+                writeShort(increment);
+            } else {
+                bytes.write(Opcodes.IINC);
+                bytes.write(index);
+                bytes.write(increment);
+            }
+        }
+    }
+
+    /**
+     * 跳转指令
+     *
+     * @param opcode     GOTO或者条件跳转
+     * @param target
+     * @param stackDelta 条件跳转弹出的操作数个数的负数
+     */
+    void jump(int opcode, Label target, int stackDelta) {
+        if (reachable) {
+            int position = bytes.size();
+            adjust(stackDelta);
+            if (target.stackDepth < 0) {
+                target.stackDepth = stackDepth;
+            } else if (target.stackDepth != stackDepth) {
+                throw new IllegalStateException("Code#jump:stack depth " + stackDepth + " != " + target.stackDepth);
+            }
+            target.referenced = true;
+            bytes.write(opcode);
+            writeShort(0);
+            targets.add(target);
+            positions.add(position);
+            if (opcode == Opcodes.GOTO) {
+                reachable = false;
+            }
+        }
+    }
+
+    /**
+     * 把标签绑定到当前位置。之前的代码不可达时,只有有跳转指向的标签才使后面的代码可达
+     *
+     * @param label
+     */
+    void bind(Label label) {
+        if (label.position >= 0) {
+            throw new IllegalStateException("Code#bind:label is already bound");
+        }
+        if (reachable) {
+            if (label.stackDepth >= 0 && label.stackDepth != stackDepth) {
+                throw new IllegalStateException("Code#bind:stack depth " + stackDepth + " != " + label.stackDepth);
+            }
+            label.stackDepth = stackDepth;
+            label.referenced = true;
+        } else if (label.referenced) {
+            stackDepth = label.stackDepth;
+            reachable = true;
+        }
+        if (reachable) {
+            label.position = bytes.size();
+        }
+    }
+
+    /**
+     * @return 方法的字节码
+     */
+    byte[] toByteArray() {
+        if (code == null) {
+            code = bytes.toByteArray();
+            if (code.length == 0 || code.length > MAX_CODE_LENGTH) {
+                throw new UnsupportedOperationException("Code#toByteArray:code length " + code.length);
+            }
+            for (int i = 0; i < targets.size(); i++) {
+                int position = positions.get(i);
+                Label target = targets.get(i);
+                if (target.position < 0) {
+                    throw new IllegalStateException("Code#toByteArray:label is not bound");
+                }
+                int offset = offset(position, target.position);
+                code[position + 1] = (byte) (offset >> 8);
+                code[position + 2] = (byte) offset;
+            }
+        }
+        return code;
+    }
+
+    private void adjust(int stackDelta) {
+        stackDepth += stackDelta;
+        if (stackDepth < 0) {
+            throw new IllegalStateException("Code#adjust:negative stack depth");
+        }
+        maxStack = Math.max(maxStack, stackDepth);
+    }
+
+    private static int offset(int from, int to) {
+        int offset = to - from;
+        if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+            throw new UnsupportedOperationException("Code#offset:jump offset " + offset);
+        }
+        return offset;
+    }
+
+    private void writeShort(int value) {
+        bytes.write(value >> 8);
+        bytes.write(value);
+    }
+}
@@ -0,0 +1,140 @@
+package play.compiler.script.bytecode;
+
+import play.compiler.script.lower.LoweredProgram;
+
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 编译成JVM类的脚本(见 BytecodeCompiler)。
+ * 运行在JDK 15以上时定义成隐藏类,不再使用时可以卸载;否则每个脚本用一个单独的类加载器定义。
+ * 每次执行创建一个新实例,执行之间不共享全局变量。
+ */
+public final class CompiledScript {
+    private static final String CLASS_NAME = "play/compiler/script/bytecode/Script";
+
+    /**
+     * MethodHandles.Lookup#defineHiddenClass 和它的空选项数组,JDK 15之前为null
+     */
+    private static final Method DEFINE_HIDDEN_CLASS;
+    private static final Object NO_OPTIONS;
+
+    static {
+        Method method = null;
+        Object options = null;
+        try {
+            Class<?> option = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+            options = Array.newInstance(option, 0);
+            method = MethodHandles.Lookup.class.getMethod("defineHiddenClass", byte[].class, boolean.class, options.getClass());
+        } catch (ClassNotFoundException e) {
+            method = null;
+        } catch (NoSuchMethodException e) {
+            method = null;
+        }
+        DEFINE_HIDDEN_CLASS = method;
+        NO_OPTIONS = options;
+    }
+
+    private final Constructor<? extends ScriptBody> constructor;
+
+    private final int classSize;
+
+    private CompiledScript(Class<? extends ScriptBody> scriptClass, int classSize) {
+        try {
+            this.constructor = scriptClass.getConstructor();
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("CompiledScript#CompiledScript:" + e.getMessage(), e);
+        }
+        this.classSize = classSize;
+    }
+
+    /**
+     * 编译并定义类
+     *
+     * @param program
+     * @return
+     * @throws UnsupportedOperationException 程序中有无法编译的部分,可以改用 NodeProgram 或 ASTEvaluator 执行
+     */
+    public static CompiledScript of(LoweredProgram program) {
+        byte[] bytes = BytecodeCompiler.compile(program, CLASS_NAME);
+        return new CompiledScript(define(bytes), bytes.length);
+    }
+
+    /**
+     * 输出到 System.out
+     *
+     * @return
+     */
+    public Object execute() {
+        return execute(System.out);
+    }
+
+    /**
+     * @param out println的输出
+     * @return 与 ASTEvaluator 相同
+     */
+    public Object execute(PrintStream out) {
+        ScriptBody body;
+        try {
+            body = constructor.newInstance();
+        } catch (InstantiationException e) {
+            throw new IllegalStateException("CompiledScript#execute:" + e.getMessage(), e);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("CompiledScript#execute:" + e.getMessage(), e);
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException("CompiledScript#execute:" + e.getCause(), e.getCause());
+        }
+        return body.execute(out);
+    }
+
+    /**
+     * @return class文件的字节数
+     */
+    public int getClassSize() {
+        return classSize;
+    }
+
+    /**
+     * @return 是否定义成了隐藏类
+     */
+    public boolean isHidden() {
+        return DEFINE_HIDDEN_CLASS != null;
+    }
+
+    private static Class<? extends ScriptBody> define(byte[] bytes) {
+        Class<?> rtn;
+        if (DEFINE_HIDDEN_CLASS != null) {
+            try {
+                MethodHandles.Lookup lookup = (MethodHandles.Lookup) DEFINE_HIDDEN_CLASS.invoke(MethodHandles.lookup(),
+                        bytes, true, NO_OPTIONS);
+                rtn = lookup.lookupClass();
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("CompiledScript#define:" + e.getMessage(), e);
+            } catch (InvocationTargetException e) {
+                throw new IllegalStateException("CompiledScript#define:" + e.getCause(), e.getCause());
+            }
+        } else {
+            rtn = new ScriptClassLoader(ScriptBody.class.getClassLoader()).define(bytes);
+        }
+        return rtn.asSubclass(ScriptBody.class);
+    }
+
+    /**
+     * 只定义一个脚本类的类加载器
+     */
+    private static final class ScriptClassLoader extends ClassLoader {
+        ScriptClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(byte[] bytes) {
+            return defineClass(CLASS_NAME.replace('/', '.'), bytes, 0, bytes.length);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package play.compiler.script.bytecode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description class文件的常量池。相同的常量只登记一次
+ */
+final class ConstantPool {
+    private static final int UTF8 = 1;
+    private static final int INTEGER = 3;
+    private static final int FLOAT = 4;
+    private static final int LONG = 5;
+    private static final int DOUBLE = 6;
+    private static final int CLASS = 7;
+    private static final int STRING = 8;
+    private static final int FIELD_REF = 9;
+    private static final int METHOD_REF = 10;
+    private static final int NAME_AND_TYPE = 12;
+
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(bytes);
+
+    /**
+     * 下一个常量的序号,序号从1开始
+     */
+    private int count = 1;
+
+    private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+
+    int utf8(String value) {
+        Integer rtn = indexes.get("U" + value);
+        if (rtn == null) {
+            try {
+                rtn = add("U" + value, 1);
+                out.writeByte(UTF8);
+                out.writeUTF(value);
+            } catch (IOException e) {
+                throw new IllegalStateException("ConstantPool#utf8:" + e.getMessage(), e);
+            }
+        }
+        return rtn;
+    }
+
+    /**
+     * @param internalName 比如 java/lang/Integer
+     * @return
+     */
+    int classRef(String internalName) {
+        return ref("C" + internalName, CLASS, utf8(internalName), -1);
+    }
+
+    int string(String value) {
+        return ref("S" + value, STRING, utf8(value), -1);
+    }
+
+    int integer(int value) {
+        return number("I" + value, INTEGER, value, 1);
+    }
+
+    int floatValue(float value) {
+        return number("F" + Float.floatToRawIntBits(value), FLOAT, Float.floatToRawIntBits(value), 1);
+    }
+
+    int longValue(long value) {
+        return number("J" + value, LONG, value, 2);
+    }
+
+    int doubleValue(double value) {
+        return number("D" + Double.doubleToRawLongBits(value), DOUBLE, Double.doubleToRawLongBits(value), 2);
+    }
+
+    int fieldRef(String owner, String name, String descriptor) {
+        return ref("f" + owner + "." + name + ":" + descriptor, FIELD_REF, classRef(owner), nameAndType(name, descriptor));
+    }
+
+    int methodRef(String owner, String name, String descriptor) {
+        return ref("m" + owner + "." + name + descriptor, METHOD_REF, classRef(owner), nameAndType(name, descriptor));
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        return ref("N" + name + ":" + descriptor, NAME_AND_TYPE, utf8(name), utf8(descriptor));
+    }
+
+    /**
+     * @return 常量池表中的项数加一,即 constant_pool_count
+     */
+    int getCount() {
+        return count;
+    }
+
+    byte[] toByteArray() {
+        return bytes.toByteArray();
+    }
+
+    private int ref(String key, int tag, int first, int second) {
+        Integer rtn = indexes.get(key);
+        if (rtn == null) {
+            try {
+                rtn = add(key, 1);
+                out.writeByte(tag);
+                out.writeShort(first);
+                if (second >= 0) {
+                    out.writeShort(second);
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("ConstantPool#ref:" + e.getMessage(), e);
+            }
+        }
+        return rtn;
+    }
+
+    private int number(String key, int tag, long bits, int slots) {
+        Integer rtn = indexes.get(key);
+        if (rtn == null) {
+            try {
+                rtn = add(key, slots);
+                out.writeByte(tag);
+                if (slots == 2) {
+                    out.writeLong(bits);
+                } else {
+                    out.writeInt((int) bits);
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("ConstantPool#number:" + e.getMessage(), e);
+            }
+        }
+        return rtn;
+    }
+
+    /**
+     * long和double占两项
+     */
+    private int add(String key, int slots) {
+        if (count + slots > 0xFFFF) {
+            throw new UnsupportedOperationException("ConstantPool#add:too many constants");
+        }
+        int rtn = count;
+        indexes.put(key, rtn);
+        count += slots;
+        return rtn;
+    }
+}
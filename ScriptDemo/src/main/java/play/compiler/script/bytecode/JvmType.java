@@ -0,0 +1,89 @@
+package play.compiler.script.bytecode;
+
+import play.compiler.script.runtime.PrimitiveType;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description PlayScript的类型在JVM中的表示。基础类型直接对应JVM的基础类型,值不装箱;
+ * OBJECT只用于null和没有返回值的函数调用的值。
+ */
+enum JvmType {
+    INT("I", "java/lang/Integer", Opcodes.ILOAD, Opcodes.ISTORE, Opcodes.IRETURN),
+    LONG("J", "java/lang/Long", Opcodes.LLOAD, Opcodes.LSTORE, Opcodes.LRETURN),
+    FLOAT("F", "java/lang/Float", Opcodes.FLOAD, Opcodes.FSTORE, Opcodes.FRETURN),
+    DOUBLE("D", "java/lang/Double", Opcodes.DLOAD, Opcodes.DSTORE, Opcodes.DRETURN),
+    BOOLEAN("Z", "java/lang/Boolean", Opcodes.ILOAD, Opcodes.ISTORE, Opcodes.IRETURN),
+    CHAR("C", "java/lang/Character", Opcodes.ILOAD, Opcodes.ISTORE, Opcodes.IRETURN),
+    STRING("Ljava/lang/String;", null, Opcodes.ALOAD, Opcodes.ASTORE, Opcodes.ARETURN),
+    OBJECT("Ljava/lang/Object;", null, Opcodes.ALOAD, Opcodes.ASTORE, Opcodes.ARETURN),
+    VOID("V", null, -1, -1, Opcodes.RETURN);
+
+    final String descriptor;
+
+    /**
+     * 装箱的类,引用类型为null
+     */
+    final String boxClass;
+
+    final int loadOp;
+    final int storeOp;
+    final int returnOp;
+
+    JvmType(String descriptor, String boxClass, int loadOp, int storeOp, int returnOp) {
+        this.descriptor = descriptor;
+        this.boxClass = boxClass;
+        this.loadOp = loadOp;
+        this.storeOp = storeOp;
+        this.returnOp = returnOp;
+    }
+
+    /**
+     * 占用的栈和局部变量的槽数
+     *
+     * @return
+     */
+    int size() {
+        return this == LONG || this == DOUBLE ? 2 : (this == VOID ? 0 : 1);
+    }
+
+    boolean isNumeric() {
+        return this == INT || this == LONG || this == FLOAT || this == DOUBLE;
+    }
+
+    /**
+     * @param type PrimitiveType的序号或者LoweredOp.NO_TYPE
+     * @return 不支持的类型(short、byte和非基础类型)返回null
+     */
+    static JvmType of(PrimitiveType type) {
+        JvmType rtn = null;
+        if (type != null) {
+            switch (type) {
+                case Integer:
+                    rtn = INT;
+                    break;
+                case Long:
+                    rtn = LONG;
+                    break;
+                case Float:
+                    rtn = FLOAT;
+                    break;
+                case Double:
+                    rtn = DOUBLE;
+                    break;
+                case Boolean:
+                    rtn = BOOLEAN;
+                    break;
+                case Char:
+                    rtn = CHAR;
+                    break;
+                case String:
+                    rtn = STRING;
+                    break;
+                default:
+                    break;
+            }
+        }
+        return rtn;
+    }
+}
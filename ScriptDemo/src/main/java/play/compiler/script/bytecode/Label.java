@@ -0,0 +1,23 @@
+package play.compiler.script.bytecode;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 跳转的目标。偏移量在方法的代码生成完之后回填(见 Code)
+ */
+final class Label {
+    /**
+     * 绑定的位置,-1表示还没有绑定
+     */
+    int position = -1;
+
+    /**
+     * 跳转到这里时操作数栈的深度,-1表示还没有跳转到这里
+     */
+    int stackDepth = -1;
+
+    /**
+     * 是否有可达的跳转指向这里
+     */
+    boolean referenced = false;
+}
@@ -0,0 +1,31 @@
+package play.compiler.script.bytecode;
+
+import java.io.PrintStream;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 编译生成的类的父类。每次执行创建一个新实例,全局变量是实例的字段
+ */
+public abstract class ScriptBody {
+    /**
+     * println的输出
+     */
+    protected PrintStream out;
+
+    protected ScriptBody() {
+
+    }
+
+    /**
+     * 执行脚本
+     *
+     * @return 与 ASTEvaluator 相同:return语句的值,或者最后执行的语句的值
+     */
+    protected abstract Object run();
+
+    final Object execute(PrintStream out) {
+        this.out = out;
+        return run();
+    }
+}
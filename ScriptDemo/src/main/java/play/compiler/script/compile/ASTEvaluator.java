@@ -1,22 +1,31 @@
 package play.compiler.script.compile;
 
+import org.antlr.v4.runtime.ParserRuleContext;
 import play.compiler.script.generate.PlayScriptBaseVisitor;
 import play.compiler.script.generate.PlayScriptParser;
 import play.compiler.script.generate.PlayScriptParser.*;
+import play.compiler.script.object.BreakObject;
+import play.compiler.script.object.ContinueObject;
 import play.compiler.script.object.FunctionObject;
 import play.compiler.script.object.NullObject;
+import play.compiler.script.object.PlayObject;
+import play.compiler.script.object.ReturnObject;
 import play.compiler.script.object.StackFrame;
-import play.compiler.script.runtime.LValue;
+import play.compiler.script.runtime.Operator;
 import play.compiler.script.runtime.PrimitiveType;
 import play.compiler.script.runtime.Type;
 import play.compiler.script.utils.LogicUtils;
 import play.compiler.script.utils.NumberUtils;
+import play.compiler.script.utils.Operators;
 
+import java.io.PrintStream;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Stack;
 
 /**
  * @Author: zhangchong
- * @Description:
+ * @Description: AST解释器。利用语义分析的结果(AnnotatedTree)遍历AST,解释执行脚本。
  */
 public class ASTEvaluator extends PlayScriptBaseVisitor<Object> {
 
@@ -31,6 +40,11 @@ public class ASTEvaluator extends PlayScriptBaseVisitor<Object> {
      */
     private Stack<StackFrame> stack = new Stack<StackFrame>();
 
+    /**
+     * println 输出的地方
+     */
+    private PrintStream out = System.out;
+
     /**
      * 堆，用于保存对象
      *
@@ -40,83 +54,355 @@ public class ASTEvaluator extends PlayScriptBaseVisitor<Object> {
         this.at = at;
     }
 
+    public void setOut(PrintStream out) {
+        this.out = out;
+    }
+
+    //=================================== 栈桢管理 ===================================
+
+    /**
+     * 栈桢入栈。
+     * 其中最重要的任务，是要保证栈桢的parentFrame设置正确。否则，
+     * (1)随着栈的变深，查找变量的性能会降低；
+     * (2)甚至有可能找错栈桢，比如在递归(直接或间接)的场景下。
+     *
+     * @param frame
+     */
+    private void pushStack(StackFrame frame) {
+        if (stack.size() > 0) {
+            //从栈顶到栈底依次查找
+            for (int i = stack.size() - 1; i >= 0; i--) {
+                StackFrame f = stack.get(i);
+                if (f.getScope().enclosingScope == frame.getScope().enclosingScope) {
+                    //如果新加入的栈桢，跟某个已有的栈桢的enclosingScope是一样的，那么这俩的parentFrame也一样。
+                    //因为它们原本就是同一级的嘛。
+                    //比如：
+                    //void foo(){};
+                    //void bar(foo());
+                    //或者：
+                    //void foo();
+                    //if (...){
+                    //  foo();
+                    //}
+                    frame.setParentFrame(f.getParentFrame());
+                    break;
+                } else if (f.getScope() == frame.getScope().enclosingScope) {
+                    //如果新加入的栈桢，是某个已有的栈桢的下一级，那么就把把这个父子关系建立起来。比如：
+                    //void foo(){
+                    //  if (...){  //把这个块往栈桢里加的时候，就符合这个条件。
+                    //  }
+                    //}
+                    frame.setParentFrame(f);
+                    break;
+                }
+            }
+
+            if (frame.getParentFrame() == null) {
+                frame.setParentFrame(stack.peek());
+            }
+        }
+
+        stack.push(frame);
+
+        if (traceStackFrame) {
+            dumpStackFrame();
+        }
+    }
+
+    private void popStack() {
+        stack.pop();
+    }
+
+    private void dumpStackFrame() {
+        out.println("\nStack Frames ----------------");
+        for (StackFrame frame : stack) {
+            out.println(frame);
+        }
+        out.println("-----------------------------\n");
+    }
+
+    /**
+     * 存放变量的对象。
+     * 语义分析算出了栈桢距离(见 SlotResolver)时,沿parentFrame走这么多步就是存放变量的栈桢,走到的栈桢不对是内部错误;
+     * 中间隔着类作用域、没有栈桢距离时,沿着parentFrame逐个比较作用域来查找。
+     *
+     * @param variable
+     * @param ref      引用变量的AST节点
+     * @return
+     */
+    private PlayObject containerOf(Variable variable, ParserRuleContext ref) {
+        StackFrame f = stack.peek();
+        int distance = at.frameDistanceOfNode.get(ref);
+        if (distance != IntNodeTable.NONE) {
+            for (int i = distance; i > 0 && f != null; i--) {
+                f = f.getParentFrame();
+            }
+            if (f == null || f.getScope() != variable.enclosingScope) {
+                throw new IllegalStateException("ASTEvaluator#containerOf:frame " + distance + " levels up is "
+                        + (f == null ? "missing" : f.getScope().name) + ", expected the scope of " + variable.name);
+            }
+        } else {
+            while (f != null && f.getScope() != variable.enclosingScope) {
+                f = f.getParentFrame();
+            }
+            if (f == null) {
+                throw new IllegalStateException("ASTEvaluator#containerOf:variable not in scope:" + variable.name);
+            }
+        }
+        return f.getObject();
+    }
+
+    /**
+     * 赋值、自增和自减的目标:引用变量的节点,可以在括号中
+     *
+     * @param ctx 左边的表达式
+     * @return
+     */
+    private PrimaryContext targetOf(ExpressionContext ctx) {
+        PrimaryContext rtn = ctx.primary();
+        while (rtn != null && rtn.expression() != null) {
+            rtn = rtn.expression().primary();
+        }
+        if (rtn == null || !(at.symbolOfNode.get(rtn) instanceof Variable)) {
+            throw new UnsupportedOperationException("ASTEvaluator#assign:left side is not a variable");
+        }
+        return rtn;
+    }
+
+    //=================================== 程序和语句 ===================================
+
     @Override
-    public Object visitExpression(ExpressionContext ctx) {
+    public Object visitProg(ProgContext ctx) {
         Object rtn = null;
-        if (ctx.bop != null && ctx.expression().size() >= 2) {
-            Object left = visitExpression(ctx.expression(0));
-            Object right = visitExpression(ctx.expression(1));
-            Object leftObject = left;
-            Object rightObject = right;
-
-            if (left instanceof LValue) {
-                leftObject = ((LValue) left).getValue();
-            }
+        pushStack(new StackFrame((BlockScope) at.node2Scope.get(ctx)));
+
+        rtn = visitBlockStatements(ctx.blockStatements());
+
+        popStack();
+
+        if (rtn instanceof ReturnObject) {
+            rtn = ((ReturnObject) rtn).getReturnValue();
+        }
+        return rtn;
+    }
+
+    /**
+     * 执行一条单独分析过的顶层语句。
+     * 全局命名空间的栈桢在多次调用之间一直保留,所以前面语句中的全局变量的值后面的语句还能用到。
+     *
+     * @param ctx
+     * @return
+     */
+    public Object evaluateStatement(BlockStatementContext ctx) {
+        if (stack.isEmpty()) {
+            pushStack(new StackFrame(at.nameSpace));
+        }
 
-            if (right instanceof LValue) {
-                rightObject = ((LValue) right).getValue();
+        Object rtn = visitBlockStatement(ctx);
+        if (rtn instanceof ReturnObject) {
+            rtn = ((ReturnObject) rtn).getReturnValue();
+        }
+        return rtn;
+    }
+
+    @Override
+    public Object visitBlock(BlockContext ctx) {
+        BlockScope scope = (BlockScope) at.node2Scope.get(ctx);
+        //函数体的block没有单独的作用域
+        if (scope != null) {
+            pushStack(new StackFrame(scope));
+        }
+
+        Object rtn = visitBlockStatements(ctx.blockStatements());
+
+        if (scope != null) {
+            popStack();
+        }
+        return rtn;
+    }
+
+    @Override
+    public Object visitBlockStatements(BlockStatementsContext ctx) {
+        Object rtn = null;
+        for (BlockStatementContext child : ctx.blockStatement()) {
+            rtn = visitBlockStatement(child);
+            //如果返回的是break,那么不执行下面的语句
+            if (rtn instanceof BreakObject || rtn instanceof ContinueObject || rtn instanceof ReturnObject) {
+                break;
             }
+        }
+        return rtn;
+    }
 
-            /**
-             * 本节点期待的数据类型
-             */
-            Type type = at.typeOfNode.get(ctx);
+    @Override
+    public Object visitBlockStatement(BlockStatementContext ctx) {
+        Object rtn = null;
+        if (ctx.variableDeclarators() != null) {
+            rtn = visitVariableDeclarators(ctx.variableDeclarators());
+        } else if (ctx.statement() != null) {
+            rtn = visitStatement(ctx.statement());
+        }
+        //函数和类的声明在语义分析阶段已经处理了
+        return rtn;
+    }
 
-            /**
-             * 左右两个子节点的类型
-             */
-            Type type1 = at.typeOfNode.get(ctx.expression(0));
-            Type type2 = at.typeOfNode.get(ctx.expression(1));
+    @Override
+    public Object visitVariableDeclarators(VariableDeclaratorsContext ctx) {
+        Object rtn = null;
+        for (VariableDeclaratorContext child : ctx.variableDeclarator()) {
+            rtn = visitVariableDeclarator(child);
+        }
+        return rtn;
+    }
 
-            switch (ctx.bop.getType()) {
-                case PlayScriptParser.ADD:
-                    rtn = NumberUtils.add(leftObject, rightObject, type);
-                    break;
-                case PlayScriptParser.SUB:
-                    rtn = NumberUtils.minus(leftObject, rightObject, type);
-                    break;
-                case PlayScriptParser.MUL:
-                    rtn = NumberUtils.mul(leftObject, rightObject, type);
-                    break;
-                case PlayScriptParser.DIV:
-                    rtn = NumberUtils.div(leftObject, rightObject, type);
-                    break;
-                case PlayScriptParser.EQUAL:
-                    rtn = LogicUtils.EQ(leftObject, rightObject, PrimitiveType.getUpperType(type1, type2));
+    @Override
+    public Object visitVariableDeclarator(VariableDeclaratorContext ctx) {
+        Object rtn = null;
+        Variable variable = (Variable) at.symbolOfNode.get(ctx.variableDeclaratorId());
+        PlayObject valueContainer = containerOf(variable, ctx.variableDeclaratorId());
+        if (ctx.variableInitializer() != null) {
+            rtn = NumberUtils.convert(visitVariableInitializer(ctx.variableInitializer()), variable.type);
+            valueContainer.setValue(variable, rtn);
+        }
+        return rtn;
+    }
+
+    @Override
+    public Object visitVariableInitializer(VariableInitializerContext ctx) {
+        Object rtn = null;
+        if (ctx.expression() != null) {
+            rtn = visitExpression(ctx.expression());
+        } else {
+            throw new UnsupportedOperationException("ASTEvaluator#visitVariableInitializer:array initializer");
+        }
+        return rtn;
+    }
+
+    @Override
+    public Object visitStatement(StatementContext ctx) {
+        Object rtn = null;
+        if (ctx.blockLabel != null) {
+            rtn = visitBlock(ctx.blockLabel);
+        } else if (ctx.statementExpression != null) {
+            rtn = visitExpression(ctx.statementExpression);
+        } else if (ctx.IF() != null) {
+            Boolean condition = (Boolean) visitParExpression(ctx.parExpression());
+            if (Boolean.TRUE.equals(condition)) {
+                rtn = visitStatement(ctx.statement(0));
+            } else if (ctx.ELSE() != null) {
+                rtn = visitStatement(ctx.statement(1));
+            }
+        } else if (ctx.FOR() != null) {
+            rtn = visitFor(ctx);
+        } else if (ctx.DO() != null) {
+            //do-while至少执行一次
+            while (true) {
+                rtn = visitStatement(ctx.statement(0));
+                if (rtn instanceof BreakObject) {
+                    rtn = null;
                     break;
-                case PlayScriptParser.NOTEQUAL:
-                    rtn = !LogicUtils.EQ(leftObject, rightObject, PrimitiveType.getUpperType(type1, type2));
+                } else if (rtn instanceof ReturnObject) {
                     break;
-                case PlayScriptParser.LE:
-                    rtn = LogicUtils.LE(leftObject, rightObject, PrimitiveType.getUpperType(type1, type2));
+                }
+                rtn = null;
+                Boolean condition = (Boolean) visitParExpression(ctx.parExpression());
+                if (!Boolean.TRUE.equals(condition)) {
                     break;
-                case PlayScriptParser.LT:
-                    rtn = LogicUtils.LT(leftObject, rightObject, PrimitiveType.getUpperType(type1, type2));
+                }
+            }
+        } else if (ctx.WHILE() != null) {
+            while (true) {
+                Boolean condition = (Boolean) visitParExpression(ctx.parExpression());
+                if (!Boolean.TRUE.equals(condition)) {
                     break;
-                case PlayScriptParser.GE:
-                    rtn = LogicUtils.GE(leftObject, rightObject, PrimitiveType.getUpperType(type1, type2));
+                }
+                rtn = visitStatement(ctx.statement(0));
+                if (rtn instanceof BreakObject) {
+                    rtn = null;
                     break;
-                case PlayScriptParser.GT:
-                    rtn = LogicUtils.GT(leftObject, rightObject, PrimitiveType.getUpperType(type1, type2));
+                } else if (rtn instanceof ReturnObject) {
                     break;
+                }
+                rtn = null;
+            }
+        } else if (ctx.RETURN() != null) {
+            Object value = null;
+            if (ctx.expression() != null) {
+                value = visitExpression(ctx.expression());
+            }
+            rtn = new ReturnObject(value);
+        } else if (ctx.BREAK() != null) {
+            rtn = BreakObject.instance();
+        } else if (ctx.CONTINUE() != null) {
+            rtn = ContinueObject.instance();
+        } else if (ctx.identifierLabel != null) {
+            rtn = visitStatement(ctx.statement(0));
+        } else if (ctx.SWITCH() != null) {
+            throw new UnsupportedOperationException("ASTEvaluator#visitStatement:switch");
+        }
+        return rtn;
+    }
 
-                case PlayScriptParser.AND:
-                    rtn = (Boolean) leftObject && (Boolean) rightObject;
-                    break;
-                case PlayScriptParser.OR:
-                    rtn = (Boolean) leftObject || (Boolean) rightObject;
-                    break;
-                case PlayScriptParser.ASSIGN:
-                    if (left instanceof LValue) {
-                        ((LValue) left).setValue(rightObject);
-                        rtn = right;
-                    } else {
-                        System.out.println("Unsupported feature during assignment");
-                    }
-                    break;
+    /**
+     * for语句有自己的作用域,用来存放forInit中声明的变量
+     *
+     * @param ctx
+     * @return
+     */
+    private Object visitFor(StatementContext ctx) {
+        Object rtn = null;
+        ForControlContext forControl = ctx.forControl();
+        if (forControl.enhancedForControl() != null) {
+            throw new UnsupportedOperationException("ASTEvaluator#visitStatement:enhanced for");
+        }
 
-                default:
+        pushStack(new StackFrame((BlockScope) at.node2Scope.get(ctx)));
+
+        if (forControl.forInit() != null) {
+            visitForInit(forControl.forInit());
+        }
+
+        while (true) {
+            if (forControl.expression() != null) {
+                Boolean condition = (Boolean) visitExpression(forControl.expression());
+                if (!Boolean.TRUE.equals(condition)) {
                     break;
+                }
+            }
+
+            rtn = visitStatement(ctx.statement(0));
+            if (rtn instanceof BreakObject) {
+                rtn = null;
+                break;
+            } else if (rtn instanceof ReturnObject) {
+                break;
+            }
+            rtn = null;
+
+            if (forControl.forUpdate != null) {
+                visitExpressionList(forControl.forUpdate);
+            }
+        }
+
+        popStack();
+        return rtn;
+    }
+
+    //=================================== 表达式 ===================================
+
+    @Override
+    public Object visitExpression(ExpressionContext ctx) {
+        Object rtn = null;
+        Object constant = at.constantOfNode.get(ctx);
+        if (constant != null) {
+            //编译时已经折叠
+            rtn = constant;
+        } else if (ctx.bop != null && ctx.expression().size() >= 2) {
+            int bop = ctx.bop.getType();
+            if (bop == PlayScriptParser.AND || bop == PlayScriptParser.OR || bop == PlayScriptParser.QUESTION) {
+                rtn = visitConditional(ctx, bop);
+            } else {
+                rtn = visitBinary(ctx, bop);
             }
         } else if (ctx.primary() != null) {
             rtn = visitPrimary(ctx.primary());
@@ -124,28 +410,21 @@ public class ASTEvaluator extends PlayScriptBaseVisitor<Object> {
             /**
              * 后缀运算，例如：i++ 或 i--
              */
-            Object value = visitExpression(ctx.expression(0));
-            LValue lValue = null;
+            PrimaryContext target = targetOf(ctx.expression(0));
+            Variable variable = (Variable) at.symbolOfNode.get(target);
+            PlayObject valueContainer = containerOf(variable, target);
+            Object value = valueContainer.getValue(variable);
             Type type = at.typeOfNode.get(ctx.expression(0));
-            if (value instanceof LValue) {
-                lValue = (LValue) value;
-                value = lValue.getValue();
-            }
+            Operator operator = at.operatorOfNode.get(ctx);
             switch (ctx.postfix.getType()) {
                 case PlayScriptParser.INC:
-                    if (type == PrimitiveType.Integer) {
-                        lValue.setValue((Integer) value + 1);
-                    } else {
-                        lValue.setValue((Long) value + 1);
-                    }
+                    valueContainer.setValue(variable, operator != null ? operator.apply(value, 1)
+                            : NumberUtils.convert(NumberUtils.add(value, 1, type), type));
                     rtn = value;
                     break;
                 case PlayScriptParser.DEC:
-                    if (type == PrimitiveType.Integer) {
-                        lValue.setValue((Integer) value - 1);
-                    } else {
-                        lValue.setValue((long) value - 1);
-                    }
+                    valueContainer.setValue(variable, operator != null ? operator.apply(value, 1)
+                            : NumberUtils.convert(NumberUtils.minus(value, 1, type), type));
                     rtn = value;
                     break;
                 default:
@@ -155,29 +434,42 @@ public class ASTEvaluator extends PlayScriptBaseVisitor<Object> {
             /**
              * 前缀操作，例如：++i 或 --i
              */
-            Object value = visitExpression(ctx.expression(0));
-            LValue lValue = null;
-            Type type = at.typeOfNode.get(ctx.expression(0));
-            if (value instanceof LValue) {
-                lValue = (LValue) value;
-                value = lValue.getValue();
+            int prefix = ctx.prefix.getType();
+            Variable variable = null;
+            PlayObject valueContainer = null;
+            Object value;
+            if (prefix == PlayScriptParser.INC || prefix == PlayScriptParser.DEC) {
+                PrimaryContext target = targetOf(ctx.expression(0));
+                variable = (Variable) at.symbolOfNode.get(target);
+                valueContainer = containerOf(variable, target);
+                value = valueContainer.getValue(variable);
+            } else {
+                value = promote(visitExpression(ctx.expression(0)), at.typeOfNode.get(ctx.expression(0)), null);
             }
-            switch (ctx.prefix.getType()) {
+            Type type = at.typeOfNode.get(ctx.expression(0));
+            Operator operator = at.operatorOfNode.get(ctx);
+            switch (prefix) {
                 case PlayScriptParser.INC:
-                    if (type == PrimitiveType.Integer) {
-                        rtn = (Integer) value + 1;
-                    } else {
-                        rtn = (Long) value + 1;
-                    }
-                    lValue.setValue(rtn);
+                    rtn = operator != null ? operator.apply(value, 1) : NumberUtils.convert(NumberUtils.add(value, 1, type), type);
+                    valueContainer.setValue(variable, rtn);
                     break;
                 case PlayScriptParser.DEC:
-                    if (type == PrimitiveType.Integer) {
-                        rtn = (Integer) value - 1;
+                    rtn = operator != null ? operator.apply(value, 1) : NumberUtils.convert(NumberUtils.minus(value, 1, type), type);
+                    valueContainer.setValue(variable, rtn);
+                    break;
+                case PlayScriptParser.ADD:
+                    rtn = value;
+                    break;
+                case PlayScriptParser.SUB:
+                    rtn = operator != null ? operator.apply(0, value) : NumberUtils.minus(0, value, type);
+                    break;
+                case PlayScriptParser.TILDE:
+                    //分开写,否则三元运算会把int的结果也提升成long
+                    if (type == PrimitiveType.Long) {
+                        rtn = ~((Number) value).longValue();
                     } else {
-                        rtn = (Long) value - 1;
+                        rtn = ~((Number) value).intValue();
                     }
-                    lValue.setValue(rtn);
                     break;
                 //!符号，逻辑非运算
                 case PlayScriptParser.BANG:
@@ -188,15 +480,243 @@ public class ASTEvaluator extends PlayScriptBaseVisitor<Object> {
             }
         } else if (ctx.functionCall() != null) {
             rtn = visitFunctionCall(ctx.functionCall());
+        } else if (ctx.expression().size() == 2) {
+            rtn = visitShift(ctx);
+        } else if (ctx.bop != null && ctx.bop.getType() == PlayScriptParser.DOT) {
+            throw new UnsupportedOperationException("ASTEvaluator#visitExpression:member access");
         }
         return rtn;
     }
 
-    //=================================== 函数相关运算 ===================================
-    private Object getLValue(Variable symbol) {
-        return null;
+    /**
+     * 短路求值的 &&、|| 以及三元运算
+     *
+     * @param ctx
+     * @param bop
+     * @return
+     */
+    private Object visitConditional(ExpressionContext ctx, int bop) {
+        Object rtn;
+        Boolean condition = (Boolean) visitExpression(ctx.expression(0));
+        if (bop == PlayScriptParser.AND) {
+            rtn = condition && (Boolean) visitExpression(ctx.expression(1));
+        } else if (bop == PlayScriptParser.OR) {
+            rtn = condition || (Boolean) visitExpression(ctx.expression(1));
+        } else {
+            rtn = visitExpression(ctx.expression(condition ? 1 : 2));
+            rtn = NumberUtils.convert(rtn, at.typeOfNode.get(ctx));
+        }
+        return rtn;
+    }
+
+    private Object visitBinary(ExpressionContext ctx, int bop) {
+        Object rtn = null;
+        //赋值时先找到左边的变量所在的对象,再计算右边
+        Variable variable = null;
+        PlayObject valueContainer = null;
+        Object leftObject;
+        if (isAssignment(bop)) {
+            PrimaryContext target = targetOf(ctx.expression(0));
+            variable = (Variable) at.symbolOfNode.get(target);
+            valueContainer = containerOf(variable, target);
+            leftObject = valueContainer.getValue(variable);
+        } else {
+            //先取左边的值再计算右边,右边的副作用(比如i++)不影响左边
+            leftObject = visitExpression(ctx.expression(0));
+        }
+        Object rightObject = visitExpression(ctx.expression(1));
+
+        /**
+         * 本节点期待的数据类型
+         */
+        Type type = at.typeOfNode.get(ctx);
+
+        /**
+         * 左右两个子节点的类型
+         */
+        Type type1 = at.typeOfNode.get(ctx.expression(0));
+        Type type2 = at.typeOfNode.get(ctx.expression(1));
+        if (bop != PlayScriptParser.ASSIGN) {
+            Type operandType = operandTypeOf(ctx, type1, type2);
+            leftObject = promote(leftObject, type1, operandType);
+            rightObject = promote(rightObject, type2, operandType);
+        }
+
+        //类型检查时按操作数类型选好了运算
+        Operator operator = at.operatorOfNode.get(ctx);
+        if (operator != null) {
+            rtn = operator.apply(leftObject, rightObject);
+            if (Operators.arithmeticOf(bop) >= 0) {
+                rtn = NumberUtils.convert(rtn, type1);
+                valueContainer.setValue(variable, rtn);
+            }
+        } else {
+            switch (bop) {
+                case PlayScriptParser.ADD:
+                    rtn = NumberUtils.add(leftObject, rightObject, type);
+                    break;
+                case PlayScriptParser.SUB:
+                    rtn = NumberUtils.minus(leftObject, rightObject, type);
+                    break;
+                case PlayScriptParser.MUL:
+                    rtn = NumberUtils.mul(leftObject, rightObject, type);
+                    break;
+                case PlayScriptParser.DIV:
+                    rtn = NumberUtils.div(leftObject, rightObject, type);
+                    break;
+                case PlayScriptParser.MOD:
+                    rtn = NumberUtils.mod(leftObject, rightObject, type);
+                    break;
+                case PlayScriptParser.BITAND:
+                case PlayScriptParser.BITOR:
+                case PlayScriptParser.CARET:
+                    rtn = bitwise(bop, leftObject, rightObject, type);
+                    break;
+                case PlayScriptParser.EQUAL:
+                    rtn = LogicUtils.EQ(leftObject, rightObject, operandTypeOf(ctx, type1, type2));
+                    break;
+                case PlayScriptParser.NOTEQUAL:
+                    rtn = !LogicUtils.EQ(leftObject, rightObject, operandTypeOf(ctx, type1, type2));
+                    break;
+                case PlayScriptParser.LE:
+                    rtn = LogicUtils.LE(leftObject, rightObject, operandTypeOf(ctx, type1, type2));
+                    break;
+                case PlayScriptParser.LT:
+                    rtn = LogicUtils.LT(leftObject, rightObject, operandTypeOf(ctx, type1, type2));
+                    break;
+                case PlayScriptParser.GE:
+                    rtn = LogicUtils.GE(leftObject, rightObject, operandTypeOf(ctx, type1, type2));
+                    break;
+                case PlayScriptParser.GT:
+                    rtn = LogicUtils.GT(leftObject, rightObject, operandTypeOf(ctx, type1, type2));
+                    break;
+                case PlayScriptParser.ASSIGN:
+                    rtn = NumberUtils.convert(rightObject, type1);
+                    valueContainer.setValue(variable, rtn);
+                    break;
+                case PlayScriptParser.ADD_ASSIGN:
+                    rtn = NumberUtils.convert(NumberUtils.add(leftObject, rightObject, operandTypeOf(ctx, type1, type2)), type1);
+                    valueContainer.setValue(variable, rtn);
+                    break;
+                case PlayScriptParser.SUB_ASSIGN:
+                    rtn = NumberUtils.convert(NumberUtils.minus(leftObject, rightObject, operandTypeOf(ctx, type1, type2)), type1);
+                    valueContainer.setValue(variable, rtn);
+                    break;
+                case PlayScriptParser.MUL_ASSIGN:
+                    rtn = NumberUtils.convert(NumberUtils.mul(leftObject, rightObject, operandTypeOf(ctx, type1, type2)), type1);
+                    valueContainer.setValue(variable, rtn);
+                    break;
+                case PlayScriptParser.DIV_ASSIGN:
+                    rtn = NumberUtils.convert(NumberUtils.div(leftObject, rightObject, operandTypeOf(ctx, type1, type2)), type1);
+                    valueContainer.setValue(variable, rtn);
+                    break;
+                case PlayScriptParser.MOD_ASSIGN:
+                    rtn = NumberUtils.convert(NumberUtils.mod(leftObject, rightObject, operandTypeOf(ctx, type1, type2)), type1);
+                    valueContainer.setValue(variable, rtn);
+                    break;
+                case PlayScriptParser.AND_ASSIGN:
+                case PlayScriptParser.OR_ASSIGN:
+                case PlayScriptParser.XOR_ASSIGN:
+                    rtn = bitwise(Operators.arithmeticOf(bop), leftObject, rightObject, operandTypeOf(ctx, type1, type2));
+                    rtn = NumberUtils.convert(rtn, type1);
+                    valueContainer.setValue(variable, rtn);
+                    break;
+                case PlayScriptParser.LSHIFT_ASSIGN:
+                case PlayScriptParser.RSHIFT_ASSIGN:
+                case PlayScriptParser.URSHIFT_ASSIGN:
+                    rtn = NumberUtils.convert(shift(bop, leftObject, rightObject, type1), type1);
+                    valueContainer.setValue(variable, rtn);
+                    break;
+                default:
+                    throw new UnsupportedOperationException("ASTEvaluator#visitExpression:" + ctx.bop.getText());
+            }
+        }
+        return rtn;
     }
 
+    /**
+     * 移位运算,语法中没有bop
+     *
+     * @param ctx
+     * @return
+     */
+    private Object visitShift(ExpressionContext ctx) {
+        Object leftObject = promote(visitExpression(ctx.expression(0)), at.typeOfNode.get(ctx.expression(0)), null);
+        Object rightObject = promote(visitExpression(ctx.expression(1)), at.typeOfNode.get(ctx.expression(1)), null);
+        //'<' '<' | '>' '>' '>' | '>' '>'
+        int operatorLength = ctx.getChildCount() - 2;
+        int kind = ctx.getChild(1).getText().equals("<") ? PlayScriptParser.LSHIFT_ASSIGN
+                : (operatorLength == 3 ? PlayScriptParser.URSHIFT_ASSIGN : PlayScriptParser.RSHIFT_ASSIGN);
+        return shift(kind, leftObject, rightObject, at.typeOfNode.get(ctx));
+    }
+
+    /**
+     * 移位。long按long移位,其他整数类型提升为int
+     *
+     * @param kind        移位的种类,用对应的复合赋值运算符表示:LSHIFT_ASSIGN、RSHIFT_ASSIGN、URSHIFT_ASSIGN
+     * @param leftObject  被移位的值
+     * @param rightObject 移动的位数
+     * @param type        左边的类型
+     * @return
+     */
+    private static Object shift(int kind, Object leftObject, Object rightObject, Type type) {
+        Object rtn;
+        int distance = ((Number) rightObject).intValue();
+        if (type == PrimitiveType.Long) {
+            long value = ((Number) leftObject).longValue();
+            rtn = kind == PlayScriptParser.LSHIFT_ASSIGN ? value << distance
+                    : (kind == PlayScriptParser.URSHIFT_ASSIGN ? value >>> distance : value >> distance);
+        } else {
+            int value = ((Number) leftObject).intValue();
+            rtn = kind == PlayScriptParser.LSHIFT_ASSIGN ? value << distance
+                    : (kind == PlayScriptParser.URSHIFT_ASSIGN ? value >>> distance : value >> distance);
+        }
+        return rtn;
+    }
+
+    private static Object bitwise(int bop, Object leftObject, Object rightObject, Type type) {
+        Object rtn;
+        if (type == PrimitiveType.Boolean) {
+            boolean l = (Boolean) leftObject;
+            boolean r = (Boolean) rightObject;
+            rtn = bop == PlayScriptParser.BITAND ? l & r : (bop == PlayScriptParser.BITOR ? l | r : l ^ r);
+        } else if (type == PrimitiveType.Long) {
+            long l = ((Number) leftObject).longValue();
+            long r = ((Number) rightObject).longValue();
+            rtn = bop == PlayScriptParser.BITAND ? l & r : (bop == PlayScriptParser.BITOR ? l | r : l ^ r);
+        } else {
+            int l = ((Number) leftObject).intValue();
+            int r = ((Number) rightObject).intValue();
+            rtn = bop == PlayScriptParser.BITAND ? l & r : (bop == PlayScriptParser.BITOR ? l | r : l ^ r);
+        }
+        return rtn;
+    }
+
+    /**
+     * char参与数值运算之前按编码提升为int,与Java相同。byte、short本来就是Number,不用转换。
+     *
+     * @param value
+     * @param type        操作数的类型
+     * @param operandType 运算的类型,字符串连接时char不提升
+     * @return
+     */
+    private static Object promote(Object value, Type type, Type operandType) {
+        return type == PrimitiveType.Char && operandType != PrimitiveType.String
+                ? NumberUtils.convert(value, PrimitiveType.Integer) : value;
+    }
+
+    /**
+     * 操作数提升之后的类型,类型检查时已经算好了
+     */
+    private Type operandTypeOf(ExpressionContext ctx, Type type1, Type type2) {
+        Type rtn = at.operandTypeOfNode.get(ctx);
+        return rtn != null ? rtn : (Type) PrimitiveType.getUpperType(type1, type2);
+    }
+
+    private static boolean isAssignment(int bop) {
+        return bop == PlayScriptParser.ASSIGN || bop == PlayScriptParser.LSHIFT_ASSIGN || bop == PlayScriptParser.RSHIFT_ASSIGN
+                || bop == PlayScriptParser.URSHIFT_ASSIGN || Operators.arithmeticOf(bop) >= 0;
+    }
 
     @Override
     public Object visitExpressionList(ExpressionListContext ctx) {
@@ -218,6 +738,95 @@ public class ASTEvaluator extends PlayScriptBaseVisitor<Object> {
         return rtn;
     }
 
+    //=================================== 函数相关运算 ===================================
+
+    @Override
+    public Object visitFunctionCall(FunctionCallContext ctx) {
+        if (ctx.IDENTIFIER() == null) {
+            throw new UnsupportedOperationException("ASTEvaluator#visitFunctionCall:" + ctx.getStart().getText() + "()");
+        }
+
+        List<Object> paramValues = new LinkedList<Object>();
+        if (ctx.expressionList() != null) {
+            for (ExpressionContext exp : ctx.expressionList().expression()) {
+                paramValues.add(visitExpression(exp));
+            }
+        }
+
+        //内置函数
+        String functionName = ctx.IDENTIFIER().getText();
+        if (RefResolver.PRINTLN.equals(functionName)) {
+            println(paramValues);
+            return null;
+        }
+
+        FunctionObject functionObject = null;
+        Symbol symbol = at.symbolOfNode.get(ctx);
+        if (symbol instanceof FunctionScope) {
+            functionObject = new FunctionObject((FunctionScope) symbol);
+        } else if (symbol instanceof Variable) {
+            //函数型变量,变量的值是一个函数对象
+            Object value = containerOf((Variable) symbol, ctx).getValue((Variable) symbol);
+            if (value instanceof FunctionObject) {
+                functionObject = new FunctionObject(((FunctionObject) value).getFunctionScope());
+                functionObject.setReceiver((Variable) symbol);
+            }
+        }
+
+        if (functionObject == null) {
+            throw new IllegalStateException("ASTEvaluator#visitFunctionCall:unknown function:" + functionName);
+        }
+        return functionCall(functionObject, paramValues);
+    }
+
+    /**
+     * 执行一个函数的方法体。需要先设置参数值，然后再执行代码。
+     *
+     * @param functionObject
+     * @param paramValues
+     * @return
+     */
+    private Object functionCall(FunctionObject functionObject, List<Object> paramValues) {
+        FunctionScope function = functionObject.getFunctionScope();
+        if (traceFunctionCall) {
+            out.println("\n>>FunctionCall : " + function.name);
+        }
+
+        //把参数值放到函数对象里
+        for (int i = 0; i < function.parameters.size() && i < paramValues.size(); i++) {
+            Variable param = function.parameters.get(i);
+            functionObject.setValue(param, NumberUtils.convert(paramValues.get(i), param.type));
+        }
+
+        pushStack(new StackFrame(functionObject));
+
+        FunctionDeclarationContext functionCode = (FunctionDeclarationContext) function.ctx;
+        Object rtn = null;
+        if (functionCode.functionBody().block() != null) {
+            rtn = visitBlock(functionCode.functionBody().block());
+        }
+
+        popStack();
+
+        //如果由一个return语句返回，真实返回值会被封装在一个ReturnObject里。
+        if (rtn instanceof ReturnObject) {
+            rtn = ((ReturnObject) rtn).getReturnValue();
+        } else {
+            rtn = null;
+        }
+        return NumberUtils.convert(rtn, function.returnType);
+    }
+
+    private void println(List<Object> paramValues) {
+        if (paramValues.isEmpty()) {
+            out.println();
+        } else {
+            out.println(paramValues.get(0));
+        }
+    }
+
+    //=================================== 字面量和基本表达式 ===================================
+
     @Override
     public Object visitLiteral(LiteralContext ctx) {
         Object rtn = null;
@@ -247,9 +856,9 @@ public class ASTEvaluator extends PlayScriptBaseVisitor<Object> {
             rtn = withQuotationMark.substring(1, withQuotationMark.length() - 1);
         }
 
-        //单个的字符
+        //单个的字符,去掉两边的单引号
         else if (ctx.CHAR_LITERAL() != null) {
-            rtn = ctx.CHAR_LITERAL().getText().charAt(0);
+            rtn = ctx.CHAR_LITERAL().getText().charAt(1);
         }
 
         //null字面量
@@ -262,11 +871,27 @@ public class ASTEvaluator extends PlayScriptBaseVisitor<Object> {
 
     @Override
     public Object visitIntegerLiteral(IntegerLiteralContext ctx) {
-        Object rtn = null;
-        if (ctx.DECIMAL_LITERAL() != null) {
-            rtn = Integer.valueOf(ctx.DECIMAL_LITERAL().getText());
+        String text = ctx.getText().replace("_", "");
+        boolean isLong = RefResolver.isLong(ctx.getStart());
+        if (isLong) {
+            text = text.substring(0, text.length() - 1);
         }
-        return rtn;
+
+        int radix = 10;
+        if (ctx.HEX_LITERAL() != null) {
+            radix = 16;
+            text = text.substring(2);
+        } else if (ctx.BINARY_LITERAL() != null) {
+            radix = 2;
+            text = text.substring(2);
+        } else if (ctx.OCT_LITERAL() != null) {
+            radix = 8;
+            text = text.substring(1);
+        }
+
+        //十六进制、八进制和二进制的字面量可以表示负数,按无符号数解析
+        long value = Long.parseUnsignedLong(text, radix);
+        return isLong ? (Object) value : (Object) (radix == 10 ? Math.toIntExact(value) : (int) value);
     }
 
     @Override
@@ -290,7 +915,7 @@ public class ASTEvaluator extends PlayScriptBaseVisitor<Object> {
         else if (ctx.IDENTIFIER() != null) {
             Symbol symbol = at.symbolOfNode.get(ctx);
             if (symbol instanceof Variable) {
-                rtn = getLValue((Variable) symbol);
+                rtn = containerOf((Variable) symbol, ctx).getValue((Variable) symbol);
             } else if (symbol instanceof FunctionScope) {
                 FunctionObject obj = new FunctionObject((FunctionScope) symbol);
                 rtn = obj;
@@ -300,15 +925,9 @@ public class ASTEvaluator extends PlayScriptBaseVisitor<Object> {
         else if (ctx.expression() != null) {
             rtn = visitExpression(ctx.expression());
         }
-        //this
-        else if (ctx.THIS() != null) {
-            This thisRef = (This) at.symbolOfNode.get(ctx);
-            rtn = getLValue(thisRef);
-        }
-        //super
-        else if (ctx.SUPER() != null) {
-            Super superRef = (Super) at.symbolOfNode.get(ctx);
-            rtn = getLValue(superRef);
+        //this和super
+        else if (ctx.THIS() != null || ctx.SUPER() != null) {
+            throw new UnsupportedOperationException("ASTEvaluator#visitPrimary:" + ctx.getText());
         }
 
         return rtn;
@@ -0,0 +1,28 @@
+package play.compiler.script.compile;
+
+import org.antlr.v4.runtime.ParserRuleContext;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 语法分析生成的所有AST节点的基类,见 PlayScript.g4 中的 contextSuperClass 选项
+ * 节点第一次被注释时,注释树(AnnotatedTree)给它分配一个编号,注释树中按节点查找的表用这个编号作为数组下标。
+ */
+public class AnnotatedContext extends ParserRuleContext {
+
+    /**
+     * 在所属的注释树中的编号,还没有被注释时为-1
+     */
+    int nodeId = -1;
+
+    public AnnotatedContext() {
+    }
+
+    public AnnotatedContext(ParserRuleContext parent, int invokingStateNumber) {
+        super(parent, invokingStateNumber);
+    }
+
+    public int getNodeId() {
+        return nodeId;
+    }
+}
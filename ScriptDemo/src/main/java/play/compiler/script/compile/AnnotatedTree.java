@@ -4,13 +4,18 @@ package play.compiler.script.compile;
 import cfca.org.slf4j.Logger;
 import cfca.org.slf4j.LoggerFactory;
 import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.atn.PredictionMode;
 import org.antlr.v4.runtime.tree.ParseTree;
+import play.compiler.script.generate.PlayScriptParser.BlockStatementContext;
+import play.compiler.script.runtime.Operator;
 import play.compiler.script.runtime.Type;
+import play.compiler.utils.Args;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 
 /**
  * @Author: zhangchong
@@ -27,6 +32,16 @@ public class AnnotatedTree {
      */
     protected ParseTree ast = null;
 
+    /**
+     * 语法分析成功时使用的预测模式,SLL或LL
+     */
+    protected PredictionMode parseMode = null;
+
+    /**
+     * 编译的统计信息,只分析单条语句时为null
+     */
+    protected CompileStats compileStats = null;
+
     /**
      * 解析出来的所有类型，包括类和函数，以后还可以包括数组和枚举。类的方法也作为单独的要素放进去。
      */
@@ -35,37 +50,183 @@ public class AnnotatedTree {
     /**
      * AST节点对应的Symbol
      */
-    protected Map<ParserRuleContext, Symbol> symbolOfNode = new HashMap<ParserRuleContext, Symbol>();
+    protected NodeTable<Symbol> symbolOfNode = new NodeTable<Symbol>(this);
 
     /**
      * AST节点对应的Scope，如for、函数调用会启动新的Scope
      */
-    protected Map<ParserRuleContext, Scope> node2Scope = new HashMap<ParserRuleContext, Scope>();
+    protected NodeTable<Scope> node2Scope = new NodeTable<Scope>(this);
+
+    /**
+     * AST节点所在的Scope,由第一遍扫描(TypeAndScopeScanner)记录。建立Scope的节点本身属于外层的Scope
+     */
+    protected NodeTable<Scope> scopeOfNode = new NodeTable<Scope>(this);
 
     /**
      * 用于做类型推断，每个节点推断出来的类型
      */
-    protected Map<ParserRuleContext, Type> typeOfNode = new HashMap<ParserRuleContext, Type>();
+    protected NodeTable<Type> typeOfNode = new NodeTable<Type>(this);
+
     /**
-     * 语义分析过程中生成的信息，包括普通信息、警告和错误
+     * 引用变量的节点到变量所在栈桢的距离:从当前栈桢沿parentFrame要走几步,见 SlotResolver
      */
-    protected List<CompilationLog> logs = new LinkedList<CompilationLog>();
+    protected IntNodeTable frameDistanceOfNode = new IntNodeTable(this);
+
+    /**
+     * 表达式的操作数提升之后的类型,比如int和long比较时是long;赋值时是左边的类型。见 TypeChecker
+     */
+    protected NodeTable<Type> operandTypeOfNode = new NodeTable<Type>(this);
+
+    /**
+     * 表达式按操作数类型选好的运算
+     */
+    protected NodeTable<Operator> operatorOfNode = new NodeTable<Operator>(this);
+
+    /**
+     * 编译时折叠出来的表达式的值,解释器直接使用,不再对子树求值。见 ConstantFolder
+     */
+    protected NodeTable<Object> constantOfNode = new NodeTable<Object>(this);
+    /**
+     * 语法分析和语义分析过程中生成的信息，包括普通信息、警告和错误
+     */
+    protected final Diagnostics diagnostics = new Diagnostics();
     /**
      * 全局命名空间
      */
     NameSpace nameSpace = null;
 
+    /**
+     * 并行分析时,当前线程的编译信息和类型先记在这里,最后按确定的顺序合并,见 ParallelResolver
+     */
+    private final ThreadLocal<UnitOutput> unitOutput = new ThreadLocal<UnitOutput>();
+
+    /**
+     * 下一个符号的编号
+     */
+    private int nextSymbolId = 0;
+
+    /**
+     * 下一个AST节点的编号
+     */
+    private int nextNodeId = 0;
+
+    /**
+     * 被释放的节点编号,见 forget,分配编号时优先重用
+     */
+    private int[] freeNodeIds = new int[0];
+    private int freeNodeIdCount = 0;
+
+    /**
+     * 降级后的可执行形式,第一次执行时生成,见 PlayScriptCompiler#Execute
+     */
+    private LoweredForms loweredForms = null;
+
 
     protected AnnotatedTree() {
 
     }
 
     public boolean hasCompilationError() {
-        return false;
+        return diagnostics.hasErrors();
+    }
+
+    /**
+     * 降级后的可执行形式,第一次调用时降级。降级之后注释树不应再修改
+     *
+     * @return
+     */
+    synchronized LoweredForms loweredForms() {
+        if (loweredForms == null) {
+            loweredForms = LoweredForms.of(this);
+        }
+        return loweredForms;
+    }
+
+    /**
+     * 语法分析和语义分析过程中生成的信息
+     *
+     * @return 不可修改的列表
+     */
+    public List<CompilationLog> getLogs() {
+        return diagnostics.getLogs();
+    }
+
+    public Diagnostics getDiagnostics() {
+        return diagnostics;
+    }
+
+    public PredictionMode getParseMode() {
+        return parseMode;
+    }
+
+    public CompileStats getCompileStats() {
+        return compileStats;
     }
 
     public void setNameSpace(NameSpace scope) {
         this.nameSpace = scope;
+        if (scope != null && scope.id < 0) {
+            register(scope);
+        }
+    }
+
+    /**
+     * 给本编译单元新建的符号分配编号。编号从0开始连续分配,可以用作数组的下标。
+     *
+     * @param symbol
+     * @param <T>
+     * @return symbol本身
+     */
+    protected <T extends Symbol> T register(T symbol) {
+        Args.check(symbol.id < 0, "AnnotatedTree#register:symbol %s already registered", symbol.name);
+        symbol.id = nextSymbolId++;
+        return symbol;
+    }
+
+    /**
+     * 已经分配的符号编号的个数,所有符号的编号都小于它
+     *
+     * @return
+     */
+    public int getSymbolIdCount() {
+        return nextSymbolId;
+    }
+
+    /**
+     * 节点在本注释树中的编号,还没有编号时分配一个
+     *
+     * @param ctx
+     * @return
+     */
+    protected int nodeIdOf(ParserRuleContext ctx) {
+        Args.check(ctx instanceof AnnotatedContext, "AnnotatedTree#nodeIdOf:%s is not an AnnotatedContext", ctx);
+        AnnotatedContext node = (AnnotatedContext) ctx;
+        if (node.nodeId < 0) {
+            node.nodeId = freeNodeIdCount > 0 ? freeNodeIds[--freeNodeIdCount] : nextNodeId++;
+        }
+        return node.nodeId;
+    }
+
+    /**
+     * 已经分配的节点编号的个数,包括被释放等待重用的
+     *
+     * @return
+     */
+    public int getNodeIdCount() {
+        return nextNodeId;
+    }
+
+    /**
+     * 释放节点的编号,节点在各个表中的注释都已经删除
+     */
+    private void releaseNodeId(AnnotatedContext node) {
+        if (node.nodeId >= 0) {
+            if (freeNodeIdCount == freeNodeIds.length) {
+                freeNodeIds = Arrays.copyOf(freeNodeIds, Math.max(16, freeNodeIds.length * 2));
+            }
+            freeNodeIds[freeNodeIdCount++] = node.nodeId;
+            node.nodeId = -1;
+        }
     }
 
 
@@ -77,21 +238,83 @@ public class AnnotatedTree {
      * @param ctx
      */
     protected void log(String message, int type, ParserRuleContext ctx) {
-        CompilationLog log = new CompilationLog();
-        log.ctx = ctx;
-        log.message = message;
-        log.line = ctx.getStart().getLine();
-        log.positionInLine = ctx.getStart().getStartIndex();
-        log.type = type;
+        log(type, ctx, message, null);
+    }
+
+    /**
+     * 记录编译错误。信息在用到时才格式化,错误数达到上限之后只计数
+     *
+     * @param ctx
+     * @param format 格式,见 String#format
+     * @param args   格式中引用的参数
+     */
+    protected void log(ParserRuleContext ctx, String format, Object... args) {
+        log(CompilationLog.ERROR, ctx, format, args);
+    }
 
-        logs.add(log);
-        LOG.info(log.toString());
+    private void log(int type, ParserRuleContext ctx, String format, Object[] args) {
+        UnitOutput output = unitOutput.get();
+        Diagnostics target = output != null ? output.diagnostics : diagnostics;
+        if (target.accepts(type)) {
+            Token start = ctx.getStart();
+            target.add(new CompilationLog(type, format, args, diagnostics.linesOf(start), start));
+        }
+    }
+
+    /**
+     * 记录没有对应AST节点的信息,比如语法错误
+     *
+     * @param message
+     * @param type           信息类型，ComplilationLog中的INFO、WARNING和ERROR
+     * @param line
+     * @param positionInLine
+     */
+    protected void log(String message, int type, int line, int positionInLine) {
+        diagnostics.offer(new CompilationLog(type, message, line, positionInLine));
     }
 
     public void log(String message, ParserRuleContext ctx) {
         this.log(message, CompilationLog.ERROR, ctx);
     }
 
+    /**
+     * 记录解析出来的类型
+     *
+     * @param type
+     */
+    protected void addType(Type type) {
+        UnitOutput output = unitOutput.get();
+        (output != null ? output.types : types).add(type);
+    }
+
+    /**
+     * 当前线程以后的编译信息和类型都记到output中,为null时恢复直接记到注释树中
+     *
+     * @param output
+     */
+    protected void redirectOutput(UnitOutput output) {
+        if (output == null) {
+            unitOutput.remove();
+        } else {
+            unitOutput.set(output);
+        }
+    }
+
+    /**
+     * 让各个按节点查找的表容纳所有已经编号的节点。之后多个线程可以同时注释不同的节点。
+     * 第一遍扫描已经给作用域中的每个节点都编了号,之后的分析不会再分配新的编号。
+     */
+    protected void reserveNodeTables() {
+        symbolOfNode.ensureCapacity(nextNodeId);
+        node2Scope.ensureCapacity(nextNodeId);
+        typeOfNode.ensureCapacity(nextNodeId);
+        scopeOfNode.ensureCapacity(nextNodeId);
+        frameDistanceOfNode.ensureCapacity(nextNodeId);
+        operandTypeOfNode.ensureCapacity(nextNodeId);
+        operatorOfNode.ensureCapacity(nextNodeId);
+        constantOfNode.ensureCapacity(nextNodeId);
+    }
+
     /**
      * 通过名称查找Class。逐级Scope向外层查找。
      *
@@ -108,6 +331,140 @@ public class AnnotatedTree {
         return rtn;
     }
 
+    /**
+     * 通过名称查找Variable。逐级Scope向外层查找。
+     *
+     * @param scope
+     * @param idName
+     * @return
+     */
+    protected Variable lookupVariable(Scope scope, String idName) {
+        Variable rtn = scope.getVariable(idName);
+
+        if (rtn == null && scope.enclosingScope != null) {
+            rtn = lookupVariable(scope.enclosingScope, idName);
+        }
+        return rtn;
+    }
+
+    /**
+     * 通过名称和参数类型查找函数。逐级Scope向外层查找。
+     *
+     * @param scope
+     * @param idName
+     * @param paramTypes
+     * @return
+     */
+    protected FunctionScope lookupFunction(Scope scope, String idName, List<Type> paramTypes) {
+        FunctionScope rtn = Scope.getFunction(scope, idName, paramTypes);
+
+        if (rtn == null && scope.enclosingScope != null) {
+            rtn = lookupFunction(scope.enclosingScope, idName, paramTypes);
+        }
+        return rtn;
+    }
+
+    /**
+     * 只通过名称查找函数。逐级Scope向外层查找。
+     *
+     * @param scope
+     * @param idName
+     * @return
+     */
+    protected FunctionScope lookupFunction(Scope scope, String idName) {
+        FunctionScope rtn = Scope.getFunction(scope, idName);
+
+        if (rtn == null && scope.enclosingScope != null) {
+            rtn = lookupFunction(scope.enclosingScope, idName);
+        }
+        return rtn;
+    }
+
+    /**
+     * 释放一条已经执行完的顶层语句的语义信息,使它的AST可以被回收。
+     * 函数和类的声明以后还要用到,保留下来;
+     * 语句中声明的全局变量也保留,但它们引用的AST节点与语句断开。
+     *
+     * @param stmt 顶层语句
+     */
+    protected void forget(BlockStatementContext stmt) {
+        //编译信息不引用AST
+        if (stmt.functionDeclaration() == null && stmt.classDeclaration() == null) {
+            forgetNode(stmt);
+        } else {
+            //声明本身不需要向上查找作用域,与所在的AST断开,以免其它语句的AST被一直引用
+            stmt.parent = null;
+        }
+    }
+
+    /**
+     * 记下当前的状态,以后可以用 rollback 撤销在这之后分析的语句
+     *
+     * @return
+     */
+    protected Mark mark() {
+        return new Mark(nameSpace.symbols.size(), types.size(), diagnostics.size(), nextSymbolId);
+    }
+
+    /**
+     * mark之后是否有新的编译信息
+     *
+     * @param mark
+     * @return
+     */
+    protected boolean hasLogsSince(Mark mark) {
+        return diagnostics.size() > mark.logCount;
+    }
+
+    /**
+     * 撤销mark之后分析的语句:删除它们的编译信息、所有节点上的注释(包括函数和类的声明)、
+     * 解析出来的类型,以及它们在全局命名空间中声明的变量、函数和类。
+     * 撤销的符号的编号也收回,下次分析时重新分配。
+     *
+     * @param mark       分析这些语句之前的状态
+     * @param statements 要撤销的顶层语句
+     * @return 撤销的编译信息
+     */
+    protected List<CompilationLog> rollback(Mark mark, List<? extends ParseTree> statements) {
+        for (ParseTree stmt : statements) {
+            forgetNode(stmt);
+        }
+        nameSpace.truncateSymbols(mark.symbolCount);
+        while (types.size() > mark.typeCount) {
+            types.remove(types.size() - 1);
+        }
+        nextSymbolId = mark.symbolIdCount;
+        return diagnostics.truncate(mark.logCount);
+    }
+
+    private void forgetNode(ParseTree node) {
+        if (node instanceof ParserRuleContext) {
+            ParserRuleContext ctx = (ParserRuleContext) node;
+            Scope scope = node2Scope.remove(ctx);
+            if (scope != null && scope.enclosingScope == nameSpace) {
+                //语句在全局命名空间中建立的块作用域(比如for语句、语句块)已经没用了。刚加入的在最后面。
+                nameSpace.removeSymbol(scope);
+            }
+            Symbol symbol = symbolOfNode.remove(ctx);
+            if (symbol instanceof Variable && symbol.ctx == ctx && symbol.enclosingScope == nameSpace) {
+                //全局变量保留,与语句断开
+                ctx.parent = null;
+            }
+            typeOfNode.remove(ctx);
+            scopeOfNode.remove(ctx);
+            frameDistanceOfNode.remove(ctx);
+            operandTypeOfNode.remove(ctx);
+            operatorOfNode.remove(ctx);
+            constantOfNode.remove(ctx);
+            if (ctx instanceof AnnotatedContext) {
+                releaseNodeId((AnnotatedContext) ctx);
+            }
+            for (int i = 0; i < ctx.getChildCount(); i++) {
+                forgetNode(ctx.getChild(i));
+            }
+        }
+    }
+
     /**
      * 输出本Scope中的内容，包括每个变量的名称、类型。
      *
@@ -115,7 +472,10 @@ public class AnnotatedTree {
      */
     public String getScopeTreeString() {
         StringBuffer sb = new StringBuffer();
-        scopeToString(sb, nameSpace, "");
+        if (nameSpace != null) {
+            //错误数达到上限、没有扫描作用域时为null
+            scopeToString(sb, nameSpace, "");
+        }
         return sb.toString();
     }
 
@@ -139,20 +499,49 @@ public class AnnotatedTree {
 
     /**
      * 获取某个节点所在的scope
-     * 算法:逐级查找父节点,找到一个对应着Scope的上级节点
+     * 算法:第一遍扫描已经记录了每个节点所在的Scope,直接查表;
+     * 没有记录的节点(比如还没有扫描过)逐级查找父节点,找到一个对应着Scope的上级节点,找不到时就是全局命名空间
      *
      * @param node
      * @return
      */
     public Scope enclosingScopeOfNode(ParserRuleContext node) {
-        Scope result = null;
+        Scope result = scopeOfNode.get(node);
         ParserRuleContext parent = node.getParent();
-        if (null != parent) {
-            final Scope rtn = node2Scope.get(parent);
-            if (null == rtn) {
-                result = enclosingScopeOfNode(parent);
+        while (null == result) {
+            if (null == parent) {
+                //单独分析的顶层语句没有prog节点,属于全局命名空间
+                result = nameSpace;
+            } else {
+                result = node2Scope.get(parent);
+                parent = parent.getParent();
             }
         }
         return result;
     }
+
+    /**
+     * 注释树在某一时刻的状态,见 mark
+     */
+    protected static class Mark {
+        private final int symbolCount;
+        private final int typeCount;
+        private final int logCount;
+        private final int symbolIdCount;
+
+        private Mark(int symbolCount, int typeCount, int logCount, int symbolIdCount) {
+            this.symbolCount = symbolCount;
+            this.typeCount = typeCount;
+            this.logCount = logCount;
+            this.symbolIdCount = symbolIdCount;
+        }
+    }
+
+    /**
+     * 一个分析单元(比如一个函数体)产生的编译信息和类型
+     */
+    protected static class UnitOutput {
+        protected final Diagnostics diagnostics = new Diagnostics();
+        protected final List<Type> types = new ArrayList<Type>();
+    }
 }
@@ -0,0 +1,86 @@
+package play.compiler.script.compile;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 批量编译中单个脚本的编译结果
+ */
+public class BatchCompileResult {
+    /**
+     * 脚本的名称,文件编译时是文件路径,源码编译时是在列表中的序号
+     */
+    private final String name;
+
+    /**
+     * 编译结果,读文件失败或编译抛出异常时为null
+     */
+    private final AnnotatedTree at;
+
+    /**
+     * 读文件或编译时抛出的异常
+     */
+    private final Throwable error;
+
+    /**
+     * 读文件和编译的耗时
+     */
+    private final long elapsedNanos;
+
+    protected BatchCompileResult(String name, AnnotatedTree at, Throwable error, long elapsedNanos) {
+        this.name = name;
+        this.at = at;
+        this.error = error;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public AnnotatedTree getAnnotatedTree() {
+        return at;
+    }
+
+    public Throwable getError() {
+        return error;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * 该脚本的编译信息
+     *
+     * @return
+     */
+    public List<CompilationLog> getLogs() {
+        return at != null ? at.getLogs() : Collections.<CompilationLog>emptyList();
+    }
+
+    /**
+     * 编译是否成功:没有抛出异常,也没有编译错误
+     *
+     * @return
+     */
+    public boolean isSuccess() {
+        return error == null && at != null && !at.hasCompilationError();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(name);
+        if (error != null) {
+            builder.append(" failed: ").append(error);
+        } else {
+            builder.append(isSuccess() ? " ok" : " has errors");
+            for (CompilationLog log : getLogs()) {
+                builder.append("\n\t").append(log);
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,136 @@
+package play.compiler.script.compile;
+
+import cfca.org.slf4j.Logger;
+import cfca.org.slf4j.LoggerFactory;
+import play.compiler.utils.Args;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntFunction;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 批量编译
+ * 把一组脚本文件或脚本源码分给 ForkJoinPool 并行编译。
+ * 每个工作线程通过 CompilePipeline 使用自己的 lexer/parser,ATN/DFA 缓存在所有线程间共享。
+ * 每个脚本的编译结果和编译信息单独收集,结果的顺序与输入的顺序相同。
+ */
+public class BatchCompiler {
+    private static Logger LOG = LoggerFactory.getLogger(BatchCompiler.class);
+
+    private final ForkJoinPool pool;
+
+    /**
+     * 是否使用两阶段的语法分析
+     */
+    private boolean twoStageParsing = false;
+
+    /**
+     * 编译结果缓存,为null时不使用缓存
+     */
+    private CompiledScriptCache cache = null;
+
+    public BatchCompiler() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public BatchCompiler(ForkJoinPool pool) {
+        this.pool = Args.notNull(pool, "BatchCompiler#pool");
+    }
+
+    public void setTwoStageParsing(boolean twoStageParsing) {
+        this.twoStageParsing = twoStageParsing;
+    }
+
+    public void setCache(CompiledScriptCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * 并行编译一组脚本文件,文件按UTF-8读取
+     *
+     * @param paths 脚本文件
+     * @return 与paths顺序相同的编译结果
+     */
+    public List<BatchCompileResult> compileFiles(final List<Path> paths) {
+        Args.notNull(paths, "BatchCompiler#compileFiles:paths");
+        return compile(paths.size(), index -> {
+            Path path = paths.get(index);
+            long start = System.nanoTime();
+            try {
+                String script = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+                return compileOne(path.toString(), script, start);
+            } catch (Exception e) {
+                LOG.error("BatchCompiler#compileFiles:unable to read from {}", path, e);
+                return new BatchCompileResult(path.toString(), null, e, System.nanoTime() - start);
+            }
+        });
+    }
+
+    /**
+     * 并行编译一组脚本
+     *
+     * @param sources 脚本
+     * @return 与sources顺序相同的编译结果
+     */
+    public List<BatchCompileResult> compileSources(final List<String> sources) {
+        Args.notNull(sources, "BatchCompiler#compileSources:sources");
+        return compile(sources.size(), index -> compileOne(String.valueOf(index), sources.get(index), System.nanoTime()));
+    }
+
+    private BatchCompileResult compileOne(String name, String script, long start) {
+        try {
+            PlayScriptCompiler compiler = new PlayScriptCompiler(cache);
+            compiler.setTwoStageParsing(twoStageParsing);
+            AnnotatedTree at = compiler.compile(script, false, false);
+            return new BatchCompileResult(name, at, null, System.nanoTime() - start);
+        } catch (RuntimeException e) {
+            LOG.error("BatchCompiler#compile:{} failed", name, e);
+            return new BatchCompileResult(name, null, e, System.nanoTime() - start);
+        }
+    }
+
+    private List<BatchCompileResult> compile(int size, IntFunction<BatchCompileResult> job) {
+        BatchCompileResult[] results = new BatchCompileResult[size];
+        if (size > 0) {
+            pool.invoke(new CompileAction(job, results, 0, size));
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * 二分任务区间,直到每个任务只编译一个脚本
+     */
+    private static class CompileAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final IntFunction<BatchCompileResult> job;
+        private final BatchCompileResult[] results;
+        private final int from;
+        private final int to;
+
+        CompileAction(IntFunction<BatchCompileResult> job, BatchCompileResult[] results, int from, int to) {
+            this.job = job;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                results[from] = job.apply(from);
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new CompileAction(job, results, from, middle),
+                        new CompileAction(job, results, middle, to));
+            }
+        }
+    }
+}
@@ -2,22 +2,24 @@ package play.compiler.script.compile;
 
 import org.antlr.v4.runtime.ParserRuleContext;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * @Author: zhangchong
  * @Description: 块作用域
  */
 public class BlockScope extends Scope {
     /**
-     * block 索引
+     * block 索引。多个线程可能同时在编译，所以用原子计数。
      */
-    private static int index = 1;
+    private static final AtomicInteger index = new AtomicInteger(1);
 
     protected BlockScope() {
-        this.name = "block" + index++;
+        this.name = "block" + index.getAndIncrement();
     }
 
     protected BlockScope(Scope enclosingScope, ParserRuleContext ctx) {
-        this.name = "block" + index++;
+        this.name = "block" + index.getAndIncrement();
         this.enclosingScope = enclosingScope;
         this.ctx = ctx;
     }
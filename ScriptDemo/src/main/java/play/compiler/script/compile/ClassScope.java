@@ -30,6 +30,10 @@ public class ClassScope extends Scope implements Type {
 
     }
 
+    protected This getThisRef() {
+        return thisRef;
+    }
+
     @Override
     public boolean isType(Type type) {
         //TODO
@@ -1,32 +1,107 @@
 package play.compiler.script.compile;
 
-import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.Token;
 
 /**
  * @author zhangchong
  * @CodeReviewer zhangqingan
- * @Description 记录编译过程中产生的信息
+ * @Description 记录编译过程中产生的信息。
+ * 信息的文本在第一次用到时才格式化;有行表时只记字符位置,行号和列号在用到时才查行表。
  */
 public class CompilationLog {
     public static int INFO = 0;
     public static int WARNING = 1;
     public static int ERROR = 2;
-    protected String message = null;
-    protected int line;
-    protected int positionInLine;
+
+    /**
+     * args不为null时是 String#format 的格式
+     */
+    protected final String message;
+    protected final Object[] args;
+
+    /**
+     * 格式化之后的信息
+     */
+    private volatile String formatted = null;
+
     /**
-     * 相关的AST节点
+     * lines为null时直接记录行号和列号,否则记录字符位置
      */
-    protected ParserRuleContext ctx;
+    protected final LineTable lines;
+    protected final int offset;
+    protected final int line;
+    protected final int positionInLine;
+
     /**
      * log的类型，包括信息、警告、错误。
      */
-    protected int type = INFO;
+    protected final int type;
+
+    /**
+     * @param type           信息类型,INFO、WARNING和ERROR
+     * @param message
+     * @param line
+     * @param positionInLine
+     */
+    protected CompilationLog(int type, String message, int line, int positionInLine) {
+        this.type = type;
+        this.message = message;
+        this.args = null;
+        this.lines = null;
+        this.offset = -1;
+        this.line = line;
+        this.positionInLine = positionInLine;
+    }
+
+    /**
+     * @param type   信息类型,INFO、WARNING和ERROR
+     * @param format 格式,args为null时就是信息本身
+     * @param args
+     * @param lines  源码的行表,为null时从Token中取行号和列号
+     * @param start  信息对应的第一个Token
+     */
+    protected CompilationLog(int type, String format, Object[] args, LineTable lines, Token start) {
+        this.type = type;
+        this.message = format;
+        this.args = args;
+        if (lines != null && start.getStartIndex() >= 0) {
+            this.lines = lines;
+            this.offset = start.getStartIndex();
+            this.line = 0;
+            this.positionInLine = 0;
+        } else {
+            this.lines = null;
+            this.offset = -1;
+            this.line = start.getLine();
+            this.positionInLine = start.getCharPositionInLine();
+        }
+    }
+
+    public String getMessage() {
+        String rtn = formatted;
+        if (rtn == null) {
+            rtn = args == null ? message : String.format(message, args);
+            formatted = rtn;
+        }
+        return rtn;
+    }
+
+    public int getLine() {
+        return lines != null ? lines.lineOf(offset) : line;
+    }
+
+    public int getPositionInLine() {
+        return lines != null ? lines.columnOf(offset) : positionInLine;
+    }
+
+    public int getType() {
+        return type;
+    }
 
     @Override
     public String toString() {
-        StringBuilder builder = new StringBuilder(1024);
-        builder.append(message).append(" @").append(line).append(":").append(positionInLine);
+        StringBuilder builder = new StringBuilder();
+        builder.append(getMessage()).append(" @").append(getLine()).append(":").append(getPositionInLine());
         return builder.toString();
     }
 }
@@ -0,0 +1,227 @@
+package play.compiler.script.compile;
+
+import cfca.org.slf4j.Logger;
+import cfca.org.slf4j.LoggerFactory;
+import org.antlr.v4.runtime.ANTLRErrorListener;
+import org.antlr.v4.runtime.BailErrorStrategy;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ConsoleErrorListener;
+import org.antlr.v4.runtime.DefaultErrorStrategy;
+import org.antlr.v4.runtime.Parser;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.atn.ATN;
+import org.antlr.v4.runtime.atn.ATNConfigSet;
+import org.antlr.v4.runtime.atn.ParserATNSimulator;
+import org.antlr.v4.runtime.atn.PredictionContextCache;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.dfa.DFA;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+import play.compiler.script.generate.PlayScriptLexer;
+import play.compiler.script.generate.PlayScriptParser;
+import play.compiler.utils.Args;
+
+import java.util.BitSet;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 可重用的词法分析、语法分析流水线
+ * 每个线程持有一个 PlayScriptLexer、CommonTokenStream 和 PlayScriptParser,
+ * 每次分析前通过 setInputStream/setTokenSource 重置,而不是重新创建。
+ * ATN 和预测用的 DFA 缓存是生成的 Lexer/Parser 的静态成员,所有线程共享。
+ * 该类本身不是线程安全的,只能通过 current() 在本线程中使用。
+ */
+public class CompilePipeline {
+    private static Logger LOG = LoggerFactory.getLogger(CompilePipeline.class);
+
+    private static final ThreadLocal<CompilePipeline> PIPELINES = ThreadLocal.withInitial(CompilePipeline::new);
+
+    private final PlayScriptLexer lexer;
+    private final CommonTokenStream tokens;
+    private final PlayScriptParser parser;
+    private final CountingATNSimulator simulator;
+
+    /**
+     * 最近一次语法分析成功时使用的预测模式
+     */
+    private PredictionMode lastParseMode = null;
+
+    /**
+     * 最近一次语法分析发现的语法错误数
+     */
+    private int lastSyntaxErrors = 0;
+
+    /**
+     * 本流水线分析过的脚本数
+     */
+    private long parseCount = 0;
+
+    protected CompilePipeline() {
+        lexer = new PlayScriptLexer(null);
+        tokens = new CommonTokenStream(lexer);
+        parser = new PlayScriptParser(tokens);
+        ParserATNSimulator shared = parser.getInterpreter();
+        simulator = new CountingATNSimulator(parser, shared.atn, shared.decisionToDFA, shared.getSharedContextCache());
+        parser.setInterpreter(simulator);
+    }
+
+    /**
+     * 取得当前线程的流水线
+     *
+     * @return
+     */
+    public static CompilePipeline current() {
+        return PIPELINES.get();
+    }
+
+    /**
+     * 对输入做词法分析和语法分析。
+     * 两阶段模式下先用SLL模式和BailErrorStrategy分析,出错时回退到LL模式从头再来一遍。
+     * 分析结束后流水线不再引用输入,AST中的Token仍然可以取得原文。
+     *
+     * @param input    输入
+     * @param twoStage 是否使用两阶段的语法分析
+     * @return AST
+     */
+    public PlayScriptParser.ProgContext parse(CharStream input, boolean twoStage) {
+        return parse(input, twoStage, null);
+    }
+
+    /**
+     * 对输入做词法分析和语法分析,并记录统计信息。
+     * 需要统计时先一次性做完词法分析,以便把词法分析和语法分析的时间分开。
+     *
+     * @param input    输入
+     * @param twoStage 是否使用两阶段的语法分析
+     * @param stats    统计信息,为null时不统计
+     * @return AST
+     */
+    public PlayScriptParser.ProgContext parse(CharStream input, boolean twoStage, CompileStats stats) {
+        return parse(input, twoStage, stats, null);
+    }
+
+    /**
+     * 对输入做词法分析和语法分析,词法错误和语法错误报告给errorListener。
+     *
+     * @param input         输入
+     * @param twoStage      是否使用两阶段的语法分析
+     * @param stats         统计信息,为null时不统计
+     * @param errorListener 词法错误和语法错误的监听器,为null时输出到控制台
+     * @return AST
+     */
+    public PlayScriptParser.ProgContext parse(CharStream input, boolean twoStage, CompileStats stats,
+                                              ANTLRErrorListener errorListener) {
+        Args.notNull(input, "CompilePipeline#parse:input");
+        lexer.setInputStream(input);
+        //词法错误也报告给errorListener
+        lexer.removeErrorListeners();
+        lexer.addErrorListener(errorListener != null ? errorListener : ConsoleErrorListener.INSTANCE);
+        tokens.setTokenSource(lexer);
+        parser.setInputStream(tokens);
+        simulator.llFallbacks = 0;
+
+        try {
+            CompileStats.Timer timer = null;
+            if (stats != null) {
+                timer = stats.startTimer();
+                tokens.fill();
+                timer.lap(CompileStats.Phase.LEX);
+                //最后一个是EOF
+                stats.setTokenCount(tokens.size() - 1);
+            }
+
+            int sllRetries = 0;
+            PlayScriptParser.ProgContext prog = null;
+            if (twoStage) {
+                parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+                parser.removeErrorListeners();
+                parser.setErrorHandler(new BailErrorStrategy());
+                try {
+                    prog = parser.prog();
+                    if (tokens.LA(1) != Token.EOF) {
+                        //没有分析到末尾,由LL重新分析并报告错误
+                        throw new ParseCancellationException("CompilePipeline#parse:input left after prog");
+                    }
+                    lastParseMode = PredictionMode.SLL;
+                } catch (ParseCancellationException e) {
+                    LOG.debug("CompilePipeline#parse:SLL failed, fall back to LL");
+                    prog = null;
+                    sllRetries++;
+                    tokens.seek(0);
+                    parser.reset();
+                }
+            }
+
+            if (prog == null) {
+                parser.removeErrorListeners();
+                parser.addErrorListener(errorListener != null ? errorListener : ConsoleErrorListener.INSTANCE);
+                parser.setErrorHandler(new DefaultErrorStrategy());
+                parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+                prog = parser.prog();
+                requireEof();
+                lastParseMode = PredictionMode.LL;
+            }
+            lastSyntaxErrors = parser.getNumberOfSyntaxErrors();
+            parseCount++;
+            if (stats != null) {
+                timer.lap(CompileStats.Phase.PARSE);
+                stats.setLlFallbackCount(simulator.llFallbacks);
+                stats.setSllRetryCount(sllRetries);
+            }
+            return prog;
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * prog匹配的是任意多条语句,遇到不认识的语句(比如 final int K = 3;)会在那里停下,后面的输入被悄悄丢掉。
+     * 没有分析到末尾时,把剩下的第一个记号作为语法错误报告出来。
+     */
+    private void requireEof() {
+        Token token = tokens.LT(1);
+        if (token.getType() != Token.EOF) {
+            parser.notifyErrorListeners(token, "extraneous input '" + token.getText() + "' expecting <EOF>", null);
+        }
+    }
+
+    public PredictionMode getLastParseMode() {
+        return lastParseMode;
+    }
+
+    public int getLastSyntaxErrors() {
+        return lastSyntaxErrors;
+    }
+
+    public long getParseCount() {
+        return parseCount;
+    }
+
+    /**
+     * 记录预测时从SLL回退到完整LL的次数。
+     * 只在SLL遇到冲突时才会回调,不影响正常的预测路径。
+     */
+    private static final class CountingATNSimulator extends ParserATNSimulator {
+        private int llFallbacks = 0;
+
+        CountingATNSimulator(Parser parser, ATN atn, DFA[] decisionToDFA, PredictionContextCache sharedContextCache) {
+            super(parser, atn, decisionToDFA, sharedContextCache);
+        }
+
+        @Override
+        protected void reportAttemptingFullContext(DFA dfa, BitSet conflictingAlts, ATNConfigSet configs,
+                                                   int startIndex, int stopIndex) {
+            llFallbacks++;
+            super.reportAttemptingFullContext(dfa, conflictingAlts, configs, startIndex, stopIndex);
+        }
+    }
+
+    /**
+     * 释放对输入和Token的引用,以免线程长期持有大脚本
+     */
+    private void release() {
+        lexer.setInputStream(null);
+        tokens.setTokenSource(lexer);
+    }
+}
@@ -0,0 +1,237 @@
+package play.compiler.script.compile;
+
+import org.antlr.v4.runtime.tree.ParseTree;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 一次编译的统计:每个阶段的墙钟时间和CPU时间,以及Token、AST节点、作用域、符号的个数,
+ * 还有 ANTLR 从SLL回退到完整LL预测的次数。
+ * 编译结果来自 CompiledScriptCache 时,统计的是最初那次编译。
+ */
+public class CompileStats {
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    /**
+     * 编译的阶段
+     */
+    public enum Phase {
+        /**
+         * 词法分析
+         */
+        LEX,
+        /**
+         * 语法分析
+         */
+        PARSE,
+        /**
+         * pass1:类型和作用域扫描
+         */
+        SCAN,
+        /**
+         * pass2到pass5:类型解析、引用消解和类型推断、变量寻址、类型检查,在同一遍遍历中完成
+         */
+        RESOLVE,
+        /**
+         * 常量折叠和常量传播
+         */
+        FOLD
+    }
+
+    private final long[] wallNanos = new long[Phase.values().length];
+
+    /**
+     * 不支持线程CPU计时的JVM上都是-1
+     */
+    private final long[] cpuNanos = new long[Phase.values().length];
+
+    /**
+     * Token数,包括隐藏通道中的Token,不包括EOF
+     */
+    private int tokenCount = 0;
+
+    /**
+     * AST的节点数,包括叶子节点
+     */
+    private int parseTreeNodeCount = 0;
+
+    /**
+     * 作用域数,包括全局命名空间
+     */
+    private int scopeCount = 0;
+
+    /**
+     * 所有作用域中的符号数,嵌套的作用域本身也算一个符号
+     */
+    private int symbolCount = 0;
+
+    /**
+     * 预测时从SLL回退到完整LL的次数
+     */
+    private int llFallbackCount = 0;
+
+    /**
+     * 两阶段语法分析中SLL阶段失败、整体用LL重新分析的次数
+     */
+    private int sllRetryCount = 0;
+
+    public long getWallNanos(Phase phase) {
+        return wallNanos[phase.ordinal()];
+    }
+
+    public long getCpuNanos(Phase phase) {
+        return cpuNanos[phase.ordinal()];
+    }
+
+    public long getTotalWallNanos() {
+        long total = 0;
+        for (long nanos : wallNanos) {
+            total += nanos;
+        }
+        return total;
+    }
+
+    public long getTotalCpuNanos() {
+        long total = 0;
+        for (long nanos : cpuNanos) {
+            if (nanos < 0) {
+                total = -1;
+                break;
+            }
+            total += nanos;
+        }
+        return total;
+    }
+
+    public int getTokenCount() {
+        return tokenCount;
+    }
+
+    public int getParseTreeNodeCount() {
+        return parseTreeNodeCount;
+    }
+
+    public int getScopeCount() {
+        return scopeCount;
+    }
+
+    public int getSymbolCount() {
+        return symbolCount;
+    }
+
+    public int getLlFallbackCount() {
+        return llFallbackCount;
+    }
+
+    public int getSllRetryCount() {
+        return sllRetryCount;
+    }
+
+    protected void setTokenCount(int tokenCount) {
+        this.tokenCount = tokenCount;
+    }
+
+    protected void setLlFallbackCount(int llFallbackCount) {
+        this.llFallbackCount = llFallbackCount;
+    }
+
+    protected void setSllRetryCount(int sllRetryCount) {
+        this.sllRetryCount = sllRetryCount;
+    }
+
+    /**
+     * 开始计时
+     *
+     * @return
+     */
+    protected Timer startTimer() {
+        return new Timer();
+    }
+
+    /**
+     * 统计AST的节点数
+     *
+     * @param tree
+     */
+    protected void countParseTree(ParseTree tree) {
+        parseTreeNodeCount = tree == null ? 0 : countNodes(tree);
+    }
+
+    /**
+     * 统计作用域和符号数
+     *
+     * @param nameSpace
+     */
+    protected void countScopes(Scope nameSpace) {
+        scopeCount = 0;
+        symbolCount = 0;
+        if (nameSpace != null) {
+            countScope(nameSpace);
+        }
+    }
+
+    private void countScope(Scope scope) {
+        scopeCount++;
+        symbolCount += scope.symbols.size();
+        for (Symbol symbol : scope.symbols) {
+            if (symbol instanceof Scope) {
+                countScope((Scope) symbol);
+            }
+        }
+    }
+
+    private static int countNodes(ParseTree tree) {
+        int count = 1;
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            count += countNodes(tree.getChild(i));
+        }
+        return count;
+    }
+
+    private static long cpuNow() {
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : -1;
+    }
+
+    private static String millis(long nanos) {
+        return nanos < 0 ? "n/a" : String.format("%.3f ms", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("CompileStats");
+        for (Phase phase : Phase.values()) {
+            builder.append("\n\t").append(phase).append(": wall ").append(millis(getWallNanos(phase)))
+                    .append(", cpu ").append(millis(getCpuNanos(phase)));
+        }
+        builder.append("\n\ttotal: wall ").append(millis(getTotalWallNanos()))
+                .append(", cpu ").append(millis(getTotalCpuNanos()));
+        builder.append("\n\ttokens: ").append(tokenCount)
+                .append(", parse tree nodes: ").append(parseTreeNodeCount)
+                .append(", scopes: ").append(scopeCount)
+                .append(", symbols: ").append(symbolCount)
+                .append(", LL fallbacks: ").append(llFallbackCount)
+                .append(", SLL retries: ").append(sllRetryCount);
+        return builder.toString();
+    }
+
+    /**
+     * 分段计时,每次lap记录从上次lap(或开始)以来的时间
+     */
+    protected class Timer {
+        private long wall = System.nanoTime();
+        private long cpu = cpuNow();
+
+        protected void lap(Phase phase) {
+            long wallNow = System.nanoTime();
+            long cpuNow = cpuNow();
+            wallNanos[phase.ordinal()] += wallNow - wall;
+            cpuNanos[phase.ordinal()] = cpuNow < 0 || cpu < 0 ? -1 : cpuNanos[phase.ordinal()] + cpuNow - cpu;
+            wall = wallNow;
+            cpu = cpuNow;
+        }
+    }
+}
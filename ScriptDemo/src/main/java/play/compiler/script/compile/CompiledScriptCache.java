@@ -0,0 +1,352 @@
+package play.compiler.script.compile;
+
+import cfca.org.slf4j.Logger;
+import cfca.org.slf4j.LoggerFactory;
+import play.compiler.script.lower.LoweredProgram;
+import play.compiler.utils.Args;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 编译结果缓存
+ * 以脚本内容的哈希(SHA-256)和编译设置为键,缓存编译得到的 AnnotatedTree,重复编译同一脚本只需一次哈希查找。
+ * 常驻大量脚本时改为缓存降级后的 LoweredProgram(见 getLowered),注释树和语法树编译完就可以回收。
+ * 编译设置(常量折叠、错误数上限等)会改变编译结果,设置不同的编译器共享同一个缓存时各自得到自己的结果。
+ * 1.按 LRU 顺序淘汰,同时限制条目数和缓存脚本的总字符数;
+ * 2.同一脚本的并发编译只执行一次(single-flight),其余线程等待同一个结果;
+ * 3.提供命中、未命中、淘汰次数的统计。
+ * 该类是线程安全的,多个 PlayScriptCompiler 实例可以共享同一个缓存。
+ * 缓存中的 AnnotatedTree、LoweredProgram 被所有取得它的调用者共享,是只读的:只能用来执行和查询,不能再往里面添加符号、注释和编译信息,
+ * 需要修改注释树的场景(比如 ReplSession、StreamingExecutor)应当自己编译。
+ */
+public class CompiledScriptCache {
+    private static Logger LOG = LoggerFactory.getLogger(CompiledScriptCache.class);
+
+    /**
+     * 缺省的最大条目数
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 1024;
+
+    /**
+     * 降级结果的键的后缀,与同一设置下的注释树分开存放
+     */
+    private static final String LOWERED = "/lowered";
+
+    /**
+     * 最大条目数
+     */
+    private final int maxEntries;
+
+    /**
+     * 缓存脚本的最大总字符数
+     */
+    private final long maxSourceChars;
+
+    /**
+     * 已缓存的脚本总字符数,由 this 保护
+     */
+    private long sourceChars = 0;
+
+    /**
+     * 按访问顺序排列的缓存条目,由 this 保护
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    /**
+     * 正在编译中的脚本,用于合并同一脚本的并发编译
+     */
+    private final ConcurrentMap<String, FutureTask<?>> inFlight = new ConcurrentHashMap<String, FutureTask<?>>();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    public CompiledScriptCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    public CompiledScriptCache(int maxEntries) {
+        this(maxEntries, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param maxEntries     最大条目数
+     * @param maxSourceChars 缓存脚本的最大总字符数
+     */
+    public CompiledScriptCache(int maxEntries, long maxSourceChars) {
+        this.maxEntries = Args.positive(maxEntries, "CompiledScriptCache#maxEntries");
+        this.maxSourceChars = Args.positive(maxSourceChars, "CompiledScriptCache#maxSourceChars");
+    }
+
+    /**
+     * 计算脚本内容的哈希,作为缓存的键
+     *
+     * @param script 脚本
+     * @return 十六进制表示的 SHA-256
+     */
+    public static String hashOf(String script) {
+        Args.notNull(script, "CompiledScriptCache#hashOf:script");
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] bytes = digest.digest(script.getBytes(StandardCharsets.UTF_8));
+            StringBuilder builder = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+                builder.append(Character.forDigit(b & 0xF, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("CompiledScriptCache#hashOf:SHA-256 not supported", e);
+        }
+    }
+
+    /**
+     * 缓存的键:脚本内容的哈希加上编译设置
+     *
+     * @param script   脚本
+     * @param settings 编译设置
+     * @return
+     */
+    private static String keyOf(String script, String settings) {
+        Args.notNull(settings, "CompiledScriptCache#keyOf:settings");
+        return hashOf(script) + '/' + settings;
+    }
+
+    /**
+     * 取得脚本的编译结果,不区分编译设置,用于只有一种编译设置的场景
+     *
+     * @param script   脚本
+     * @param compiler 缓存未命中时使用的编译函数
+     * @return 编译结果
+     */
+    public AnnotatedTree get(String script, Function<String, AnnotatedTree> compiler) {
+        return get(script, "", compiler);
+    }
+
+    /**
+     * 取得脚本在某种编译设置下的编译结果,缓存中没有时调用 compiler 编译并放入缓存。
+     * 同一脚本和设置同时只会有一个线程在编译。返回的注释树是只读的。
+     *
+     * @param script   脚本
+     * @param settings 编译设置,compiler 的编译结果只能由脚本和这个设置决定
+     * @param compiler 缓存未命中时使用的编译函数
+     * @return 编译结果
+     */
+    public AnnotatedTree get(String script, String settings, Function<String, AnnotatedTree> compiler) {
+        return getOrCompile(script, keyOf(script, settings), compiler);
+    }
+
+    /**
+     * 取得脚本在某种编译设置下降级后的结果,与注释树分开缓存,见 PlayScriptCompiler#lower。
+     * 缓存中只保留 LoweredProgram,compiler 用完的注释树不会被缓存引用。
+     *
+     * @param script   脚本
+     * @param settings 编译设置
+     * @param compiler 缓存未命中时使用的编译和降级函数
+     * @return 降级后的脚本
+     */
+    public LoweredProgram getLowered(String script, String settings, Function<String, LoweredProgram> compiler) {
+        return getOrCompile(script, keyOf(script, settings) + LOWERED, compiler);
+    }
+
+    private <T> T getOrCompile(String script, String key, Function<String, T> compiler) {
+        Args.notNull(compiler, "CompiledScriptCache#get:compiler");
+
+        T result = lookup(key);
+        if (result != null) {
+            hitCount.incrementAndGet();
+        } else {
+            FutureTask<T> task = new FutureTask<T>(() -> compiler.apply(script));
+            @SuppressWarnings("unchecked")
+            FutureTask<T> running = (FutureTask<T>) inFlight.putIfAbsent(key, task);
+            if (running == null) {
+                // 再查一次,避免刚好错过了另一个线程放入的结果
+                result = lookup(key);
+                if (result != null) {
+                    inFlight.remove(key, task);
+                    hitCount.incrementAndGet();
+                    return result;
+                }
+                missCount.incrementAndGet();
+                try {
+                    task.run();
+                    result = await(task);
+                    store(key, script.length(), result);
+                } finally {
+                    inFlight.remove(key, task);
+                }
+            } else {
+                // 其他线程正在编译同一个脚本,等待它的结果
+                hitCount.incrementAndGet();
+                result = await(running);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 缓存中是否有该脚本在任意一种编译设置下的编译结果
+     *
+     * @param script
+     * @return
+     */
+    public boolean contains(String script) {
+        final String prefix = hashOf(script) + '/';
+        boolean rtn = false;
+        synchronized (this) {
+            for (String key : entries.keySet()) {
+                if (key.startsWith(prefix)) {
+                    rtn = true;
+                    break;
+                }
+            }
+        }
+        return rtn;
+    }
+
+    /**
+     * 缓存中是否有该脚本在某种编译设置下的编译结果
+     *
+     * @param script
+     * @param settings
+     * @return
+     */
+    public boolean contains(String script, String settings) {
+        final String key = keyOf(script, settings);
+        synchronized (this) {
+            return entries.containsKey(key);
+        }
+    }
+
+    /**
+     * 移除某个脚本在所有编译设置下的编译结果
+     *
+     * @param script
+     */
+    public synchronized void invalidate(String script) {
+        final String prefix = hashOf(script) + '/';
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Entry> entry = iterator.next();
+            if (entry.getKey().startsWith(prefix)) {
+                iterator.remove();
+                sourceChars -= entry.getValue().sourceChars;
+            }
+        }
+    }
+
+    /**
+     * 清空缓存,统计数据保留
+     */
+    public synchronized void clear() {
+        entries.clear();
+        sourceChars = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("CompiledScriptCache");
+        builder.append("{size=").append(size());
+        builder.append(", hits=").append(getHitCount());
+        builder.append(", misses=").append(getMissCount());
+        builder.append(", evictions=").append(getEvictionCount());
+        builder.append('}');
+        return builder.toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized <T> T lookup(String key) {
+        Entry entry = entries.get(key);
+        return entry != null ? (T) entry.value : null;
+    }
+
+    private synchronized void store(String key, int chars, Object value) {
+        Entry old = entries.put(key, new Entry(value, chars));
+        if (old != null) {
+            sourceChars -= old.sourceChars;
+        }
+        sourceChars += chars;
+
+        // 按 LRU 顺序淘汰,至少保留刚放入的条目
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || sourceChars > maxSourceChars) && entries.size() > 1) {
+            Map.Entry<String, Entry> eldest = iterator.next();
+            iterator.remove();
+            sourceChars -= eldest.getValue().sourceChars;
+            evictionCount.incrementAndGet();
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("CompiledScriptCache#evict:{}", eldest.getKey());
+            }
+        }
+    }
+
+    private static <T> T await(FutureTask<T> task) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException("CompiledScriptCache#compile failed", cause);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * 缓存条目
+     */
+    private static class Entry {
+        /**
+         * AnnotatedTree 或者 LoweredProgram
+         */
+        final Object value;
+        final int sourceChars;
+
+        Entry(Object value, int sourceChars) {
+            this.value = value;
+            this.sourceChars = sourceChars;
+        }
+    }
+}
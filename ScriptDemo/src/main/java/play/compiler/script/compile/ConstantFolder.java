@@ -0,0 +1,254 @@
+package play.compiler.script.compile;
+
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.ParseTreeWalker;
+import play.compiler.script.generate.PlayScriptBaseListener;
+import play.compiler.script.generate.PlayScriptParser;
+import play.compiler.script.generate.PlayScriptParser.ExpressionContext;
+import play.compiler.script.generate.PlayScriptParser.PrimaryContext;
+import play.compiler.script.generate.PlayScriptParser.VariableDeclaratorContext;
+import play.compiler.script.object.NullObject;
+import play.compiler.script.utils.NumberUtils;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 常量折叠和常量传播,在语义分析没有错误之后运行。
+ * 1.字面量只解析一次;操作数都是常量、没有副作用的表达式(算术、比较、逻辑、移位、三元运算等)在编译时求值;
+ * 2.初始化为常量、之后再也没有被赋值的局部变量和全局变量,在同一个函数中、声明之后的引用也当作常量;
+ * 3.if、while、do、for的条件也会折叠,降级时据此去掉不会执行的分支(见 Lowering),解释器直接取折叠的值选择分支。
+ * 折叠的值记在 AnnotatedTree#constantOfNode 中,解释器遇到有值的节点时跳过整棵子树。
+ * 求值用的就是解释器本身,所以折叠的结果与不折叠时执行的结果完全相同;求值出错(比如除以0)的表达式不折叠,留到运行时报错。
+ */
+public class ConstantFolder extends PlayScriptBaseListener {
+    private final AnnotatedTree at;
+
+    /**
+     * 是否做常量传播。交互式执行时后面的语句还可能给全局变量赋值,不能传播
+     */
+    private final boolean propagate;
+
+    /**
+     * 用来在编译时求值
+     */
+    private final ASTEvaluator evaluator;
+
+    /**
+     * 按符号编号索引:被赋过值的变量
+     */
+    private final boolean[] assigned;
+
+    /**
+     * 按符号编号索引:可以传播的变量的值
+     */
+    private final Object[] values;
+
+    private int foldedCount = 0;
+
+    protected ConstantFolder(AnnotatedTree at, boolean propagate) {
+        this.at = at;
+        this.propagate = propagate;
+        this.evaluator = new ASTEvaluator(at);
+        this.assigned = new boolean[at.getSymbolIdCount()];
+        this.values = new Object[at.getSymbolIdCount()];
+    }
+
+    /**
+     * 折叠一棵树中的常量
+     *
+     * @param at        没有编译错误的注释树
+     * @param tree
+     * @param propagate 是否做常量传播
+     * @return 折叠了的表达式的个数
+     */
+    public static int fold(AnnotatedTree at, ParseTree tree, boolean propagate) {
+        ConstantFolder folder = new ConstantFolder(at, propagate);
+        folder.fold(tree);
+        return folder.foldedCount;
+    }
+
+    protected void fold(ParseTree tree) {
+        ParseTreeWalker walker = new ParseTreeWalker();
+        if (propagate) {
+            //先找出所有被赋过值的变量,它们不能传播
+            walker.walk(new AssignmentCollector(), tree);
+        }
+        walker.walk(this, tree);
+    }
+
+    public int getFoldedCount() {
+        return foldedCount;
+    }
+
+    @Override
+    public void exitExpression(ExpressionContext ctx) {
+        Object value = null;
+        if (ctx.primary() != null && ctx.primary().IDENTIFIER() != null) {
+            value = propagatedValueOf(ctx);
+        } else if (isFoldable(ctx)) {
+            try {
+                value = evaluator.visitExpression(ctx);
+            } catch (RuntimeException e) {
+                //留到运行时报错
+                value = null;
+            }
+        }
+        if (value != null && value != NullObject.instance()) {
+            at.constantOfNode.put(ctx, value);
+            foldedCount++;
+        }
+    }
+
+    @Override
+    public void exitVariableDeclarator(VariableDeclaratorContext ctx) {
+        Symbol symbol = at.symbolOfNode.get(ctx.variableDeclaratorId());
+        if (propagate && symbol instanceof Variable && !((Variable) symbol).isClassMember()
+                && !assigned[symbol.getId()] && ctx.variableInitializer() != null
+                && ctx.variableInitializer().expression() != null) {
+            Object value = at.constantOfNode.get(ctx.variableInitializer().expression());
+            if (value != null) {
+                values[symbol.getId()] = NumberUtils.convert(value, ((Variable) symbol).type);
+            }
+        }
+    }
+
+    /**
+     * 操作数是否都是常量,而且求值没有副作用
+     *
+     * @param ctx
+     * @return
+     */
+    private boolean isFoldable(ExpressionContext ctx) {
+        boolean rtn = false;
+        if (ctx.primary() != null) {
+            rtn = ctx.primary().literal() != null
+                    || (ctx.primary().expression() != null && isConstant(ctx.primary().expression()));
+        } else if (ctx.bop != null && ctx.expression().size() >= 2) {
+            switch (ctx.bop.getType()) {
+                case PlayScriptParser.AND:
+                case PlayScriptParser.OR:
+                    //短路求值时只需要左边是常量
+                    Object left = at.constantOfNode.get(ctx.expression(0));
+                    rtn = left instanceof Boolean && (isConstant(ctx.expression(1))
+                            || (Boolean) left == (ctx.bop.getType() == PlayScriptParser.OR));
+                    break;
+                case PlayScriptParser.QUESTION:
+                    Object condition = at.constantOfNode.get(ctx.expression(0));
+                    rtn = condition instanceof Boolean && isConstant(ctx.expression((Boolean) condition ? 1 : 2));
+                    break;
+                case PlayScriptParser.ADD:
+                case PlayScriptParser.SUB:
+                case PlayScriptParser.MUL:
+                case PlayScriptParser.DIV:
+                case PlayScriptParser.MOD:
+                case PlayScriptParser.BITAND:
+                case PlayScriptParser.BITOR:
+                case PlayScriptParser.CARET:
+                case PlayScriptParser.EQUAL:
+                case PlayScriptParser.NOTEQUAL:
+                case PlayScriptParser.LE:
+                case PlayScriptParser.LT:
+                case PlayScriptParser.GE:
+                case PlayScriptParser.GT:
+                    rtn = isConstant(ctx.expression(0)) && isConstant(ctx.expression(1));
+                    break;
+                default:
+                    //赋值
+                    break;
+            }
+        } else if (ctx.prefix != null) {
+            int prefix = ctx.prefix.getType();
+            rtn = prefix != PlayScriptParser.INC && prefix != PlayScriptParser.DEC && isConstant(ctx.expression(0));
+        } else if (ctx.postfix == null && ctx.bop == null && ctx.functionCall() == null && ctx.expression().size() == 2) {
+            //移位
+            rtn = isConstant(ctx.expression(0)) && isConstant(ctx.expression(1));
+        }
+        return rtn;
+    }
+
+    private boolean isConstant(ExpressionContext ctx) {
+        return at.constantOfNode.get(ctx) != null;
+    }
+
+    /**
+     * 变量引用传播过来的常量。引用必须与声明在同一个函数中、并且在声明之后,这样执行到引用时变量一定已经初始化了。
+     *
+     * @param ctx
+     * @return 不能传播时返回null
+     */
+    private Object propagatedValueOf(ExpressionContext ctx) {
+        Object rtn = null;
+        Symbol symbol = at.symbolOfNode.get(ctx);
+        if (propagate && symbol instanceof Variable && values[symbol.getId()] != null) {
+            ParserRuleContext declarator = symbol.ctx.getParent();
+            if (functionOf(at.enclosingScopeOfNode(ctx)) == functionOf(symbol.enclosingScope)
+                    && ctx.getStart().getTokenIndex() > declarator.getStop().getTokenIndex()) {
+                rtn = values[symbol.getId()];
+            }
+        }
+        return rtn;
+    }
+
+    /**
+     * 作用域所在的函数,不在函数中时返回null
+     */
+    private static FunctionScope functionOf(Scope scope) {
+        Scope s = scope;
+        while (s != null && !(s instanceof FunctionScope)) {
+            s = s.enclosingScope;
+        }
+        return (FunctionScope) s;
+    }
+
+    /**
+     * 找出所有被赋过值的变量:赋值、复合赋值、++和--的左边
+     */
+    private final class AssignmentCollector extends PlayScriptBaseListener {
+        @Override
+        public void exitExpression(ExpressionContext ctx) {
+            boolean assignment = false;
+            if (ctx.bop != null && ctx.expression().size() >= 2) {
+                switch (ctx.bop.getType()) {
+                    case PlayScriptParser.ASSIGN:
+                    case PlayScriptParser.ADD_ASSIGN:
+                    case PlayScriptParser.SUB_ASSIGN:
+                    case PlayScriptParser.MUL_ASSIGN:
+                    case PlayScriptParser.DIV_ASSIGN:
+                    case PlayScriptParser.MOD_ASSIGN:
+                    case PlayScriptParser.AND_ASSIGN:
+                    case PlayScriptParser.OR_ASSIGN:
+                    case PlayScriptParser.XOR_ASSIGN:
+                    case PlayScriptParser.LSHIFT_ASSIGN:
+                    case PlayScriptParser.RSHIFT_ASSIGN:
+                    case PlayScriptParser.URSHIFT_ASSIGN:
+                        assignment = true;
+                        break;
+                    default:
+                        break;
+                }
+            } else if (ctx.postfix != null || (ctx.prefix != null
+                    && (ctx.prefix.getType() == PlayScriptParser.INC || ctx.prefix.getType() == PlayScriptParser.DEC))) {
+                assignment = true;
+            }
+            if (assignment) {
+                PrimaryContext target = targetOf(ctx.expression(0));
+                Symbol symbol = target != null ? at.symbolOfNode.get(target) : null;
+                if (symbol != null && symbol.getId() >= 0) {
+                    assigned[symbol.getId()] = true;
+                }
+            }
+        }
+
+        /**
+         * 左边去掉括号之后的变量,与 ASTEvaluator#targetOf 相同,比如 (a) = 5 中的 a
+         */
+        private PrimaryContext targetOf(ExpressionContext ctx) {
+            PrimaryContext rtn = ctx.primary();
+            while (rtn != null && rtn.expression() != null) {
+                rtn = rtn.expression().primary();
+            }
+            return rtn;
+        }
+    }
+}
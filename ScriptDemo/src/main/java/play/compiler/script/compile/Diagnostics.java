@@ -0,0 +1,184 @@
+package play.compiler.script.compile;
+
+import cfca.org.slf4j.Logger;
+import cfca.org.slf4j.LoggerFactory;
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.UnbufferedCharStream;
+import play.compiler.utils.Args;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 编译信息的收集器,也作为语法分析的错误监听器。
+ * 1.错误数达到上限之后,后面的错误只计数、不再记录,编译器据此跳过剩下的分析;
+ * 2.信息的文本和位置在用到时才计算(见 CompilationLog),收集时不格式化、不打日志;
+ * 3.每个输入在第一次产生信息时扫描一遍源码建立行表,之后按字符位置查找行号和列号。
+ */
+public class Diagnostics extends BaseErrorListener {
+    private static Logger LOG = LoggerFactory.getLogger(Diagnostics.class);
+
+    /**
+     * 默认的错误数上限
+     */
+    public static final int DEFAULT_ERROR_LIMIT = 100;
+
+    private final List<CompilationLog> logs = new ArrayList<CompilationLog>();
+
+    private int errorLimit = DEFAULT_ERROR_LIMIT;
+
+    private int errorCount = 0;
+
+    /**
+     * 超过上限、没有记录的错误数
+     */
+    private int suppressedErrors = 0;
+
+    /**
+     * 最近一个输入和它的行表
+     */
+    private CharStream lastInput = null;
+    private LineTable lastLines = null;
+
+    public int getErrorLimit() {
+        return errorLimit;
+    }
+
+    /**
+     * 设置错误数上限
+     *
+     * @param errorLimit 正整数,不限制时用 Integer.MAX_VALUE
+     */
+    public void setErrorLimit(int errorLimit) {
+        this.errorLimit = Args.positive(errorLimit, "Diagnostics#setErrorLimit:errorLimit");
+    }
+
+    public int getErrorCount() {
+        return errorCount;
+    }
+
+    public int getSuppressedErrors() {
+        return suppressedErrors;
+    }
+
+    public boolean hasErrors() {
+        return errorCount > 0;
+    }
+
+    /**
+     * 错误数是否已经达到上限,达到之后剩下的分析可以不做了
+     *
+     * @return
+     */
+    public boolean isLimitReached() {
+        return errorCount >= errorLimit;
+    }
+
+    /**
+     * 记录下来的信息
+     *
+     * @return 不可修改的列表
+     */
+    public List<CompilationLog> getLogs() {
+        return Collections.unmodifiableList(logs);
+    }
+
+    public int size() {
+        return logs.size();
+    }
+
+    /**
+     * 是否还记录这种类型的信息。不记录的错误计入 suppressedErrors
+     *
+     * @param type
+     * @return
+     */
+    protected boolean accepts(int type) {
+        boolean rtn = true;
+        if (type == CompilationLog.ERROR && isLimitReached()) {
+            suppressedErrors++;
+            rtn = false;
+        }
+        return rtn;
+    }
+
+    protected void add(CompilationLog log) {
+        logs.add(log);
+        if (log.type == CompilationLog.ERROR) {
+            errorCount++;
+        }
+        LOG.debug("Diagnostics#add:{}", log);
+    }
+
+    /**
+     * 按上限记录,超过上限的错误只计数
+     *
+     * @param log
+     */
+    protected void offer(CompilationLog log) {
+        if (accepts(log.type)) {
+            add(log);
+        }
+    }
+
+    protected void suppress(int errors) {
+        suppressedErrors += errors;
+    }
+
+    /**
+     * 去掉第size条之后的信息
+     *
+     * @param size
+     * @return 去掉的信息
+     */
+    protected List<CompilationLog> truncate(int size) {
+        List<CompilationLog> tail = logs.subList(size, logs.size());
+        List<CompilationLog> rtn = new ArrayList<CompilationLog>(tail);
+        for (CompilationLog log : rtn) {
+            if (log.type == CompilationLog.ERROR) {
+                errorCount--;
+            }
+        }
+        tail.clear();
+        return rtn;
+    }
+
+    /**
+     * Token所在输入的行表。无法随机读取的输入(比如 UnbufferedCharStream)没有行表,返回null
+     *
+     * @param token
+     * @return
+     */
+    protected synchronized LineTable linesOf(Token token) {
+        CharStream input = token.getInputStream();
+        if (input != lastInput) {
+            lastInput = input;
+            lastLines = input == null || input instanceof UnbufferedCharStream ? null : LineTable.of(input);
+        }
+        return lastLines;
+    }
+
+    @Override
+    public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line, int charPositionInLine,
+                            String msg, RecognitionException e) {
+        offer(new CompilationLog(CompilationLog.ERROR, "syntax error: " + msg, line, charPositionInLine));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("Diagnostics");
+        builder.append("{logs=").append(logs.size());
+        builder.append(", errors=").append(errorCount);
+        builder.append(", suppressedErrors=").append(suppressedErrors);
+        builder.append(", errorLimit=").append(errorLimit);
+        builder.append('}');
+        return builder.toString();
+    }
+}
@@ -0,0 +1,29 @@
+package play.compiler.script.compile;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description PlayScriptCompiler#Execute 执行脚本的方式,见 PlayScriptCompiler#setEngine。
+ * 除了 EVALUATOR,都先把脚本降级(见 Lowering),降级和生成的结果按注释树缓存,重复执行时不再重新生成。
+ * 有编译错误的脚本用 EVALUATOR 执行。无法降级的脚本:NODE_TREE 退回到 EVALUATOR 并记一次警告,
+ * VM 和 BYTECODE 抛出 UnsupportedOperationException;无法编译成JVM类的脚本用 NODE_TREE 执行并记一次警告。
+ */
+public enum ExecutionEngine {
+    /**
+     * 直接遍历注释树求值,见 ASTEvaluator。支持全部语法,最慢
+     */
+    EVALUATOR,
+    /**
+     * 可执行节点树,见 NodeProgram。执行时按实际的类型特化节点,默认的执行方式
+     */
+    NODE_TREE,
+    /**
+     * 虚拟机的指令,见 VmProgram。类型确定的运算不装箱,生成后不再修改,可以在多个线程中同时执行。
+     * 只支持能降级的脚本,支持的语法见 VmProgram
+     */
+    VM,
+    /**
+     * JVM类,见 CompiledScript。编译和定义类有固定的开销,适合循环多、运行时间长的脚本
+     */
+    BYTECODE
+}
@@ -29,8 +29,6 @@ public class FunctionScope extends Scope implements FunctionType {
      */
     protected Set<Variable> closureVariables = null;
 
-    private List<Type> paramTypes = null;
-
     /**
      * @param name           函数范围名
      * @param enclosingScope 所属的作用域
@@ -49,10 +47,8 @@ public class FunctionScope extends Scope implements FunctionType {
 
     @Override
     public List<Type> getParamTypes() {
-        if (paramTypes == null) {
-            paramTypes = new LinkedList<Type>();
-        }
-
+        //参数在TypeResolver中逐个加入,每次都按当前的参数重新生成
+        List<Type> paramTypes = new LinkedList<Type>();
         for (Variable param : parameters) {
             paramTypes.add(param.type);
         }
@@ -87,7 +83,7 @@ public class FunctionScope extends Scope implements FunctionType {
             for (int i = 0; i < paramTypes.size(); i++) {
                 Variable var = parameters.get(i);
                 Type type = paramTypes.get(i);
-                if (!var.type.isType(type)) {
+                if (var.type == null || !var.type.isType(type)) {
                     match = false;
                     break;
                 }
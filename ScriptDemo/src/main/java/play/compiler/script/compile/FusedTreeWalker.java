@@ -0,0 +1,152 @@
+package play.compiler.script.compile;
+
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.tree.ErrorNode;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.ParseTreeListener;
+import org.antlr.v4.runtime.tree.TerminalNode;
+import play.compiler.script.generate.PlayScriptParser.BlockStatementContext;
+import play.compiler.utils.Args;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 在一遍遍历中同时运行多个分析阶段(pass)
+ * 1.每个节点按pass的顺序依次调用各个pass的enter方法,退出时也按pass的顺序依次调用exit方法。
+ * 后面的pass在同一个节点上可以使用前面的pass刚刚算出来的结果;
+ * 2.遇到前向引用(比如调用在后面声明的函数)时,pass可以用 walkAhead 提前遍历声明所在的子树,
+ * 这棵子树以后不会再遍历第二次。提前遍历的只是被引用到的声明,比如函数的参数和返回值类型;
+ * 3.可以用 exclude 排除一些子树(比如交给其它线程分析的函数体),它们既不遍历,也不会被提前遍历;
+ * 4.设置了 stopOnErrorLimit 时,错误数达到上限之后不再进入新的语句,已经进入的节点照常退出。
+ */
+public class FusedTreeWalker {
+    private final ParseTreeListener[] passes;
+
+    /**
+     * 已经提前遍历过的子树
+     */
+    private Set<ParserRuleContext> walkedAhead = null;
+
+    /**
+     * 排除的子树
+     */
+    private Set<ParserRuleContext> excluded = null;
+
+    /**
+     * 正在遍历的树,只能提前遍历它里面的子树
+     */
+    private ParseTree root = null;
+
+    /**
+     * 不为null时,错误数达到上限之后不再进入新的语句
+     */
+    private Diagnostics diagnostics = null;
+
+    public FusedTreeWalker(ParseTreeListener... passes) {
+        Args.check(passes.length > 0, "FusedTreeWalker#passes:empty");
+        this.passes = passes.clone();
+    }
+
+    /**
+     * 用所有的pass遍历一棵树
+     *
+     * @param tree
+     */
+    public void walk(ParseTree tree) {
+        root = tree;
+        try {
+            walkNode(tree);
+        } finally {
+            root = null;
+        }
+    }
+
+    /**
+     * 错误数达到上限之后不再进入新的语句
+     *
+     * @param diagnostics
+     */
+    public void stopOnErrorLimit(Diagnostics diagnostics) {
+        this.diagnostics = diagnostics;
+    }
+
+    /**
+     * 遍历时跳过一棵子树
+     *
+     * @param subtree
+     */
+    public void exclude(ParserRuleContext subtree) {
+        if (excluded == null) {
+            excluded = Collections.newSetFromMap(new IdentityHashMap<ParserRuleContext, Boolean>());
+        }
+        excluded.add(subtree);
+    }
+
+    private void walkNode(ParseTree tree) {
+        if (tree instanceof ErrorNode) {
+            for (ParseTreeListener pass : passes) {
+                pass.visitErrorNode((ErrorNode) tree);
+            }
+        } else if (tree instanceof TerminalNode) {
+            for (ParseTreeListener pass : passes) {
+                pass.visitTerminal((TerminalNode) tree);
+            }
+        } else if ((walkedAhead == null || !walkedAhead.contains(tree)) && (excluded == null || !excluded.contains(tree))
+                && !(diagnostics != null && tree instanceof BlockStatementContext && diagnostics.isLimitReached())) {
+            ParserRuleContext ctx = (ParserRuleContext) tree;
+            for (ParseTreeListener pass : passes) {
+                pass.enterEveryRule(ctx);
+                ctx.enterRule(pass);
+            }
+            for (int i = 0; i < ctx.getChildCount(); i++) {
+                walkNode(ctx.getChild(i));
+            }
+            for (ParseTreeListener pass : passes) {
+                ctx.exitRule(pass);
+                pass.exitEveryRule(ctx);
+            }
+        }
+    }
+
+    /**
+     * 提前遍历一棵子树,用于解析前向引用。同一棵子树只遍历一次。
+     * 不在正在遍历的树里面、或者被排除的子树,什么也不做。
+     *
+     * @param subtree 为null时什么也不做
+     */
+    public void walkAhead(ParserRuleContext subtree) {
+        if (subtree != null && (walkedAhead == null || !walkedAhead.contains(subtree)) && isWalkable(subtree)) {
+            walkNode(subtree);
+            if (walkedAhead == null) {
+                walkedAhead = Collections.newSetFromMap(new IdentityHashMap<ParserRuleContext, Boolean>());
+            }
+            walkedAhead.add(subtree);
+        }
+    }
+
+    private boolean isWalkable(ParserRuleContext subtree) {
+        boolean result = false;
+        for (ParserRuleContext ctx = subtree; ctx != null; ctx = ctx.getParent()) {
+            if (excluded != null && excluded.contains(ctx)) {
+                break;
+            } else if (ctx == root) {
+                result = true;
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 提前遍历过的子树的个数
+     *
+     * @return
+     */
+    public int getWalkedAheadCount() {
+        return walkedAhead == null ? 0 : walkedAhead.size();
+    }
+}
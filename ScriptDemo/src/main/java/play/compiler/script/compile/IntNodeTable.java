@@ -0,0 +1,93 @@
+package play.compiler.script.compile;
+
+import org.antlr.v4.runtime.ParserRuleContext;
+
+import java.util.Arrays;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 注释值是非负整数的 NodeTable,值直接存在int数组里,不装箱。
+ * 没有注释的节点取到 NONE。
+ */
+public class IntNodeTable {
+    /**
+     * 节点没有注释
+     */
+    public static final int NONE = -1;
+
+    private static final int[] EMPTY = new int[0];
+
+    private final AnnotatedTree at;
+
+    private int[] values = EMPTY;
+
+    protected IntNodeTable(AnnotatedTree at) {
+        this.at = at;
+    }
+
+    public int get(ParserRuleContext ctx) {
+        int id = ctx instanceof AnnotatedContext ? ((AnnotatedContext) ctx).nodeId : -1;
+        return id >= 0 && id < values.length ? values[id] : NONE;
+    }
+
+    /**
+     * 记录节点的注释,节点还没有编号时先分配一个
+     *
+     * @param ctx
+     * @param value 非负整数
+     * @return 原来的注释
+     */
+    public int put(ParserRuleContext ctx, int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("IntNodeTable#put:negative value:" + value);
+        }
+        int id = at.nodeIdOf(ctx);
+        if (id >= values.length) {
+            ensureCapacity(Math.max(id + 1, Math.max(16, values.length + (values.length >> 1))));
+        }
+        int old = values[id];
+        values[id] = value;
+        return old;
+    }
+
+    /**
+     * 让表能容纳编号小于capacity的节点
+     *
+     * @param capacity
+     */
+    protected void ensureCapacity(int capacity) {
+        if (capacity > values.length) {
+            int length = values.length;
+            values = Arrays.copyOf(values, capacity);
+            Arrays.fill(values, length, capacity, NONE);
+        }
+    }
+
+    public int remove(ParserRuleContext ctx) {
+        int old = get(ctx);
+        if (old != NONE) {
+            values[((AnnotatedContext) ctx).nodeId] = NONE;
+        }
+        return old;
+    }
+
+    public boolean containsKey(ParserRuleContext ctx) {
+        return get(ctx) != NONE;
+    }
+
+    /**
+     * 有注释的条目数,需要扫描整个表
+     *
+     * @return
+     */
+    public int size() {
+        int size = 0;
+        for (int value : values) {
+            if (value != NONE) {
+                size++;
+            }
+        }
+        return size;
+    }
+}
@@ -0,0 +1,70 @@
+package play.compiler.script.compile;
+
+import org.antlr.v4.runtime.CharStream;
+
+import java.util.Arrays;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 源码中每一行的起始位置,按字符位置查找行号和列号。
+ * 位置与ANTLR的Token一样按码点计数,行号从1开始,列号从0开始,只有'\n'换行。
+ */
+public final class LineTable {
+    /**
+     * 第i行(从0开始)第一个字符的位置
+     */
+    private final int[] lineStarts;
+
+    private LineTable(int[] lineStarts) {
+        this.lineStarts = lineStarts;
+    }
+
+    /**
+     * 扫描一遍源码建立行表。逐个码点读取字符流,不把源码复制成字符串;扫描之后恢复字符流原来的位置
+     *
+     * @param input 可以随机读取的字符流
+     * @return
+     */
+    public static LineTable of(CharStream input) {
+        int[] starts = new int[16];
+        int count = 1;
+        int size = input.size();
+        int index = input.index();
+        try {
+            input.seek(0);
+            for (int position = 0; position < size; position++) {
+                if (input.LA(position + 1) == '\n') {
+                    if (count == starts.length) {
+                        starts = Arrays.copyOf(starts, count * 2);
+                    }
+                    starts[count++] = position + 1;
+                }
+            }
+        } finally {
+            input.seek(index);
+        }
+        return new LineTable(Arrays.copyOf(starts, count));
+    }
+
+    public int getLineCount() {
+        return lineStarts.length;
+    }
+
+    /**
+     * @param offset 字符位置
+     * @return 所在的行,从1开始
+     */
+    public int lineOf(int offset) {
+        int index = Arrays.binarySearch(lineStarts, offset);
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    /**
+     * @param offset 字符位置
+     * @return 在所在行中的位置,从0开始
+     */
+    public int columnOf(int offset) {
+        return offset - lineStarts[lineOf(offset) - 1];
+    }
+}
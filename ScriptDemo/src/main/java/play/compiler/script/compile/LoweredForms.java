@@ -0,0 +1,151 @@
+package play.compiler.script.compile;
+
+import cfca.org.slf4j.Logger;
+import cfca.org.slf4j.LoggerFactory;
+import play.compiler.script.bytecode.CompiledScript;
+import play.compiler.script.exec.NodeProgram;
+import play.compiler.script.lower.LoweredProgram;
+import play.compiler.script.vm.VmProgram;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 一个脚本降级后的各种可执行形式,第一次用到时生成,之后的执行重复使用,见 AnnotatedTree#loweredForms。
+ * 编译结果缓存中的注释树会被多个线程同时执行:LoweredProgram、VmProgram 和 CompiledScript 生成之后不再修改,可以共享;
+ * NodeProgram 执行时会修改节点,放在池里,每次执行借出一个,用完归还,下次执行时节点已经特化。
+ * 无法降级的脚本只有 NODE_TREE 退回到 ASTEvaluator;选定 VM 或 BYTECODE 时抛出 UnsupportedOperationException,
+ * 不悄悄换成慢得多的执行方式。
+ */
+final class LoweredForms {
+    private static Logger LOG = LoggerFactory.getLogger(LoweredForms.class);
+
+    /**
+     * 降级后的脚本,有编译错误或者无法降级时为null
+     */
+    private final LoweredProgram program;
+
+    /**
+     * Lowering 拒绝的语法,能降级时为null
+     */
+    private final String unsupported;
+
+    /**
+     * 空闲的可执行节点树
+     */
+    private final ConcurrentLinkedQueue<NodeProgram> nodePrograms = new ConcurrentLinkedQueue<NodeProgram>();
+
+    private VmProgram vmProgram = null;
+
+    private CompiledScript compiledScript = null;
+
+    /**
+     * 是否已经尝试过编译成JVM类,无法编译时 compiledScript 为null
+     */
+    private boolean bytecodeCompiled = false;
+
+    LoweredForms(LoweredProgram program) {
+        this(program, null);
+    }
+
+    private LoweredForms(LoweredProgram program, String unsupported) {
+        this.program = program;
+        this.unsupported = unsupported;
+    }
+
+    /**
+     * 降级。有编译错误的脚本不降级,用 ASTEvaluator 执行;无法降级的脚本记一次警告
+     *
+     * @param at
+     * @return
+     */
+    static LoweredForms of(AnnotatedTree at) {
+        LoweredProgram program = null;
+        String unsupported = null;
+        if (!at.hasCompilationError()) {
+            try {
+                //不写成映像文件,不需要源码的哈希
+                program = Lowering.lower(at, "");
+            } catch (UnsupportedOperationException e) {
+                unsupported = e.getMessage();
+                LOG.warn("LoweredForms#of:cannot be lowered, {}", unsupported);
+            }
+        }
+        return new LoweredForms(program, unsupported);
+    }
+
+    /**
+     * 选定engine时实际使用的执行方式:有编译错误或者 NODE_TREE 无法降级时是 EVALUATOR,无法编译成JVM类时是 NODE_TREE
+     *
+     * @param engine
+     * @return
+     * @throws UnsupportedOperationException 选定 VM 或 BYTECODE,脚本无法降级,消息中是 Lowering 拒绝的语法
+     */
+    ExecutionEngine engineFor(ExecutionEngine engine) {
+        ExecutionEngine rtn = engine;
+        if (program == null) {
+            if (unsupported != null && (engine == ExecutionEngine.VM || engine == ExecutionEngine.BYTECODE)) {
+                throw new UnsupportedOperationException("LoweredForms#engineFor:" + engine + " cannot execute the script, " + unsupported);
+            }
+            rtn = ExecutionEngine.EVALUATOR;
+        } else if (engine == ExecutionEngine.BYTECODE && compiledScript() == null) {
+            rtn = ExecutionEngine.NODE_TREE;
+        }
+        return rtn;
+    }
+
+    /**
+     * 执行
+     *
+     * @param engine engineFor 返回的执行方式,不能是 EVALUATOR
+     * @return
+     */
+    Object execute(ExecutionEngine engine) {
+        Object rtn;
+        switch (engine) {
+            case BYTECODE:
+                rtn = compiledScript().execute();
+                break;
+            case VM:
+                rtn = vmProgram().execute();
+                break;
+            case NODE_TREE:
+                NodeProgram nodeProgram = nodePrograms.poll();
+                if (nodeProgram == null) {
+                    nodeProgram = NodeProgram.of(program);
+                }
+                try {
+                    rtn = nodeProgram.execute();
+                } finally {
+                    nodePrograms.offer(nodeProgram);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("LoweredForms#execute:" + engine);
+        }
+        return rtn;
+    }
+
+    private synchronized VmProgram vmProgram() {
+        if (vmProgram == null) {
+            vmProgram = VmProgram.of(program);
+        }
+        return vmProgram;
+    }
+
+    /**
+     * @return 无法编译时返回null,只记一次警告
+     */
+    private synchronized CompiledScript compiledScript() {
+        if (!bytecodeCompiled) {
+            bytecodeCompiled = true;
+            try {
+                compiledScript = CompiledScript.of(program);
+            } catch (UnsupportedOperationException e) {
+                LOG.warn("LoweredForms#compiledScript:executed by NodeProgram, {}", e.getMessage());
+            }
+        }
+        return compiledScript;
+    }
+}
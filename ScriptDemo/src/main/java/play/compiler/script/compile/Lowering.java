@@ -0,0 +1,725 @@
+package play.compiler.script.compile;
+
+import play.compiler.script.generate.PlayScriptParser;
+import play.compiler.script.generate.PlayScriptParser.*;
+import play.compiler.script.lower.LoweredFunction;
+import play.compiler.script.lower.LoweredNode;
+import play.compiler.script.lower.LoweredOp;
+import play.compiler.script.lower.LoweredProgram;
+import play.compiler.script.lower.LoweredScope;
+import play.compiler.script.runtime.PrimitiveType;
+import play.compiler.script.runtime.Type;
+import play.compiler.utils.Args;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 把语义分析的结果(AnnotatedTree)降级成不依赖语法树的 LoweredProgram。
+ * 1.每个作用域的变量按声明顺序编号成槽位,函数的参数占最前面的槽位;
+ * 2.全局作用域和函数总是建立栈桢,块作用域只有声明了变量时才建立栈桢;
+ * 3.变量引用解析成(跳过的栈桢数, 槽位),函数调用解析成函数表的序号;
+ * 4.类型转换、复合赋值等在这里展开成显式的节点;
+ * 5.编译时折叠了的表达式(见 ConstantFolder)直接降级成常量;条件是常量的if只保留会执行的分支,
+ * 条件是常量false的while、for不保留循环体,条件是常量true的while、for不再对条件求值;
+ * 6.没有子节点的节点不可变,相同的只保留一份。
+ * 降级后的脚本不引用语法树和注释树,编译结果可以在降级之后释放。
+ * 目前不支持类和成员访问、switch、函数型的值,遇到时抛出 UnsupportedOperationException。
+ */
+public class Lowering {
+    private final AnnotatedTree at;
+
+    /**
+     * 用来计算字面量的值,与解释器保持一致
+     */
+    private final ASTEvaluator literals;
+
+    /**
+     * 以下按符号编号(Symbol#getId)索引的表,没有登记的是-1
+     */
+    private final List<LoweredScope> scopes = new ArrayList<LoweredScope>();
+    private final int[] scopeIndex;
+
+    /**
+     * 按先序排列的作用域
+     */
+    private final List<Scope> scopesInOrder = new ArrayList<Scope>();
+
+    /**
+     * 建立栈桢的作用域
+     */
+    private final boolean[] framed;
+    private final int[] slots;
+
+    private final List<Object> constants = new ArrayList<Object>();
+    private final Map<Object, Integer> constantIndex = new HashMap<Object, Integer>();
+
+    private final List<LoweredFunction> functions = new ArrayList<LoweredFunction>();
+
+    /**
+     * 共享的叶子节点,键是(op, type, a, b, c)
+     */
+    private final Map<List<Integer>, LoweredNode> leaves = new HashMap<List<Integer>, LoweredNode>();
+    private final int[] functionIndex;
+
+    /**
+     * 正在降级的代码所在的作用域
+     */
+    private Scope currentScope;
+
+    protected Lowering(AnnotatedTree at) {
+        this.at = at;
+        this.literals = new ASTEvaluator(at);
+        int symbolCount = at.getSymbolIdCount();
+        this.scopeIndex = newIndex(symbolCount);
+        this.framed = new boolean[symbolCount];
+        this.slots = newIndex(symbolCount);
+        this.functionIndex = newIndex(symbolCount);
+    }
+
+    private static int[] newIndex(int size) {
+        int[] index = new int[size];
+        Arrays.fill(index, -1);
+        return index;
+    }
+
+    /**
+     * 降级编译结果
+     *
+     * @param at         没有编译错误的编译结果
+     * @param sourceHash 源码的哈希,见 CompiledScriptCache#hashOf
+     * @return
+     */
+    public static LoweredProgram lower(AnnotatedTree at, String sourceHash) {
+        Args.notNull(at, "Lowering#lower:at");
+        Args.check(!at.hasCompilationError(), "Lowering#lower:script has compilation errors");
+        return new Lowering(at).lower(sourceHash);
+    }
+
+    private LoweredProgram lower(String sourceHash) {
+        indexScope(at.nameSpace, -1);
+
+        //先登记所有函数,函数体里可以调用后面声明的函数
+        List<FunctionScope> declared = new ArrayList<FunctionScope>();
+        for (Scope scope : scopesInOrder) {
+            if (scope instanceof FunctionScope && !insideClass(scope)) {
+                declared.add((FunctionScope) scope);
+            }
+        }
+        for (FunctionScope function : declared) {
+            for (int i = 0; i < function.parameters.size(); i++) {
+                Args.check(slots[idOf(function.parameters.get(i))] == i,
+                        "Lowering#lower:parameters of %s are not the first symbols", function.name);
+            }
+            functionIndex[idOf(function)] = functions.size();
+            functions.add(new LoweredFunction(scopeIndex[idOf(function)], frameSizeOf(function),
+                    function.parameters.size(), typeCode(function.returnType)));
+        }
+        for (FunctionScope function : declared) {
+            currentScope = function;
+            FunctionBodyContext body = ((FunctionDeclarationContext) function.ctx).functionBody();
+            LoweredNode code = body.block() == null ? node(LoweredOp.BLOCK, LoweredOp.NO_TYPE, -1, 0, 0)
+                    : lowerBlockStatements(body.block().blockStatements(), -1, 0);
+            functions.get(functionIndex[idOf(function)]).setBody(code);
+        }
+
+        currentScope = at.nameSpace;
+        ProgContext prog = (ProgContext) at.ast;
+        LoweredNode main = lowerBlockStatements(prog.blockStatements(), 0, frameSizeOf(at.nameSpace));
+        return new LoweredProgram(sourceHash, scopes, constants.toArray(),
+                functions.toArray(new LoweredFunction[0]), main);
+    }
+
+    //=================================== 作用域 ===================================
+
+    /**
+     * 按先序给作用域编号,给变量分配槽位
+     *
+     * @param scope
+     * @param parent
+     * @return 作用域的序号
+     */
+    private int indexScope(Scope scope, int parent) {
+        int index = scopes.size();
+        scopeIndex[idOf(scope)] = index;
+        scopesInOrder.add(scope);
+
+        int variables = 0;
+        for (Symbol symbol : scope.symbols) {
+            if (symbol instanceof Variable) {
+                slots[idOf(symbol)] = variables++;
+            }
+        }
+        boolean hasFrame = !(scope instanceof ClassScope)
+                && (scope instanceof NameSpace || scope instanceof FunctionScope || variables > 0);
+        framed[idOf(scope)] = hasFrame;
+
+        LoweredScope lowered = new LoweredScope(String.valueOf(scope), parent, hasFrame ? variables : -1);
+        scopes.add(lowered);
+        for (Symbol symbol : scope.symbols) {
+            if (symbol instanceof Scope) {
+                lowered.addScope(indexScope((Scope) symbol, index));
+            } else if (symbol instanceof Variable) {
+                Type type = ((Variable) symbol).type;
+                lowered.addVariable(symbol.name, typeCode(type), String.valueOf(type));
+            } else {
+                lowered.addOther(String.valueOf(symbol));
+            }
+        }
+        return index;
+    }
+
+    private boolean insideClass(Scope scope) {
+        boolean result = false;
+        for (Scope s = scope; s != null; s = s.enclosingScope) {
+            if (s instanceof ClassScope) {
+                result = true;
+                break;
+            }
+        }
+        return result;
+    }
+
+    private int frameSizeOf(Scope scope) {
+        return scopes.get(scopeIndex[idOf(scope)]).getFrameSize();
+    }
+
+    /**
+     * 从当前作用域到target,中间要跳过的栈桢数
+     *
+     * @param target
+     * @return
+     */
+    private int hopsTo(Scope target) {
+        int hops = 0;
+        Scope scope = currentScope;
+        while (scope != target) {
+            if (scope == null || scope instanceof ClassScope) {
+                throw new UnsupportedOperationException("Lowering#hopsTo:" + target.name + " is not reachable");
+            }
+            if (framed[idOf(scope)]) {
+                hops++;
+            }
+            scope = scope.enclosingScope;
+        }
+        return hops;
+    }
+
+    private static int typeCode(Type type) {
+        return type instanceof PrimitiveType ? ((PrimitiveType) type).ordinal() : LoweredOp.NO_TYPE;
+    }
+
+    //=================================== 语句 ===================================
+
+    private LoweredNode lowerBlockStatements(BlockStatementsContext ctx, int scope, int frameSize) {
+        List<LoweredNode> kids = new ArrayList<LoweredNode>();
+        for (BlockStatementContext child : ctx.blockStatement()) {
+            kids.add(lowerBlockStatement(child));
+        }
+        return node(LoweredOp.BLOCK, LoweredOp.NO_TYPE, scope, frameSize, 0, kids);
+    }
+
+    private LoweredNode lowerBlockStatement(BlockStatementContext ctx) {
+        LoweredNode rtn;
+        if (ctx.variableDeclarators() != null) {
+            rtn = lowerVariableDeclarators(ctx.variableDeclarators());
+        } else if (ctx.statement() != null) {
+            rtn = lowerStatement(ctx.statement());
+        } else {
+            //函数和类的声明不产生代码
+            rtn = node(LoweredOp.NOP, LoweredOp.NO_TYPE);
+        }
+        return rtn;
+    }
+
+    private LoweredNode lowerVariableDeclarators(VariableDeclaratorsContext ctx) {
+        List<LoweredNode> kids = new ArrayList<LoweredNode>();
+        for (VariableDeclaratorContext child : ctx.variableDeclarator()) {
+            Variable variable = (Variable) at.symbolOfNode.get(child.variableDeclaratorId());
+            if (child.variableInitializer() == null) {
+                kids.add(node(LoweredOp.NOP, LoweredOp.NO_TYPE));
+            } else if (child.variableInitializer().expression() == null) {
+                throw new UnsupportedOperationException("Lowering#lowerVariableDeclarators:array initializer");
+            } else {
+                kids.add(store(variable, convert(lowerExpression(child.variableInitializer().expression()), variable.type)));
+            }
+        }
+        return node(LoweredOp.DECL, LoweredOp.NO_TYPE, 0, 0, 0, kids);
+    }
+
+    private LoweredNode lowerStatement(StatementContext ctx) {
+        LoweredNode rtn;
+        if (ctx.blockLabel != null) {
+            rtn = lowerBlock(ctx.blockLabel);
+        } else if (ctx.statementExpression != null) {
+            rtn = node(LoweredOp.EXPR, LoweredOp.NO_TYPE, lowerExpression(ctx.statementExpression));
+        } else if (ctx.IF() != null) {
+            Object constant = at.constantOfNode.get(ctx.parExpression().expression());
+            if (constant instanceof Boolean) {
+                //条件是常量,只降级会执行的分支
+                if ((Boolean) constant) {
+                    rtn = lowerStatement(ctx.statement(0));
+                } else {
+                    rtn = ctx.ELSE() != null ? lowerStatement(ctx.statement(1)) : node(LoweredOp.NOP, LoweredOp.NO_TYPE);
+                }
+            } else {
+                LoweredNode condition = lowerExpression(ctx.parExpression().expression());
+                rtn = ctx.ELSE() == null
+                        ? node(LoweredOp.IF, LoweredOp.NO_TYPE, condition, lowerStatement(ctx.statement(0)))
+                        : node(LoweredOp.IF, LoweredOp.NO_TYPE, condition, lowerStatement(ctx.statement(0)), lowerStatement(ctx.statement(1)));
+            }
+        } else if (ctx.FOR() != null) {
+            rtn = lowerFor(ctx);
+        } else if (ctx.DO() != null) {
+            //条件是常量时也保留循环,循环体中的break、continue要跳到这里
+            rtn = node(LoweredOp.DO, LoweredOp.NO_TYPE, lowerStatement(ctx.statement(0)), lowerExpression(ctx.parExpression().expression()));
+        } else if (ctx.WHILE() != null) {
+            Object constant = at.constantOfNode.get(ctx.parExpression().expression());
+            if (Boolean.FALSE.equals(constant)) {
+                //循环体不会执行
+                rtn = node(LoweredOp.NOP, LoweredOp.NO_TYPE);
+            } else if (Boolean.TRUE.equals(constant)) {
+                //不再每次迭代都对条件求值,与 for (;;) 相同
+                LoweredNode empty = node(LoweredOp.BLOCK, LoweredOp.NO_TYPE, -1, 0, 0);
+                rtn = node(LoweredOp.FOR, LoweredOp.NO_TYPE, -1, 0, 0, empty, node(LoweredOp.NOP, LoweredOp.NO_TYPE),
+                        empty, lowerStatement(ctx.statement(0)));
+            } else {
+                rtn = node(LoweredOp.WHILE, LoweredOp.NO_TYPE, lowerExpression(ctx.parExpression().expression()), lowerStatement(ctx.statement(0)));
+            }
+        } else if (ctx.RETURN() != null) {
+            rtn = ctx.expression() == null ? node(LoweredOp.RETURN, LoweredOp.NO_TYPE)
+                    : node(LoweredOp.RETURN, LoweredOp.NO_TYPE, lowerExpression(ctx.expression()));
+        } else if (ctx.BREAK() != null) {
+            rtn = node(LoweredOp.BREAK, LoweredOp.NO_TYPE);
+        } else if (ctx.CONTINUE() != null) {
+            rtn = node(LoweredOp.CONTINUE, LoweredOp.NO_TYPE);
+        } else if (ctx.identifierLabel != null) {
+            rtn = lowerStatement(ctx.statement(0));
+        } else if (ctx.SWITCH() != null) {
+            throw new UnsupportedOperationException("Lowering#lowerStatement:switch");
+        } else {
+            rtn = node(LoweredOp.NOP, LoweredOp.NO_TYPE);
+        }
+        return rtn;
+    }
+
+    private LoweredNode lowerBlock(BlockContext ctx) {
+        Scope scope = at.node2Scope.get(ctx);
+        LoweredNode rtn;
+        if (scope == null) {
+            rtn = lowerBlockStatements(ctx.blockStatements(), -1, 0);
+        } else {
+            Scope outer = currentScope;
+            currentScope = scope;
+            rtn = framed[idOf(scope)] ? lowerBlockStatements(ctx.blockStatements(), scopeIndex[idOf(scope)], frameSizeOf(scope))
+                    : lowerBlockStatements(ctx.blockStatements(), -1, 0);
+            currentScope = outer;
+        }
+        return rtn;
+    }
+
+    private LoweredNode lowerFor(StatementContext ctx) {
+        ForControlContext forControl = ctx.forControl();
+        if (forControl.enhancedForControl() != null) {
+            throw new UnsupportedOperationException("Lowering#lowerFor:enhanced for");
+        }
+
+        Scope scope = at.node2Scope.get(ctx);
+        Scope outer = currentScope;
+        currentScope = scope;
+
+        List<LoweredNode> init = new ArrayList<LoweredNode>();
+        if (forControl.forInit() != null) {
+            if (forControl.forInit().variableDeclarators() != null) {
+                init.add(lowerVariableDeclarators(forControl.forInit().variableDeclarators()));
+            } else {
+                init.addAll(lowerExpressions(forControl.forInit().expressionList()));
+            }
+        }
+        Object constant = forControl.expression() == null ? null : at.constantOfNode.get(forControl.expression());
+        LoweredNode condition;
+        List<LoweredNode> update;
+        LoweredNode body;
+        if (Boolean.FALSE.equals(constant)) {
+            //只执行初始化部分,条件求值一次,循环体和更新部分不会执行
+            condition = lowerExpression(forControl.expression());
+            update = new ArrayList<LoweredNode>();
+            body = node(LoweredOp.NOP, LoweredOp.NO_TYPE);
+        } else {
+            //条件是常量true时与没有条件相同,不再每次迭代都对条件求值
+            condition = forControl.expression() == null || Boolean.TRUE.equals(constant) ? node(LoweredOp.NOP, LoweredOp.NO_TYPE)
+                    : lowerExpression(forControl.expression());
+            update = forControl.forUpdate == null ? new ArrayList<LoweredNode>()
+                    : lowerExpressions(forControl.forUpdate);
+            body = lowerStatement(ctx.statement(0));
+        }
+        currentScope = outer;
+
+        //初始化部分的变量声明也当作表达式求值
+        LoweredNode initNode = node(LoweredOp.BLOCK, LoweredOp.NO_TYPE, -1, 0, 0, flattenDeclarations(init));
+        LoweredNode updateNode = node(LoweredOp.BLOCK, LoweredOp.NO_TYPE, -1, 0, 0, update);
+        boolean hasFrame = framed[idOf(scope)];
+        return node(LoweredOp.FOR, LoweredOp.NO_TYPE, hasFrame ? scopeIndex[idOf(scope)] : -1,
+                hasFrame ? frameSizeOf(scope) : 0, 0, initNode, condition, updateNode, body);
+    }
+
+    private static List<LoweredNode> flattenDeclarations(List<LoweredNode> nodes) {
+        List<LoweredNode> result = new ArrayList<LoweredNode>();
+        for (LoweredNode node : nodes) {
+            if (node.getOp() == LoweredOp.DECL) {
+                for (int i = 0; i < node.getKidCount(); i++) {
+                    result.add(node.getKid(i));
+                }
+            } else {
+                result.add(node);
+            }
+        }
+        return result;
+    }
+
+    private List<LoweredNode> lowerExpressions(ExpressionListContext ctx) {
+        List<LoweredNode> result = new ArrayList<LoweredNode>();
+        for (ExpressionContext child : ctx.expression()) {
+            result.add(lowerExpression(child));
+        }
+        return result;
+    }
+
+    //=================================== 表达式 ===================================
+
+    private LoweredNode lowerExpression(ExpressionContext ctx) {
+        LoweredNode rtn;
+        Object constant = at.constantOfNode.get(ctx);
+        if (constant != null) {
+            rtn = node(LoweredOp.CONST, LoweredOp.NO_TYPE, constant(constant), 0, 0);
+        } else if (ctx.bop != null && ctx.expression().size() >= 2) {
+            rtn = lowerBinary(ctx, ctx.bop.getType());
+        } else if (ctx.primary() != null) {
+            rtn = lowerPrimary(ctx.primary());
+        } else if (ctx.postfix != null) {
+            int flags = ctx.postfix.getType() == PlayScriptParser.DEC ? LoweredOp.INCDEC_DEC : 0;
+            rtn = incdec(ctx.expression(0), flags);
+        } else if (ctx.prefix != null) {
+            rtn = lowerPrefix(ctx);
+        } else if (ctx.functionCall() != null) {
+            rtn = lowerFunctionCall(ctx.functionCall());
+        } else if (ctx.expression().size() == 2) {
+            //移位运算,语法中没有bop。'<' '<' | '>' '>' '>' | '>' '>'
+            int operatorLength = ctx.getChildCount() - 2;
+            int op = ctx.getChild(1).getText().equals("<") ? LoweredOp.OP_SHL
+                    : (operatorLength == 3 ? LoweredOp.OP_USHR : LoweredOp.OP_SHR);
+            rtn = node(LoweredOp.BINARY, typeCode(at.typeOfNode.get(ctx)), op, 0, 0,
+                    lowerOperand(ctx.expression(0), null), lowerOperand(ctx.expression(1), null));
+        } else {
+            throw new UnsupportedOperationException("Lowering#lowerExpression:" + ctx.getText());
+        }
+        return rtn;
+    }
+
+    private LoweredNode lowerBinary(ExpressionContext ctx, int bop) {
+        Type type = at.typeOfNode.get(ctx);
+        Type type1 = at.typeOfNode.get(ctx.expression(0));
+        Type type2 = at.typeOfNode.get(ctx.expression(1));
+        int upper = typeCode((Type) PrimitiveType.getUpperType(type1, type2));
+
+        LoweredNode rtn;
+        switch (bop) {
+            case PlayScriptParser.AND:
+                rtn = node(LoweredOp.AND, LoweredOp.NO_TYPE, lowerExpression(ctx.expression(0)), lowerExpression(ctx.expression(1)));
+                break;
+            case PlayScriptParser.OR:
+                rtn = node(LoweredOp.OR, LoweredOp.NO_TYPE, lowerExpression(ctx.expression(0)), lowerExpression(ctx.expression(1)));
+                break;
+            case PlayScriptParser.QUESTION:
+                rtn = node(LoweredOp.COND, typeCode(type), lowerExpression(ctx.expression(0)),
+                        lowerExpression(ctx.expression(1)), lowerExpression(ctx.expression(2)));
+                break;
+            case PlayScriptParser.ASSIGN:
+                rtn = store(variableOf(ctx.expression(0)), convert(lowerExpression(ctx.expression(1)), type1));
+                break;
+            case PlayScriptParser.ADD_ASSIGN:
+            case PlayScriptParser.SUB_ASSIGN:
+            case PlayScriptParser.MUL_ASSIGN:
+            case PlayScriptParser.DIV_ASSIGN:
+            case PlayScriptParser.MOD_ASSIGN:
+            case PlayScriptParser.AND_ASSIGN:
+            case PlayScriptParser.OR_ASSIGN:
+            case PlayScriptParser.XOR_ASSIGN:
+                Variable variable = variableOf(ctx.expression(0));
+                Type operandType = (Type) PrimitiveType.getUpperType(type1, type2);
+                LoweredNode value = node(LoweredOp.BINARY, upper, arithmeticOf(bop), 0, 0,
+                        promote(load(variable), type1, operandType), lowerOperand(ctx.expression(1), operandType));
+                rtn = store(variable, convert(value, type1));
+                break;
+            case PlayScriptParser.LSHIFT_ASSIGN:
+            case PlayScriptParser.RSHIFT_ASSIGN:
+            case PlayScriptParser.URSHIFT_ASSIGN:
+                //与移位运算一样按左边的类型移位
+                variable = variableOf(ctx.expression(0));
+                int shift = bop == PlayScriptParser.LSHIFT_ASSIGN ? LoweredOp.OP_SHL
+                        : (bop == PlayScriptParser.URSHIFT_ASSIGN ? LoweredOp.OP_USHR : LoweredOp.OP_SHR);
+                value = node(LoweredOp.BINARY, typeCode(PrimitiveType.promote(type1)), shift, 0, 0,
+                        promote(load(variable), type1, null), lowerOperand(ctx.expression(1), null));
+                rtn = store(variable, convert(value, type1));
+                break;
+            case PlayScriptParser.EQUAL:
+            case PlayScriptParser.NOTEQUAL:
+            case PlayScriptParser.LE:
+            case PlayScriptParser.LT:
+            case PlayScriptParser.GE:
+            case PlayScriptParser.GT:
+                Type compared = (Type) PrimitiveType.getUpperType(type1, type2);
+                rtn = node(LoweredOp.BINARY, upper, comparisonOf(bop), 0, 0,
+                        lowerOperand(ctx.expression(0), compared), lowerOperand(ctx.expression(1), compared));
+                break;
+            default:
+                rtn = node(LoweredOp.BINARY, typeCode(type), arithmeticOf(bop), 0, 0,
+                        lowerOperand(ctx.expression(0), type), lowerOperand(ctx.expression(1), type));
+                break;
+        }
+        return rtn;
+    }
+
+    private static int arithmeticOf(int bop) {
+        int op;
+        switch (bop) {
+            case PlayScriptParser.ADD:
+            case PlayScriptParser.ADD_ASSIGN:
+                op = LoweredOp.OP_ADD;
+                break;
+            case PlayScriptParser.SUB:
+            case PlayScriptParser.SUB_ASSIGN:
+                op = LoweredOp.OP_SUB;
+                break;
+            case PlayScriptParser.MUL:
+            case PlayScriptParser.MUL_ASSIGN:
+                op = LoweredOp.OP_MUL;
+                break;
+            case PlayScriptParser.DIV:
+            case PlayScriptParser.DIV_ASSIGN:
+                op = LoweredOp.OP_DIV;
+                break;
+            case PlayScriptParser.MOD:
+            case PlayScriptParser.MOD_ASSIGN:
+                op = LoweredOp.OP_MOD;
+                break;
+            case PlayScriptParser.BITAND:
+            case PlayScriptParser.AND_ASSIGN:
+                op = LoweredOp.OP_BITAND;
+                break;
+            case PlayScriptParser.BITOR:
+            case PlayScriptParser.OR_ASSIGN:
+                op = LoweredOp.OP_BITOR;
+                break;
+            case PlayScriptParser.CARET:
+            case PlayScriptParser.XOR_ASSIGN:
+                op = LoweredOp.OP_BITXOR;
+                break;
+            default:
+                throw new UnsupportedOperationException("Lowering#lowerBinary:" + PlayScriptParser.VOCABULARY.getLiteralName(bop));
+        }
+        return op;
+    }
+
+    private static int comparisonOf(int bop) {
+        int op;
+        switch (bop) {
+            case PlayScriptParser.EQUAL:
+                op = LoweredOp.OP_EQ;
+                break;
+            case PlayScriptParser.NOTEQUAL:
+                op = LoweredOp.OP_NE;
+                break;
+            case PlayScriptParser.LE:
+                op = LoweredOp.OP_LE;
+                break;
+            case PlayScriptParser.LT:
+                op = LoweredOp.OP_LT;
+                break;
+            case PlayScriptParser.GE:
+                op = LoweredOp.OP_GE;
+                break;
+            default:
+                op = LoweredOp.OP_GT;
+                break;
+        }
+        return op;
+    }
+
+    private LoweredNode lowerPrefix(ExpressionContext ctx) {
+        ExpressionContext operand = ctx.expression(0);
+        int type = typeCode(PrimitiveType.promote(at.typeOfNode.get(operand)));
+        LoweredNode rtn;
+        switch (ctx.prefix.getType()) {
+            case PlayScriptParser.INC:
+                rtn = incdec(operand, LoweredOp.INCDEC_PREFIX);
+                break;
+            case PlayScriptParser.DEC:
+                rtn = incdec(operand, LoweredOp.INCDEC_PREFIX | LoweredOp.INCDEC_DEC);
+                break;
+            case PlayScriptParser.SUB:
+                rtn = node(LoweredOp.NEG, type, lowerOperand(operand, null));
+                break;
+            case PlayScriptParser.TILDE:
+                rtn = node(LoweredOp.BITNOT, type, lowerOperand(operand, null));
+                break;
+            case PlayScriptParser.BANG:
+                rtn = node(LoweredOp.NOT, type, lowerExpression(operand));
+                break;
+            default:
+                rtn = lowerOperand(operand, null);
+                break;
+        }
+        return rtn;
+    }
+
+    private LoweredNode incdec(ExpressionContext operand, int flags) {
+        Variable variable = variableOf(operand);
+        return node(LoweredOp.INCDEC, typeCode(at.typeOfNode.get(operand)), hopsTo(variable.enclosingScope),
+                slotOf(variable), flags);
+    }
+
+    private LoweredNode lowerPrimary(PrimaryContext ctx) {
+        LoweredNode rtn;
+        if (ctx.literal() != null) {
+            rtn = node(LoweredOp.CONST, LoweredOp.NO_TYPE, constant(literals.visitLiteral(ctx.literal())), 0, 0);
+        } else if (ctx.IDENTIFIER() != null) {
+            Symbol symbol = at.symbolOfNode.get(ctx);
+            if (!(symbol instanceof Variable)) {
+                throw new UnsupportedOperationException("Lowering#lowerPrimary:function value " + ctx.getText());
+            }
+            rtn = load((Variable) symbol);
+        } else if (ctx.expression() != null) {
+            rtn = lowerExpression(ctx.expression());
+        } else {
+            throw new UnsupportedOperationException("Lowering#lowerPrimary:" + ctx.getText());
+        }
+        return rtn;
+    }
+
+    private LoweredNode lowerFunctionCall(FunctionCallContext ctx) {
+        if (ctx.IDENTIFIER() == null) {
+            throw new UnsupportedOperationException("Lowering#lowerFunctionCall:" + ctx.getStart().getText() + "()");
+        }
+
+        List<ExpressionContext> args = ctx.expressionList() == null ? new ArrayList<ExpressionContext>()
+                : ctx.expressionList().expression();
+        List<LoweredNode> kids = new ArrayList<LoweredNode>();
+
+        LoweredNode rtn;
+        if (RefResolver.PRINTLN.equals(ctx.IDENTIFIER().getText())) {
+            for (ExpressionContext arg : args) {
+                kids.add(lowerExpression(arg));
+            }
+            rtn = node(LoweredOp.PRINTLN, LoweredOp.NO_TYPE, 0, 0, 0, kids);
+        } else {
+            Symbol symbol = at.symbolOfNode.get(ctx);
+            int index = symbol instanceof FunctionScope && symbol.getId() >= 0 ? functionIndex[symbol.getId()] : -1;
+            if (index < 0) {
+                throw new UnsupportedOperationException("Lowering#lowerFunctionCall:" + ctx.getText());
+            }
+            FunctionScope function = (FunctionScope) symbol;
+            for (int i = 0; i < args.size(); i++) {
+                LoweredNode arg = lowerExpression(args.get(i));
+                kids.add(i < function.parameters.size() ? convert(arg, function.parameters.get(i).type) : arg);
+            }
+            rtn = node(LoweredOp.CALL, LoweredOp.NO_TYPE, index, hopsTo(function.enclosingScope), 0, kids);
+        }
+        return rtn;
+    }
+
+    //=================================== 辅助方法 ===================================
+
+    private Variable variableOf(ExpressionContext ctx) {
+        ExpressionContext expression = ctx;
+        while (expression.primary() != null && expression.primary().expression() != null) {
+            expression = expression.primary().expression();
+        }
+        Symbol symbol = expression.primary() == null ? null : at.symbolOfNode.get(expression.primary());
+        if (!(symbol instanceof Variable)) {
+            throw new UnsupportedOperationException("Lowering#variableOf:left side is not a variable:" + ctx.getText());
+        }
+        return (Variable) symbol;
+    }
+
+    private LoweredNode load(Variable variable) {
+        return node(LoweredOp.LOAD, typeCode(variable.type), hopsTo(variable.enclosingScope), slotOf(variable), 0);
+    }
+
+    private LoweredNode store(Variable variable, LoweredNode value) {
+        return node(LoweredOp.STORE, typeCode(variable.type), hopsTo(variable.enclosingScope), slotOf(variable), 0, value);
+    }
+
+    private int slotOf(Variable variable) {
+        int slot = variable.getId() >= 0 ? slots[variable.getId()] : -1;
+        if (slot < 0) {
+            throw new UnsupportedOperationException("Lowering#slotOf:" + variable.name + " is not in a scope");
+        }
+        return slot;
+    }
+
+    private int idOf(Symbol symbol) {
+        Args.check(symbol.getId() >= 0 && symbol.getId() < scopeIndex.length,
+                "Lowering#idOf:%s does not belong to this compilation unit", symbol.name);
+        return symbol.getId();
+    }
+
+    private LoweredNode lowerOperand(ExpressionContext operand, Type operandType) {
+        return promote(lowerExpression(operand), at.typeOfNode.get(operand), operandType);
+    }
+
+    /**
+     * char参与数值运算之前按编码提升为int,与 ASTEvaluator 相同
+     *
+     * @param value
+     * @param type        操作数的类型
+     * @param operandType 运算的类型,字符串连接时char不提升
+     * @return
+     */
+    private LoweredNode promote(LoweredNode value, Type type, Type operandType) {
+        return type == PrimitiveType.Char && operandType != PrimitiveType.String
+                ? convert(value, PrimitiveType.Integer) : value;
+    }
+
+    private LoweredNode convert(LoweredNode value, Type type) {
+        return type instanceof PrimitiveType ? node(LoweredOp.CONVERT, typeCode(type), value) : value;
+    }
+
+    private int constant(Object value) {
+        Integer index = constantIndex.get(value);
+        if (index == null) {
+            index = constants.size();
+            constants.add(value);
+            constantIndex.put(value, index);
+        }
+        return index;
+    }
+
+    private LoweredNode node(int op, int type, LoweredNode... kids) {
+        return node(op, type, 0, 0, 0, kids);
+    }
+
+    private LoweredNode node(int op, int type, int a, int b, int c, LoweredNode... kids) {
+        LoweredNode rtn;
+        if (kids.length == 0) {
+            List<Integer> key = Arrays.asList(op, type, a, b, c);
+            rtn = leaves.get(key);
+            if (rtn == null) {
+                rtn = new LoweredNode(op, type, a, b, c);
+                leaves.put(key, rtn);
+            }
+        } else {
+            rtn = new LoweredNode(op, type, a, b, c, kids);
+        }
+        return rtn;
+    }
+
+    private LoweredNode node(int op, int type, int a, int b, int c, List<LoweredNode> kids) {
+        return node(op, type, a, b, c, kids.toArray(new LoweredNode[0]));
+    }
+}
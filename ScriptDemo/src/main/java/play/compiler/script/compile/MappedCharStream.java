@@ -0,0 +1,285 @@
+package play.compiler.script.compile;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.misc.Interval;
+import play.compiler.utils.Args;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 直接从内存映射的文件读取字符的 CharStream
+ * 脚本文件按 UTF-8 解码:
+ * 1.纯 ASCII 的文件(最常见的情况)不做任何复制,LA 直接读映射的字节;
+ * 2.含有非 ASCII 字符时,从映射的字节直接解码,不经过 String。按最大的码点选择最紧凑的存放方式:
+ * 都不超过 U+00FF 时每个码点存一个字节,都在基本多文种平面时存一个 char,只有含有补充平面的字符时才存 int。
+ * 非法的 UTF-8 序列替换为 U+FFFD。
+ */
+public class MappedCharStream implements CharStream {
+    /**
+     * 非法字节序列的替换字符
+     */
+    private static final int REPLACEMENT_CHARACTER = 0xFFFD;
+
+    private final String name;
+
+    /**
+     * 纯 ASCII 时直接使用的字节,否则为null
+     */
+    private final ByteBuffer bytes;
+
+    /**
+     * 非 ASCII、码点都不超过 U+00FF 时解码出的码点,否则为null
+     */
+    private final byte[] latin1;
+
+    /**
+     * 码点都在基本多文种平面、但有超过 U+00FF 的码点时解码出的码点,否则为null
+     */
+    private final char[] chars;
+
+    /**
+     * 含有补充平面的字符时解码出的码点,否则为null
+     */
+    private final int[] codePoints;
+
+    /**
+     * 码点的个数
+     */
+    private final int size;
+
+    /**
+     * 下一个要读取的码点的位置
+     */
+    private int index = 0;
+
+    protected MappedCharStream(ByteBuffer buffer, String name) {
+        this.name = name;
+        byte[] latin1 = null;
+        char[] chars = null;
+        int[] codePoints = null;
+        if (isAscii(buffer)) {
+            this.bytes = buffer;
+            this.size = buffer.limit();
+        } else {
+            //第一遍只计数并求出最大的码点,第二遍解码
+            int[] maxCodePoint = new int[1];
+            int count = decodeUtf8(buffer, null, maxCodePoint);
+            if (maxCodePoint[0] <= 0xFF) {
+                latin1 = new byte[count];
+                decodeUtf8(buffer, latin1, maxCodePoint);
+            } else if (maxCodePoint[0] <= Character.MAX_VALUE) {
+                chars = new char[count];
+                decodeUtf8(buffer, chars, maxCodePoint);
+            } else {
+                codePoints = new int[count];
+                decodeUtf8(buffer, codePoints, maxCodePoint);
+            }
+            this.bytes = null;
+            this.size = count;
+        }
+        this.latin1 = latin1;
+        this.chars = chars;
+        this.codePoints = codePoints;
+    }
+
+    /**
+     * 以只读方式映射文件
+     *
+     * @param path 文件路径
+     * @return
+     * @throws IOException
+     */
+    public static MappedCharStream fromPath(Path path) throws IOException {
+        Args.notNull(path, "MappedCharStream#fromPath:path");
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long length = channel.size();
+            Args.check(length <= Integer.MAX_VALUE, "MappedCharStream#fromPath:file too large:%s", path);
+            //关闭channel之后映射仍然有效
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            return new MappedCharStream(buffer, path.toString());
+        }
+    }
+
+    /**
+     * 是否是纯 ASCII 的内容
+     *
+     * @return
+     */
+    public boolean isAscii() {
+        return bytes != null;
+    }
+
+    @Override
+    public void consume() {
+        if (index >= size) {
+            throw new IllegalStateException("cannot consume EOF");
+        }
+        index++;
+    }
+
+    @Override
+    public int LA(int i) {
+        int result;
+        if (i == 0) {
+            result = 0;
+        } else {
+            int position = i > 0 ? index + i - 1 : index + i;
+            if (position < 0 || position >= size) {
+                result = IntStream.EOF;
+            } else if (bytes != null) {
+                result = bytes.get(position);
+            } else if (latin1 != null) {
+                result = latin1[position] & 0xFF;
+            } else if (chars != null) {
+                result = chars[position];
+            } else {
+                result = codePoints[position];
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public int mark() {
+        return -1;
+    }
+
+    @Override
+    public void release(int marker) {
+    }
+
+    @Override
+    public int index() {
+        return index;
+    }
+
+    @Override
+    public void seek(int index) {
+        this.index = index;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String getSourceName() {
+        return name == null || name.isEmpty() ? UNKNOWN_SOURCE_NAME : name;
+    }
+
+    @Override
+    public String getText(Interval interval) {
+        int start = Math.min(interval.a, size);
+        int length = Math.min(interval.b - interval.a + 1, size - start);
+        String result;
+        if (length <= 0) {
+            result = "";
+        } else if (bytes != null) {
+            byte[] text = new byte[length];
+            for (int i = 0; i < length; i++) {
+                text[i] = bytes.get(start + i);
+            }
+            result = new String(text, StandardCharsets.ISO_8859_1);
+        } else if (latin1 != null) {
+            result = new String(latin1, start, length, StandardCharsets.ISO_8859_1);
+        } else if (chars != null) {
+            result = new String(chars, start, length);
+        } else {
+            result = new String(codePoints, start, length);
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return getText(Interval.of(0, size - 1));
+    }
+
+    private static boolean isAscii(ByteBuffer buffer) {
+        boolean result = true;
+        for (int i = 0, limit = buffer.limit(); i < limit; i++) {
+            if (buffer.get(i) < 0) {
+                result = false;
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 把 UTF-8 字节解码成码点
+     *
+     * @param buffer
+     * @param out          存放码点的 byte[]、char[] 或 int[],要能放下所有的码点;为null时只计数
+     * @param maxCodePoint 长度为1,返回最大的码点
+     * @return 码点的个数
+     */
+    private static int decodeUtf8(ByteBuffer buffer, Object out, int[] maxCodePoint) {
+        final int limit = buffer.limit();
+        int count = 0;
+        maxCodePoint[0] = 0;
+        int i = 0;
+        while (i < limit) {
+            int b = buffer.get(i) & 0xFF;
+            int codePoint;
+            int length;
+            int min;
+            if (b < 0x80) {
+                codePoint = b;
+                length = 1;
+                min = 0;
+            } else if (b >= 0xC2 && b < 0xE0) {
+                codePoint = b & 0x1F;
+                length = 2;
+                min = 0x80;
+            } else if (b >= 0xE0 && b < 0xF0) {
+                codePoint = b & 0x0F;
+                length = 3;
+                min = 0x800;
+            } else if (b >= 0xF0 && b < 0xF5) {
+                codePoint = b & 0x07;
+                length = 4;
+                min = 0x10000;
+            } else {
+                codePoint = REPLACEMENT_CHARACTER;
+                length = 0;
+                min = 0;
+            }
+
+            int consumed = 1;
+            while (consumed < length) {
+                if (i + consumed >= limit || (buffer.get(i + consumed) & 0xC0) != 0x80) {
+                    break;
+                }
+                codePoint = (codePoint << 6) | (buffer.get(i + consumed) & 0x3F);
+                consumed++;
+            }
+
+            if (length == 0 || consumed < length || codePoint < min || codePoint > Character.MAX_CODE_POINT
+                    || (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+                codePoint = REPLACEMENT_CHARACTER;
+            }
+            if (out instanceof byte[]) {
+                ((byte[]) out)[count] = (byte) codePoint;
+            } else if (out instanceof char[]) {
+                ((char[]) out)[count] = (char) codePoint;
+            } else if (out != null) {
+                ((int[]) out)[count] = codePoint;
+            }
+            maxCodePoint[0] = Math.max(maxCodePoint[0], codePoint);
+            count++;
+            i += consumed;
+        }
+        return count;
+    }
+}
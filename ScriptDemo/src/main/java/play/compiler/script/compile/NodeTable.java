@@ -0,0 +1,88 @@
+package play.compiler.script.compile;
+
+import org.antlr.v4.runtime.ParserRuleContext;
+
+import java.util.Arrays;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 注释树中按AST节点查找的表
+ * 用节点的编号(AnnotatedContext#getNodeId)作为数组下标,查找就是一次数组读取,不需要计算哈希。
+ * 编号由所属的注释树分配,见 AnnotatedTree#nodeIdOf。
+ * 容量足够(见 ensureCapacity)时,多个线程可以同时注释不同的节点。
+ *
+ * @param <V>
+ */
+public class NodeTable<V> {
+    private static final Object[] EMPTY = new Object[0];
+
+    private final AnnotatedTree at;
+
+    private Object[] values = EMPTY;
+
+    protected NodeTable(AnnotatedTree at) {
+        this.at = at;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(ParserRuleContext ctx) {
+        int id = ctx instanceof AnnotatedContext ? ((AnnotatedContext) ctx).nodeId : -1;
+        return id >= 0 && id < values.length ? (V) values[id] : null;
+    }
+
+    /**
+     * 记录节点的注释,节点还没有编号时先分配一个
+     *
+     * @param ctx
+     * @param value
+     * @return 原来的注释
+     */
+    public V put(ParserRuleContext ctx, V value) {
+        int id = at.nodeIdOf(ctx);
+        if (id >= values.length) {
+            ensureCapacity(Math.max(id + 1, Math.max(16, values.length + (values.length >> 1))));
+        }
+        V old = get(ctx);
+        values[id] = value;
+        return old;
+    }
+
+    /**
+     * 让表能容纳编号小于capacity的节点
+     *
+     * @param capacity
+     */
+    protected void ensureCapacity(int capacity) {
+        if (capacity > values.length) {
+            values = Arrays.copyOf(values, capacity);
+        }
+    }
+
+    public V remove(ParserRuleContext ctx) {
+        V old = get(ctx);
+        if (old != null) {
+            values[((AnnotatedContext) ctx).nodeId] = null;
+        }
+        return old;
+    }
+
+    public boolean containsKey(ParserRuleContext ctx) {
+        return get(ctx) != null;
+    }
+
+    /**
+     * 非空的条目数,需要扫描整个表
+     *
+     * @return
+     */
+    public int size() {
+        int size = 0;
+        for (Object value : values) {
+            if (value != null) {
+                size++;
+            }
+        }
+        return size;
+    }
+}
@@ -0,0 +1,160 @@
+package play.compiler.script.compile;
+
+import org.antlr.v4.runtime.ParserRuleContext;
+import play.compiler.script.generate.PlayScriptParser.BlockStatementContext;
+import play.compiler.script.generate.PlayScriptParser.ClassBodyDeclarationContext;
+import play.compiler.script.generate.PlayScriptParser.ClassDeclarationContext;
+import play.compiler.script.generate.PlayScriptParser.FunctionDeclarationContext;
+import play.compiler.script.generate.PlayScriptParser.MemberDeclarationContext;
+import play.compiler.script.generate.PlayScriptParser.ProgContext;
+import play.compiler.utils.Args;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 按函数体并行地完成第一遍扫描之后的语义分析(见 PlayScriptCompiler#resolve)
+ * 1.先在当前线程分析除函数体之外的部分:全局变量、类的成员变量、所有函数和方法的签名以及顶层语句。
+ * 函数体之间只通过这些声明互相引用,分析完之后它们就不会再变了;
+ * 2.再把每个函数体和方法体作为一个单元,交给ForkJoinPool分析。每个单元只注释自己子树里的节点,
+ * 按节点查找的表预先分配好容量,不同单元同时写入互不影响;
+ * 3.各单元产生的编译信息和类型先记在单元自己的UnitOutput中,最后按单元在源代码中的顺序合并,
+ * 新增的编译信息再按位置排序,因此结果与线程的调度无关。
+ */
+public class ParallelResolver {
+
+    /**
+     * 按位置排列编译信息
+     */
+    private static final Comparator<CompilationLog> BY_POSITION = new Comparator<CompilationLog>() {
+        @Override
+        public int compare(CompilationLog o1, CompilationLog o2) {
+            int rtn = Integer.compare(o1.getLine(), o2.getLine());
+            return rtn != 0 ? rtn : Integer.compare(o1.getPositionInLine(), o2.getPositionInLine());
+        }
+    };
+
+    private ParallelResolver() {
+    }
+
+    /**
+     * 分析整个程序。pool为null或者可以并行的单元少于两个时,与 PlayScriptCompiler#resolve 相同。
+     *
+     * @param at
+     * @param prog
+     * @param pool
+     */
+    public static void resolve(AnnotatedTree at, ProgContext prog, ForkJoinPool pool) {
+        List<ParserRuleContext> units = new ArrayList<ParserRuleContext>();
+        if (pool != null) {
+            collectUnits(prog, units);
+        }
+        if (units.size() < 2) {
+            PlayScriptCompiler.resolve(at, prog);
+        } else {
+            int firstLog = at.diagnostics.size();
+
+            //阶段一:除函数体之外的部分
+            FusedTreeWalker walker = PlayScriptCompiler.resolveWalker(at);
+            for (ParserRuleContext unit : units) {
+                walker.exclude(unit);
+            }
+            walker.walk(prog);
+
+            //阶段二:各个函数体
+            at.reserveNodeTables();
+            List<UnitTask> tasks = new ArrayList<UnitTask>(units.size());
+            for (ParserRuleContext unit : units) {
+                tasks.add(new UnitTask(at, unit));
+            }
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    ForkJoinTask.invokeAll(tasks);
+                }
+            });
+
+            //按单元的顺序合并,编译信息按位置排序之后再按错误数上限记录
+            List<CompilationLog> logs = at.diagnostics.truncate(firstLog);
+            for (UnitTask task : tasks) {
+                logs.addAll(task.output.diagnostics.getLogs());
+                at.diagnostics.suppress(task.output.diagnostics.getSuppressedErrors());
+                at.types.addAll(task.output.types);
+            }
+            Collections.sort(logs, BY_POSITION);
+            for (CompilationLog log : logs) {
+                at.diagnostics.offer(log);
+            }
+        }
+    }
+
+    /**
+     * 找出可以并行分析的单元:顶层函数的函数体,以及顶层类(包括内部类)中方法的方法体。
+     * 函数体中嵌套的函数与外层函数在同一个单元中分析。
+     *
+     * @param prog
+     * @param units
+     */
+    private static void collectUnits(ProgContext prog, List<ParserRuleContext> units) {
+        for (BlockStatementContext stmt : prog.blockStatements().blockStatement()) {
+            if (stmt.functionDeclaration() != null) {
+                addUnit(stmt.functionDeclaration(), units);
+            } else if (stmt.classDeclaration() != null) {
+                collectUnits(stmt.classDeclaration(), units);
+            }
+        }
+    }
+
+    private static void collectUnits(ClassDeclarationContext theClass, List<ParserRuleContext> units) {
+        for (ClassBodyDeclarationContext declaration : theClass.classBody().classBodyDeclaration()) {
+            MemberDeclarationContext member = declaration.memberDeclaration();
+            if (member != null && member.functionDeclaration() != null) {
+                addUnit(member.functionDeclaration(), units);
+            } else if (member != null && member.classDeclaration() != null) {
+                collectUnits(member.classDeclaration(), units);
+            }
+        }
+    }
+
+    private static void addUnit(FunctionDeclarationContext function, List<ParserRuleContext> units) {
+        if (function.functionBody() != null && function.functionBody().block() != null) {
+            units.add(function.functionBody());
+        }
+    }
+
+    /**
+     * 分析一个单元
+     */
+    private static final class UnitTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final AnnotatedTree at;
+        private final ParserRuleContext unit;
+        private final AnnotatedTree.UnitOutput output = new AnnotatedTree.UnitOutput();
+
+        private UnitTask(AnnotatedTree at, ParserRuleContext unit) {
+            Args.notNull(unit, "ParallelResolver#unit");
+            this.at = at;
+            this.unit = unit;
+            //每个单元最多记录上限那么多个错误,合并之后再按上限截断
+            output.diagnostics.setErrorLimit(at.diagnostics.getErrorLimit());
+        }
+
+        @Override
+        protected void compute() {
+            at.redirectOutput(output);
+            try {
+                PlayScriptCompiler.resolveWalker(at).walk(unit);
+            } finally {
+                at.redirectOutput(null);
+            }
+        }
+    }
+}
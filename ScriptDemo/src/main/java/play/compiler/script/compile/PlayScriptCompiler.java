@@ -2,11 +2,20 @@ package play.compiler.script.compile;
 
 import cfca.org.slf4j.Logger;
 import cfca.org.slf4j.LoggerFactory;
+import org.antlr.v4.runtime.CharStream;
 import org.antlr.v4.runtime.CharStreams;
-import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.tree.ParseTree;
 import org.antlr.v4.runtime.tree.ParseTreeWalker;
-import play.compiler.script.generate.PlayScriptLexer;
+import org.antlr.v4.runtime.tree.Trees;
 import play.compiler.script.generate.PlayScriptParser;
+import play.compiler.script.generate.PlayScriptParser.BlockStatementContext;
+import play.compiler.script.generate.PlayScriptParser.ProgContext;
+import play.compiler.script.lower.LoweredProgram;
+import play.compiler.utils.Args;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * @author zhangchong
@@ -16,87 +25,420 @@ import play.compiler.script.generate.PlayScriptParser;
 public class PlayScriptCompiler {
     private static Logger LOG = LoggerFactory.getLogger(PlayScriptCompiler.class);
 
-    private AnnotatedTree at = null;
-    private PlayScriptLexer lexer = null;
-    private PlayScriptParser parser = null;
+    /**
+     * 编译结果缓存,为null时每次都重新编译
+     */
+    private CompiledScriptCache cache = null;
+
+    /**
+     * 是否使用两阶段的语法分析:先用SLL模式,失败后再用完整的LL模式
+     */
+    private boolean twoStageParsing = false;
+
+    /**
+     * 并行分析函数体的线程池,为null时在当前线程中分析
+     */
+    private ForkJoinPool analysisPool = null;
+
+    /**
+     * 是否做常量折叠和常量传播
+     */
+    private boolean constantFolding = true;
+
+    /**
+     * 错误数上限,达到之后跳过剩下的分析
+     */
+    private int errorLimit = Diagnostics.DEFAULT_ERROR_LIMIT;
+
+    /**
+     * Execute 执行脚本的方式
+     */
+    private ExecutionEngine engine = ExecutionEngine.NODE_TREE;
+
+    public PlayScriptCompiler() {
+    }
+
+    /**
+     * @param cache 编译结果缓存,可以被多个编译器实例共享
+     */
+    public PlayScriptCompiler(CompiledScriptCache cache) {
+        this.cache = cache;
+    }
+
+    public boolean isTwoStageParsing() {
+        return twoStageParsing;
+    }
 
+    /**
+     * 设置是否使用两阶段的语法分析。
+     * SLL模式配合BailErrorStrategy对合法的输入要快得多,遇到语法错误或SLL无法判定的情况时,
+     * 再退回到完整的LL模式重新分析,因此得到的AST与只用LL模式时完全相同。
+     * 最终成功的阶段记录在AnnotatedTree.getParseMode()中。
+     *
+     * @param twoStageParsing
+     */
+    public void setTwoStageParsing(boolean twoStageParsing) {
+        this.twoStageParsing = twoStageParsing;
+    }
+
+    /**
+     * 编译脚本。设置了编译结果缓存时,返回的注释树可能与其他调用者共享,是只读的,见 CompiledScriptCache。
+     *
+     * @param script
+     * @param verbose
+     * @param astDump
+     * @return
+     */
     public AnnotatedTree compile(String script, boolean verbose, boolean astDump) {
-        at = new AnnotatedTree();
+        AnnotatedTree at;
+        if (cache != null) {
+            at = cache.get(script, getCacheSettings(), this::doCompile);
+        } else {
+            at = doCompile(script);
+        }
+
+        dump(at, verbose, astDump);
+        return at;
+    }
+
+    /**
+     * 编译一个字符流,例如用 MappedCharStream 映射的脚本文件。
+     * 字符流不经过编译结果缓存。
+     *
+     * @param input
+     * @param verbose
+     * @param astDump
+     * @return
+     */
+    public AnnotatedTree compile(CharStream input, boolean verbose, boolean astDump) {
+        AnnotatedTree at = doCompile(input);
+        dump(at, verbose, astDump);
+        return at;
+    }
+
+    /**
+     * 编译并降级脚本,得到常驻内存时保留的编译结果。
+     * 注释树(连同语法树、Token和按节点查找的表)降级之后就不再被引用,可以被回收;
+     * 设置了编译结果缓存时,缓存的也只是 LoweredProgram。用 Execute(LoweredProgram) 执行。
+     *
+     * @param script
+     * @return
+     * @throws IllegalArgumentException      脚本有编译错误
+     * @throws UnsupportedOperationException 脚本用到了无法降级的语法,见 Lowering
+     */
+    public LoweredProgram lower(String script) {
+        return cache != null ? cache.getLowered(script, getCacheSettings(), this::doLower) : doLower(script);
+    }
+
+    private LoweredProgram doLower(String script) {
+        AnnotatedTree at = doCompile(script);
+        if (at.hasCompilationError()) {
+            throw new IllegalArgumentException("PlayScriptCompiler#lower:compilation errors:" + at.getLogs());
+        }
+        return Lowering.lower(at, CompiledScriptCache.hashOf(script));
+    }
+
+    /**
+     * 影响编译结果的设置,与脚本一起作为编译结果缓存的键。增加新的编译设置时要加到这里
+     *
+     * @return
+     */
+    String getCacheSettings() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("fold=").append(constantFolding);
+        builder.append(",twoStage=").append(twoStageParsing);
+        builder.append(",errorLimit=").append(errorLimit);
+        //并行分析的注释相同,但编译信息的顺序不同
+        builder.append(",parallel=").append(analysisPool != null);
+        return builder.toString();
+    }
+
+    private void dump(AnnotatedTree at, boolean verbose, boolean astDump) {
+        //打印AST
+        if (verbose || astDump) {
+            dumpAST(at);
+        }
+
+        //打印符号表和编译统计
+        if (verbose) {
+            dumpSymbols(at);
+            dumpCompileStats(at);
+        }
+    }
+
+    public ForkJoinPool getAnalysisPool() {
+        return analysisPool;
+    }
+
+    /**
+     * 设置并行分析函数体的线程池,见 ParallelResolver。
+     * 并行分析得到的注释与串行分析完全相同,只是编译信息按位置排序。
+     *
+     * @param analysisPool 为null时在当前线程中分析
+     */
+    public void setAnalysisPool(ForkJoinPool analysisPool) {
+        this.analysisPool = analysisPool;
+    }
+
+    public boolean isConstantFolding() {
+        return constantFolding;
+    }
+
+    /**
+     * 设置是否做常量折叠和常量传播,见 ConstantFolder。有编译错误时不折叠。
+     * 折叠与否执行的结果相同,只是折叠之后常量表达式不用每次执行时都求值。
+     *
+     * @param constantFolding
+     */
+    public void setConstantFolding(boolean constantFolding) {
+        this.constantFolding = constantFolding;
+    }
+
+    public int getErrorLimit() {
+        return errorLimit;
+    }
+
+    /**
+     * 设置错误数上限,默认是 Diagnostics#DEFAULT_ERROR_LIMIT。
+     * 语法错误和语义错误一起计数,达到上限之后后面的错误只计数,剩下的分析都跳过,
+     * 用于尽快拒绝有大量错误的脚本。
+     *
+     * @param errorLimit 正整数,不限制时用 Integer.MAX_VALUE
+     */
+    public void setErrorLimit(int errorLimit) {
+        this.errorLimit = Args.positive(errorLimit, "PlayScriptCompiler#setErrorLimit:errorLimit");
+    }
+
+    public ExecutionEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     * 设置 Execute 执行脚本的方式,默认是 ExecutionEngine#NODE_TREE。
+     * 无法降级的脚本在 NODE_TREE 下退回到 ASTEvaluator 并记一次警告,在 VM 和 BYTECODE 下抛出 UnsupportedOperationException,
+     * 见 ExecutionEngine 和 engineFor。
+     *
+     * @param engine
+     */
+    public void setEngine(ExecutionEngine engine) {
+        this.engine = Args.notNull(engine, "PlayScriptCompiler#setEngine:engine");
+    }
 
-        //词法分析
-        lexer = new PlayScriptLexer(CharStreams.fromString(script));
-        final CommonTokenStream tokens = new CommonTokenStream(lexer);
+    /**
+     * 词法分析、语法分析和语义分析
+     *
+     * @param script 脚本
+     * @return 注释树
+     */
+    private AnnotatedTree doCompile(String script) {
+        return doCompile(CharStreams.fromString(script));
+    }
 
-        //语法分析
-        parser = new PlayScriptParser(tokens);
-        at.ast = parser.prog();
+    private AnnotatedTree doCompile(CharStream input) {
+        AnnotatedTree at = new AnnotatedTree();
+        at.diagnostics.setErrorLimit(errorLimit);
+        CompileStats stats = new CompileStats();
+        at.compileStats = stats;
+
+        //词法分析和语法分析,重用本线程的lexer和parser。语法错误记到编译信息中
+        CompilePipeline pipeline = CompilePipeline.current();
+        at.ast = pipeline.parse(input, twoStageParsing, stats, at.diagnostics);
+        at.parseMode = pipeline.getLastParseMode();
 
         //语义分析
         final ParseTreeWalker walker = new ParseTreeWalker();
+        CompileStats.Timer timer = stats.startTimer();
 
         //多步的语义分析
         //优点:1.代码更清晰 2.允许使用在声明之前,这在支持面向对象、递归函数等特征时是必须的。
         //pass1:类型和作用域解析（TypeAndScopeScanner.java）
-        TypeAndScopeScanner pass1 = new TypeAndScopeScanner(at);
-        walker.walk(pass1, at.ast);
+        //错误数达到上限之后,跳过剩下的分析
+        if (!at.diagnostics.isLimitReached()) {
+            TypeAndScopeScanner pass1 = new TypeAndScopeScanner(at);
+            walker.walk(pass1, at.ast);
+        }
+        timer.lap(CompileStats.Phase.SCAN);
 
-        //pass2:把变量,类继承,函数声明的类型都解析出来.也就是所有声明时用到类型的地方.
-        TypeResolver pass2 = new TypeResolver(at);
-        walker.walk(pass2, at.ast);
+        //pass2到pass5在同一遍遍历中完成,见 resolve。设置了线程池时,函数体并行分析
+        if (at.diagnostics.isLimitReached()) {
+            LOG.debug("PlayScriptCompiler#doCompile:aborted, {}", at.diagnostics);
+        } else if (analysisPool != null && at.ast instanceof ProgContext) {
+            ParallelResolver.resolve(at, (ProgContext) at.ast, analysisPool);
+        } else {
+            resolve(at, at.ast);
+        }
+        timer.lap(CompileStats.Phase.RESOLVE);
 
-        //pass3:
+        //pass6:常量折叠和常量传播
+        if (constantFolding && !at.hasCompilationError()) {
+            ConstantFolder.fold(at, at.ast, true);
+        }
+        timer.lap(CompileStats.Phase.FOLD);
 
-        //pass4:
+        stats.countParseTree(at.ast);
+        stats.countScopes(at.nameSpace);
 
-        //pass5:
+        return at;
+    }
 
-        //pass6:
+    /**
+     * 对一条单独解析出来的顶层语句做语义分析,新的作用域和符号都加到at已有的全局命名空间中。
+     * 与整体编译不同,语句只能引用在它之前已经分析过的函数和变量。
+     *
+     * @param at   已有的注释树,全局命名空间不能为空
+     * @param stmt 顶层语句
+     */
+    protected static void analyze(AnnotatedTree at, BlockStatementContext stmt) {
+        final ParseTreeWalker walker = new ParseTreeWalker();
+        walker.walk(new TypeAndScopeScanner(at, at.nameSpace), stmt);
+        resolve(at, stmt);
+    }
 
-        //打印AST
-        if (verbose || astDump) {
-            dumpAST();
-        }
+    /**
+     * 在第一遍扫描之后,用一遍遍历完成其余的分析阶段:
+     * pass2:把变量,类继承,函数声明的类型都解析出来.也就是所有声明时用到类型的地方.
+     * pass3:引用消解和类型推断,把变量引用、函数调用关联到符号,并推断出每个表达式的类型
+     * pass4:变量寻址,算出每个变量引用到变量所在栈桢的距离
+     * pass5:类型检查,记录操作数提升之后的类型并选好特化的运算
+     * 引用在后面声明的变量和函数时,pass2提前解析它们的声明。以后的pass也加到这一遍遍历中。
+     *
+     * @param at
+     * @param tree
+     */
+    protected static void resolve(AnnotatedTree at, ParseTree tree) {
+        resolveWalker(at).walk(tree);
+    }
 
-        //打印符号表
-        if (verbose) {
-            dumpSymbols();
+    /**
+     * 创建完成pass2到pass5的遍历器,每次遍历都要用新的
+     *
+     * @param at
+     * @return
+     */
+    protected static FusedTreeWalker resolveWalker(AnnotatedTree at) {
+        TypeResolver pass2 = new TypeResolver(at);
+        RefResolver pass3 = new RefResolver(at, pass2);
+        SlotResolver pass4 = new SlotResolver(at);
+        TypeChecker pass5 = new TypeChecker(at);
+        FusedTreeWalker walker = new FusedTreeWalker(pass2, pass3, pass4, pass5);
+        walker.stopOnErrorLimit(at.diagnostics);
+        pass2.setWalker(walker);
+        return walker;
+    }
+
+    /**
+     * 预热:用一组有代表性的脚本编译若干遍,让共享的ATN/DFA缓存和JIT在处理真正的请求之前就绪。
+     * 预热时不使用编译结果缓存。
+     *
+     * @param corpus 有代表性的脚本
+     * @param rounds 预热的遍数
+     * @return 冷启动和预热之后的编译耗时
+     */
+    public WarmUpReport warmUp(Collection<String> corpus, int rounds) {
+        Args.notEmpty(corpus, "PlayScriptCompiler#warmUp:corpus");
+        Args.positive(rounds, "PlayScriptCompiler#warmUp:rounds");
+
+        //第一遍的耗时就是冷启动的耗时
+        long coldNanos = compileAll(corpus);
+        for (int i = 1; i < rounds; i++) {
+            compileAll(corpus);
         }
+        long warmNanos = compileAll(corpus);
 
-        return at;
+        WarmUpReport report = new WarmUpReport(corpus.size(), rounds, coldNanos, warmNanos);
+        LOG.info("PlayScriptCompiler#warmUp:{}", report);
+        return report;
+    }
+
+    private long compileAll(Collection<String> corpus) {
+        long start = System.nanoTime();
+        for (String script : corpus) {
+            doCompile(script);
+        }
+        return System.nanoTime() - start;
     }
 
     /**
      * 打印符号表
      */
-    public void dumpSymbols() {
+    public void dumpSymbols(AnnotatedTree at) {
         if (at != null) {
             LOG.info("dumpSymbols:\n{}", at.getScopeTreeString());
         }
     }
 
+    /**
+     * 打印编译统计
+     */
+    public void dumpCompileStats(AnnotatedTree at) {
+        if (at != null && at.compileStats != null) {
+            LOG.info("dumpCompileStats:\n{}", at.compileStats);
+        }
+    }
+
     /**
      * 打印AST，以lisp格式
      */
-    public void dumpAST() {
+    public void dumpAST(AnnotatedTree at) {
         if (at != null) {
-            LOG.info("dumpAST:\n{}", at.ast.toStringTree(parser));
+            //缓存命中时没有对应的parser,直接使用规则名
+            LOG.info("dumpAST:\n{}", Trees.toStringTree(at.ast, Arrays.asList(PlayScriptParser.ruleNames)));
         }
     }
 
     /**
      * 输出编译信息
      */
-    public void dumpCompilationLogs() {
+    public void dumpCompilationLogs(AnnotatedTree at) {
         if (at != null) {
-            for (CompilationLog log : at.logs) {
+            for (CompilationLog log : at.getLogs()) {
                 LOG.info(log.toString());
             }
+            if (at.diagnostics.getSuppressedErrors() > 0) {
+                LOG.info("{} more errors", at.diagnostics.getSuppressedErrors());
+            }
         }
     }
 
+    /**
+     * Execute 执行这个注释树时实际使用的方式。第一次调用时降级,见 AnnotatedTree#loweredForms
+     *
+     * @param at
+     * @return
+     * @throws UnsupportedOperationException 选定 VM 或 BYTECODE,脚本无法降级
+     */
+    public ExecutionEngine engineFor(AnnotatedTree at) {
+        return engine == ExecutionEngine.EVALUATOR ? engine : at.loweredForms().engineFor(engine);
+    }
+
+    /**
+     * 按 engineFor 返回的方式执行。降级和生成的结果缓存在注释树上,重复执行同一个注释树时不再重新生成
+     *
+     * @param at
+     * @return
+     */
     public Object Execute(AnnotatedTree at) {
-        ASTEvaluator visitor = new ASTEvaluator(at);
-        Object result = visitor.visit(at.ast);
+        Object result;
+        ExecutionEngine used = engineFor(at);
+        if (used == ExecutionEngine.EVALUATOR) {
+            ASTEvaluator visitor = new ASTEvaluator(at);
+            result = visitor.visit(at.ast);
+        } else {
+            result = at.loweredForms().execute(used);
+        }
         return result;
     }
+
+    /**
+     * 执行降级后的脚本(见 lower)。降级后的脚本没有注释树,选定 EVALUATOR 时用可执行节点树执行;
+     * 每次调用都重新生成可执行形式,重复执行时用 Execute(AnnotatedTree) 或者自己保留 NodeProgram、VmProgram。
+     *
+     * @param lowered
+     * @return
+     */
+    public Object Execute(LoweredProgram lowered) {
+        LoweredForms forms = new LoweredForms(lowered);
+        ExecutionEngine used = engine == ExecutionEngine.EVALUATOR ? ExecutionEngine.NODE_TREE : forms.engineFor(engine);
+        return forms.execute(used);
+    }
 }
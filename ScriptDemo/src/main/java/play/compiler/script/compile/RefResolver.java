@@ -0,0 +1,312 @@
+package play.compiler.script.compile;
+
+import org.antlr.v4.runtime.Token;
+import play.compiler.script.generate.PlayScriptBaseListener;
+import play.compiler.script.generate.PlayScriptParser;
+import play.compiler.script.generate.PlayScriptParser.ExpressionContext;
+import play.compiler.script.generate.PlayScriptParser.FunctionCallContext;
+import play.compiler.script.generate.PlayScriptParser.LiteralContext;
+import play.compiler.script.generate.PlayScriptParser.PrimaryContext;
+import play.compiler.script.generate.PlayScriptParser.VariableInitializerContext;
+import play.compiler.script.runtime.FunctionType;
+import play.compiler.script.runtime.PrimitiveType;
+import play.compiler.script.runtime.Type;
+import play.compiler.script.runtime.VoidType;
+
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 第三遍扫描。做引用的消解和自下而上的类型推导,也就是 S 属性的计算:
+ * 1.把变量引用和函数调用关联到对应的Variable和FunctionScope;
+ * 2.推断出字面量和每个表达式的类型,供解释执行时选择运算方式。
+ * 因为所有的函数在第一遍中都已经声明好了,所以函数可以在声明之前调用。
+ * 与TypeResolver在同一遍遍历中运行时,引用到的变量和函数的类型还没有解析出来,就让TypeResolver提前解析。
+ */
+public class RefResolver extends PlayScriptBaseListener {
+    /**
+     * 内置的打印函数
+     */
+    protected static final String PRINTLN = "println";
+
+    private AnnotatedTree at = null;
+
+    /**
+     * 同一遍遍历中的TypeResolver,用来提前解析前向引用,单独遍历时为null
+     */
+    private TypeResolver types = null;
+
+    public RefResolver(AnnotatedTree at) {
+        this.at = at;
+    }
+
+    public RefResolver(AnnotatedTree at, TypeResolver types) {
+        this.at = at;
+        this.types = types;
+    }
+
+    /**
+     * primary
+     * : '(' expression ')'
+     * | THIS
+     * | SUPER
+     * | literal
+     * | IDENTIFIER
+     * ;
+     *
+     * @param ctx
+     */
+    @Override
+    public void exitPrimary(PrimaryContext ctx) {
+        Type type = null;
+        if (ctx.IDENTIFIER() != null) {
+            Scope scope = at.enclosingScopeOfNode(ctx);
+            String idName = ctx.IDENTIFIER().getText();
+            Variable variable = at.lookupVariable(scope, idName);
+            if (variable != null) {
+                resolveType(variable);
+                at.symbolOfNode.put(ctx, variable);
+                type = variable.type;
+            } else {
+                //函数也可以作为值来传递
+                FunctionScope function = at.lookupFunction(scope, idName);
+                if (function != null) {
+                    resolveSignatures(scope, idName);
+                    at.symbolOfNode.put(ctx, function);
+                    type = function;
+                } else {
+                    at.log(ctx, "unknown variable or function: %s", idName);
+                }
+            }
+        } else if (ctx.literal() != null) {
+            type = at.typeOfNode.get(ctx.literal());
+        } else if (ctx.expression() != null) {
+            type = at.typeOfNode.get(ctx.expression());
+        }
+        at.typeOfNode.put(ctx, type);
+    }
+
+    /**
+     * functionCall
+     * : IDENTIFIER '(' expressionList? ')'
+     * | THIS '(' expressionList? ')'
+     * | SUPER '(' expressionList? ')'
+     * ;
+     *
+     * @param ctx
+     */
+    @Override
+    public void exitFunctionCall(FunctionCallContext ctx) {
+        if (ctx.IDENTIFIER() == null) {
+            //this()和super()暂不支持
+            return;
+        }
+
+        String idName = ctx.IDENTIFIER().getText();
+        if (PRINTLN.equals(idName)) {
+            at.typeOfNode.put(ctx, VoidType.instance());
+            return;
+        }
+
+        Scope scope = at.enclosingScopeOfNode(ctx);
+        List<Type> paramTypes = getParamTypes(ctx);
+        resolveSignatures(scope, idName);
+        FunctionScope function = at.lookupFunction(scope, idName, paramTypes);
+        if (function != null) {
+            at.symbolOfNode.put(ctx, function);
+            at.typeOfNode.put(ctx, function.returnType);
+        } else {
+            //看看是不是一个函数型的变量
+            Variable variable = at.lookupVariable(scope, idName);
+            if (variable != null) {
+                resolveType(variable);
+            }
+            if (variable != null && variable.type instanceof FunctionType) {
+                at.symbolOfNode.put(ctx, variable);
+                at.typeOfNode.put(ctx, ((FunctionType) variable.type).getReturnType());
+            } else {
+                at.log(ctx, "unknown function or function variable: %s", idName);
+            }
+        }
+    }
+
+    /**
+     * 表达式的类型推断和综合
+     *
+     * @param ctx
+     */
+    @Override
+    public void exitExpression(ExpressionContext ctx) {
+        Type type = null;
+        if (ctx.primary() != null) {
+            //变量引用冒泡,赋值时要用到
+            Symbol symbol = at.symbolOfNode.get(ctx.primary());
+            if (symbol != null) {
+                at.symbolOfNode.put(ctx, symbol);
+            }
+            type = at.typeOfNode.get(ctx.primary());
+        } else if (ctx.functionCall() != null) {
+            type = at.typeOfNode.get(ctx.functionCall());
+        } else if (ctx.bop != null && ctx.expression().size() >= 2) {
+            Type type1 = at.typeOfNode.get(ctx.expression(0));
+            Type type2 = at.typeOfNode.get(ctx.expression(1));
+            switch (ctx.bop.getType()) {
+                case PlayScriptParser.ADD:
+                    if (type1 == PrimitiveType.String || type2 == PrimitiveType.String) {
+                        type = PrimitiveType.String;
+                    } else {
+                        type = arithmeticType(type1, type2, ctx);
+                    }
+                    break;
+                case PlayScriptParser.SUB:
+                case PlayScriptParser.MUL:
+                case PlayScriptParser.DIV:
+                case PlayScriptParser.MOD:
+                case PlayScriptParser.BITAND:
+                case PlayScriptParser.BITOR:
+                case PlayScriptParser.CARET:
+                    type = arithmeticType(type1, type2, ctx);
+                    break;
+                case PlayScriptParser.EQUAL:
+                case PlayScriptParser.NOTEQUAL:
+                case PlayScriptParser.LE:
+                case PlayScriptParser.LT:
+                case PlayScriptParser.GE:
+                case PlayScriptParser.GT:
+                case PlayScriptParser.AND:
+                case PlayScriptParser.OR:
+                    type = PrimitiveType.Boolean;
+                    break;
+                case PlayScriptParser.QUESTION:
+                    Type type3 = at.typeOfNode.get(ctx.expression(2));
+                    if (type2 == type3 || !(type2 instanceof PrimitiveType) || !(type3 instanceof PrimitiveType)) {
+                        type = type2;
+                    } else {
+                        type = (Type) PrimitiveType.getUpperType(type2, type3);
+                    }
+                    break;
+                default:
+                    //各种赋值运算,类型与左边相同
+                    type = type1;
+                    break;
+            }
+        } else if (ctx.prefix != null) {
+            int prefix = ctx.prefix.getType();
+            if (prefix == PlayScriptParser.BANG) {
+                type = PrimitiveType.Boolean;
+            } else if (prefix == PlayScriptParser.INC || prefix == PlayScriptParser.DEC) {
+                type = at.typeOfNode.get(ctx.expression(0));
+            } else {
+                //+、-、~的结果按提升之后的类型
+                type = PrimitiveType.promote(at.typeOfNode.get(ctx.expression(0)));
+            }
+        } else if (ctx.postfix != null) {
+            type = at.typeOfNode.get(ctx.expression(0));
+        } else if (ctx.expression().size() == 2) {
+            //移位运算,结果是左边提升之后的类型
+            type = PrimitiveType.promote(at.typeOfNode.get(ctx.expression(0)));
+        }
+        at.typeOfNode.put(ctx, type);
+    }
+
+    /**
+     * 对变量初始化部分也做一下类型推断
+     *
+     * @param ctx
+     */
+    @Override
+    public void exitVariableInitializer(VariableInitializerContext ctx) {
+        if (ctx.expression() != null) {
+            at.typeOfNode.put(ctx, at.typeOfNode.get(ctx.expression()));
+        }
+    }
+
+    /**
+     * 根据字面量来推断类型
+     *
+     * @param ctx
+     */
+    @Override
+    public void exitLiteral(LiteralContext ctx) {
+        Type type = null;
+        if (ctx.BOOL_LITERAL() != null) {
+            type = PrimitiveType.Boolean;
+        } else if (ctx.CHAR_LITERAL() != null) {
+            type = PrimitiveType.Char;
+        } else if (ctx.NULL_LITERAL() != null) {
+            type = PrimitiveType.Null;
+        } else if (ctx.STRING_LITERAL() != null) {
+            type = PrimitiveType.String;
+        } else if (ctx.integerLiteral() != null) {
+            type = isLong(ctx.integerLiteral().getStart()) ? PrimitiveType.Long : PrimitiveType.Integer;
+        } else if (ctx.floatLiteral() != null) {
+            type = PrimitiveType.Float;
+        }
+        at.typeOfNode.put(ctx, type);
+    }
+
+    private Type arithmeticType(Type type1, Type type2, ExpressionContext ctx) {
+        Type type = null;
+        if (type1 instanceof PrimitiveType && type2 instanceof PrimitiveType) {
+            //类型"向上"对齐,比如一个int和一个float,取float
+            type = (Type) PrimitiveType.getUpperType(type1, type2);
+        } else if (type1 != null && type2 != null) {
+            at.log("operand should be PrimitiveType for arithmetic operation", ctx);
+        }
+        return type;
+    }
+
+    private void resolveType(Variable variable) {
+        if (types != null && variable.type == null) {
+            types.resolveType(variable);
+        }
+    }
+
+    /**
+     * 按参数类型选择重载的函数之前,先确保所有同名函数的签名都已经解析出来
+     *
+     * @param scope
+     * @param idName
+     */
+    private void resolveSignatures(Scope scope, String idName) {
+        if (types != null) {
+            for (Scope s = scope; s != null; s = s.enclosingScope) {
+                for (FunctionScope function : s.functionsNamed(idName)) {
+                    if (function.returnType == null) {
+                        types.resolveSignature(function);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 获得函数调用的参数类型,这些类型已经在表达式中推断出来
+     *
+     * @param ctx
+     * @return
+     */
+    private List<Type> getParamTypes(FunctionCallContext ctx) {
+        List<Type> paramTypes = new LinkedList<Type>();
+        if (ctx.expressionList() != null) {
+            for (ExpressionContext exp : ctx.expressionList().expression()) {
+                paramTypes.add(at.typeOfNode.get(exp));
+            }
+        }
+        return paramTypes;
+    }
+
+    /**
+     * 带 l 或 L 后缀的整数是长整型
+     *
+     * @param token
+     * @return
+     */
+    protected static boolean isLong(Token token) {
+        String text = token.getText();
+        char last = text.charAt(text.length() - 1);
+        return last == 'l' || last == 'L';
+    }
+}
@@ -0,0 +1,127 @@
+package play.compiler.script.compile;
+
+import cfca.org.slf4j.Logger;
+import cfca.org.slf4j.LoggerFactory;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.tree.Trees;
+import play.compiler.script.generate.PlayScriptParser;
+import play.compiler.script.generate.PlayScriptParser.BlockStatementContext;
+import play.compiler.script.generate.PlayScriptParser.ProgContext;
+import play.compiler.utils.Args;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 增量的REPL会话
+ * 整个会话只有一个AnnotatedTree和一个全局命名空间。每次输入只分析新的语句,
+ * 把新的作用域和符号追加到全局命名空间中,然后只执行新的语句,全局变量的值在多次输入之间保留。
+ * 执行完的语句的AST和语义信息随即释放,所以每次输入的耗时与会话的长度无关。
+ * 有编译错误(包括语法错误)的输入不会执行,它声明的符号、类型和节点上的注释都会被撤销,见 AnnotatedTree#rollback。
+ */
+public class ReplSession {
+    private static Logger LOG = LoggerFactory.getLogger(ReplSession.class);
+
+    private final AnnotatedTree at;
+
+    private final ASTEvaluator evaluator;
+
+    /**
+     * 最近一次输入的编译错误
+     */
+    private List<CompilationLog> errors = Collections.emptyList();
+
+    /**
+     * 成功执行的输入数
+     */
+    private long evalCount = 0;
+
+    public ReplSession() {
+        at = new AnnotatedTree();
+        at.setNameSpace(new NameSpace("", null, null));
+        evaluator = new ASTEvaluator(at);
+    }
+
+    public void setOut(PrintStream out) {
+        evaluator.setOut(out);
+    }
+
+    public Object eval(String script) {
+        return eval(script, false, false);
+    }
+
+    /**
+     * 分析并执行一次输入,输入中可以有多条语句
+     *
+     * @param script  输入的脚本
+     * @param verbose 打印AST和符号表
+     * @param astDump 打印AST
+     * @return 最后一条语句的值,有编译错误时为null
+     */
+    public Object eval(String script, boolean verbose, boolean astDump) {
+        Args.notNull(script, "ReplSession#eval:script");
+        errors = Collections.emptyList();
+
+        //语法错误与语义错误一样记到编译信息中,带有真实的信息和位置
+        AnnotatedTree.Mark mark = at.mark();
+        ProgContext prog = CompilePipeline.current().parse(CharStreams.fromString(script), true, null, at.diagnostics);
+        if (verbose || astDump) {
+            LOG.info("ReplSession#eval:dumpAST:\n{}", Trees.toStringTree(prog, Arrays.asList(PlayScriptParser.ruleNames)));
+        }
+
+        List<BlockStatementContext> statements = prog.blockStatements() != null
+                ? prog.blockStatements().blockStatement() : Collections.<BlockStatementContext>emptyList();
+        if (!at.hasLogsSince(mark)) {
+            for (BlockStatementContext stmt : statements) {
+                PlayScriptCompiler.analyze(at, stmt);
+            }
+        }
+
+        Object rtn = null;
+        if (at.hasLogsSince(mark)) {
+            errors = at.rollback(mark, statements);
+        } else {
+            try {
+                for (BlockStatementContext stmt : statements) {
+                    rtn = evaluator.evaluateStatement(stmt);
+                }
+                evalCount++;
+            } finally {
+                for (BlockStatementContext stmt : statements) {
+                    at.forget(stmt);
+                }
+            }
+        }
+
+        if (verbose) {
+            LOG.info("ReplSession#eval:dumpSymbols:\n{}", at.getScopeTreeString());
+        }
+        return rtn;
+    }
+
+    /**
+     * 最近一次输入的编译错误
+     *
+     * @return
+     */
+    public List<CompilationLog> getErrors() {
+        return errors;
+    }
+
+    public long getEvalCount() {
+        return evalCount;
+    }
+
+    /**
+     * 整个会话共用的注释树
+     *
+     * @return
+     */
+    public AnnotatedTree getAnnotatedTree() {
+        return at;
+    }
+}
@@ -4,8 +4,13 @@ import cfca.org.slf4j.Logger;
 import cfca.org.slf4j.LoggerFactory;
 import play.compiler.utils.Args;
 
-import java.util.LinkedList;
+import play.compiler.script.runtime.Type;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * @Author: zhangchong
@@ -14,34 +19,187 @@ import java.util.List;
 public abstract class Scope extends Symbol {
     private static Logger LOG = LoggerFactory.getLogger(Scope.class);
     /**
-     * 该Scope中的成员,包括变量 方法和类等
+     * 该Scope中的成员,包括变量 方法和类等,按加入的顺序排列。
+     * 只能通过addSymbol、removeSymbol和truncateSymbols修改,以便与下面的索引保持一致。
+     */
+    protected final List<Symbol> symbols = new ArrayList<>();
+
+    /**
+     * 按名称索引的变量,同名时是最先加入的那个
+     */
+    private final Map<String, Variable> variables = new HashMap<>();
+
+    /**
+     * 按名称索引的类,同名时是最先加入的那个
+     */
+    private final Map<String, ClassScope> classes = new HashMap<>();
+
+    /**
+     * 按名称索引的函数,同名的函数按加入的顺序排列
+     */
+    private final Map<String, List<FunctionScope>> functions = new HashMap<>();
+
+    /**
+     * 其他成员(比如块作用域),只用于查重
+     */
+    private final Map<String, List<Symbol>> others = new HashMap<>();
+
+    /**
+     * 变量的个数。变量按加入的顺序编号成槽位,运行时按槽位存取变量的值,见 Variable#getSlot
      */
-    protected List<Symbol> symbols = new LinkedList<>();
+    private int variableCount = 0;
 
     protected static Variable getVariable(Scope scope, String name) {
-        Variable result = null;
-        for (Symbol s : scope.symbols) {
-            if (s instanceof Variable && s.name.equals(name)) {
-                result = (Variable) s;
-                break;
-            }
-        }
-        return result;
+        return scope.variables.get(name);
     }
 
     protected boolean addSymbol(Symbol symbol) {
         Args.notNull(symbol, "symbol");
         boolean result;
-        if (symbols.contains(symbol)) {
+        if (contains(symbol)) {
             LOG.error("addSymbol#symbol {} already in symbols", symbol);
             result = false;
         } else {
             symbols.add(symbol);
+            index(symbol);
             result = true;
         }
         return result;
     }
 
+    /**
+     * 去掉一个成员。从后往前找,去掉刚加入的成员最快。
+     *
+     * @param symbol
+     * @return 是否找到了这个成员
+     */
+    protected boolean removeSymbol(Symbol symbol) {
+        boolean result = false;
+        for (int i = symbols.size() - 1; i >= 0; i--) {
+            if (symbols.get(i) == symbol) {
+                symbols.remove(i);
+                unindex(symbol);
+                result = true;
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 只保留前size个成员
+     *
+     * @param size
+     */
+    protected void truncateSymbols(int size) {
+        while (symbols.size() > size) {
+            unindex(symbols.remove(symbols.size() - 1));
+        }
+    }
+
+    /**
+     * 是否已经有重复声明的成员,见 Symbol#isSameDeclaration。重复的成员名称一定相同,所以只需要比较同名的成员。
+     */
+    private boolean contains(Symbol symbol) {
+        boolean result;
+        if (symbol instanceof Variable) {
+            result = symbol.isSameDeclaration(variables.get(symbol.name)) || containsSameDeclaration(symbol);
+        } else if (symbol instanceof ClassScope) {
+            result = symbol.isSameDeclaration(classes.get(symbol.name)) || containsSameDeclaration(symbol);
+        } else if (symbol instanceof FunctionScope) {
+            result = containsSameDeclaration(functions.get(symbol.name), symbol);
+        } else {
+            result = containsSameDeclaration(others.get(symbol.name), symbol);
+        }
+        return result;
+    }
+
+    /**
+     * 索引中同名的是另一种符号(比如This和同名的Variable)时,退回到逐个比较
+     */
+    private boolean containsSameDeclaration(Symbol symbol) {
+        Symbol indexed = symbol instanceof Variable ? variables.get(symbol.name) : classes.get(symbol.name);
+        return indexed != null && indexed.getClass() != symbol.getClass() && containsSameDeclaration(symbols, symbol);
+    }
+
+    private static boolean containsSameDeclaration(List<? extends Symbol> candidates, Symbol symbol) {
+        boolean result = false;
+        if (candidates != null) {
+            for (Symbol candidate : candidates) {
+                if (symbol.isSameDeclaration(candidate)) {
+                    result = true;
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    private void index(Symbol symbol) {
+        if (symbol instanceof Variable) {
+            ((Variable) symbol).slot = variableCount++;
+            variables.putIfAbsent(symbol.name, (Variable) symbol);
+        } else if (symbol instanceof ClassScope) {
+            classes.putIfAbsent(symbol.name, (ClassScope) symbol);
+        } else if (symbol instanceof FunctionScope) {
+            functions.computeIfAbsent(symbol.name, k -> new ArrayList<>(1)).add((FunctionScope) symbol);
+        } else {
+            others.computeIfAbsent(symbol.name, k -> new ArrayList<>(1)).add(symbol);
+        }
+    }
+
+    private void unindex(Symbol symbol) {
+        if (symbol instanceof Variable) {
+            //去掉的是最后加入的变量时,它的槽位可以重用
+            if (((Variable) symbol).slot == variableCount - 1) {
+                variableCount--;
+            }
+            if (variables.get(symbol.name) == symbol) {
+                variables.remove(symbol.name);
+                //还有同名的变量时,索引改成剩下的第一个
+                for (Symbol s : symbols) {
+                    if (s instanceof Variable && s.name.equals(symbol.name)) {
+                        variables.put(s.name, (Variable) s);
+                        break;
+                    }
+                }
+            }
+        } else if (symbol instanceof ClassScope) {
+            if (classes.get(symbol.name) == symbol) {
+                classes.remove(symbol.name);
+                for (Symbol s : symbols) {
+                    if (s instanceof ClassScope && s.name.equals(symbol.name)) {
+                        classes.put(s.name, (ClassScope) s);
+                        break;
+                    }
+                }
+            }
+        } else if (symbol instanceof FunctionScope) {
+            removeFrom(functions, symbol);
+        } else {
+            removeFrom(others, symbol);
+        }
+    }
+
+    private static <T extends Symbol> void removeFrom(Map<String, List<T>> index, Symbol symbol) {
+        List<T> list = index.get(symbol.name);
+        if (list != null) {
+            list.removeIf(s -> s == symbol);
+            if (list.isEmpty()) {
+                index.remove(symbol.name);
+            }
+        }
+    }
+
+    /**
+     * 运行时存放本作用域的变量需要的槽位数
+     *
+     * @return
+     */
+    public int getVariableCount() {
+        return variableCount;
+    }
+
     /**
      * 查看所有作用域中是否包含某个Variable
      *
@@ -53,24 +211,62 @@ public abstract class Scope extends Symbol {
     }
 
     protected static ClassScope getClass(Scope scope, String name) {
-        ClassScope result = null;
-        for (Symbol s : scope.symbols) {
-            if (s instanceof ClassScope && s.name.equals(name)) {
-                result = (ClassScope) s;
+        return scope.classes.get(name);
+    }
+
+    /**
+     * 是否包含某个Class
+     *
+     * @param name
+     * @return
+     */
+    protected ClassScope getClass(String name) {
+        return getClass(this, name);
+    }
+
+    /**
+     * 按名称和参数类型查找函数。参数类型完全匹配的优先;
+     * 否则,如果只有一个同名且参数个数相同的函数,就使用它,调用时再做参数类型的转换。
+     *
+     * @param scope
+     * @param name
+     * @param paramTypes 参数类型
+     * @return
+     */
+    protected static FunctionScope getFunction(Scope scope, String name, List<Type> paramTypes) {
+        FunctionScope result = null;
+        FunctionScope candidate = null;
+        int candidates = 0;
+        for (FunctionScope function : scope.functionsNamed(name)) {
+            if (function.matchParameterTypes(paramTypes)) {
+                result = function;
                 break;
+            } else if (function.parameters.size() == paramTypes.size()) {
+                candidate = function;
+                candidates++;
             }
         }
+        if (result == null && candidates == 1) {
+            result = candidate;
+        }
         return result;
     }
 
     /**
-     * 是否包含某个Class
+     * 只按名称查找函数,用于把函数当作值来引用的情况
      *
+     * @param scope
      * @param name
      * @return
      */
-    protected ClassScope getClass(String name) {
-        return getClass(this, name);
+    protected static FunctionScope getFunction(Scope scope, String name) {
+        List<FunctionScope> candidates = scope.functionsNamed(name);
+        return candidates.isEmpty() ? null : candidates.get(0);
+    }
+
+    protected List<FunctionScope> functionsNamed(String name) {
+        List<FunctionScope> result = functions.get(name);
+        return result == null ? Collections.<FunctionScope>emptyList() : result;
     }
 
     @Override
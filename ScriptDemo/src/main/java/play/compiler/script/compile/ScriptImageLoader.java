@@ -0,0 +1,146 @@
+package play.compiler.script.compile;
+
+import cfca.org.slf4j.Logger;
+import cfca.org.slf4j.LoggerFactory;
+import play.compiler.script.lower.LoweredProgram;
+import play.compiler.script.lower.ScriptImage;
+import play.compiler.utils.Args;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 加载 .playc 映像,映像不可用时回退到编译源码
+ * 1.映像的版本和源码哈希都与当前的源码一致时,直接映射映像,跳过词法、语法和语义分析;
+ * 2.映像不存在、版本不对、已过期(源码改过)或者损坏时,编译源码并降级,按需重新生成映像。
+ */
+public class ScriptImageLoader {
+    private static Logger LOG = LoggerFactory.getLogger(ScriptImageLoader.class);
+
+    /**
+     * 回退到编译源码之后是否重新生成映像
+     */
+    private boolean writeBack = true;
+
+    /**
+     * 从映像加载的次数
+     */
+    private long imageLoads = 0;
+
+    /**
+     * 回退到编译源码的次数
+     */
+    private long sourceCompiles = 0;
+
+    public void setWriteBack(boolean writeBack) {
+        this.writeBack = writeBack;
+    }
+
+    public long getImageLoads() {
+        return imageLoads;
+    }
+
+    public long getSourceCompiles() {
+        return sourceCompiles;
+    }
+
+    /**
+     * 源码文件对应的映像文件:把扩展名换成 .playc
+     *
+     * @param source
+     * @return
+     */
+    public static Path imagePathOf(Path source) {
+        Args.notNull(source, "ScriptImageLoader#imagePathOf:source");
+        String name = source.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        return source.resolveSibling(base + ScriptImage.EXTENSION);
+    }
+
+    /**
+     * 编译并降级脚本
+     *
+     * @param script
+     * @return
+     * @throws IllegalArgumentException 脚本有编译错误
+     */
+    public static LoweredProgram compile(String script) {
+        return new PlayScriptCompiler().lower(script);
+    }
+
+    /**
+     * 编译源码文件,生成映像文件
+     *
+     * @param source
+     * @param image
+     * @return 降级后的脚本
+     * @throws IOException
+     */
+    public static LoweredProgram writeImage(Path source, Path image) throws IOException {
+        LoweredProgram program = compile(readSource(source));
+        ScriptImage.write(program, image);
+        return program;
+    }
+
+    /**
+     * 加载源码文件旁边的映像,见 imagePathOf
+     *
+     * @param source
+     * @return
+     * @throws IOException 读源码文件失败
+     */
+    public LoweredProgram load(Path source) throws IOException {
+        return load(source, imagePathOf(source));
+    }
+
+    /**
+     * 加载映像,映像与源码不一致时回退到编译源码
+     *
+     * @param source 源码文件
+     * @param image  映像文件
+     * @return
+     * @throws IOException 读源码文件失败
+     */
+    public LoweredProgram load(Path source, Path image) throws IOException {
+        Args.notNull(image, "ScriptImageLoader#load:image");
+        String script = readSource(source);
+        String hash = CompiledScriptCache.hashOf(script);
+
+        LoweredProgram result = null;
+        if (Files.isRegularFile(image)) {
+            try {
+                if (hash.equals(ScriptImage.readSourceHash(image))) {
+                    result = ScriptImage.read(image);
+                    imageLoads++;
+                } else {
+                    LOG.info("ScriptImageLoader#load:{} is stale, compiling {}", image, source);
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                LOG.warn("ScriptImageLoader#load:unable to load {}, compiling {}", image, source, e);
+            }
+        }
+
+        if (result == null) {
+            result = compile(script);
+            sourceCompiles++;
+            if (writeBack) {
+                try {
+                    ScriptImage.write(result, image);
+                } catch (IOException e) {
+                    LOG.warn("ScriptImageLoader#load:unable to write {}", image, e);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static String readSource(Path source) throws IOException {
+        Args.notNull(source, "ScriptImageLoader#source");
+        return new String(Files.readAllBytes(source), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,73 @@
+package play.compiler.script.compile;
+
+import org.antlr.v4.runtime.ParserRuleContext;
+import play.compiler.script.generate.PlayScriptBaseListener;
+import play.compiler.script.generate.PlayScriptParser.FunctionCallContext;
+import play.compiler.script.generate.PlayScriptParser.PrimaryContext;
+import play.compiler.script.generate.PlayScriptParser.VariableDeclaratorIdContext;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 变量寻址。变量在所属作用域中的槽位在加入作用域时就分配好了(见 Variable#getSlot),
+ * 这里给每个引用变量的节点算出栈桢距离:从引用所在的作用域沿enclosingScope向外,到变量所在的作用域之前,
+ * 经过了几个运行时建立栈桢的作用域。解释器沿parentFrame走这么多步,再按槽位读写,不需要按作用域查找栈桢。
+ * 1.全局命名空间、函数和块作用域在运行时都有栈桢,函数体的block没有单独的作用域;
+ * 2.中间隔着类作用域时,运行时的栈桢还不确定,不做记录,解释器退回到按作用域查找。
+ * 需要在RefResolver之后运行,与它在同一遍遍历中完成,见 PlayScriptCompiler#resolve。
+ */
+public class SlotResolver extends PlayScriptBaseListener {
+    private AnnotatedTree at = null;
+
+    public SlotResolver(AnnotatedTree at) {
+        this.at = at;
+    }
+
+    @Override
+    public void exitVariableDeclaratorId(VariableDeclaratorIdContext ctx) {
+        resolve(ctx);
+    }
+
+    @Override
+    public void exitPrimary(PrimaryContext ctx) {
+        resolve(ctx);
+    }
+
+    @Override
+    public void exitFunctionCall(FunctionCallContext ctx) {
+        //函数型的变量
+        resolve(ctx);
+    }
+
+    private void resolve(ParserRuleContext ctx) {
+        Symbol symbol = at.symbolOfNode.get(ctx);
+        if (symbol instanceof Variable) {
+            int distance = distanceOf(at.enclosingScopeOfNode(ctx), (Variable) symbol);
+            if (distance >= 0) {
+                at.frameDistanceOfNode.put(ctx, distance);
+            }
+        }
+    }
+
+    /**
+     * 从scope的栈桢到变量所在的栈桢的距离
+     *
+     * @param scope
+     * @param variable
+     * @return 无法静态确定时返回-1
+     */
+    protected static int distanceOf(Scope scope, Variable variable) {
+        int rtn = -1;
+        int distance = 0;
+        for (Scope s = scope; s != null; s = s.enclosingScope) {
+            if (s == variable.enclosingScope) {
+                rtn = distance;
+                break;
+            } else if (s instanceof ClassScope) {
+                break;
+            }
+            distance++;
+        }
+        return rtn;
+    }
+}
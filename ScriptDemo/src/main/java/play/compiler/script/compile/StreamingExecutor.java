@@ -0,0 +1,203 @@
+package play.compiler.script.compile;
+
+import cfca.org.slf4j.Logger;
+import cfca.org.slf4j.LoggerFactory;
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CommonTokenFactory;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenFactory;
+import org.antlr.v4.runtime.TokenSource;
+import org.antlr.v4.runtime.UnbufferedCharStream;
+import org.antlr.v4.runtime.UnbufferedTokenStream;
+import play.compiler.script.generate.PlayScriptLexer;
+import play.compiler.script.generate.PlayScriptParser;
+import play.compiler.script.generate.PlayScriptParser.BlockStatementContext;
+import play.compiler.utils.Args;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 流式执行
+ * 每次只解析一条顶层语句(blockStatement),在不断增长的全局命名空间中做语义分析,执行它,然后丢掉它的AST。
+ * 字符流和Token流都不做缓冲,所以内存的峰值只取决于最大的一条语句,而与整个脚本的长度无关。
+ * 函数和类的声明会保留下来,但只能调用在它之前已经声明过的函数。
+ * 遇到语法错误或语义错误时停止执行,之前的语句已经执行过了。
+ */
+public class StreamingExecutor {
+    private static Logger LOG = LoggerFactory.getLogger(StreamingExecutor.class);
+
+    /**
+     * 字符流每次从Reader读取的字符数
+     */
+    private static final int BUFFER_SIZE = 256;
+
+    private final AnnotatedTree at;
+
+    private final ASTEvaluator evaluator;
+
+    /**
+     * 已经执行的语句数
+     */
+    private long statementCount = 0;
+
+    /**
+     * 最大的一条语句的Token数
+     */
+    private int maxStatementTokens = 0;
+
+    public StreamingExecutor() {
+        at = new AnnotatedTree();
+        at.setNameSpace(new NameSpace("", null, null));
+        evaluator = new ASTEvaluator(at);
+    }
+
+    public void setOut(PrintStream out) {
+        evaluator.setOut(out);
+    }
+
+    /**
+     * 按UTF-8读取并执行脚本
+     *
+     * @param input
+     * @return 最后一条语句的值
+     */
+    public Object execute(InputStream input) {
+        Args.notNull(input, "StreamingExecutor#execute:input");
+        return execute(new InputStreamReader(input, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 读取并执行脚本
+     *
+     * @param reader
+     * @return 最后一条语句的值
+     */
+    public Object execute(Reader reader) {
+        Args.notNull(reader, "StreamingExecutor#execute:reader");
+        UnbufferedCharStream input = new UnbufferedCharStream(new BufferedReader(reader), BUFFER_SIZE);
+        PlayScriptLexer lexer = new PlayScriptLexer(input);
+        //字符流不保留已经读过的字符,Token要自己保存文本
+        lexer.setTokenFactory(new CommonTokenFactory(true));
+        //UnbufferedTokenStream不会像CommonTokenStream那样过滤掉空白和注释
+        UnbufferedTokenStream<Token> tokens = new UnbufferedTokenStream<Token>(new DefaultChannelTokenSource(lexer));
+        PlayScriptParser parser = new PlayScriptParser(tokens);
+
+        SyntaxErrorListener errorListener = new SyntaxErrorListener();
+        lexer.removeErrorListeners();
+        lexer.addErrorListener(errorListener);
+        parser.removeErrorListeners();
+        parser.addErrorListener(errorListener);
+
+        Object rtn = null;
+        while (tokens.LA(1) != Token.EOF) {
+            BlockStatementContext stmt = parser.blockStatement();
+            if (errorListener.hasError || stmt.getStop() == null) {
+                break;
+            }
+            maxStatementTokens = Math.max(maxStatementTokens, stmt.getStop().getTokenIndex() - stmt.getStart().getTokenIndex() + 1);
+
+            PlayScriptCompiler.analyze(at, stmt);
+            if (at.hasCompilationError()) {
+                break;
+            }
+
+            rtn = evaluator.evaluateStatement(stmt);
+            at.forget(stmt);
+            statementCount++;
+        }
+
+        LOG.info("StreamingExecutor#execute:{} statements, max {} tokens per statement", statementCount, maxStatementTokens);
+        return rtn;
+    }
+
+    /**
+     * 流式执行用到的注释树,只保留了全局命名空间和函数、类的声明
+     *
+     * @return
+     */
+    public AnnotatedTree getAnnotatedTree() {
+        return at;
+    }
+
+    public long getStatementCount() {
+        return statementCount;
+    }
+
+    public int getMaxStatementTokens() {
+        return maxStatementTokens;
+    }
+
+    /**
+     * 只提供缺省通道上的Token
+     */
+    private static class DefaultChannelTokenSource implements TokenSource {
+        private final TokenSource source;
+
+        DefaultChannelTokenSource(TokenSource source) {
+            this.source = source;
+        }
+
+        @Override
+        public Token nextToken() {
+            Token token = source.nextToken();
+            while (token.getChannel() != Token.DEFAULT_CHANNEL && token.getType() != Token.EOF) {
+                token = source.nextToken();
+            }
+            return token;
+        }
+
+        @Override
+        public int getLine() {
+            return source.getLine();
+        }
+
+        @Override
+        public int getCharPositionInLine() {
+            return source.getCharPositionInLine();
+        }
+
+        @Override
+        public CharStream getInputStream() {
+            return source.getInputStream();
+        }
+
+        @Override
+        public String getSourceName() {
+            return source.getSourceName();
+        }
+
+        @Override
+        public void setTokenFactory(TokenFactory<?> factory) {
+            source.setTokenFactory(factory);
+        }
+
+        @Override
+        public TokenFactory<?> getTokenFactory() {
+            return source.getTokenFactory();
+        }
+    }
+
+    /**
+     * 把语法错误记录到编译信息中
+     */
+    private class SyntaxErrorListener extends BaseErrorListener {
+        private boolean hasError = false;
+
+        @Override
+        public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line, int charPositionInLine,
+                                String msg, RecognitionException e) {
+            hasError = true;
+            at.log("syntax error: " + msg, CompilationLog.ERROR, line, charPositionInLine);
+        }
+    }
+}
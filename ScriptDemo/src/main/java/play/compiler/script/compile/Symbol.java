@@ -2,11 +2,11 @@ package play.compiler.script.compile;
 
 import org.antlr.v4.runtime.ParserRuleContext;
 
-import java.util.Objects;
-
 /**
  * @Author: zhangchong
  * @Description: 用于表示面向对象的作用域
+ * 符号按对象的同一性比较。编译单元(AnnotatedTree)创建符号时给它分配一个连续的编号,
+ * 哈希值直接使用这个编号,不再沿着enclosingScope递归计算。
  */
 public abstract class Symbol {
     /**
@@ -29,6 +29,11 @@ public abstract class Symbol {
      */
     protected ParserRuleContext ctx = null;
 
+    /**
+     * 在编译单元内从0开始连续分配的编号,见 AnnotatedTree#register。不属于任何编译单元时为-1
+     */
+    protected int id = -1;
+
     public String getName() {
         return name;
     }
@@ -37,25 +42,29 @@ public abstract class Symbol {
         return enclosingScope;
     }
 
-    @Override
-    public boolean equals(Object o) {
-        boolean result;
-        if (this == o) {
-            result = true;
-        } else if (o == null || getClass() != o.getClass()) {
-            result = false;
-        } else {
-            Symbol symbol = (Symbol) o;
-            result = visibility == symbol.visibility &&
-                    Objects.equals(name, symbol.name) &&
-                    Objects.equals(enclosingScope, symbol.enclosingScope);
-        }
-        return result;
+    public int getId() {
+        return id;
     }
 
+    /**
+     * 是否与另一个符号重复声明:种类、名称、可见性相同,并且在同一个作用域中
+     *
+     * @param other
+     * @return
+     */
+    protected boolean isSameDeclaration(Symbol other) {
+        return other != null && getClass() == other.getClass() && visibility == other.visibility
+                && enclosingScope == other.enclosingScope && (name == null ? other.name == null : name.equals(other.name));
+    }
+
+    /**
+     * equals是对象的同一性,所以编号可以直接作为哈希值
+     *
+     * @return
+     */
     @Override
     public int hashCode() {
-        return Objects.hash(name, enclosingScope, visibility);
+        return id >= 0 ? id : super.hashCode();
     }
 
     @Override
@@ -11,7 +11,8 @@ import java.util.Stack;
  * @CodeReviewer zhangqingan
  * @Description 第一遍扫描, 识别出所有类型(包括类和函数), 以及Scope
  * 但是函数的参数信息要等到下一个阶段才会添加进去。
- * 把自定义类、函数和和作用域的树都分析出来。
+ * 把自定义类、函数和和作用域的树都分析出来。变量也在这一遍加入符号表,它们的类型在下一个阶段设置。
+ * 这样以后的阶段可以在同一遍遍历中完成,引用在后面声明的函数、类和变量时都能找到对应的符号。
  */
 public class TypeAndScopeScanner extends PlayScriptBaseListener {
     private AnnotatedTree at = null;
@@ -22,12 +23,37 @@ public class TypeAndScopeScanner extends PlayScriptBaseListener {
         this.at = at;
     }
 
+    /**
+     * 在已有的作用域中继续扫描,用于逐条分析顶层语句
+     *
+     * @param at
+     * @param initialScope 新的作用域和符号都加到这个作用域下
+     */
+    public TypeAndScopeScanner(AnnotatedTree at, Scope initialScope) {
+        this.at = at;
+        scopeStack.push(initialScope);
+    }
+
+    /**
+     * 记录每个节点所在的Scope,以后的阶段查找时不需要再逐级查找父节点。
+     * 先于enterXxx调用,所以建立Scope的节点记录的是外层的Scope
+     *
+     * @param ctx
+     */
+    @Override
+    public void enterEveryRule(ParserRuleContext ctx) {
+        Scope scope = currentScope();
+        if (null != scope) {
+            at.scopeOfNode.put(ctx, scope);
+        }
+    }
+
     /**
      * @param ctx
      */
     @Override
     public void enterProg(ProgContext ctx) {
-        NameSpace scope = new NameSpace("", currentScope(), ctx);
+        NameSpace scope = at.register(new NameSpace("", currentScope(), ctx));
         at.setNameSpace(scope);
         pushScope(scope, ctx);
     }
@@ -37,6 +63,32 @@ public class TypeAndScopeScanner extends PlayScriptBaseListener {
         popScope();
     }
 
+    /**
+     * 把所有的变量声明加入符号表
+     * variableDeclarator
+     * : variableDeclaratorId ('=' variableInitializer)?
+     * ;
+     * variableDeclaratorId
+     * : IDENTIFIER ('[' ']')*
+     * ;
+     *
+     * @param ctx
+     */
+    @Override
+    public void enterVariableDeclaratorId(VariableDeclaratorIdContext ctx) {
+        final String idName = ctx.IDENTIFIER().getText();
+        Scope scope = currentScope();
+        Variable variable = at.register(new Variable(idName, scope, ctx));
+
+        //变量查重
+        if (null != Scope.getVariable(scope, idName)) {
+            at.log(ctx, "Variable or parameter already Declared: %s", idName);
+        }
+
+        scope.addSymbol(variable);
+        at.symbolOfNode.put(ctx, variable);
+    }
+
     /**
      * 进入块作用域
      * block
@@ -59,7 +111,7 @@ public class TypeAndScopeScanner extends PlayScriptBaseListener {
     @Override
     public void enterBlock(BlockContext ctx) {
         if (!(ctx.parent instanceof FunctionBodyContext)) {
-            BlockScope scope = new BlockScope(currentScope(), ctx);
+            BlockScope scope = at.register(new BlockScope(currentScope(), ctx));
             currentScope().addSymbol(scope);
             pushScope(scope, ctx);
         }
@@ -95,7 +147,7 @@ public class TypeAndScopeScanner extends PlayScriptBaseListener {
     @Override
     public void enterStatement(StatementContext ctx) {
         if (ctx.FOR() != null) {
-            BlockScope scope = new BlockScope(currentScope(), ctx);
+            BlockScope scope = at.register(new BlockScope(currentScope(), ctx));
             currentScope().addSymbol(scope);
             pushScope(scope, ctx);
         }
@@ -131,9 +183,9 @@ public class TypeAndScopeScanner extends PlayScriptBaseListener {
         String idName = ctx.IDENTIFIER().getText();
 
         // 注意:目前funtion的信息并不完整，参数要等到TypeResolver.java中去确定。
-        FunctionScope function = new FunctionScope(idName, currentScope(), ctx);
+        FunctionScope function = at.register(new FunctionScope(idName, currentScope(), ctx));
 
-        at.types.add(function);
+        at.addType(function);
 
         currentScope().addSymbol(function);
 
@@ -175,12 +227,14 @@ public class TypeAndScopeScanner extends PlayScriptBaseListener {
     public void enterClassDeclaration(ClassDeclarationContext ctx) {
         final String idName = ctx.IDENTIFIER().getText();
 
-        ClassScope theClassScope = new ClassScope(idName, ctx);
-        at.types.add(theClassScope);
+        ClassScope theClassScope = at.register(new ClassScope(idName, ctx));
+        at.register(theClassScope.getThisRef());
+        theClassScope.enclosingScope = currentScope();
+        at.addType(theClassScope);
 
         if (null != at.lookupClass(currentScope(), idName)) {
             // 只是报警，但仍然继续解析
-            at.log("duplicate class name:" + idName, ctx);
+            at.log(ctx, "duplicate class name:%s", idName);
         }
 
         currentScope().addSymbol(theClassScope);
@@ -0,0 +1,158 @@
+package play.compiler.script.compile;
+
+import org.antlr.v4.runtime.ParserRuleContext;
+import play.compiler.script.generate.PlayScriptBaseListener;
+import play.compiler.script.generate.PlayScriptParser;
+import play.compiler.script.generate.PlayScriptParser.ExpressionContext;
+import play.compiler.script.generate.PlayScriptParser.StatementContext;
+import play.compiler.script.generate.PlayScriptParser.VariableDeclaratorContext;
+import play.compiler.script.runtime.Operator;
+import play.compiler.script.runtime.PrimitiveType;
+import play.compiler.script.runtime.Type;
+import play.compiler.script.utils.Operators;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 类型检查。表达式的结果类型已经由RefResolver推断出来,这里在此基础上:
+ * 1.给每个表达式节点记录操作数提升之后的类型(operandTypeOfNode),没有运算的节点就是它自己的类型;
+ * 2.按运算符和操作数类型选好特化的运算(operatorOfNode),解释器执行时不用再按类型分派;
+ * 3.检查条件是不是boolean,赋值和初始化的类型是否兼容,逻辑运算的操作数是不是boolean。
+ * 类型没有推断出来的地方已经报告过错误了,不再重复报告。
+ * 需要在RefResolver之后运行,与它在同一遍遍历中完成,见 PlayScriptCompiler#resolve。
+ */
+public class TypeChecker extends PlayScriptBaseListener {
+    private AnnotatedTree at = null;
+
+    public TypeChecker(AnnotatedTree at) {
+        this.at = at;
+    }
+
+    @Override
+    public void exitExpression(ExpressionContext ctx) {
+        Type operandType = at.typeOfNode.get(ctx);
+        int op = -1;
+        if (ctx.bop != null && ctx.expression().size() >= 2) {
+            int bop = ctx.bop.getType();
+            Type type1 = at.typeOfNode.get(ctx.expression(0));
+            Type type2 = at.typeOfNode.get(ctx.expression(1));
+            switch (bop) {
+                case PlayScriptParser.ADD:
+                case PlayScriptParser.SUB:
+                case PlayScriptParser.MUL:
+                case PlayScriptParser.DIV:
+                case PlayScriptParser.MOD:
+                case PlayScriptParser.BITAND:
+                case PlayScriptParser.BITOR:
+                case PlayScriptParser.CARET:
+                    op = bop;
+                    break;
+                case PlayScriptParser.EQUAL:
+                case PlayScriptParser.NOTEQUAL:
+                case PlayScriptParser.LE:
+                case PlayScriptParser.LT:
+                case PlayScriptParser.GE:
+                case PlayScriptParser.GT:
+                    operandType = upperType(type1, type2);
+                    op = bop;
+                    break;
+                case PlayScriptParser.AND:
+                case PlayScriptParser.OR:
+                    checkBoolean(ctx.expression(0), "operand of " + ctx.bop.getText());
+                    checkBoolean(ctx.expression(1), "operand of " + ctx.bop.getText());
+                    operandType = PrimitiveType.Boolean;
+                    break;
+                case PlayScriptParser.QUESTION:
+                    checkBoolean(ctx.expression(0), "condition");
+                    break;
+                case PlayScriptParser.ASSIGN:
+                    checkAssignable(type2, type1, ctx);
+                    operandType = type1;
+                    break;
+                default:
+                    //复合赋值按提升之后的类型运算,再转换成左边的类型
+                    op = Operators.arithmeticOf(bop);
+                    if (op >= 0) {
+                        operandType = upperType(type1, type2);
+                    }
+                    break;
+            }
+        } else if (ctx.prefix != null || ctx.postfix != null) {
+            operandType = at.typeOfNode.get(ctx.expression(0));
+            int unary = ctx.prefix != null ? ctx.prefix.getType() : ctx.postfix.getType();
+            if (unary == PlayScriptParser.INC || unary == PlayScriptParser.DEC) {
+                //byte、short、char自增之后要转换回原来的类型,不用选好的运算
+                if (!PrimitiveType.isNarrowIntegral(operandType)) {
+                    op = unary == PlayScriptParser.INC ? PlayScriptParser.ADD : PlayScriptParser.SUB;
+                }
+            } else if (unary == PlayScriptParser.SUB) {
+                operandType = PrimitiveType.promote(operandType);
+                op = PlayScriptParser.SUB;
+            } else if (unary == PlayScriptParser.BANG) {
+                checkBoolean(ctx.expression(0), "operand of !");
+            }
+        }
+
+        if (operandType != null) {
+            at.operandTypeOfNode.put(ctx, operandType);
+        }
+        if (op >= 0) {
+            Operator operator = Operators.binary(op, operandType);
+            if (operator != null) {
+                at.operatorOfNode.put(ctx, operator);
+            }
+        }
+    }
+
+    @Override
+    public void exitStatement(StatementContext ctx) {
+        if (ctx.IF() != null || ctx.WHILE() != null || ctx.DO() != null) {
+            checkBoolean(ctx.parExpression().expression(), "condition");
+        } else if (ctx.FOR() != null && ctx.forControl().expression() != null) {
+            checkBoolean(ctx.forControl().expression(), "condition");
+        }
+    }
+
+    @Override
+    public void exitVariableDeclarator(VariableDeclaratorContext ctx) {
+        Symbol symbol = at.symbolOfNode.get(ctx.variableDeclaratorId());
+        if (symbol instanceof Variable && ctx.variableInitializer() != null) {
+            checkAssignable(at.typeOfNode.get(ctx.variableInitializer()), ((Variable) symbol).type, ctx);
+        }
+    }
+
+    private void checkBoolean(ExpressionContext ctx, String what) {
+        Type type = at.typeOfNode.get(ctx);
+        if (type instanceof PrimitiveType && type != PrimitiveType.Boolean) {
+            at.log(ctx, "%s should be Boolean but was %s", what, type);
+        }
+    }
+
+    private void checkAssignable(Type from, Type to, ParserRuleContext ctx) {
+        if (!isAssignable(from, to)) {
+            at.log(ctx, "incompatible types: %s cannot be converted to %s", from, to);
+        }
+    }
+
+    /**
+     * 基础类型之间能否赋值。数值类型(包括char)之间可以互相转换,null可以赋给任何类型。
+     * 不是基础类型的(类、函数)暂不检查。
+     *
+     * @param from
+     * @param to
+     * @return
+     */
+    protected static boolean isAssignable(Type from, Type to) {
+        return !(from instanceof PrimitiveType) || !(to instanceof PrimitiveType)
+                || from == to || from == PrimitiveType.Null
+                || (isNumericOrChar(from) && isNumericOrChar(to));
+    }
+
+    private static boolean isNumericOrChar(Type type) {
+        return PrimitiveType.isNumeric(type) || type == PrimitiveType.Char;
+    }
+
+    private static Type upperType(Type type1, Type type2) {
+        return (Type) PrimitiveType.getUpperType(type1, type2);
+    }
+}
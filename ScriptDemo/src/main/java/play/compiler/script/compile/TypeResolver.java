@@ -1,77 +1,295 @@
 package play.compiler.script.compile;
 
+import org.antlr.v4.runtime.ParserRuleContext;
 import play.compiler.script.generate.PlayScriptBaseListener;
+import play.compiler.script.generate.PlayScriptParser.ClassOrInterfaceTypeContext;
+import play.compiler.script.generate.PlayScriptParser.EnhancedForControlContext;
+import play.compiler.script.generate.PlayScriptParser.FormalParameterContext;
+import play.compiler.script.generate.PlayScriptParser.FormalParametersContext;
+import play.compiler.script.generate.PlayScriptParser.FunctionDeclarationContext;
+import play.compiler.script.generate.PlayScriptParser.FunctionTypeContext;
+import play.compiler.script.generate.PlayScriptParser.LastFormalParameterContext;
+import play.compiler.script.generate.PlayScriptParser.PrimitiveTypeContext;
+import play.compiler.script.generate.PlayScriptParser.TypeTypeContext;
+import play.compiler.script.generate.PlayScriptParser.TypeTypeOrVoidContext;
 import play.compiler.script.generate.PlayScriptParser.VariableDeclaratorContext;
 import play.compiler.script.generate.PlayScriptParser.VariableDeclaratorIdContext;
 import play.compiler.script.generate.PlayScriptParser.VariableDeclaratorsContext;
+import play.compiler.script.runtime.DefaultFunctionType;
+import play.compiler.script.runtime.PrimitiveType;
 import play.compiler.script.runtime.Type;
+import play.compiler.script.runtime.VoidType;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
 
 /**
  * @author zhangchong
  * @CodeReviewer zhangqingan
  * @Description 第二遍扫描。把变量、类继承、函数声明的类型都解析出来。也就是所有用到typeType的地方。
  * 做了自上而下的类型推导，也就是 I 属性的计算，包括变量 - 声明、类的继承声明、函数声明
+ * 与RefResolver在同一遍遍历(FusedTreeWalker)中运行时,引用到还没有遍历到的变量或函数,
+ * 用 resolveType 和 resolveSignature 提前解析它们的声明。
  */
 public class TypeResolver extends PlayScriptBaseListener {
     private AnnotatedTree at = null;
 
+    /**
+     * 所在的融合遍历,单独遍历时为null
+     */
+    private FusedTreeWalker walker = null;
+
+    /**
+     * 声明已经解析过、但类型未知(比如用了未定义的类)的变量和函数,不必再提前解析
+     */
+    private final Set<Symbol> unresolved = Collections.newSetFromMap(new IdentityHashMap<Symbol, Boolean>());
+
     public TypeResolver(AnnotatedTree at) {
         this.at = at;
     }
 
+    protected void setWalker(FusedTreeWalker walker) {
+        this.walker = walker;
+    }
+
     /**
-     * 把所有的变量声明加入符号表
+     * 设置所声明的变量的类型。变量已经在第一遍扫描中加入了符号表,声明中的类型(typeType)在变量名之前,已经解析出来了。
+     * 在变量名这里就设置类型,同一个声明中后面的初始化部分(比如 int a = 1, b = a;)就可以用到。
+     * variableDeclarators
+     * : typeType variableDeclarator (',' variableDeclarator)*
+     * ;
      * variableDeclarator
      * : variableDeclaratorId ('=' variableInitializer)?
      * ;
-     * variableDeclaratorId
-     * : IDENTIFIER ('[' ']')*
+     *
+     * @param ctx
+     */
+    @Override
+    public void enterVariableDeclaratorId(VariableDeclaratorIdContext ctx) {
+        Symbol symbol = at.symbolOfNode.get(ctx);
+        if (symbol instanceof Variable && ((Variable) symbol).type == null) {
+            Variable variable = (Variable) symbol;
+            variable.type = at.typeOfNode.get(declaredTypeOf(ctx));
+            if (variable.type == null) {
+                unresolved.add(variable);
+            }
+        }
+    }
+
+    /**
+     * 设置函数参数的类型,并把参数按顺序加入函数的参数列表
+     * formalParameter
+     * : variableModifier* typeType variableDeclaratorId
+     * ;
+     *
+     * @param ctx
+     */
+    @Override
+    public void exitFormalParameter(FormalParameterContext ctx) {
+        Variable variable = (Variable) at.symbolOfNode.get(ctx.variableDeclaratorId());
+        Scope scope = at.enclosingScopeOfNode(ctx);
+        if (scope instanceof FunctionScope) {
+            ((FunctionScope) scope).parameters.add(variable);
+        }
+    }
+
+    /**
+     * 设置函数的返回值类型。没有声明返回值的函数(比如类的构建函数)当作void处理。
+     * 返回值类型在参数列表之前,这时函数的签名已经完整了,函数体中的递归调用可以用到。
+     * functionDeclaration
+     * : typeTypeOrVoid? IDENTIFIER formalParameters ('[' ']')* (THROWS qualifiedNameList)? functionBody
+     * ;
+     *
+     * @param ctx
+     */
+    @Override
+    public void exitFormalParameters(FormalParametersContext ctx) {
+        if (ctx.getParent() instanceof FunctionDeclarationContext) {
+            FunctionDeclarationContext declaration = (FunctionDeclarationContext) ctx.getParent();
+            FunctionScope function = (FunctionScope) at.node2Scope.get(declaration);
+            if (declaration.typeTypeOrVoid() != null) {
+                function.returnType = at.typeOfNode.get(declaration.typeTypeOrVoid());
+                if (function.returnType == null) {
+                    unresolved.add(function);
+                }
+            } else {
+                function.returnType = VoidType.instance();
+            }
+        }
+    }
+
+    /**
+     * 这个时候参数已经齐了,可以做函数查重。
+     *
+     * @param ctx
+     */
+    @Override
+    public void exitFunctionDeclaration(FunctionDeclarationContext ctx) {
+        FunctionScope function = (FunctionScope) at.node2Scope.get(ctx);
+
+        //函数查重,检查名称和参数
+        Scope scope = at.enclosingScopeOfNode(ctx);
+        FunctionScope found = Scope.getFunction(scope, function.name, function.getParamTypes());
+        if (found != null && found != function) {
+            at.log(ctx, "Function or method already Declared: %s", function.name);
+        }
+    }
+
+    /**
+     * typeTypeOrVoid
+     * : typeType
+     * | VOID
      * ;
+     *
+     * @param ctx
+     */
+    @Override
+    public void exitTypeTypeOrVoid(TypeTypeOrVoidContext ctx) {
+        if (ctx.VOID() != null) {
+            at.typeOfNode.put(ctx, VoidType.instance());
+        } else {
+            at.typeOfNode.put(ctx, at.typeOfNode.get(ctx.typeType()));
+        }
+    }
+
+    /**
+     * 类型冒泡,把下级节点的类型设置到typeType节点上
      * typeType
-     *     : (classOrInterfaceType| functionType | primitiveType) ('[' ']')*
-     *     ;
+     * : (classOrInterfaceType| functionType | primitiveType) ('[' ']')*
+     * ;
      *
-     * IDENTIFIER:         Letter LetterOrDigit*;
+     * @param ctx
+     */
+    @Override
+    public void exitTypeType(TypeTypeContext ctx) {
+        Type type = null;
+        if (ctx.primitiveType() != null) {
+            type = at.typeOfNode.get(ctx.primitiveType());
+        } else if (ctx.classOrInterfaceType() != null) {
+            type = at.typeOfNode.get(ctx.classOrInterfaceType());
+        } else if (ctx.functionType() != null) {
+            type = at.typeOfNode.get(ctx.functionType());
+        }
+        at.typeOfNode.put(ctx, type);
+    }
+
+    /**
+     * 根据类名找到对应的类
      *
      * @param ctx
      */
     @Override
-    public void enterVariableDeclaratorId(VariableDeclaratorIdContext ctx) {
-        final String idName = ctx.IDENTIFIER().getText();
-        //取得当前节点所属的作用域
+    public void exitClassOrInterfaceType(ClassOrInterfaceTypeContext ctx) {
         Scope scope = at.enclosingScopeOfNode(ctx);
-        Variable variable = new Variable(idName, scope, ctx);
+        String idName = ctx.getText();
+        ClassScope theClass = at.lookupClass(scope, idName);
+        if (theClass == null) {
+            at.log(ctx, "unknown type: %s", idName);
+        } else {
+            at.typeOfNode.put(ctx, theClass);
+        }
+    }
+
+    /**
+     * functionType
+     * : FUNCTION typeTypeOrVoid '(' typeList? ')'
+     * ;
+     *
+     * @param ctx
+     */
+    @Override
+    public void exitFunctionType(FunctionTypeContext ctx) {
+        List<Type> paramTypes = new LinkedList<Type>();
+        if (ctx.typeList() != null) {
+            for (TypeTypeContext child : ctx.typeList().typeType()) {
+                paramTypes.add(at.typeOfNode.get(child));
+            }
+        }
+        DefaultFunctionType functionType = new DefaultFunctionType(at.typeOfNode.get(ctx.typeTypeOrVoid()), paramTypes);
+        at.addType(functionType);
+        at.typeOfNode.put(ctx, functionType);
+    }
 
-        //变量查重
-        if (null != Scope.getVariable(scope, idName)) {
-            at.log("Variable or parameter already Declared: " + idName, ctx);
+    /**
+     * 提前解析变量的类型,用于在融合遍历中引用还没有遍历到的变量
+     *
+     * @param variable
+     */
+    protected void resolveType(Variable variable) {
+        if (walker != null && variable.type == null && !unresolved.contains(variable)
+                && variable.ctx instanceof VariableDeclaratorIdContext) {
+            walker.walkAhead(declaredTypeOf((VariableDeclaratorIdContext) variable.ctx));
+            enterVariableDeclaratorId((VariableDeclaratorIdContext) variable.ctx);
         }
+    }
 
-        scope.addSymbol(variable);
-        at.symbolOfNode.put(ctx, variable);
+    /**
+     * 提前解析函数的参数和返回值类型,用于在融合遍历中调用还没有遍历到的函数
+     *
+     * @param function
+     */
+    protected void resolveSignature(FunctionScope function) {
+        if (walker != null && function.returnType == null && !unresolved.contains(function)
+                && function.ctx instanceof FunctionDeclarationContext) {
+            FunctionDeclarationContext declaration = (FunctionDeclarationContext) function.ctx;
+            walker.walkAhead(declaration.typeTypeOrVoid());
+            walker.walkAhead(declaration.formalParameters());
+        }
     }
 
     /**
-     * <p>
-     * int              a
-     * variableDeclarators[到这一级就可以获取定义的变量类型了]
-     * typeType         variableDeclarator
-     * primitiveType    variableDeclaratorId
-     * </p>
-     * <p>
-     * 设置所声明的变量的类型
+     * 变量声明中的类型
+     *
+     * @param ctx
+     * @return
+     */
+    private static TypeTypeContext declaredTypeOf(VariableDeclaratorIdContext ctx) {
+        ParserRuleContext parent = ctx.getParent();
+        TypeTypeContext rtn = null;
+        if (parent instanceof VariableDeclaratorContext && parent.getParent() instanceof VariableDeclaratorsContext) {
+            rtn = ((VariableDeclaratorsContext) parent.getParent()).typeType();
+        } else if (parent instanceof FormalParameterContext) {
+            rtn = ((FormalParameterContext) parent).typeType();
+        } else if (parent instanceof LastFormalParameterContext) {
+            rtn = ((LastFormalParameterContext) parent).typeType();
+        } else if (parent instanceof EnhancedForControlContext) {
+            rtn = ((EnhancedForControlContext) parent).typeType();
+        }
+        return rtn;
+    }
+
+    /**
+     * primitiveType
+     * : BOOLEAN | CHAR | BYTE | SHORT | INT | LONG | FLOAT | DOUBLE | STRING
+     * ;
      *
      * @param ctx
      */
     @Override
-    public void exitVariableDeclarators(VariableDeclaratorsContext ctx) {
-        // 设置变量类型(首先从Antlr中取出节点 "类型的类型")
-        Type type = at.typeOfNode.get(ctx.typeType());
-
-        for (VariableDeclaratorContext child : ctx.variableDeclarator()) {
-            //child.variableDeclaratorId() 相当于取出 a
-            Variable variable = (Variable) at.symbolOfNode.get(child.variableDeclaratorId());
-            variable.type = type;
+    public void exitPrimitiveType(PrimitiveTypeContext ctx) {
+        Type type = null;
+        if (ctx.BOOLEAN() != null) {
+            type = PrimitiveType.Boolean;
+        } else if (ctx.INT() != null) {
+            type = PrimitiveType.Integer;
+        } else if (ctx.LONG() != null) {
+            type = PrimitiveType.Long;
+        } else if (ctx.FLOAT() != null) {
+            type = PrimitiveType.Float;
+        } else if (ctx.DOUBLE() != null) {
+            type = PrimitiveType.Double;
+        } else if (ctx.BYTE() != null) {
+            type = PrimitiveType.Byte;
+        } else if (ctx.SHORT() != null) {
+            type = PrimitiveType.Short;
+        } else if (ctx.CHAR() != null) {
+            type = PrimitiveType.Char;
+        } else if (ctx.STRING() != null) {
+            type = PrimitiveType.String;
         }
+        at.typeOfNode.put(ctx, type);
     }
 }
@@ -23,6 +23,11 @@ public class Variable extends Symbol {
      */
     protected Integer multiplicity = 1;
 
+    /**
+     * 在所属作用域中的槽位,加入作用域时分配,见 Scope#getVariableCount
+     */
+    protected int slot = -1;
+
     /**
      *
      * @param name 变量名
@@ -35,6 +40,10 @@ public class Variable extends Symbol {
         this.ctx = ctx;
     }
 
+    public int getSlot() {
+        return slot;
+    }
+
     /**
      * 是不是类的属性
      *
@@ -0,0 +1,92 @@
+package play.compiler.script.compile;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 预热结果:冷启动时和预热之后编译同一组脚本的耗时
+ */
+public class WarmUpReport {
+    /**
+     * 脚本数
+     */
+    private final int scripts;
+
+    /**
+     * 预热的遍数
+     */
+    private final int rounds;
+
+    /**
+     * 第一遍编译的总耗时
+     */
+    private final long coldNanos;
+
+    /**
+     * 预热之后编译一遍的总耗时
+     */
+    private final long warmNanos;
+
+    protected WarmUpReport(int scripts, int rounds, long coldNanos, long warmNanos) {
+        this.scripts = scripts;
+        this.rounds = rounds;
+        this.coldNanos = coldNanos;
+        this.warmNanos = warmNanos;
+    }
+
+    public int getScripts() {
+        return scripts;
+    }
+
+    public int getRounds() {
+        return rounds;
+    }
+
+    public long getColdNanos() {
+        return coldNanos;
+    }
+
+    public long getWarmNanos() {
+        return warmNanos;
+    }
+
+    /**
+     * 冷启动时每个脚本的平均编译耗时
+     *
+     * @return
+     */
+    public long getColdNanosPerScript() {
+        return coldNanos / scripts;
+    }
+
+    /**
+     * 预热之后每个脚本的平均编译耗时
+     *
+     * @return
+     */
+    public long getWarmNanosPerScript() {
+        return warmNanos / scripts;
+    }
+
+    /**
+     * 冷启动耗时是预热之后的多少倍
+     *
+     * @return
+     */
+    public double getSpeedup() {
+        return warmNanos > 0 ? (double) coldNanos / warmNanos : 0;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("WarmUpReport");
+        builder.append("{scripts=").append(scripts);
+        builder.append(", rounds=").append(rounds);
+        builder.append(", cold=").append(TimeUnit.NANOSECONDS.toMicros(getColdNanosPerScript())).append("us/script");
+        builder.append(", warm=").append(TimeUnit.NANOSECONDS.toMicros(getWarmNanosPerScript())).append("us/script");
+        builder.append(String.format(", speedup=%.1fx", getSpeedup()));
+        builder.append('}');
+        return builder.toString();
+    }
+}
@@ -0,0 +1,136 @@
+package play.compiler.script.exec;
+
+import play.compiler.script.lower.LoweredOp;
+import play.compiler.script.lower.LoweredOperators;
+import play.compiler.script.runtime.PrimitiveType;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 二元运算(LoweredOp.BINARY)。运算符和运算的类型在建树时确定。
+ * 刚建好时是 Uninitialized,第一次执行时按运算的类型和观察到的操作数换成特化的版本
+ * (IntNodes、LongNodes、DoubleNodes 或 StringConcat),操作数不是数值时换成 Generic。
+ * 特化的版本遇到不是数值的操作数时,把自己换成 Generic。
+ */
+abstract class BinaryNode extends ExpressionNode {
+    /**
+     * LoweredOp中的运算符
+     */
+    final int op;
+
+    /**
+     * 运算的类型,可能为null
+     */
+    final PrimitiveType type;
+
+    protected ExpressionNode left;
+    protected ExpressionNode right;
+
+    BinaryNode(int op, PrimitiveType type, ExpressionNode left, ExpressionNode right) {
+        this.op = op;
+        this.type = type;
+        this.left = adopt(left);
+        this.right = adopt(right);
+    }
+
+    @Override
+    protected void replaceKid(ExpressionNode kid, ExpressionNode replacement) {
+        if (left == kid) {
+            left = replacement;
+        } else if (right == kid) {
+            right = replacement;
+        } else {
+            super.replaceKid(kid, replacement);
+        }
+    }
+
+    /**
+     * 把自己换成通用的版本,用已经求出的操作数算出结果
+     *
+     * @param leftValue
+     * @param rightValue
+     * @return
+     */
+    protected final Object generalize(Object leftValue, Object rightValue) {
+        if (!isReplaced()) {
+            replace(new Generic(op, type, left, right));
+        }
+        return LoweredOperators.binary(op, leftValue, rightValue, type);
+    }
+
+    static boolean isComparison(int op) {
+        return op >= LoweredOp.OP_EQ && op <= LoweredOp.OP_GE;
+    }
+
+    /**
+     * 还没有执行过的二元运算
+     */
+    static final class Uninitialized extends BinaryNode {
+        Uninitialized(int op, PrimitiveType type, ExpressionNode left, ExpressionNode right) {
+            super(op, type, left, right);
+        }
+
+        @Override
+        Object execute(ExecFrame frame) {
+            Object leftValue = left.execute(frame);
+            Object rightValue = right.execute(frame);
+            if (!isReplaced()) {
+                replace(specialize(leftValue, rightValue));
+            }
+            return LoweredOperators.binary(op, leftValue, rightValue, type);
+        }
+
+        private BinaryNode specialize(Object leftValue, Object rightValue) {
+            BinaryNode rtn = null;
+            if (type == PrimitiveType.String && op == LoweredOp.OP_ADD) {
+                rtn = new StringConcat(left, right);
+            } else if (leftValue instanceof Number && rightValue instanceof Number && type != null) {
+                switch (type) {
+                    case Integer:
+                        rtn = IntNodes.create(op, left, right);
+                        break;
+                    case Long:
+                        rtn = LongNodes.create(op, left, right);
+                        break;
+                    case Double:
+                        rtn = DoubleNodes.create(op, left, right);
+                        break;
+                    default:
+                        break;
+                }
+            }
+            if (rtn == null) {
+                rtn = new Generic(op, type, left, right);
+            }
+            return rtn;
+        }
+    }
+
+    /**
+     * 通用的版本,与 ASTEvaluator 一样调用 NumberUtils、LogicUtils
+     */
+    static final class Generic extends BinaryNode {
+        Generic(int op, PrimitiveType type, ExpressionNode left, ExpressionNode right) {
+            super(op, type, left, right);
+        }
+
+        @Override
+        Object execute(ExecFrame frame) {
+            return LoweredOperators.binary(op, left.execute(frame), right.execute(frame), type);
+        }
+    }
+
+    /**
+     * 字符串连接
+     */
+    static final class StringConcat extends BinaryNode {
+        StringConcat(ExpressionNode left, ExpressionNode right) {
+            super(LoweredOp.OP_ADD, PrimitiveType.String, left, right);
+        }
+
+        @Override
+        Object execute(ExecFrame frame) {
+            return String.valueOf(left.execute(frame)) + right.execute(frame);
+        }
+    }
+}
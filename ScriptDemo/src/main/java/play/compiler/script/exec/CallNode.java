@@ -0,0 +1,52 @@
+package play.compiler.script.exec;
+
+import play.compiler.script.utils.NumberUtils;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 函数调用(LoweredOp.CALL)。被调用的函数和它所在作用域的栈桢距离在建树时确定,
+ * 参数直接求值到被调用函数的栈桢中。
+ */
+final class CallNode extends ExpressionNode {
+    private final ExecFunction function;
+
+    /**
+     * 从当前栈桢到函数所在作用域的栈桢要跳过的栈桢数
+     */
+    private final int hops;
+
+    private final ExpressionNode[] args;
+
+    CallNode(ExecFunction function, int hops, ExpressionNode[] args) {
+        this.function = function;
+        this.hops = hops;
+        this.args = adopt(args);
+    }
+
+    @Override
+    protected void replaceKid(ExpressionNode kid, ExpressionNode replacement) {
+        if (!replaceIn(args, kid, replacement)) {
+            super.replaceKid(kid, replacement);
+        }
+    }
+
+    @Override
+    Object execute(ExecFrame frame) {
+        ExecFrame callee = new ExecFrame(function.frameSize, frame.up(hops), frame.context);
+        for (int i = 0; i < args.length; i++) {
+            Object arg = args[i].execute(frame);
+            if (i < function.paramCount) {
+                callee.set(i, arg);
+            }
+        }
+
+        ExecContext context = frame.context;
+        Object rtn = null;
+        if (function.body.executeStatement(callee) == StatementNode.RETURN) {
+            rtn = context.returnValue;
+        }
+        context.returnValue = null;
+        return NumberUtils.convert(rtn, function.returnType);
+    }
+}
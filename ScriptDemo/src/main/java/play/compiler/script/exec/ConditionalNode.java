@@ -0,0 +1,43 @@
+package play.compiler.script.exec;
+
+import play.compiler.script.runtime.PrimitiveType;
+import play.compiler.script.utils.NumberUtils;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 三元运算(LoweredOp.COND),结果转换成运算的类型
+ */
+final class ConditionalNode extends ExpressionNode {
+    private final PrimitiveType type;
+
+    private ExpressionNode condition;
+    private ExpressionNode whenTrue;
+    private ExpressionNode whenFalse;
+
+    ConditionalNode(PrimitiveType type, ExpressionNode condition, ExpressionNode whenTrue, ExpressionNode whenFalse) {
+        this.type = type;
+        this.condition = adopt(condition);
+        this.whenTrue = adopt(whenTrue);
+        this.whenFalse = adopt(whenFalse);
+    }
+
+    @Override
+    protected void replaceKid(ExpressionNode kid, ExpressionNode replacement) {
+        if (condition == kid) {
+            condition = replacement;
+        } else if (whenTrue == kid) {
+            whenTrue = replacement;
+        } else if (whenFalse == kid) {
+            whenFalse = replacement;
+        } else {
+            super.replaceKid(kid, replacement);
+        }
+    }
+
+    @Override
+    Object execute(ExecFrame frame) {
+        ExpressionNode chosen = LogicalNode.asBoolean(condition, frame) ? whenTrue : whenFalse;
+        return NumberUtils.convert(chosen.execute(frame), type);
+    }
+}
@@ -0,0 +1,19 @@
+package play.compiler.script.exec;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 常量(LoweredOp.CONST),也用于作为表达式的空语句,值为null。
+ */
+final class ConstantNode extends ExpressionNode {
+    private final Object value;
+
+    ConstantNode(Object value) {
+        this.value = value;
+    }
+
+    @Override
+    Object execute(ExecFrame frame) {
+        return value;
+    }
+}
@@ -0,0 +1,178 @@
+package play.compiler.script.exec;
+
+import play.compiler.script.runtime.PrimitiveType;
+import play.compiler.script.utils.NumberUtils;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 把数值转换成目标类型(LoweredOp.CONVERT)。
+ * 第一次执行时,值是数值、目标类型是int、long或double时换成对应的版本,直接按原始类型求值;
+ * 值不是数值时与 NumberUtils#convert 一样原样返回。
+ */
+abstract class ConvertNode extends UnaryNode {
+    final PrimitiveType type;
+
+    ConvertNode(PrimitiveType type, ExpressionNode operand) {
+        super(operand);
+        this.type = type;
+    }
+
+    /**
+     * 把自己换成通用的版本,转换已经求出的值
+     *
+     * @param value
+     * @return
+     */
+    protected final Object generalize(Object value) {
+        if (!isReplaced()) {
+            replace(new Generic(type, operand));
+        }
+        return NumberUtils.convert(value, type);
+    }
+
+    static final class Uninitialized extends ConvertNode {
+        Uninitialized(PrimitiveType type, ExpressionNode operand) {
+            super(type, operand);
+        }
+
+        @Override
+        Object execute(ExecFrame frame) {
+            Object value = operand.execute(frame);
+            if (!isReplaced()) {
+                replace(specialize(value));
+            }
+            return NumberUtils.convert(value, type);
+        }
+
+        private ConvertNode specialize(Object value) {
+            ConvertNode rtn = null;
+            if (value instanceof Number) {
+                switch (type) {
+                    case Integer:
+                        rtn = new ToInt(operand);
+                        break;
+                    case Long:
+                        rtn = new ToLong(operand);
+                        break;
+                    case Double:
+                        rtn = new ToDouble(operand);
+                        break;
+                    default:
+                        break;
+                }
+            }
+            return rtn != null ? rtn : new Generic(type, operand);
+        }
+    }
+
+    static final class Generic extends ConvertNode {
+        Generic(PrimitiveType type, ExpressionNode operand) {
+            super(type, operand);
+        }
+
+        @Override
+        Object execute(ExecFrame frame) {
+            return NumberUtils.convert(operand.execute(frame), type);
+        }
+    }
+
+    static final class ToInt extends ConvertNode {
+        ToInt(ExpressionNode operand) {
+            super(PrimitiveType.Integer, operand);
+        }
+
+        @Override
+        Object execute(ExecFrame frame) {
+            Object rtn;
+            try {
+                rtn = executeInt(frame);
+            } catch (UnexpectedResultException e) {
+                rtn = e.getResult();
+            }
+            return rtn;
+        }
+
+        @Override
+        int executeInt(ExecFrame frame) throws UnexpectedResultException {
+            int rtn;
+            try {
+                rtn = operand.executeInt(frame);
+            } catch (UnexpectedResultException e) {
+                rtn = expectInt(generalize(e.getResult()));
+            }
+            return rtn;
+        }
+
+        @Override
+        long executeLong(ExecFrame frame) throws UnexpectedResultException {
+            return executeInt(frame);
+        }
+
+        @Override
+        double executeDouble(ExecFrame frame) throws UnexpectedResultException {
+            return executeInt(frame);
+        }
+    }
+
+    static final class ToLong extends ConvertNode {
+        ToLong(ExpressionNode operand) {
+            super(PrimitiveType.Long, operand);
+        }
+
+        @Override
+        Object execute(ExecFrame frame) {
+            Object rtn;
+            try {
+                rtn = executeLong(frame);
+            } catch (UnexpectedResultException e) {
+                rtn = e.getResult();
+            }
+            return rtn;
+        }
+
+        @Override
+        long executeLong(ExecFrame frame) throws UnexpectedResultException {
+            long rtn;
+            try {
+                rtn = operand.executeLong(frame);
+            } catch (UnexpectedResultException e) {
+                rtn = expectLong(generalize(e.getResult()));
+            }
+            return rtn;
+        }
+
+        @Override
+        double executeDouble(ExecFrame frame) throws UnexpectedResultException {
+            return executeLong(frame);
+        }
+    }
+
+    static final class ToDouble extends ConvertNode {
+        ToDouble(ExpressionNode operand) {
+            super(PrimitiveType.Double, operand);
+        }
+
+        @Override
+        Object execute(ExecFrame frame) {
+            Object rtn;
+            try {
+                rtn = executeDouble(frame);
+            } catch (UnexpectedResultException e) {
+                rtn = e.getResult();
+            }
+            return rtn;
+        }
+
+        @Override
+        double executeDouble(ExecFrame frame) throws UnexpectedResultException {
+            double rtn;
+            try {
+                rtn = operand.executeDouble(frame);
+            } catch (UnexpectedResultException e) {
+                rtn = expectDouble(generalize(e.getResult()));
+            }
+            return rtn;
+        }
+    }
+}
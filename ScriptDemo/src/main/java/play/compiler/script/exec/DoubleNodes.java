@@ -0,0 +1,263 @@
+package play.compiler.script.exec;
+
+import play.compiler.script.lower.LoweredOp;
+import play.compiler.script.runtime.PrimitiveType;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 运算的类型为Double时特化的二元运算,没有位运算和移位,操作数按double求值,不装箱。
+ */
+final class DoubleNodes {
+    private DoubleNodes() {
+
+    }
+
+    /**
+     * @param op    LoweredOp中的运算符
+     * @param left
+     * @param right
+     * @return 没有对应的特化版本时返回null
+     */
+    static BinaryNode create(int op, ExpressionNode left, ExpressionNode right) {
+        BinaryNode rtn;
+        switch (op) {
+            case LoweredOp.OP_ADD:
+                rtn = new Add(left, right);
+                break;
+            case LoweredOp.OP_SUB:
+                rtn = new Sub(left, right);
+                break;
+            case LoweredOp.OP_MUL:
+                rtn = new Mul(left, right);
+                break;
+            case LoweredOp.OP_DIV:
+                rtn = new Div(left, right);
+                break;
+            case LoweredOp.OP_MOD:
+                rtn = new Mod(left, right);
+                break;
+            case LoweredOp.OP_EQ:
+                rtn = new Eq(left, right);
+                break;
+            case LoweredOp.OP_NE:
+                rtn = new Ne(left, right);
+                break;
+            case LoweredOp.OP_LT:
+                rtn = new Lt(left, right);
+                break;
+            case LoweredOp.OP_LE:
+                rtn = new Le(left, right);
+                break;
+            case LoweredOp.OP_GT:
+                rtn = new Gt(left, right);
+                break;
+            case LoweredOp.OP_GE:
+                rtn = new Ge(left, right);
+                break;
+            default:
+                rtn = null;
+                break;
+        }
+        return rtn;
+    }
+
+    /**
+     * 结果为double的运算
+     */
+    abstract static class Arithmetic extends BinaryNode {
+        Arithmetic(int op, ExpressionNode left, ExpressionNode right) {
+            super(op, PrimitiveType.Double, left, right);
+        }
+
+        abstract double apply(double l, double r);
+
+        @Override
+        Object execute(ExecFrame frame) {
+            Object rtn;
+            try {
+                rtn = executeDouble(frame);
+            } catch (UnexpectedResultException e) {
+                rtn = e.getResult();
+            }
+            return rtn;
+        }
+
+        @Override
+        double executeDouble(ExecFrame frame) throws UnexpectedResultException {
+            double l;
+            try {
+                l = left.executeDouble(frame);
+            } catch (UnexpectedResultException e) {
+                return expectDouble(generalize(e.getResult(), right.execute(frame)));
+            }
+            double r;
+            try {
+                r = right.executeDouble(frame);
+            } catch (UnexpectedResultException e) {
+                return expectDouble(generalize(l, e.getResult()));
+            }
+            return apply(l, r);
+        }
+    }
+
+    /**
+     * 比较运算,操作数按double比较
+     */
+    abstract static class Comparison extends BinaryNode {
+        Comparison(int op, ExpressionNode left, ExpressionNode right) {
+            super(op, PrimitiveType.Double, left, right);
+        }
+
+        abstract boolean apply(double l, double r);
+
+        @Override
+        Object execute(ExecFrame frame) {
+            Object rtn;
+            try {
+                rtn = executeBoolean(frame);
+            } catch (UnexpectedResultException e) {
+                rtn = e.getResult();
+            }
+            return rtn;
+        }
+
+        @Override
+        boolean executeBoolean(ExecFrame frame) throws UnexpectedResultException {
+            double l;
+            try {
+                l = left.executeDouble(frame);
+            } catch (UnexpectedResultException e) {
+                return expectBoolean(generalize(e.getResult(), right.execute(frame)));
+            }
+            double r;
+            try {
+                r = right.executeDouble(frame);
+            } catch (UnexpectedResultException e) {
+                return expectBoolean(generalize(l, e.getResult()));
+            }
+            return apply(l, r);
+        }
+    }
+
+    static final class Add extends Arithmetic {
+        Add(ExpressionNode left, ExpressionNode right) {
+            super(LoweredOp.OP_ADD, left, right);
+        }
+
+        @Override
+        double apply(double l, double r) {
+            return l + r;
+        }
+    }
+
+    static final class Sub extends Arithmetic {
+        Sub(ExpressionNode left, ExpressionNode right) {
+            super(LoweredOp.OP_SUB, left, right);
+        }
+
+        @Override
+        double apply(double l, double r) {
+            return l - r;
+        }
+    }
+
+    static final class Mul extends Arithmetic {
+        Mul(ExpressionNode left, ExpressionNode right) {
+            super(LoweredOp.OP_MUL, left, right);
+        }
+
+        @Override
+        double apply(double l, double r) {
+            return l * r;
+        }
+    }
+
+    static final class Div extends Arithmetic {
+        Div(ExpressionNode left, ExpressionNode right) {
+            super(LoweredOp.OP_DIV, left, right);
+        }
+
+        @Override
+        double apply(double l, double r) {
+            return l / r;
+        }
+    }
+
+    static final class Mod extends Arithmetic {
+        Mod(ExpressionNode left, ExpressionNode right) {
+            super(LoweredOp.OP_MOD, left, right);
+        }
+
+        @Override
+        double apply(double l, double r) {
+            return l % r;
+        }
+    }
+
+    static final class Eq extends Comparison {
+        Eq(ExpressionNode left, ExpressionNode right) {
+            super(LoweredOp.OP_EQ, left, right);
+        }
+
+        @Override
+        boolean apply(double l, double r) {
+            return l == r;
+        }
+    }
+
+    static final class Ne extends Comparison {
+        Ne(ExpressionNode left, ExpressionNode right) {
+            super(LoweredOp.OP_NE, left, right);
+        }
+
+        @Override
+        boolean apply(double l, double r) {
+            return l != r;
+        }
+    }
+
+    static final class Lt extends Comparison {
+        Lt(ExpressionNode left, ExpressionNode right) {
+            super(LoweredOp.OP_LT, left, right);
+        }
+
+        @Override
+        boolean apply(double l, double r) {
+            return l < r;
+        }
+    }
+
+    static final class Le extends Comparison {
+        Le(ExpressionNode left, ExpressionNode right) {
+            super(LoweredOp.OP_LE, left, right);
+        }
+
+        @Override
+        boolean apply(double l, double r) {
+            return l <= r;
+        }
+    }
+
+    static final class Gt extends Comparison {
+        Gt(ExpressionNode left, ExpressionNode right) {
+            super(LoweredOp.OP_GT, left, right);
+        }
+
+        @Override
+        boolean apply(double l, double r) {
+            return l > r;
+        }
+    }
+
+    static final class Ge extends Comparison {
+        Ge(ExpressionNode left, ExpressionNode right) {
+            super(LoweredOp.OP_GE, left, right);
+        }
+
+        @Override
+        boolean apply(double l, double r) {
+            return l >= r;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package play.compiler.script.exec;
+
+import java.io.PrintStream;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 一次执行的状态:println的输出、最后执行的语句的值和return语句的返回值。
+ */
+final class ExecContext {
+    final PrintStream out;
+
+    /**
+     * 最后执行的语句的值
+     */
+    Object value = null;
+
+    /**
+     * return语句的返回值
+     */
+    Object returnValue = null;
+
+    ExecContext(PrintStream out) {
+        this.out = out;
+    }
+}
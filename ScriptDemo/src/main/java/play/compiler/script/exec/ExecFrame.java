@@ -0,0 +1,99 @@
+package play.compiler.script.exec;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 执行节点树时的栈桢,变量按槽位存放。parent指向词法上外层作用域的栈桢。
+ * 特化的节点把int、long、double值直接存在 primitives 中(double存原始的位),slots 中相应位置放一个标记,
+ * 按原始类型读写时不装箱;通用的读取(get)在这时才装箱。
+ */
+final class ExecFrame {
+    private static final Object INT = new Object();
+    private static final Object LONG = new Object();
+    private static final Object DOUBLE = new Object();
+
+    final Object[] slots;
+    final long[] primitives;
+    final ExecFrame parent;
+    final ExecContext context;
+
+    ExecFrame(int size, ExecFrame parent, ExecContext context) {
+        this.slots = new Object[size];
+        this.primitives = new long[size];
+        this.parent = parent;
+        this.context = context;
+    }
+
+    /**
+     * 向外跳过hops个栈桢
+     *
+     * @param hops
+     * @return
+     */
+    ExecFrame up(int hops) {
+        ExecFrame frame = this;
+        for (int i = 0; i < hops; i++) {
+            frame = frame.parent;
+        }
+        return frame;
+    }
+
+    /**
+     * @param slot
+     * @return 槽位的值,按原始类型存放的值装箱后返回;没有赋过值时为null
+     */
+    Object get(int slot) {
+        Object rtn = slots[slot];
+        if (rtn == INT) {
+            rtn = (int) primitives[slot];
+        } else if (rtn == LONG) {
+            rtn = primitives[slot];
+        } else if (rtn == DOUBLE) {
+            rtn = Double.longBitsToDouble(primitives[slot]);
+        }
+        return rtn;
+    }
+
+    void set(int slot, Object value) {
+        slots[slot] = value;
+    }
+
+    /**
+     * @param slot
+     * @return 槽位的值是否按原始类型存放,是的话可以用 getInt、getLong、getDouble 读取
+     */
+    boolean isPrimitive(int slot) {
+        Object kind = slots[slot];
+        return kind == INT || kind == LONG || kind == DOUBLE;
+    }
+
+    /**
+     * isPrimitive 时才能调用,转换与 Number#intValue、longValue、doubleValue 相同
+     */
+    int getInt(int slot) {
+        return slots[slot] == DOUBLE ? (int) Double.longBitsToDouble(primitives[slot]) : (int) primitives[slot];
+    }
+
+    long getLong(int slot) {
+        return slots[slot] == DOUBLE ? (long) Double.longBitsToDouble(primitives[slot]) : primitives[slot];
+    }
+
+    double getDouble(int slot) {
+        return slots[slot] == DOUBLE ? Double.longBitsToDouble(primitives[slot]) : (double) primitives[slot];
+    }
+
+    void setInt(int slot, int value) {
+        primitives[slot] = value;
+        slots[slot] = INT;
+    }
+
+    void setLong(int slot, long value) {
+        primitives[slot] = value;
+        slots[slot] = LONG;
+    }
+
+    void setDouble(int slot, double value) {
+        primitives[slot] = Double.doubleToRawLongBits(value);
+        slots[slot] = DOUBLE;
+    }
+}
@@ -0,0 +1,30 @@
+package play.compiler.script.exec;
+
+import play.compiler.script.runtime.PrimitiveType;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 节点树中的函数。函数体在所有函数建好之后才设置,这样递归调用也能直接引用函数。
+ */
+final class ExecFunction {
+    /**
+     * 栈桢大小,参数占最前面的槽位
+     */
+    final int frameSize;
+
+    final int paramCount;
+
+    /**
+     * 返回值类型,不是基础类型时为null
+     */
+    final PrimitiveType returnType;
+
+    StatementNode body = null;
+
+    ExecFunction(int frameSize, int paramCount, PrimitiveType returnType) {
+        this.frameSize = frameSize;
+        this.paramCount = paramCount;
+        this.returnType = returnType;
+    }
+}
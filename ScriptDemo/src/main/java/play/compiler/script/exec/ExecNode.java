@@ -0,0 +1,49 @@
+package play.compiler.script.exec;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 可执行节点树中的节点。
+ * 表达式节点执行时可以把自己换成更特化的版本(见 ExpressionNode#replace),父节点负责在自己的子节点中完成替换。
+ */
+abstract class ExecNode {
+    protected ExecNode parent = null;
+
+    protected <T extends ExpressionNode> T adopt(T kid) {
+        kid.parent = this;
+        return kid;
+    }
+
+    protected ExpressionNode[] adopt(ExpressionNode[] kids) {
+        for (ExpressionNode kid : kids) {
+            adopt(kid);
+        }
+        return kids;
+    }
+
+    /**
+     * 把子节点kid换成replacement
+     *
+     * @param kid
+     * @param replacement
+     */
+    protected void replaceKid(ExpressionNode kid, ExpressionNode replacement) {
+        throw new IllegalStateException(getClass().getSimpleName() + "#replaceKid:not a kid:" + kid.getClass().getSimpleName());
+    }
+
+    /**
+     * 在kids中把kid换成replacement
+     *
+     * @return 是否找到了kid
+     */
+    protected static boolean replaceIn(ExpressionNode[] kids, ExpressionNode kid, ExpressionNode replacement) {
+        boolean rtn = false;
+        for (int i = 0; i < kids.length && !rtn; i++) {
+            if (kids[i] == kid) {
+                kids[i] = replacement;
+                rtn = true;
+            }
+        }
+        return rtn;
+    }
+}
@@ -0,0 +1,90 @@
+package play.compiler.script.exec;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 表达式节点。
+ * 除了求出对象形式的值,还可以直接按原始类型求值,特化的父节点(比如 IntNodes.Add)用它们避免装箱。
+ * 按原始类型求值的语义与 NumberUtils 相同:任何数值都可以按int、long、double取值;
+ * 值不是数值时抛出 UnexpectedResultException,调用者退回通用的实现。
+ */
+abstract class ExpressionNode extends ExecNode {
+
+    abstract Object execute(ExecFrame frame);
+
+    int executeInt(ExecFrame frame) throws UnexpectedResultException {
+        return expectInt(execute(frame));
+    }
+
+    long executeLong(ExecFrame frame) throws UnexpectedResultException {
+        return expectLong(execute(frame));
+    }
+
+    double executeDouble(ExecFrame frame) throws UnexpectedResultException {
+        return expectDouble(execute(frame));
+    }
+
+    boolean executeBoolean(ExecFrame frame) throws UnexpectedResultException {
+        return expectBoolean(execute(frame));
+    }
+
+    /**
+     * 只执行,不需要值,比如循环的更新部分和值不会被用到的表达式语句。特化的赋值、自增节点不再为值装箱
+     *
+     * @param frame
+     */
+    void executeVoid(ExecFrame frame) {
+        execute(frame);
+    }
+
+    /**
+     * 在父节点中把自己换成replacement。替换之后本节点不再属于树,parent为null
+     *
+     * @param replacement 还没有挂到树上的节点
+     * @return replacement
+     */
+    protected final <T extends ExpressionNode> T replace(T replacement) {
+        parent.replaceKid(this, replacement);
+        replacement.parent = parent;
+        parent = null;
+        return replacement;
+    }
+
+    /**
+     * 是否已经被替换掉了。递归调用时,外层还在执行的节点可能已经被内层的执行替换了,这时不能再替换。
+     * 要在建立替换用的节点之前判断,因为建立节点时会改变子节点的parent
+     *
+     * @return
+     */
+    protected final boolean isReplaced() {
+        return parent == null;
+    }
+
+    static int expectInt(Object value) throws UnexpectedResultException {
+        if (value instanceof Number) {
+            return ((Number) value).intValue();
+        }
+        throw new UnexpectedResultException(value);
+    }
+
+    static long expectLong(Object value) throws UnexpectedResultException {
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        throw new UnexpectedResultException(value);
+    }
+
+    static double expectDouble(Object value) throws UnexpectedResultException {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        throw new UnexpectedResultException(value);
+    }
+
+    static boolean expectBoolean(Object value) throws UnexpectedResultException {
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        throw new UnexpectedResultException(value);
+    }
+}
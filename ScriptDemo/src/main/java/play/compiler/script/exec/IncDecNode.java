@@ -0,0 +1,183 @@
+package play.compiler.script.exec;
+
+import play.compiler.script.object.NullObject;
+import play.compiler.script.runtime.PrimitiveType;
+import play.compiler.script.utils.NumberUtils;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 自增、自减(LoweredOp.INCDEC)。前缀运算的值是新值,后缀运算的值是旧值。
+ * 第一次执行时变量的值是数值、类型是int或long时,换成直接按原始类型加减的版本,新值按原始类型存入栈桢。
+ */
+abstract class IncDecNode extends ExpressionNode {
+    protected final int hops;
+    protected final int slot;
+    protected final PrimitiveType type;
+    protected final boolean prefix;
+    protected final boolean decrement;
+
+    IncDecNode(int hops, int slot, PrimitiveType type, boolean prefix, boolean decrement) {
+        this.hops = hops;
+        this.slot = slot;
+        this.type = type;
+        this.prefix = prefix;
+        this.decrement = decrement;
+    }
+
+    /**
+     * 与 ASTEvaluator 相同的通用实现
+     *
+     * @param owner 变量所在的栈桢
+     * @return
+     */
+    protected final Object update(ExecFrame owner) {
+        Object old = owner.get(slot);
+        if (old == null) {
+            old = NullObject.instance();
+        }
+        //byte、short、char按int加减,再转换回原来的类型
+        Object updated = NumberUtils.convert(decrement ? NumberUtils.minus(old, 1, type) : NumberUtils.add(old, 1, type), type);
+        owner.set(slot, updated);
+        return prefix ? updated : old;
+    }
+
+    protected final Object generalize(ExecFrame owner) {
+        if (!isReplaced()) {
+            replace(new Generic(hops, slot, type, prefix, decrement));
+        }
+        return update(owner);
+    }
+
+    /**
+     * @param owner
+     * @return 变量的值是否是数值,可以按原始类型加减
+     */
+    protected final boolean isNumber(ExecFrame owner) {
+        return owner.isPrimitive(slot) || owner.get(slot) instanceof Number;
+    }
+
+    static final class Uninitialized extends IncDecNode {
+        Uninitialized(int hops, int slot, PrimitiveType type, boolean prefix, boolean decrement) {
+            super(hops, slot, type, prefix, decrement);
+        }
+
+        @Override
+        Object execute(ExecFrame frame) {
+            ExecFrame owner = frame.up(hops);
+            IncDecNode specialized;
+            if (type == PrimitiveType.Integer && isNumber(owner)) {
+                specialized = new IntIncDec(hops, slot, prefix, decrement);
+            } else if (type == PrimitiveType.Long && isNumber(owner)) {
+                specialized = new LongIncDec(hops, slot, prefix, decrement);
+            } else {
+                specialized = new Generic(hops, slot, type, prefix, decrement);
+            }
+            replace(specialized);
+            return update(owner);
+        }
+    }
+
+    static final class Generic extends IncDecNode {
+        Generic(int hops, int slot, PrimitiveType type, boolean prefix, boolean decrement) {
+            super(hops, slot, type, prefix, decrement);
+        }
+
+        @Override
+        Object execute(ExecFrame frame) {
+            return update(frame.up(hops));
+        }
+    }
+
+    static final class IntIncDec extends IncDecNode {
+        IntIncDec(int hops, int slot, boolean prefix, boolean decrement) {
+            super(hops, slot, PrimitiveType.Integer, prefix, decrement);
+        }
+
+        @Override
+        Object execute(ExecFrame frame) {
+            ExecFrame owner = frame.up(hops);
+            Object rtn;
+            if (owner.isPrimitive(slot)) {
+                rtn = updateInt(owner);
+            } else if (owner.get(slot) instanceof Number) {
+                //旧值按原样返回,与通用的实现相同
+                Object old = owner.get(slot);
+                int result = updateInt(owner);
+                rtn = prefix ? result : old;
+            } else {
+                rtn = generalize(owner);
+            }
+            return rtn;
+        }
+
+        @Override
+        void executeVoid(ExecFrame frame) {
+            ExecFrame owner = frame.up(hops);
+            if (isNumber(owner)) {
+                updateInt(owner);
+            } else {
+                generalize(owner);
+            }
+        }
+
+        /**
+         * 变量的值是数值时按int加减
+         *
+         * @param owner
+         * @return 前缀运算返回新值,后缀运算返回旧值
+         */
+        private int updateInt(ExecFrame owner) {
+            int old = owner.isPrimitive(slot) ? owner.getInt(slot) : ((Number) owner.get(slot)).intValue();
+            int updated = decrement ? old - 1 : old + 1;
+            owner.setInt(slot, updated);
+            return prefix ? updated : old;
+        }
+    }
+
+    static final class LongIncDec extends IncDecNode {
+        LongIncDec(int hops, int slot, boolean prefix, boolean decrement) {
+            super(hops, slot, PrimitiveType.Long, prefix, decrement);
+        }
+
+        @Override
+        Object execute(ExecFrame frame) {
+            ExecFrame owner = frame.up(hops);
+            Object rtn;
+            if (owner.isPrimitive(slot)) {
+                rtn = updateLong(owner);
+            } else if (owner.get(slot) instanceof Number) {
+                //旧值按原样返回,与通用的实现相同
+                Object old = owner.get(slot);
+                long result = updateLong(owner);
+                rtn = prefix ? result : old;
+            } else {
+                rtn = generalize(owner);
+            }
+            return rtn;
+        }
+
+        @Override
+        void executeVoid(ExecFrame frame) {
+            ExecFrame owner = frame.up(hops);
+            if (isNumber(owner)) {
+                updateLong(owner);
+            } else {
+                generalize(owner);
+            }
+        }
+
+        /**
+         * 变量的值是数值时按long加减
+         *
+         * @param owner
+         * @return 前缀运算返回新值,后缀运算返回旧值
+         */
+        private long updateLong(ExecFrame owner) {
+            long old = owner.isPrimitive(slot) ? owner.getLong(slot) : ((Number) owner.get(slot)).longValue();
+            long updated = decrement ? old - 1 : old + 1;
+            owner.setLong(slot, updated);
+            return prefix ? updated : old;
+        }
+    }
+}
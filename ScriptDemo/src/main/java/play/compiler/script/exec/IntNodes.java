@@ -0,0 +1,358 @@
+package play.compiler.script.exec;
+
+import play.compiler.script.lower.LoweredOp;
+import play.compiler.script.runtime.PrimitiveType;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 运算的类型为Integer时特化的二元运算,操作数按int求值,不装箱。
+ * 移位的距离与 LoweredOperators 一样取右操作数的int值。
+ */
+final class IntNodes {
+    private IntNodes() {
+
+    }
+
+    /**
+     * @param op    LoweredOp中的运算符
+     * @param left
+     * @param right
+     * @return 没有对应的特化版本时返回null
+     */
+    static BinaryNode create(int op, ExpressionNode left, ExpressionNode right) {
+        BinaryNode rtn;
+        switch (op) {
+            case LoweredOp.OP_ADD:
+                rtn = new Add(left, right);
+                break;
+            case LoweredOp.OP_SUB:
+                rtn = new Sub(left, right);
+                break;
+            case LoweredOp.OP_MUL:
+                rtn = new Mul(left, right);
+                break;
+            case LoweredOp.OP_DIV:
+                rtn = new Div(left, right);
+                break;
+            case LoweredOp.OP_MOD:
+                rtn = new Mod(left, right);
+                break;
+            case LoweredOp.OP_BITAND:
+                rtn = new BitAnd(left, right);
+                break;
+            case LoweredOp.OP_BITOR:
+                rtn = new BitOr(left, right);
+                break;
+            case LoweredOp.OP_BITXOR:
+                rtn = new BitXor(left, right);
+                break;
+            case LoweredOp.OP_SHL:
+                rtn = new Shl(left, right);
+                break;
+            case LoweredOp.OP_SHR:
+                rtn = new Shr(left, right);
+                break;
+            case LoweredOp.OP_USHR:
+                rtn = new Ushr(left, right);
+                break;
+            case LoweredOp.OP_EQ:
+                rtn = new Eq(left, right);
+                break;
+            case LoweredOp.OP_NE:
+                rtn = new Ne(left, right);
+                break;
+            case LoweredOp.OP_LT:
+                rtn = new Lt(left, right);
+                break;
+            case LoweredOp.OP_LE:
+                rtn = new Le(left, right);
+                break;
+            case LoweredOp.OP_GT:
+                rtn = new Gt(left, right);
+                break;
+            case LoweredOp.OP_GE:
+                rtn = new Ge(left, right);
+                break;
+            default:
+                rtn = null;
+                break;
+        }
+        return rtn;
+    }
+
+    /**
+     * 结果为int的运算
+     */
+    abstract static class Arithmetic extends BinaryNode {
+        Arithmetic(int op, ExpressionNode left, ExpressionNode right) {
+            super(op, PrimitiveType.Integer, left, right);
+        }
+
+        abstract int apply(int l, int r);
+
+        @Override
+        Object execute(ExecFrame frame) {
+            Object rtn;
+            try {
+                rtn = executeInt(frame);
+            } catch (UnexpectedResultException e) {
+                rtn = e.getResult();
+            }
+            return rtn;
+        }
+
+        @Override
+        int executeInt(ExecFrame frame) throws UnexpectedResultException {
+            int l;
+            try {
+                l = left.executeInt(frame);
+            } catch (UnexpectedResultException e) {
+                return expectInt(generalize(e.getResult(), right.execute(frame)));
+            }
+            int r;
+            try {
+                r = right.executeInt(frame);
+            } catch (UnexpectedResultException e) {
+                return expectInt(generalize(l, e.getResult()));
+            }
+            return apply(l, r);
+        }
+
+        @Override
+        long executeLong(ExecFrame frame) throws UnexpectedResultException {
+            return executeInt(frame);
+        }
+
+        @Override
+        double executeDouble(ExecFrame frame) throws UnexpectedResultException {
+            return executeInt(frame);
+        }
+    }
+
+    /**
+     * 比较运算,操作数按int比较
+     */
+    abstract static class Comparison extends BinaryNode {
+        Comparison(int op, ExpressionNode left, ExpressionNode right) {
+            super(op, PrimitiveType.Integer, left, right);
+        }
+
+        abstract boolean apply(int l, int r);
+
+        @Override
+        Object execute(ExecFrame frame) {
+            Object rtn;
+            try {
+                rtn = executeBoolean(frame);
+            } catch (UnexpectedResultException e) {
+                rtn = e.getResult();
+            }
+            return rtn;
+        }
+
+        @Override
+        boolean executeBoolean(ExecFrame frame) throws UnexpectedResultException {
+            int l;
+            try {
+                l = left.executeInt(frame);
+            } catch (UnexpectedResultException e) {
+                return expectBoolean(generalize(e.getResult(), right.execute(frame)));
+            }
+            int r;
+            try {
+                r = right.executeInt(frame);
+            } catch (UnexpectedResultException e) {
+                return expectBoolean(generalize(l, e.getResult()));
+            }
+            return apply(l, r);
+        }
+    }
+
+    static final class Add extends Arithmetic {
+        Add(ExpressionNode left, ExpressionNode right) {
+            super(LoweredOp.OP_ADD, left, right);
+        }
+
+        @Override
+        int apply(int l, int r) {
+            return l + r;
+        }
+    }
+
+    static final class Sub extends Arithmetic {
+        Sub(ExpressionNode left, ExpressionNode right) {
+            super(LoweredOp.OP_SUB, left, right);
+        }
+
+        @Override
+        int apply(int l, int r) {
+            return l - r;
+        }
+    }
+
+    static final class Mul extends Arithmetic {
+        Mul(ExpressionNode left, ExpressionNode right) {
+            super(LoweredOp.OP_MUL, left, right);
+        }
+
+        @Override
+        int apply(int l, int r) {
+            return l * r;
+        }
+    }
+
+    static final class Div extends Arithmetic {
+        Div(ExpressionNode left, ExpressionNode right) {
+            super(LoweredOp.OP_DIV, left, right);
+        }
+
+        @Override
+        int apply(int l, int r) {
+            return l / r;
+        }
+    }
+
+    static final class Mod extends Arithmetic {
+        Mod(ExpressionNode left, ExpressionNode right) {
+            super(LoweredOp.OP_MOD, left, right);
+        }
+
+        @Override
+        int apply(int l, int r) {
+            return l % r;
+        }
+    }
+
+    static final class BitAnd extends Arithmetic {
+        BitAnd(ExpressionNode left, ExpressionNode right) {
+            super(LoweredOp.OP_BITAND, left, right);
+        }
+
+        @Override
+        int apply(int l, int r) {
+            return l & r;
+        }
+    }
+
+    static final class BitOr extends Arithmetic {
+        BitOr(ExpressionNode left, ExpressionNode right) {
+            super(LoweredOp.OP_BITOR, left, right);
+        }
+
+        @Override
+        int apply(int l, int r) {
+            return l | r;
+        }
+    }
+
+    static final class BitXor extends Arithmetic {
+        BitXor(ExpressionNode left, ExpressionNode right) {
+            super(LoweredOp.OP_BITXOR, left, right);
+        }
+
+        @Override
+        int apply(int l, int r) {
+            return l ^ r;
+        }
+    }
+
+    static final class Shl extends Arithmetic {
+        Shl(ExpressionNode left, ExpressionNode right) {
+            super(LoweredOp.OP_SHL, left, right);
+        }
+
+        @Override
+        int apply(int l, int r) {
+            return l << r;
+        }
+    }
+
+    static final class Shr extends Arithmetic {
+        Shr(ExpressionNode left, ExpressionNode right) {
+            super(LoweredOp.OP_SHR, left, right);
+        }
+
+        @Override
+        int apply(int l, int r) {
+            return l >> r;
+        }
+    }
+
+    static final class Ushr extends Arithmetic {
+        Ushr(ExpressionNode left, ExpressionNode right) {
+            super(LoweredOp.OP_USHR, left, right);
+        }
+
+        @Override
+        int apply(int l, int r) {
+            return l >>> r;
+        }
+    }
+
+    static final class Eq extends Comparison {
+        Eq(ExpressionNode left, ExpressionNode right) {
+            super(LoweredOp.OP_EQ, left, right);
+        }
+
+        @Override
+        boolean apply(int l, int r) {
+            return l == r;
+        }
+    }
+
+    static final class Ne extends Comparison {
+        Ne(ExpressionNode left, ExpressionNode right) {
+            super(LoweredOp.OP_NE, left, right);
+        }
+
+        @Override
+        boolean apply(int l, int r) {
+            return l != r;
+        }
+    }
+
+    static final class Lt extends Comparison {
+        Lt(ExpressionNode left, ExpressionNode right) {
+            super(LoweredOp.OP_LT, left, right);
+        }
+
+        @Override
+        boolean apply(int l, int r) {
+            return l < r;
+        }
+    }
+
+    static final class Le extends Comparison {
+        Le(ExpressionNode left, ExpressionNode right) {
+            super(LoweredOp.OP_LE, left, right);
+        }
+
+        @Override
+        boolean apply(int l, int r) {
+            return l <= r;
+        }
+    }
+
+    static final class Gt extends Comparison {
+        Gt(ExpressionNode left, ExpressionNode right) {
+            super(LoweredOp.OP_GT, left, right);
+        }
+
+        @Override
+        boolean apply(int l, int r) {
+            return l > r;
+        }
+    }
+
+    static final class Ge extends Comparison {
+        Ge(ExpressionNode left, ExpressionNode right) {
+            super(LoweredOp.OP_GE, left, right);
+        }
+
+        @Override
+        boolean apply(int l, int r) {
+            return l >= r;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package play.compiler.script.exec;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 短路的逻辑与(AND)、逻辑或(OR),操作数直接按boolean求值。
+ */
+abstract class LogicalNode extends ExpressionNode {
+    protected ExpressionNode left;
+    protected ExpressionNode right;
+
+    LogicalNode(ExpressionNode left, ExpressionNode right) {
+        this.left = adopt(left);
+        this.right = adopt(right);
+    }
+
+    @Override
+    protected void replaceKid(ExpressionNode kid, ExpressionNode replacement) {
+        if (left == kid) {
+            left = replacement;
+        } else if (right == kid) {
+            right = replacement;
+        } else {
+            super.replaceKid(kid, replacement);
+        }
+    }
+
+    @Override
+    Object execute(ExecFrame frame) {
+        return executeBoolean(frame);
+    }
+
+    @Override
+    abstract boolean executeBoolean(ExecFrame frame);
+
+    /**
+     * 与 ASTEvaluator 一样,值不是Boolean时抛出 ClassCastException
+     *
+     * @param node
+     * @param frame
+     * @return
+     */
+    static boolean asBoolean(ExpressionNode node, ExecFrame frame) {
+        boolean rtn;
+        try {
+            rtn = node.executeBoolean(frame);
+        } catch (UnexpectedResultException e) {
+            rtn = (Boolean) e.getResult();
+        }
+        return rtn;
+    }
+
+    static final class And extends LogicalNode {
+        And(ExpressionNode left, ExpressionNode right) {
+            super(left, right);
+        }
+
+        @Override
+        boolean executeBoolean(ExecFrame frame) {
+            return asBoolean(left, frame) && asBoolean(right, frame);
+        }
+    }
+
+    static final class Or extends LogicalNode {
+        Or(ExpressionNode left, ExpressionNode right) {
+            super(left, right);
+        }
+
+        @Override
+        boolean executeBoolean(ExecFrame frame) {
+            return asBoolean(left, frame) || asBoolean(right, frame);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package play.compiler.script.exec;
+
+import play.compiler.script.lower.LoweredFunction;
+import play.compiler.script.lower.LoweredNode;
+import play.compiler.script.lower.LoweredOp;
+import play.compiler.script.lower.LoweredOperators;
+import play.compiler.script.lower.LoweredProgram;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 把降级后的脚本转换成可执行节点树。
+ * 运算符、类型、变量的栈桢距离和槽位、被调用的函数都在这里确定下来,执行时不再查找;
+ * 会特化的节点先建成 Uninitialized 版本,第一次执行时再按观察到的值替换。
+ */
+final class NodeBuilder {
+    private final LoweredProgram program;
+
+    private final ExecFunction[] functions;
+
+    /**
+     * 正在建立的语句的值是否不会被用到。
+     * 循环结束后语句的值为null,函数体中语句的值在调用之后被调用所在的语句覆盖,所以循环体和函数体中语句的值都不会被用到
+     */
+    private boolean valueDiscarded = false;
+
+    NodeBuilder(LoweredProgram program) {
+        this.program = program;
+        LoweredFunction[] lowered = program.getFunctions();
+        this.functions = new ExecFunction[lowered.length];
+        for (int i = 0; i < lowered.length; i++) {
+            functions[i] = new ExecFunction(lowered[i].getFrameSize(), lowered[i].getParamCount(),
+                    LoweredOperators.typeOf(lowered[i].getReturnType()));
+        }
+    }
+
+    /**
+     * @return 主程序
+     */
+    StatementNode build() {
+        LoweredFunction[] lowered = program.getFunctions();
+        valueDiscarded = true;
+        for (int i = 0; i < lowered.length; i++) {
+            functions[i].body = statement(lowered[i].getBody());
+        }
+        valueDiscarded = false;
+        return statement(program.getMain());
+    }
+
+    //=================================== 语句 ===================================
+
+    private StatementNode statement(LoweredNode node) {
+        StatementNode rtn;
+        switch (node.getOp()) {
+            case LoweredOp.NOP:
+                rtn = new StatementNode.Nop();
+                break;
+            case LoweredOp.BLOCK:
+                StatementNode[] statements = new StatementNode[node.getKidCount()];
+                for (int i = 0; i < statements.length; i++) {
+                    statements[i] = statement(node.getKid(i));
+                }
+                rtn = new StatementNode.Block(node.getA() < 0 ? -1 : node.getB(), statements);
+                break;
+            case LoweredOp.EXPR:
+                rtn = new StatementNode.Expression(expression(node.getKid(0)), valueDiscarded);
+                break;
+            case LoweredOp.DECL:
+                rtn = new StatementNode.Declaration(kids(node), valueDiscarded);
+                break;
+            case LoweredOp.IF:
+                rtn = new StatementNode.If(expression(node.getKid(0)), statement(node.getKid(1)),
+                        node.getKidCount() > 2 ? statement(node.getKid(2)) : null);
+                break;
+            case LoweredOp.WHILE:
+                rtn = new StatementNode.While(expression(node.getKid(0)), loopBody(node.getKid(1)));
+                break;
+            case LoweredOp.DO:
+                rtn = new StatementNode.DoWhile(loopBody(node.getKid(0)), expression(node.getKid(1)));
+                break;
+            case LoweredOp.FOR:
+                LoweredNode condition = node.getKid(1);
+                rtn = new StatementNode.For(node.getA() < 0 ? -1 : node.getB(), kids(node.getKid(0)),
+                        condition.getOp() == LoweredOp.NOP ? null : expression(condition),
+                        kids(node.getKid(2)), loopBody(node.getKid(3)));
+                break;
+            case LoweredOp.RETURN:
+                rtn = new StatementNode.Return(node.getKidCount() > 0 ? expression(node.getKid(0)) : null);
+                break;
+            case LoweredOp.BREAK:
+                rtn = new StatementNode.Jump(StatementNode.BREAK);
+                break;
+            case LoweredOp.CONTINUE:
+                rtn = new StatementNode.Jump(StatementNode.CONTINUE);
+                break;
+            default:
+                throw new IllegalStateException("NodeBuilder#statement:unknown statement:" + node.getOp());
+        }
+        return rtn;
+    }
+
+    private StatementNode loopBody(LoweredNode node) {
+        boolean discarded = valueDiscarded;
+        valueDiscarded = true;
+        StatementNode rtn = statement(node);
+        valueDiscarded = discarded;
+        return rtn;
+    }
+
+    //=================================== 表达式 ===================================
+
+    private ExpressionNode expression(LoweredNode node) {
+        ExpressionNode rtn;
+        switch (node.getOp()) {
+            case LoweredOp.NOP:
+                rtn = new ConstantNode(null);
+                break;
+            case LoweredOp.CONST:
+                rtn = new ConstantNode(node.getValue());
+                break;
+            case LoweredOp.LOAD:
+                rtn = new ReadNode(node.getA(), node.getB());
+                break;
+            case LoweredOp.STORE:
+                rtn = new WriteNode.Uninitialized(node.getA(), node.getB(), LoweredOperators.typeOf(node.getType()),
+                        expression(node.getKid(0)));
+                break;
+            case LoweredOp.INCDEC:
+                rtn = new IncDecNode.Uninitialized(node.getA(), node.getB(), LoweredOperators.typeOf(node.getType()),
+                        (node.getC() & LoweredOp.INCDEC_PREFIX) != 0, (node.getC() & LoweredOp.INCDEC_DEC) != 0);
+                break;
+            case LoweredOp.BINARY:
+                rtn = new BinaryNode.Uninitialized(node.getA(), LoweredOperators.typeOf(node.getType()),
+                        expression(node.getKid(0)), expression(node.getKid(1)));
+                break;
+            case LoweredOp.AND:
+                rtn = new LogicalNode.And(expression(node.getKid(0)), expression(node.getKid(1)));
+                break;
+            case LoweredOp.OR:
+                rtn = new LogicalNode.Or(expression(node.getKid(0)), expression(node.getKid(1)));
+                break;
+            case LoweredOp.COND:
+                rtn = new ConditionalNode(LoweredOperators.typeOf(node.getType()), expression(node.getKid(0)),
+                        expression(node.getKid(1)), expression(node.getKid(2)));
+                break;
+            case LoweredOp.NEG:
+                rtn = new UnaryNode.UninitializedNeg(LoweredOperators.typeOf(node.getType()), expression(node.getKid(0)));
+                break;
+            case LoweredOp.NOT:
+                rtn = new UnaryNode.Not(expression(node.getKid(0)));
+                break;
+            case LoweredOp.BITNOT:
+                rtn = new UnaryNode.BitNot(LoweredOperators.typeOf(node.getType()), expression(node.getKid(0)));
+                break;
+            case LoweredOp.CONVERT:
+                rtn = new ConvertNode.Uninitialized(LoweredOperators.typeOf(node.getType()), expression(node.getKid(0)));
+                break;
+            case LoweredOp.CALL:
+                rtn = new CallNode(functions[node.getA()], node.getB(), kids(node));
+                break;
+            case LoweredOp.PRINTLN:
+                rtn = new PrintlnNode(kids(node));
+                break;
+            default:
+                throw new IllegalStateException("NodeBuilder#expression:unknown expression:" + node.getOp());
+        }
+        return rtn;
+    }
+
+    private ExpressionNode[] kids(LoweredNode node) {
+        ExpressionNode[] rtn = new ExpressionNode[node.getKidCount()];
+        for (int i = 0; i < rtn.length; i++) {
+            rtn[i] = expression(node.getKid(i));
+        }
+        return rtn;
+    }
+}
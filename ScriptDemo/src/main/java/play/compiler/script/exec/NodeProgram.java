@@ -0,0 +1,47 @@
+package play.compiler.script.exec;
+
+import play.compiler.script.lower.LoweredProgram;
+
+import java.io.PrintStream;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 可执行节点树形式的脚本,语义与 ASTEvaluator 相同。
+ * 只在建树时转换一次,执行时每个节点直接执行自己的运算,不再像 ASTEvaluator 那样每次判断节点的种类、查找类型和变量;
+ * 节点按观察到的值把自己换成特化的版本(比如int加法、long比较),所以同一个 NodeProgram 多次执行时越来越快。
+ * 节点会修改树,不能在多个线程中同时执行同一个 NodeProgram。
+ */
+public final class NodeProgram {
+    private final StatementNode main;
+
+    private NodeProgram(StatementNode main) {
+        this.main = main;
+    }
+
+    /**
+     * 从降级后的脚本建立节点树
+     *
+     * @param program
+     * @return
+     */
+    public static NodeProgram of(LoweredProgram program) {
+        return new NodeProgram(new NodeBuilder(program).build());
+    }
+
+    /**
+     * 执行脚本,println输出到标准输出
+     *
+     * @return 最后一条语句的值,或者顶层return的值
+     */
+    public Object execute() {
+        return execute(System.out);
+    }
+
+    public Object execute(PrintStream out) {
+        ExecContext context = new ExecContext(out);
+        int status = main.executeStatement(new ExecFrame(0, null, context));
+        return status == StatementNode.RETURN ? context.returnValue
+                : (status == StatementNode.NORMAL ? context.value : null);
+    }
+}
@@ -0,0 +1,35 @@
+package play.compiler.script.exec;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 内置的println(LoweredOp.PRINTLN),输出第一个参数,值为null
+ */
+final class PrintlnNode extends ExpressionNode {
+    private final ExpressionNode[] args;
+
+    PrintlnNode(ExpressionNode[] args) {
+        this.args = adopt(args);
+    }
+
+    @Override
+    protected void replaceKid(ExpressionNode kid, ExpressionNode replacement) {
+        if (!replaceIn(args, kid, replacement)) {
+            super.replaceKid(kid, replacement);
+        }
+    }
+
+    @Override
+    Object execute(ExecFrame frame) {
+        if (args.length == 0) {
+            frame.context.out.println();
+        } else {
+            Object param = args[0].execute(frame);
+            for (int i = 1; i < args.length; i++) {
+                args[i].execute(frame);
+            }
+            frame.context.out.println(param);
+        }
+        return null;
+    }
+}
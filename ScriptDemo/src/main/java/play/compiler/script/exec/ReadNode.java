@@ -0,0 +1,50 @@
+package play.compiler.script.exec;
+
+import play.compiler.script.object.NullObject;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 读变量(LoweredOp.LOAD),按(跳过的栈桢数, 槽位)直接寻址。没有赋过值的变量的值是 NullObject。
+ * 按原始类型求值时,按原始类型存放的值直接读出,不装箱。
+ */
+final class ReadNode extends ExpressionNode {
+    private final int hops;
+    private final int slot;
+
+    ReadNode(int hops, int slot) {
+        this.hops = hops;
+        this.slot = slot;
+    }
+
+    @Override
+    Object execute(ExecFrame frame) {
+        return read(frame.up(hops));
+    }
+
+    @Override
+    int executeInt(ExecFrame frame) throws UnexpectedResultException {
+        ExecFrame owner = frame.up(hops);
+        return owner.isPrimitive(slot) ? owner.getInt(slot) : expectInt(read(owner));
+    }
+
+    @Override
+    long executeLong(ExecFrame frame) throws UnexpectedResultException {
+        ExecFrame owner = frame.up(hops);
+        return owner.isPrimitive(slot) ? owner.getLong(slot) : expectLong(read(owner));
+    }
+
+    @Override
+    double executeDouble(ExecFrame frame) throws UnexpectedResultException {
+        ExecFrame owner = frame.up(hops);
+        return owner.isPrimitive(slot) ? owner.getDouble(slot) : expectDouble(read(owner));
+    }
+
+    private Object read(ExecFrame owner) {
+        Object rtn = owner.get(slot);
+        if (rtn == null) {
+            rtn = NullObject.instance();
+        }
+        return rtn;
+    }
+}
@@ -0,0 +1,349 @@
+package play.compiler.script.exec;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 语句节点,执行后返回状态:正常结束、break、continue或return。
+ * 语义与 ASTEvaluator 相同:语句的值(ExecContext#value)是最后执行的表达式语句或变量声明的值,循环结束后为null。
+ * 条件直接按boolean求值,比较运算特化之后不再装箱;值不会被用到的表达式语句只执行(见 ExpressionNode#executeVoid),也不装箱。
+ */
+abstract class StatementNode extends ExecNode {
+    static final int NORMAL = 0;
+    static final int BREAK = 1;
+    static final int CONTINUE = 2;
+    static final int RETURN = 3;
+
+    abstract int executeStatement(ExecFrame frame);
+
+    /**
+     * 与 ASTEvaluator 一样,只有Boolean.TRUE是真
+     *
+     * @param condition
+     * @param frame
+     * @return
+     */
+    static boolean isTrue(ExpressionNode condition, ExecFrame frame) {
+        boolean rtn;
+        try {
+            rtn = condition.executeBoolean(frame);
+        } catch (UnexpectedResultException e) {
+            rtn = Boolean.TRUE.equals(e.getResult());
+        }
+        return rtn;
+    }
+
+    /**
+     * 循环结束后,除了return都算正常结束,值为null
+     *
+     * @param status
+     * @param frame
+     * @return
+     */
+    static int loopEnd(int status, ExecFrame frame) {
+        int rtn = status;
+        if (status != RETURN) {
+            frame.context.value = null;
+            rtn = NORMAL;
+        }
+        return rtn;
+    }
+
+    static final class Nop extends StatementNode {
+        @Override
+        int executeStatement(ExecFrame frame) {
+            frame.context.value = null;
+            return NORMAL;
+        }
+    }
+
+    static final class Block extends StatementNode {
+        /**
+         * 栈桢大小,小于0时不建立栈桢
+         */
+        private final int frameSize;
+
+        private final StatementNode[] statements;
+
+        Block(int frameSize, StatementNode[] statements) {
+            this.frameSize = frameSize;
+            this.statements = statements;
+        }
+
+        @Override
+        int executeStatement(ExecFrame frame) {
+            ExecFrame blockFrame = frameSize < 0 ? frame : new ExecFrame(frameSize, frame, frame.context);
+            frame.context.value = null;
+            int status = NORMAL;
+            for (int i = 0; i < statements.length && status == NORMAL; i++) {
+                status = statements[i].executeStatement(blockFrame);
+            }
+            return status;
+        }
+    }
+
+    static final class Expression extends StatementNode {
+        private ExpressionNode expression;
+
+        /**
+         * 语句的值是否不会被用到,见 NodeBuilder
+         */
+        private final boolean discarded;
+
+        Expression(ExpressionNode expression, boolean discarded) {
+            this.expression = adopt(expression);
+            this.discarded = discarded;
+        }
+
+        @Override
+        protected void replaceKid(ExpressionNode kid, ExpressionNode replacement) {
+            if (expression == kid) {
+                expression = replacement;
+            } else {
+                super.replaceKid(kid, replacement);
+            }
+        }
+
+        @Override
+        int executeStatement(ExecFrame frame) {
+            if (discarded) {
+                expression.executeVoid(frame);
+            } else {
+                frame.context.value = expression.execute(frame);
+            }
+            return NORMAL;
+        }
+    }
+
+    /**
+     * 变量声明,值是最后一个变量的初始化的值
+     */
+    static final class Declaration extends StatementNode {
+        private final ExpressionNode[] initializers;
+
+        private final boolean discarded;
+
+        Declaration(ExpressionNode[] initializers, boolean discarded) {
+            this.initializers = adopt(initializers);
+            this.discarded = discarded;
+        }
+
+        @Override
+        protected void replaceKid(ExpressionNode kid, ExpressionNode replacement) {
+            if (!replaceIn(initializers, kid, replacement)) {
+                super.replaceKid(kid, replacement);
+            }
+        }
+
+        @Override
+        int executeStatement(ExecFrame frame) {
+            if (discarded) {
+                for (ExpressionNode initializer : initializers) {
+                    initializer.executeVoid(frame);
+                }
+            } else {
+                Object last = null;
+                for (ExpressionNode initializer : initializers) {
+                    last = initializer.execute(frame);
+                }
+                frame.context.value = last;
+            }
+            return NORMAL;
+        }
+    }
+
+    static final class If extends StatementNode {
+        private ExpressionNode condition;
+        private final StatementNode thenStatement;
+
+        /**
+         * 可能为null
+         */
+        private final StatementNode elseStatement;
+
+        If(ExpressionNode condition, StatementNode thenStatement, StatementNode elseStatement) {
+            this.condition = adopt(condition);
+            this.thenStatement = thenStatement;
+            this.elseStatement = elseStatement;
+        }
+
+        @Override
+        protected void replaceKid(ExpressionNode kid, ExpressionNode replacement) {
+            if (condition == kid) {
+                condition = replacement;
+            } else {
+                super.replaceKid(kid, replacement);
+            }
+        }
+
+        @Override
+        int executeStatement(ExecFrame frame) {
+            boolean value = isTrue(condition, frame);
+            frame.context.value = null;
+            int status = NORMAL;
+            if (value) {
+                status = thenStatement.executeStatement(frame);
+            } else if (elseStatement != null) {
+                status = elseStatement.executeStatement(frame);
+            }
+            return status;
+        }
+    }
+
+    static final class While extends StatementNode {
+        private ExpressionNode condition;
+        private final StatementNode body;
+
+        While(ExpressionNode condition, StatementNode body) {
+            this.condition = adopt(condition);
+            this.body = body;
+        }
+
+        @Override
+        protected void replaceKid(ExpressionNode kid, ExpressionNode replacement) {
+            if (condition == kid) {
+                condition = replacement;
+            } else {
+                super.replaceKid(kid, replacement);
+            }
+        }
+
+        @Override
+        int executeStatement(ExecFrame frame) {
+            int status = NORMAL;
+            while (isTrue(condition, frame)) {
+                status = body.executeStatement(frame);
+                if (status == BREAK || status == RETURN) {
+                    break;
+                }
+            }
+            return loopEnd(status, frame);
+        }
+    }
+
+    static final class DoWhile extends StatementNode {
+        private final StatementNode body;
+        private ExpressionNode condition;
+
+        DoWhile(StatementNode body, ExpressionNode condition) {
+            this.body = body;
+            this.condition = adopt(condition);
+        }
+
+        @Override
+        protected void replaceKid(ExpressionNode kid, ExpressionNode replacement) {
+            if (condition == kid) {
+                condition = replacement;
+            } else {
+                super.replaceKid(kid, replacement);
+            }
+        }
+
+        @Override
+        int executeStatement(ExecFrame frame) {
+            int status;
+            do {
+                status = body.executeStatement(frame);
+                if (status == BREAK || status == RETURN) {
+                    break;
+                }
+            } while (isTrue(condition, frame));
+            return loopEnd(status, frame);
+        }
+    }
+
+    static final class For extends StatementNode {
+        /**
+         * 栈桢大小,小于0时不建立栈桢
+         */
+        private final int frameSize;
+
+        private final ExpressionNode[] init;
+
+        /**
+         * 为null时表示true
+         */
+        private ExpressionNode condition;
+
+        private final ExpressionNode[] update;
+
+        private final StatementNode body;
+
+        For(int frameSize, ExpressionNode[] init, ExpressionNode condition, ExpressionNode[] update, StatementNode body) {
+            this.frameSize = frameSize;
+            this.init = adopt(init);
+            this.condition = condition == null ? null : adopt(condition);
+            this.update = adopt(update);
+            this.body = body;
+        }
+
+        @Override
+        protected void replaceKid(ExpressionNode kid, ExpressionNode replacement) {
+            if (condition == kid) {
+                condition = replacement;
+            } else if (!replaceIn(init, kid, replacement) && !replaceIn(update, kid, replacement)) {
+                super.replaceKid(kid, replacement);
+            }
+        }
+
+        @Override
+        int executeStatement(ExecFrame frame) {
+            ExecFrame forFrame = frameSize < 0 ? frame : new ExecFrame(frameSize, frame, frame.context);
+            for (ExpressionNode expression : init) {
+                expression.executeVoid(forFrame);
+            }
+            int status = NORMAL;
+            while (condition == null || isTrue(condition, forFrame)) {
+                status = body.executeStatement(forFrame);
+                if (status == BREAK || status == RETURN) {
+                    break;
+                }
+                for (ExpressionNode expression : update) {
+                    expression.executeVoid(forFrame);
+                }
+            }
+            return loopEnd(status, frame);
+        }
+    }
+
+    static final class Return extends StatementNode {
+        /**
+         * 可能为null
+         */
+        private ExpressionNode value;
+
+        Return(ExpressionNode value) {
+            this.value = value == null ? null : adopt(value);
+        }
+
+        @Override
+        protected void replaceKid(ExpressionNode kid, ExpressionNode replacement) {
+            if (value == kid) {
+                value = replacement;
+            } else {
+                super.replaceKid(kid, replacement);
+            }
+        }
+
+        @Override
+        int executeStatement(ExecFrame frame) {
+            frame.context.returnValue = value == null ? null : value.execute(frame);
+            return RETURN;
+        }
+    }
+
+    /**
+     * break和continue
+     */
+    static final class Jump extends StatementNode {
+        private final int status;
+
+        Jump(int status) {
+            this.status = status;
+        }
+
+        @Override
+        int executeStatement(ExecFrame frame) {
+            return status;
+        }
+    }
+}
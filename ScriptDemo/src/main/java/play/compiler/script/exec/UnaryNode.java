@@ -0,0 +1,220 @@
+package play.compiler.script.exec;
+
+import play.compiler.script.runtime.PrimitiveType;
+import play.compiler.script.utils.NumberUtils;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 一元运算:取反(NEG)、逻辑非(NOT)和按位取反(BITNOT)。
+ * 取反与 BinaryNode 一样,第一次执行时按运算的类型和观察到的值换成int、long、double的版本。
+ */
+abstract class UnaryNode extends ExpressionNode {
+    protected ExpressionNode operand;
+
+    UnaryNode(ExpressionNode operand) {
+        this.operand = adopt(operand);
+    }
+
+    @Override
+    protected void replaceKid(ExpressionNode kid, ExpressionNode replacement) {
+        if (operand == kid) {
+            operand = replacement;
+        } else {
+            super.replaceKid(kid, replacement);
+        }
+    }
+
+    /**
+     * 把取反换成通用的版本,对已经求出的值取反
+     *
+     * @param type
+     * @param value
+     * @return
+     */
+    protected final Object generalize(PrimitiveType type, Object value) {
+        if (!isReplaced()) {
+            replace(new GenericNeg(type, operand));
+        }
+        return NumberUtils.minus(0, value, type);
+    }
+
+    /**
+     * 逻辑非
+     */
+    static final class Not extends UnaryNode {
+        Not(ExpressionNode operand) {
+            super(operand);
+        }
+
+        @Override
+        Object execute(ExecFrame frame) {
+            return executeBoolean(frame);
+        }
+
+        @Override
+        boolean executeBoolean(ExecFrame frame) {
+            return !LogicalNode.asBoolean(operand, frame);
+        }
+    }
+
+    /**
+     * 按位取反
+     */
+    static final class BitNot extends UnaryNode {
+        private final PrimitiveType type;
+
+        BitNot(PrimitiveType type, ExpressionNode operand) {
+            super(operand);
+            this.type = type;
+        }
+
+        @Override
+        Object execute(ExecFrame frame) {
+            Number number = (Number) operand.execute(frame);
+            return type == PrimitiveType.Long ? (Object) ~number.longValue() : (Object) ~number.intValue();
+        }
+    }
+
+    /**
+     * 还没有执行过的取反
+     */
+    static final class UninitializedNeg extends UnaryNode {
+        private final PrimitiveType type;
+
+        UninitializedNeg(PrimitiveType type, ExpressionNode operand) {
+            super(operand);
+            this.type = type;
+        }
+
+        @Override
+        Object execute(ExecFrame frame) {
+            Object value = operand.execute(frame);
+            if (!isReplaced()) {
+                replace(specialize(value));
+            }
+            return NumberUtils.minus(0, value, type);
+        }
+
+        private UnaryNode specialize(Object value) {
+            UnaryNode rtn = null;
+            if (value instanceof Number && type != null) {
+                switch (type) {
+                    case Integer:
+                        rtn = new IntNeg(operand);
+                        break;
+                    case Long:
+                        rtn = new LongNeg(operand);
+                        break;
+                    case Double:
+                        rtn = new DoubleNeg(operand);
+                        break;
+                    default:
+                        break;
+                }
+            }
+            return rtn != null ? rtn : new GenericNeg(type, operand);
+        }
+    }
+
+    static final class GenericNeg extends UnaryNode {
+        private final PrimitiveType type;
+
+        GenericNeg(PrimitiveType type, ExpressionNode operand) {
+            super(operand);
+            this.type = type;
+        }
+
+        @Override
+        Object execute(ExecFrame frame) {
+            return NumberUtils.minus(0, operand.execute(frame), type);
+        }
+    }
+
+    static final class IntNeg extends UnaryNode {
+        IntNeg(ExpressionNode operand) {
+            super(operand);
+        }
+
+        @Override
+        Object execute(ExecFrame frame) {
+            Object rtn;
+            try {
+                rtn = executeInt(frame);
+            } catch (UnexpectedResultException e) {
+                rtn = e.getResult();
+            }
+            return rtn;
+        }
+
+        @Override
+        int executeInt(ExecFrame frame) throws UnexpectedResultException {
+            int value;
+            try {
+                value = operand.executeInt(frame);
+            } catch (UnexpectedResultException e) {
+                return expectInt(generalize(PrimitiveType.Integer, e.getResult()));
+            }
+            return -value;
+        }
+    }
+
+    static final class LongNeg extends UnaryNode {
+        LongNeg(ExpressionNode operand) {
+            super(operand);
+        }
+
+        @Override
+        Object execute(ExecFrame frame) {
+            Object rtn;
+            try {
+                rtn = executeLong(frame);
+            } catch (UnexpectedResultException e) {
+                rtn = e.getResult();
+            }
+            return rtn;
+        }
+
+        @Override
+        long executeLong(ExecFrame frame) throws UnexpectedResultException {
+            long value;
+            try {
+                value = operand.executeLong(frame);
+            } catch (UnexpectedResultException e) {
+                return expectLong(generalize(PrimitiveType.Long, e.getResult()));
+            }
+            return -value;
+        }
+    }
+
+    /**
+     * 与 NumberUtils#minus 一样按 0 - value 计算,-0.0 取反得到 0.0
+     */
+    static final class DoubleNeg extends UnaryNode {
+        DoubleNeg(ExpressionNode operand) {
+            super(operand);
+        }
+
+        @Override
+        Object execute(ExecFrame frame) {
+            Object rtn;
+            try {
+                rtn = executeDouble(frame);
+            } catch (UnexpectedResultException e) {
+                rtn = e.getResult();
+            }
+            return rtn;
+        }
+
+        @Override
+        double executeDouble(ExecFrame frame) throws UnexpectedResultException {
+            double value;
+            try {
+                value = operand.executeDouble(frame);
+            } catch (UnexpectedResultException e) {
+                return expectDouble(generalize(PrimitiveType.Double, e.getResult()));
+            }
+            return 0.0 - value;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package play.compiler.script.exec;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 按原始类型求值(比如 ExpressionNode#executeInt)时,实际的值不是这种类型。
+ * 异常中带着已经求出的值,调用者据此把自己换成通用的节点继续执行。不记录调用栈。
+ */
+final class UnexpectedResultException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    private final Object result;
+
+    UnexpectedResultException(Object result) {
+        super(null, null, false, false);
+        this.result = result;
+    }
+
+    Object getResult() {
+        return result;
+    }
+}
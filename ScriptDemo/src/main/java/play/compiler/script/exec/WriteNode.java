@@ -0,0 +1,216 @@
+package play.compiler.script.exec;
+
+import play.compiler.script.runtime.PrimitiveType;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 给变量赋值(LoweredOp.STORE),值为赋的值。
+ * 变量是int、long、double型,并且第一次赋的值就是这种类型时,换成按原始类型求值的版本,
+ * 值按原始类型存入栈桢,不装箱;之后赋的值不是数值时换成通用的版本。
+ */
+abstract class WriteNode extends ExpressionNode {
+    protected final int hops;
+    protected final int slot;
+
+    /**
+     * 变量的类型,可能为null
+     */
+    protected final PrimitiveType type;
+
+    protected ExpressionNode value;
+
+    WriteNode(int hops, int slot, PrimitiveType type, ExpressionNode value) {
+        this.hops = hops;
+        this.slot = slot;
+        this.type = type;
+        this.value = adopt(value);
+    }
+
+    @Override
+    protected void replaceKid(ExpressionNode kid, ExpressionNode replacement) {
+        if (value == kid) {
+            value = replacement;
+        } else {
+            super.replaceKid(kid, replacement);
+        }
+    }
+
+    /**
+     * 把自己换成通用的版本,存入已经求出的值
+     *
+     * @param frame
+     * @param result
+     * @return
+     */
+    protected final Object generalize(ExecFrame frame, Object result) {
+        if (!isReplaced()) {
+            replace(new Generic(hops, slot, type, value));
+        }
+        frame.up(hops).set(slot, result);
+        return result;
+    }
+
+    static final class Uninitialized extends WriteNode {
+        Uninitialized(int hops, int slot, PrimitiveType type, ExpressionNode value) {
+            super(hops, slot, type, value);
+        }
+
+        @Override
+        Object execute(ExecFrame frame) {
+            Object rtn = value.execute(frame);
+            frame.up(hops).set(slot, rtn);
+            if (!isReplaced()) {
+                replace(specialize(rtn));
+            }
+            return rtn;
+        }
+
+        private WriteNode specialize(Object result) {
+            WriteNode rtn;
+            if (type == PrimitiveType.Integer && result instanceof Integer) {
+                rtn = new IntWrite(hops, slot, value);
+            } else if (type == PrimitiveType.Long && result instanceof Long) {
+                rtn = new LongWrite(hops, slot, value);
+            } else if (type == PrimitiveType.Double && result instanceof Double) {
+                rtn = new DoubleWrite(hops, slot, value);
+            } else {
+                rtn = new Generic(hops, slot, type, value);
+            }
+            return rtn;
+        }
+    }
+
+    static final class Generic extends WriteNode {
+        Generic(int hops, int slot, PrimitiveType type, ExpressionNode value) {
+            super(hops, slot, type, value);
+        }
+
+        @Override
+        Object execute(ExecFrame frame) {
+            Object rtn = value.execute(frame);
+            frame.up(hops).set(slot, rtn);
+            return rtn;
+        }
+    }
+
+    static final class IntWrite extends WriteNode {
+        IntWrite(int hops, int slot, ExpressionNode value) {
+            super(hops, slot, PrimitiveType.Integer, value);
+        }
+
+        @Override
+        Object execute(ExecFrame frame) {
+            Object rtn;
+            try {
+                int result = value.executeInt(frame);
+                frame.up(hops).setInt(slot, result);
+                rtn = result;
+            } catch (UnexpectedResultException e) {
+                rtn = generalize(frame, e.getResult());
+            }
+            return rtn;
+        }
+
+        @Override
+        int executeInt(ExecFrame frame) throws UnexpectedResultException {
+            int rtn;
+            try {
+                rtn = value.executeInt(frame);
+                frame.up(hops).setInt(slot, rtn);
+            } catch (UnexpectedResultException e) {
+                rtn = expectInt(generalize(frame, e.getResult()));
+            }
+            return rtn;
+        }
+
+        @Override
+        void executeVoid(ExecFrame frame) {
+            try {
+                frame.up(hops).setInt(slot, value.executeInt(frame));
+            } catch (UnexpectedResultException e) {
+                generalize(frame, e.getResult());
+            }
+        }
+    }
+
+    static final class LongWrite extends WriteNode {
+        LongWrite(int hops, int slot, ExpressionNode value) {
+            super(hops, slot, PrimitiveType.Long, value);
+        }
+
+        @Override
+        Object execute(ExecFrame frame) {
+            Object rtn;
+            try {
+                long result = value.executeLong(frame);
+                frame.up(hops).setLong(slot, result);
+                rtn = result;
+            } catch (UnexpectedResultException e) {
+                rtn = generalize(frame, e.getResult());
+            }
+            return rtn;
+        }
+
+        @Override
+        long executeLong(ExecFrame frame) throws UnexpectedResultException {
+            long rtn;
+            try {
+                rtn = value.executeLong(frame);
+                frame.up(hops).setLong(slot, rtn);
+            } catch (UnexpectedResultException e) {
+                rtn = expectLong(generalize(frame, e.getResult()));
+            }
+            return rtn;
+        }
+
+        @Override
+        void executeVoid(ExecFrame frame) {
+            try {
+                frame.up(hops).setLong(slot, value.executeLong(frame));
+            } catch (UnexpectedResultException e) {
+                generalize(frame, e.getResult());
+            }
+        }
+    }
+
+    static final class DoubleWrite extends WriteNode {
+        DoubleWrite(int hops, int slot, ExpressionNode value) {
+            super(hops, slot, PrimitiveType.Double, value);
+        }
+
+        @Override
+        Object execute(ExecFrame frame) {
+            Object rtn;
+            try {
+                double result = value.executeDouble(frame);
+                frame.up(hops).setDouble(slot, result);
+                rtn = result;
+            } catch (UnexpectedResultException e) {
+                rtn = generalize(frame, e.getResult());
+            }
+            return rtn;
+        }
+
+        @Override
+        double executeDouble(ExecFrame frame) throws UnexpectedResultException {
+            double rtn;
+            try {
+                rtn = value.executeDouble(frame);
+                frame.up(hops).setDouble(slot, rtn);
+            } catch (UnexpectedResultException e) {
+                rtn = expectDouble(generalize(frame, e.getResult()));
+            }
+            return rtn;
+        }
+
+        @Override
+        void executeVoid(ExecFrame frame) {
+            try {
+                frame.up(hops).setDouble(slot, value.executeDouble(frame));
+            } catch (UnexpectedResultException e) {
+                generalize(frame, e.getResult());
+            }
+        }
+    }
+}
@@ -180,7 +180,7 @@ public class PlayScriptParser extends Parser {
         _interp = new ParserATNSimulator(this, _ATN, _decisionToDFA, _sharedContextCache);
     }
 
-    public static class ClassDeclarationContext extends ParserRuleContext {
+    public static class ClassDeclarationContext extends play.compiler.script.compile.AnnotatedContext {
         public TerminalNode CLASS() {
             return getToken(PlayScriptParser.CLASS, 0);
         }
@@ -284,7 +284,7 @@ public class PlayScriptParser extends Parser {
         return _localctx;
     }
 
-    public static class ClassBodyContext extends ParserRuleContext {
+    public static class ClassBodyContext extends play.compiler.script.compile.AnnotatedContext {
         public TerminalNode LBRACE() {
             return getToken(PlayScriptParser.LBRACE, 0);
         }
@@ -364,7 +364,7 @@ public class PlayScriptParser extends Parser {
         return _localctx;
     }
 
-    public static class ClassBodyDeclarationContext extends ParserRuleContext {
+    public static class ClassBodyDeclarationContext extends play.compiler.script.compile.AnnotatedContext {
         public TerminalNode SEMI() {
             return getToken(PlayScriptParser.SEMI, 0);
         }
@@ -446,7 +446,7 @@ public class PlayScriptParser extends Parser {
         return _localctx;
     }
 
-    public static class MemberDeclarationContext extends ParserRuleContext {
+    public static class MemberDeclarationContext extends play.compiler.script.compile.AnnotatedContext {
         public FunctionDeclarationContext functionDeclaration() {
             return getRuleContext(FunctionDeclarationContext.class, 0);
         }
@@ -525,7 +525,7 @@ public class PlayScriptParser extends Parser {
         return _localctx;
     }
 
-    public static class FunctionDeclarationContext extends ParserRuleContext {
+    public static class FunctionDeclarationContext extends play.compiler.script.compile.AnnotatedContext {
         public TerminalNode IDENTIFIER() {
             return getToken(PlayScriptParser.IDENTIFIER, 0);
         }
@@ -654,7 +654,7 @@ public class PlayScriptParser extends Parser {
         return _localctx;
     }
 
-    public static class FunctionBodyContext extends ParserRuleContext {
+    public static class FunctionBodyContext extends play.compiler.script.compile.AnnotatedContext {
         public BlockContext block() {
             return getRuleContext(BlockContext.class, 0);
         }
@@ -724,7 +724,7 @@ public class PlayScriptParser extends Parser {
         return _localctx;
     }
 
-    public static class TypeTypeOrVoidContext extends ParserRuleContext {
+    public static class TypeTypeOrVoidContext extends play.compiler.script.compile.AnnotatedContext {
         public TypeTypeContext typeType() {
             return getRuleContext(TypeTypeContext.class, 0);
         }
@@ -804,7 +804,7 @@ public class PlayScriptParser extends Parser {
         return _localctx;
     }
 
-    public static class QualifiedNameListContext extends ParserRuleContext {
+    public static class QualifiedNameListContext extends play.compiler.script.compile.AnnotatedContext {
         public List<QualifiedNameContext> qualifiedName() {
             return getRuleContexts(QualifiedNameContext.class);
         }
@@ -884,7 +884,7 @@ public class PlayScriptParser extends Parser {
         return _localctx;
     }
 
-    public static class FormalParametersContext extends ParserRuleContext {
+    public static class FormalParametersContext extends play.compiler.script.compile.AnnotatedContext {
         public TerminalNode LPAREN() {
             return getToken(PlayScriptParser.LPAREN, 0);
         }
@@ -956,7 +956,7 @@ public class PlayScriptParser extends Parser {
         return _localctx;
     }
 
-    public static class FormalParameterListContext extends ParserRuleContext {
+    public static class FormalParameterListContext extends play.compiler.script.compile.AnnotatedContext {
         public List<FormalParameterContext> formalParameter() {
             return getRuleContexts(FormalParameterContext.class);
         }
@@ -1068,7 +1068,7 @@ public class PlayScriptParser extends Parser {
         return _localctx;
     }
 
-    public static class FormalParameterContext extends ParserRuleContext {
+    public static class FormalParameterContext extends play.compiler.script.compile.AnnotatedContext {
         public TypeTypeContext typeType() {
             return getRuleContext(TypeTypeContext.class, 0);
         }
@@ -1148,7 +1148,7 @@ public class PlayScriptParser extends Parser {
         return _localctx;
     }
 
-    public static class LastFormalParameterContext extends ParserRuleContext {
+    public static class LastFormalParameterContext extends play.compiler.script.compile.AnnotatedContext {
         public TypeTypeContext typeType() {
             return getRuleContext(TypeTypeContext.class, 0);
         }
@@ -1234,7 +1234,7 @@ public class PlayScriptParser extends Parser {
         return _localctx;
     }
 
-    public static class VariableModifierContext extends ParserRuleContext {
+    public static class VariableModifierContext extends play.compiler.script.compile.AnnotatedContext {
         public TerminalNode FINAL() {
             return getToken(PlayScriptParser.FINAL, 0);
         }
@@ -1285,7 +1285,7 @@ public class PlayScriptParser extends Parser {
         return _localctx;
     }
 
-    public static class QualifiedNameContext extends ParserRuleContext {
+    public static class QualifiedNameContext extends play.compiler.script.compile.AnnotatedContext {
         public List<TerminalNode> IDENTIFIER() {
             return getTokens(PlayScriptParser.IDENTIFIER);
         }
@@ -1365,7 +1365,7 @@ public class PlayScriptParser extends Parser {
         return _localctx;
     }
 
-    public static class FieldDeclarationContext extends ParserRuleContext {
+    public static class FieldDeclarationContext extends play.compiler.script.compile.AnnotatedContext {
         public VariableDeclaratorsContext variableDeclarators() {
             return getRuleContext(VariableDeclaratorsContext.class, 0);
         }
@@ -1422,7 +1422,7 @@ public class PlayScriptParser extends Parser {
         return _localctx;
     }
 
-    public static class ConstructorDeclarationContext extends ParserRuleContext {
+    public static class ConstructorDeclarationContext extends play.compiler.script.compile.AnnotatedContext {
         public BlockContext constructorBody;
 
         public TerminalNode IDENTIFIER() {
@@ -1510,7 +1510,7 @@ public class PlayScriptParser extends Parser {
         return _localctx;
     }
 
-    public static class VariableDeclaratorsContext extends ParserRuleContext {
+    public static class VariableDeclaratorsContext extends play.compiler.script.compile.AnnotatedContext {
         public TypeTypeContext typeType() {
             return getRuleContext(TypeTypeContext.class, 0);
         }
@@ -1596,7 +1596,7 @@ public class PlayScriptParser extends Parser {
         return _localctx;
     }
 
-    public static class VariableDeclaratorContext extends ParserRuleContext {
+    public static class VariableDeclaratorContext extends play.compiler.script.compile.AnnotatedContext {
         public VariableDeclaratorIdContext variableDeclaratorId() {
             return getRuleContext(VariableDeclaratorIdContext.class, 0);
         }
@@ -1668,7 +1668,7 @@ public class PlayScriptParser extends Parser {
         return _localctx;
     }
 
-    public static class VariableDeclaratorIdContext extends ParserRuleContext {
+    public static class VariableDeclaratorIdContext extends play.compiler.script.compile.AnnotatedContext {
         public TerminalNode IDENTIFIER() {
             return getToken(PlayScriptParser.IDENTIFIER, 0);
         }
@@ -1752,7 +1752,7 @@ public class PlayScriptParser extends Parser {
         return _localctx;
     }
 
-    public static class VariableInitializerContext extends ParserRuleContext {
+    public static class VariableInitializerContext extends play.compiler.script.compile.AnnotatedContext {
         public ArrayInitializerContext arrayInitializer() {
             return getRuleContext(ArrayInitializerContext.class, 0);
         }
@@ -1841,7 +1841,7 @@ public class PlayScriptParser extends Parser {
         return _localctx;
     }
 
-    public static class ArrayInitializerContext extends ParserRuleContext {
+    public static class ArrayInitializerContext extends play.compiler.script.compile.AnnotatedContext {
         public TerminalNode LBRACE() {
             return getToken(PlayScriptParser.LBRACE, 0);
         }
@@ -1954,7 +1954,7 @@ public class PlayScriptParser extends Parser {
         return _localctx;
     }
 
-    public static class ClassOrInterfaceTypeContext extends ParserRuleContext {
+    public static class ClassOrInterfaceTypeContext extends play.compiler.script.compile.AnnotatedContext {
         public List<TerminalNode> IDENTIFIER() {
             return getTokens(PlayScriptParser.IDENTIFIER);
         }
@@ -2036,7 +2036,7 @@ public class PlayScriptParser extends Parser {
         return _localctx;
     }
 
-    public static class TypeArgumentContext extends ParserRuleContext {
+    public static class TypeArgumentContext extends play.compiler.script.compile.AnnotatedContext {
         public TypeTypeContext typeType() {
             return getRuleContext(TypeTypeContext.class, 0);
         }
@@ -2144,7 +2144,7 @@ public class PlayScriptParser extends Parser {
         return _localctx;
     }
 
-    public static class LiteralContext extends ParserRuleContext {
+    public static class LiteralContext extends play.compiler.script.compile.AnnotatedContext {
         public IntegerLiteralContext integerLiteral() {
             return getRuleContext(IntegerLiteralContext.class, 0);
         }
@@ -2262,7 +2262,7 @@ public class PlayScriptParser extends Parser {
         return _localctx;
     }
 
-    public static class IntegerLiteralContext extends ParserRuleContext {
+    public static class IntegerLiteralContext extends play.compiler.script.compile.AnnotatedContext {
         public TerminalNode DECIMAL_LITERAL() {
             return getToken(PlayScriptParser.DECIMAL_LITERAL, 0);
         }
@@ -2333,7 +2333,7 @@ public class PlayScriptParser extends Parser {
         return _localctx;
     }
 
-    public static class FloatLiteralContext extends ParserRuleContext {
+    public static class FloatLiteralContext extends play.compiler.script.compile.AnnotatedContext {
         public TerminalNode FLOAT_LITERAL() {
             return getToken(PlayScriptParser.FLOAT_LITERAL, 0);
         }
@@ -2396,7 +2396,7 @@ public class PlayScriptParser extends Parser {
         return _localctx;
     }
 
-    public static class ProgContext extends ParserRuleContext {
+    public static class ProgContext extends play.compiler.script.compile.AnnotatedContext {
         public BlockStatementsContext blockStatements() {
             return getRuleContext(BlockStatementsContext.class, 0);
         }
@@ -2446,7 +2446,7 @@ public class PlayScriptParser extends Parser {
         return _localctx;
     }
 
-    public static class BlockContext extends ParserRuleContext {
+    public static class BlockContext extends play.compiler.script.compile.AnnotatedContext {
         public TerminalNode LBRACE() {
             return getToken(PlayScriptParser.LBRACE, 0);
         }
@@ -2509,7 +2509,7 @@ public class PlayScriptParser extends Parser {
         return _localctx;
     }
 
-    public static class BlockStatementsContext extends ParserRuleContext {
+    public static class BlockStatementsContext extends play.compiler.script.compile.AnnotatedContext {
         public List<BlockStatementContext> blockStatement() {
             return getRuleContexts(BlockStatementContext.class);
         }
@@ -2577,7 +2577,7 @@ public class PlayScriptParser extends Parser {
         return _localctx;
     }
 
-    public static class BlockStatementContext extends ParserRuleContext {
+    public static class BlockStatementContext extends play.compiler.script.compile.AnnotatedContext {
         public VariableDeclaratorsContext variableDeclarators() {
             return getRuleContext(VariableDeclaratorsContext.class, 0);
         }
@@ -2673,7 +2673,7 @@ public class PlayScriptParser extends Parser {
         return _localctx;
     }
 
-    public static class StatementContext extends ParserRuleContext {
+    public static class StatementContext extends play.compiler.script.compile.AnnotatedContext {
         public BlockContext blockLabel;
         public ExpressionContext statementExpression;
         public Token identifierLabel;
@@ -3026,7 +3026,7 @@ public class PlayScriptParser extends Parser {
         return _localctx;
     }
 
-    public static class SwitchBlockStatementGroupContext extends ParserRuleContext {
+    public static class SwitchBlockStatementGroupContext extends play.compiler.script.compile.AnnotatedContext {
         public List<SwitchLabelContext> switchLabel() {
             return getRuleContexts(SwitchLabelContext.class);
         }
@@ -3119,7 +3119,7 @@ public class PlayScriptParser extends Parser {
         return _localctx;
     }
 
-    public static class SwitchLabelContext extends ParserRuleContext {
+    public static class SwitchLabelContext extends play.compiler.script.compile.AnnotatedContext {
         public ExpressionContext constantExpression;
         public Token enumConstantName;
 
@@ -3222,7 +3222,7 @@ public class PlayScriptParser extends Parser {
         return _localctx;
     }
 
-    public static class ForControlContext extends ParserRuleContext {
+    public static class ForControlContext extends play.compiler.script.compile.AnnotatedContext {
         public ExpressionListContext forUpdate;
 
         public EnhancedForControlContext enhancedForControl() {
@@ -3341,7 +3341,7 @@ public class PlayScriptParser extends Parser {
         return _localctx;
     }
 
-    public static class ForInitContext extends ParserRuleContext {
+    public static class ForInitContext extends play.compiler.script.compile.AnnotatedContext {
         public VariableDeclaratorsContext variableDeclarators() {
             return getRuleContext(VariableDeclaratorsContext.class, 0);
         }
@@ -3409,7 +3409,7 @@ public class PlayScriptParser extends Parser {
         return _localctx;
     }
 
-    public static class EnhancedForControlContext extends ParserRuleContext {
+    public static class EnhancedForControlContext extends play.compiler.script.compile.AnnotatedContext {
         public TypeTypeContext typeType() {
             return getRuleContext(TypeTypeContext.class, 0);
         }
@@ -3478,7 +3478,7 @@ public class PlayScriptParser extends Parser {
         return _localctx;
     }
 
-    public static class ParExpressionContext extends ParserRuleContext {
+    public static class ParExpressionContext extends play.compiler.script.compile.AnnotatedContext {
         public TerminalNode LPAREN() {
             return getToken(PlayScriptParser.LPAREN, 0);
         }
@@ -3541,7 +3541,7 @@ public class PlayScriptParser extends Parser {
         return _localctx;
     }
 
-    public static class ExpressionListContext extends ParserRuleContext {
+    public static class ExpressionListContext extends play.compiler.script.compile.AnnotatedContext {
         public List<ExpressionContext> expression() {
             return getRuleContexts(ExpressionContext.class);
         }
@@ -3621,7 +3621,7 @@ public class PlayScriptParser extends Parser {
         return _localctx;
     }
 
-    public static class FunctionCallContext extends ParserRuleContext {
+    public static class FunctionCallContext extends play.compiler.script.compile.AnnotatedContext {
         public TerminalNode IDENTIFIER() {
             return getToken(PlayScriptParser.IDENTIFIER, 0);
         }
@@ -3757,7 +3757,7 @@ public class PlayScriptParser extends Parser {
         return _localctx;
     }
 
-    public static class ExpressionContext extends ParserRuleContext {
+    public static class ExpressionContext extends play.compiler.script.compile.AnnotatedContext {
         public Token prefix;
         public Token bop;
         public Token postfix;
@@ -4353,7 +4353,7 @@ public class PlayScriptParser extends Parser {
         return _localctx;
     }
 
-    public static class PrimaryContext extends ParserRuleContext {
+    public static class PrimaryContext extends play.compiler.script.compile.AnnotatedContext {
         public TerminalNode LPAREN() {
             return getToken(PlayScriptParser.LPAREN, 0);
         }
@@ -4477,7 +4477,7 @@ public class PlayScriptParser extends Parser {
         return _localctx;
     }
 
-    public static class TypeListContext extends ParserRuleContext {
+    public static class TypeListContext extends play.compiler.script.compile.AnnotatedContext {
         public List<TypeTypeContext> typeType() {
             return getRuleContexts(TypeTypeContext.class);
         }
@@ -4557,7 +4557,7 @@ public class PlayScriptParser extends Parser {
         return _localctx;
     }
 
-    public static class TypeTypeContext extends ParserRuleContext {
+    public static class TypeTypeContext extends play.compiler.script.compile.AnnotatedContext {
         public ClassOrInterfaceTypeContext classOrInterfaceType() {
             return getRuleContext(ClassOrInterfaceTypeContext.class, 0);
         }
@@ -4678,7 +4678,7 @@ public class PlayScriptParser extends Parser {
         return _localctx;
     }
 
-    public static class FunctionTypeContext extends ParserRuleContext {
+    public static class FunctionTypeContext extends play.compiler.script.compile.AnnotatedContext {
         public TerminalNode FUNCTION() {
             return getToken(PlayScriptParser.FUNCTION, 0);
         }
@@ -4762,7 +4762,7 @@ public class PlayScriptParser extends Parser {
         return _localctx;
     }
 
-    public static class PrimitiveTypeContext extends ParserRuleContext {
+    public static class PrimitiveTypeContext extends play.compiler.script.compile.AnnotatedContext {
         public TerminalNode BOOLEAN() {
             return getToken(PlayScriptParser.BOOLEAN, 0);
         }
@@ -4853,7 +4853,7 @@ public class PlayScriptParser extends Parser {
         return _localctx;
     }
 
-    public static class CreatorContext extends ParserRuleContext {
+    public static class CreatorContext extends play.compiler.script.compile.AnnotatedContext {
         public TerminalNode IDENTIFIER() {
             return getToken(PlayScriptParser.IDENTIFIER, 0);
         }
@@ -4910,7 +4910,7 @@ public class PlayScriptParser extends Parser {
         return _localctx;
     }
 
-    public static class SuperSuffixContext extends ParserRuleContext {
+    public static class SuperSuffixContext extends play.compiler.script.compile.AnnotatedContext {
         public ArgumentsContext arguments() {
             return getRuleContext(ArgumentsContext.class, 0);
         }
@@ -4997,7 +4997,7 @@ public class PlayScriptParser extends Parser {
         return _localctx;
     }
 
-    public static class ArgumentsContext extends ParserRuleContext {
+    public static class ArgumentsContext extends play.compiler.script.compile.AnnotatedContext {
         public TerminalNode LPAREN() {
             return getToken(PlayScriptParser.LPAREN, 0);
         }
@@ -0,0 +1,30 @@
+package play.compiler.script.lower;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 降级执行时的栈桢,变量按槽位存放。parent指向词法上外层作用域的栈桢。
+ */
+final class LoweredFrame {
+    final Object[] slots;
+    final LoweredFrame parent;
+
+    LoweredFrame(int size, LoweredFrame parent) {
+        this.slots = new Object[size];
+        this.parent = parent;
+    }
+
+    /**
+     * 向外跳过hops个栈桢
+     *
+     * @param hops
+     * @return
+     */
+    LoweredFrame up(int hops) {
+        LoweredFrame frame = this;
+        for (int i = 0; i < hops; i++) {
+            frame = frame.parent;
+        }
+        return frame;
+    }
+}
@@ -0,0 +1,58 @@
+package play.compiler.script.lower;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 降级后的函数
+ */
+public final class LoweredFunction {
+    /**
+     * 函数作用域在作用域表中的序号
+     */
+    final int scope;
+
+    /**
+     * 栈桢大小,参数占最前面的槽位
+     */
+    final int frameSize;
+
+    final int paramCount;
+
+    /**
+     * 返回值类型,PrimitiveType的序号或者LoweredOp.NO_TYPE
+     */
+    final int returnType;
+
+    LoweredNode body;
+
+    public LoweredFunction(int scope, int frameSize, int paramCount, int returnType) {
+        this.scope = scope;
+        this.frameSize = frameSize;
+        this.paramCount = paramCount;
+        this.returnType = returnType;
+    }
+
+    public void setBody(LoweredNode body) {
+        this.body = body;
+    }
+
+    public LoweredNode getBody() {
+        return body;
+    }
+
+    public int getScope() {
+        return scope;
+    }
+
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    public int getParamCount() {
+        return paramCount;
+    }
+
+    public int getReturnType() {
+        return returnType;
+    }
+}
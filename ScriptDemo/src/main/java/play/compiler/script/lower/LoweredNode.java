@@ -0,0 +1,79 @@
+package play.compiler.script.lower;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 降级后的可执行形式中的一个节点。操作数的含义见 LoweredOp。
+ */
+public final class LoweredNode {
+    private static final LoweredNode[] NO_KIDS = new LoweredNode[0];
+
+    final int op;
+    final int type;
+    final int a;
+    final int b;
+    final int c;
+    final LoweredNode[] kids;
+
+    /**
+     * CONST节点的值,加载时从常量池中取出
+     */
+    Object value;
+
+    public LoweredNode(int op, int type, int a, int b, int c, LoweredNode... kids) {
+        this.op = op;
+        this.type = type;
+        this.a = a;
+        this.b = b;
+        this.c = c;
+        this.kids = kids.length == 0 ? NO_KIDS : kids;
+    }
+
+    public int getOp() {
+        return op;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public int getA() {
+        return a;
+    }
+
+    public int getB() {
+        return b;
+    }
+
+    public int getC() {
+        return c;
+    }
+
+    public int getKidCount() {
+        return kids.length;
+    }
+
+    public LoweredNode getKid(int i) {
+        return kids[i];
+    }
+
+    /**
+     * @return CONST节点的值
+     */
+    public Object getValue() {
+        return value;
+    }
+
+    /**
+     * 以本节点为根的子树中的节点数
+     *
+     * @return
+     */
+    public int size() {
+        int size = 1;
+        for (LoweredNode kid : kids) {
+            size += kid.size();
+        }
+        return size;
+    }
+}
@@ -0,0 +1,129 @@
+package play.compiler.script.lower;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 降级后的可执行形式的操作码。
+ * 每个节点由操作码、类型、三个整数操作数和若干子节点组成,类型是 PrimitiveType 的序号,-1 表示没有类型。
+ */
+public final class LoweredOp {
+    //=================================== 语句 ===================================
+    /**
+     * 空语句,作为表达式时值为null
+     */
+    public static final int NOP = 0;
+    /**
+     * 语句块。a:作用域序号,b:栈桢大小,a为-1时不建立栈桢
+     */
+    public static final int BLOCK = 1;
+    /**
+     * 表达式语句
+     */
+    public static final int EXPR = 2;
+    /**
+     * 变量声明,子节点是每个变量的初始化(STORE)或NOP
+     */
+    public static final int DECL = 3;
+    /**
+     * 子节点:条件、then、else(可选)
+     */
+    public static final int IF = 4;
+    /**
+     * 子节点:条件、循环体
+     */
+    public static final int WHILE = 5;
+    /**
+     * 子节点:循环体、条件
+     */
+    public static final int DO = 6;
+    /**
+     * a、b同BLOCK。子节点:初始化、条件(NOP表示true)、更新、循环体
+     */
+    public static final int FOR = 7;
+    /**
+     * 子节点:返回值(可选)
+     */
+    public static final int RETURN = 8;
+    public static final int BREAK = 9;
+    public static final int CONTINUE = 10;
+
+    //=================================== 表达式 ===================================
+    /**
+     * a:常量池序号
+     */
+    public static final int CONST = 20;
+    /**
+     * a:向外跳过的栈桢数,b:槽位
+     */
+    public static final int LOAD = 21;
+    /**
+     * a、b同LOAD。子节点:值
+     */
+    public static final int STORE = 22;
+    /**
+     * a、b同LOAD,c:INCDEC_PREFIX、INCDEC_DEC的组合
+     */
+    public static final int INCDEC = 23;
+    /**
+     * a:运算符,type:运算的类型。子节点:左、右
+     */
+    public static final int BINARY = 24;
+    public static final int AND = 25;
+    public static final int OR = 26;
+    /**
+     * 三元运算。子节点:条件、真值、假值
+     */
+    public static final int COND = 27;
+    public static final int NEG = 28;
+    public static final int NOT = 29;
+    public static final int BITNOT = 30;
+    /**
+     * 转换成type类型
+     */
+    public static final int CONVERT = 31;
+    /**
+     * a:函数序号,b:从当前栈桢到函数所在作用域的栈桢要跳过的栈桢数。子节点:参数
+     */
+    public static final int CALL = 32;
+    /**
+     * 内置的println。子节点:参数(可选)
+     */
+    public static final int PRINTLN = 33;
+
+    //=================================== BINARY的运算符 ===================================
+    public static final int OP_ADD = 1;
+    public static final int OP_SUB = 2;
+    public static final int OP_MUL = 3;
+    public static final int OP_DIV = 4;
+    public static final int OP_MOD = 5;
+    public static final int OP_BITAND = 6;
+    public static final int OP_BITOR = 7;
+    public static final int OP_BITXOR = 8;
+    public static final int OP_SHL = 9;
+    public static final int OP_SHR = 10;
+    public static final int OP_USHR = 11;
+    public static final int OP_EQ = 12;
+    public static final int OP_NE = 13;
+    public static final int OP_LT = 14;
+    public static final int OP_LE = 15;
+    public static final int OP_GT = 16;
+    public static final int OP_GE = 17;
+
+    /**
+     * INCDEC的标志:前缀运算
+     */
+    public static final int INCDEC_PREFIX = 1;
+    /**
+     * INCDEC的标志:减一
+     */
+    public static final int INCDEC_DEC = 2;
+
+    /**
+     * 没有类型
+     */
+    public static final int NO_TYPE = -1;
+
+    private LoweredOp() {
+
+    }
+}
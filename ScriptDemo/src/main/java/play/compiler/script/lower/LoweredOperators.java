@@ -0,0 +1,116 @@
+package play.compiler.script.lower;
+
+import play.compiler.script.runtime.PrimitiveType;
+import play.compiler.script.utils.LogicUtils;
+import play.compiler.script.utils.NumberUtils;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 降级形式中BINARY运算的通用实现,按运算的类型调用 NumberUtils、LogicUtils。
+ * 可执行节点树(见 play.compiler.script.exec)的通用节点使用。
+ */
+public final class LoweredOperators {
+    private static final PrimitiveType[] TYPES = PrimitiveType.values();
+
+    private LoweredOperators() {
+
+    }
+
+    /**
+     * @param type PrimitiveType的序号或者LoweredOp.NO_TYPE
+     * @return 没有类型时为null
+     */
+    public static PrimitiveType typeOf(int type) {
+        return type < 0 ? null : TYPES[type];
+    }
+
+    /**
+     * @param op    LoweredOp中BINARY的运算符
+     * @param left
+     * @param right
+     * @param type  运算的类型
+     * @return
+     */
+    public static Object binary(int op, Object left, Object right, PrimitiveType type) {
+        Object rtn;
+        switch (op) {
+            case LoweredOp.OP_ADD:
+                rtn = NumberUtils.add(left, right, type);
+                break;
+            case LoweredOp.OP_SUB:
+                rtn = NumberUtils.minus(left, right, type);
+                break;
+            case LoweredOp.OP_MUL:
+                rtn = NumberUtils.mul(left, right, type);
+                break;
+            case LoweredOp.OP_DIV:
+                rtn = NumberUtils.div(left, right, type);
+                break;
+            case LoweredOp.OP_MOD:
+                rtn = NumberUtils.mod(left, right, type);
+                break;
+            case LoweredOp.OP_BITAND:
+            case LoweredOp.OP_BITOR:
+            case LoweredOp.OP_BITXOR:
+                rtn = bitwise(op, left, right, type);
+                break;
+            case LoweredOp.OP_SHL:
+            case LoweredOp.OP_SHR:
+            case LoweredOp.OP_USHR:
+                rtn = shift(op, left, ((Number) right).intValue(), type);
+                break;
+            case LoweredOp.OP_EQ:
+                rtn = LogicUtils.EQ(left, right, type);
+                break;
+            case LoweredOp.OP_NE:
+                rtn = !LogicUtils.EQ(left, right, type);
+                break;
+            case LoweredOp.OP_LT:
+                rtn = LogicUtils.LT(left, right, type);
+                break;
+            case LoweredOp.OP_LE:
+                rtn = LogicUtils.LE(left, right, type);
+                break;
+            case LoweredOp.OP_GT:
+                rtn = LogicUtils.GT(left, right, type);
+                break;
+            case LoweredOp.OP_GE:
+                rtn = LogicUtils.GE(left, right, type);
+                break;
+            default:
+                throw new IllegalStateException("LoweredOperators#binary:unknown operator:" + op);
+        }
+        return rtn;
+    }
+
+    private static Object bitwise(int op, Object left, Object right, PrimitiveType type) {
+        Object rtn;
+        if (type == PrimitiveType.Boolean) {
+            boolean l = (Boolean) left;
+            boolean r = (Boolean) right;
+            rtn = op == LoweredOp.OP_BITAND ? l & r : (op == LoweredOp.OP_BITOR ? l | r : l ^ r);
+        } else if (type == PrimitiveType.Long) {
+            long l = ((Number) left).longValue();
+            long r = ((Number) right).longValue();
+            rtn = op == LoweredOp.OP_BITAND ? l & r : (op == LoweredOp.OP_BITOR ? l | r : l ^ r);
+        } else {
+            int l = ((Number) left).intValue();
+            int r = ((Number) right).intValue();
+            rtn = op == LoweredOp.OP_BITAND ? l & r : (op == LoweredOp.OP_BITOR ? l | r : l ^ r);
+        }
+        return rtn;
+    }
+
+    private static Object shift(int op, Object left, int distance, PrimitiveType type) {
+        Object rtn;
+        if (type == PrimitiveType.Long) {
+            long value = ((Number) left).longValue();
+            rtn = op == LoweredOp.OP_SHL ? value << distance : (op == LoweredOp.OP_USHR ? value >>> distance : value >> distance);
+        } else {
+            int value = ((Number) left).intValue();
+            rtn = op == LoweredOp.OP_SHL ? value << distance : (op == LoweredOp.OP_USHR ? value >>> distance : value >> distance);
+        }
+        return rtn;
+    }
+}
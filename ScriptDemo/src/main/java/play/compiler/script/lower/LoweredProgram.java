@@ -0,0 +1,103 @@
+package play.compiler.script.lower;
+
+import play.compiler.utils.Args;
+
+import java.util.List;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 降级后的脚本:作用域表、常量池、函数表和主程序。
+ * 不依赖语法树,可以写成 .playc 映像文件,加载后建成 NodeProgram 等形式执行。
+ */
+public final class LoweredProgram {
+    /**
+     * 源码的哈希(SHA-256),用于判断映像是否过期
+     */
+    private final String sourceHash;
+
+    /**
+     * 第0个是全局作用域
+     */
+    final List<LoweredScope> scopes;
+
+    final Object[] constants;
+
+    final LoweredFunction[] functions;
+
+    final LoweredNode main;
+
+    public LoweredProgram(String sourceHash, List<LoweredScope> scopes, Object[] constants,
+                          LoweredFunction[] functions, LoweredNode main) {
+        this.sourceHash = Args.notNull(sourceHash, "LoweredProgram#sourceHash");
+        this.scopes = scopes;
+        this.constants = constants;
+        this.functions = functions;
+        this.main = main;
+        resolveConstants(main);
+        for (LoweredFunction function : functions) {
+            resolveConstants(function.body);
+        }
+    }
+
+    private void resolveConstants(LoweredNode node) {
+        if (node.op == LoweredOp.CONST) {
+            node.value = constants[node.a];
+        }
+        for (LoweredNode kid : node.kids) {
+            resolveConstants(kid);
+        }
+    }
+
+    public String getSourceHash() {
+        return sourceHash;
+    }
+
+    public List<LoweredScope> getScopes() {
+        return scopes;
+    }
+
+    public LoweredFunction[] getFunctions() {
+        return functions;
+    }
+
+    public LoweredNode getMain() {
+        return main;
+    }
+
+    /**
+     * 节点总数
+     *
+     * @return
+     */
+    public int getNodeCount() {
+        int count = main.size();
+        for (LoweredFunction function : functions) {
+            count += function.body.size();
+        }
+        return count;
+    }
+
+    /**
+     * 与 AnnotatedTree#getScopeTreeString 格式相同的作用域树
+     *
+     * @return
+     */
+    public String getScopeTreeString() {
+        StringBuilder sb = new StringBuilder();
+        scopeToString(sb, 0, "");
+        return sb.toString();
+    }
+
+    private void scopeToString(StringBuilder sb, int index, String indent) {
+        LoweredScope scope = scopes.get(index);
+        sb.append(indent).append(scope.display).append('\n');
+        for (LoweredScope.Member member : scope.members) {
+            if (member.kind == LoweredScope.MEMBER_SCOPE) {
+                scopeToString(sb, member.scope, indent + '\t');
+            } else {
+                sb.append(indent).append('\t').append(member).append('\n');
+            }
+        }
+    }
+}
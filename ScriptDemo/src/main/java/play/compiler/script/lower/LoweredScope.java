@@ -0,0 +1,136 @@
+package play.compiler.script.lower;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 降级后保留的作用域信息:作用域的嵌套关系、成员以及变量解析出的类型。
+ * 执行时只用到栈桢大小,其余信息用于还原作用域树和调试。
+ */
+public final class LoweredScope {
+    /**
+     * 成员是嵌套的作用域
+     */
+    public static final int MEMBER_SCOPE = 0;
+    /**
+     * 成员是变量
+     */
+    public static final int MEMBER_VARIABLE = 1;
+    /**
+     * 其他成员,只保留显示的文本
+     */
+    public static final int MEMBER_OTHER = 2;
+
+    /**
+     * 作用域显示的文本,比如 Block block1、Function foo
+     */
+    final String display;
+
+    /**
+     * 外层作用域的序号,全局作用域为-1
+     */
+    final int parent;
+
+    /**
+     * 栈桢大小,不建立栈桢时为-1
+     */
+    final int frameSize;
+
+    final List<Member> members = new ArrayList<Member>();
+
+    public LoweredScope(String display, int parent, int frameSize) {
+        this.display = display;
+        this.parent = parent;
+        this.frameSize = frameSize;
+    }
+
+    public void addScope(int scope) {
+        members.add(new Member(MEMBER_SCOPE, scope, null, LoweredOp.NO_TYPE, null));
+    }
+
+    public void addVariable(String name, int type, String typeName) {
+        members.add(new Member(MEMBER_VARIABLE, -1, name, type, typeName));
+    }
+
+    public void addOther(String display) {
+        members.add(new Member(MEMBER_OTHER, -1, display, LoweredOp.NO_TYPE, null));
+    }
+
+    public String getDisplay() {
+        return display;
+    }
+
+    public int getParent() {
+        return parent;
+    }
+
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    public List<Member> getMembers() {
+        return members;
+    }
+
+    /**
+     * 作用域中的成员
+     */
+    public static final class Member {
+        final int kind;
+
+        /**
+         * MEMBER_SCOPE时是嵌套作用域的序号
+         */
+        final int scope;
+
+        /**
+         * 变量名,MEMBER_OTHER时是显示的文本
+         */
+        final String name;
+
+        /**
+         * 变量的类型,PrimitiveType的序号或者LoweredOp.NO_TYPE
+         */
+        final int type;
+
+        /**
+         * 变量类型显示的文本
+         */
+        final String typeName;
+
+        Member(int kind, int scope, String name, int type, String typeName) {
+            this.kind = kind;
+            this.scope = scope;
+            this.name = name;
+            this.type = type;
+            this.typeName = typeName;
+        }
+
+        public int getKind() {
+            return kind;
+        }
+
+        public int getScope() {
+            return scope;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getType() {
+            return type;
+        }
+
+        public String getTypeName() {
+            return typeName;
+        }
+
+        @Override
+        public String toString() {
+            return kind == MEMBER_VARIABLE ? "Variable " + name + " -> " + typeName : name;
+        }
+    }
+}
@@ -0,0 +1,431 @@
+package play.compiler.script.lower;
+
+import play.compiler.script.object.NullObject;
+import play.compiler.utils.Args;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description .playc 映像文件的读写。所有整数都是大端序,布局为:
+ * 1.文件头:魔数 PLYC、格式版本、源码的哈希;
+ * 2.字符串表,后面各部分的字符串都用它的序号表示;
+ * 3.作用域表:显示文本、外层作用域、栈桢大小、按原顺序排列的成员;
+ * 4.常量池:每个常量先写一个标签再写值;
+ * 5.函数表:作用域、栈桢大小、参数个数、返回值类型、代码的偏移;
+ * 6.主程序代码的偏移;
+ * 7.代码:按先序排列的节点,每个节点是 op、type、a、b、c、子节点个数 六个int。
+ * 读取时以只读方式映射文件,直接从映射的字节解码,不经过词法和语法分析。
+ */
+public final class ScriptImage {
+    /**
+     * 魔数 "PLYC"
+     */
+    public static final int MAGIC = 0x504C5943;
+
+    /**
+     * 格式版本,布局或节点的语义改变时递增
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * 映像文件的扩展名
+     */
+    public static final String EXTENSION = ".playc";
+
+    /**
+     * 每个节点占用的int个数
+     */
+    private static final int NODE_INTS = 6;
+
+    private static final int TAG_INTEGER = 0;
+    private static final int TAG_LONG = 1;
+    private static final int TAG_FLOAT = 2;
+    private static final int TAG_DOUBLE = 3;
+    private static final int TAG_BOOLEAN = 4;
+    private static final int TAG_CHAR = 5;
+    private static final int TAG_STRING = 6;
+    private static final int TAG_NULL = 7;
+    private static final int TAG_SHORT = 8;
+    private static final int TAG_BYTE = 9;
+
+    private ScriptImage() {
+
+    }
+
+    //=================================== 写 ===================================
+
+    /**
+     * 把降级后的脚本编码成映像
+     *
+     * @param program
+     * @return
+     */
+    public static byte[] toBytes(LoweredProgram program) {
+        Args.notNull(program, "ScriptImage#toBytes:program");
+        try {
+            return new Writer(program).write();
+        } catch (IOException e) {
+            //写到内存中,不会出现
+            throw new IllegalStateException("ScriptImage#toBytes", e);
+        }
+    }
+
+    /**
+     * 写映像文件。先写临时文件再改名,其他进程不会读到写了一半的映像。
+     *
+     * @param program
+     * @param path
+     * @throws IOException
+     */
+    public static void write(LoweredProgram program, Path path) throws IOException {
+        Args.notNull(path, "ScriptImage#write:path");
+        byte[] bytes = toBytes(program);
+        Path absolute = path.toAbsolutePath();
+        Path temp = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temp, bytes);
+            Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static final class Writer {
+        private final LoweredProgram program;
+        private final List<String> strings = new ArrayList<String>();
+        private final Map<String, Integer> stringIndex = new HashMap<String, Integer>();
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(body);
+        private int codeLength = 0;
+
+        Writer(LoweredProgram program) {
+            this.program = program;
+        }
+
+        byte[] write() throws IOException {
+            //作用域表
+            out.writeInt(program.scopes.size());
+            for (LoweredScope scope : program.scopes) {
+                out.writeInt(string(scope.display));
+                out.writeInt(scope.parent);
+                out.writeInt(scope.frameSize);
+                out.writeInt(scope.members.size());
+                for (LoweredScope.Member member : scope.members) {
+                    out.writeInt(member.kind);
+                    if (member.kind == LoweredScope.MEMBER_SCOPE) {
+                        out.writeInt(member.scope);
+                    } else if (member.kind == LoweredScope.MEMBER_VARIABLE) {
+                        out.writeInt(string(member.name));
+                        out.writeInt(member.type);
+                        out.writeInt(string(member.typeName));
+                    } else {
+                        out.writeInt(string(member.name));
+                    }
+                }
+            }
+
+            //常量池
+            out.writeInt(program.constants.length);
+            for (Object constant : program.constants) {
+                writeConstant(constant);
+            }
+
+            //函数表和代码的偏移,代码在最后统一写
+            List<LoweredNode> roots = new ArrayList<LoweredNode>();
+            out.writeInt(program.functions.length);
+            for (LoweredFunction function : program.functions) {
+                out.writeInt(function.scope);
+                out.writeInt(function.frameSize);
+                out.writeInt(function.paramCount);
+                out.writeInt(function.returnType);
+                out.writeInt(offsetOf(function.body));
+                roots.add(function.body);
+            }
+            out.writeInt(offsetOf(program.main));
+            roots.add(program.main);
+
+            out.writeInt(codeLength);
+            for (LoweredNode root : roots) {
+                writeNode(root);
+            }
+            out.flush();
+
+            ByteArrayOutputStream image = new ByteArrayOutputStream(body.size() + 1024);
+            DataOutputStream header = new DataOutputStream(image);
+            header.writeInt(MAGIC);
+            header.writeInt(VERSION);
+            writeBytes(header, program.getSourceHash());
+            header.writeInt(strings.size());
+            for (String s : strings) {
+                writeBytes(header, s);
+            }
+            header.flush();
+            body.writeTo(image);
+            return image.toByteArray();
+        }
+
+        private int offsetOf(LoweredNode root) {
+            int offset = codeLength;
+            codeLength += root.size() * NODE_INTS;
+            return offset;
+        }
+
+        private void writeNode(LoweredNode node) throws IOException {
+            out.writeInt(node.op);
+            out.writeInt(node.type);
+            out.writeInt(node.a);
+            out.writeInt(node.b);
+            out.writeInt(node.c);
+            out.writeInt(node.kids.length);
+            for (LoweredNode kid : node.kids) {
+                writeNode(kid);
+            }
+        }
+
+        private void writeConstant(Object constant) throws IOException {
+            if (constant instanceof Integer) {
+                out.writeInt(TAG_INTEGER);
+                out.writeInt((Integer) constant);
+            } else if (constant instanceof Long) {
+                out.writeInt(TAG_LONG);
+                out.writeLong((Long) constant);
+            } else if (constant instanceof Float) {
+                out.writeInt(TAG_FLOAT);
+                out.writeFloat((Float) constant);
+            } else if (constant instanceof Double) {
+                out.writeInt(TAG_DOUBLE);
+                out.writeDouble((Double) constant);
+            } else if (constant instanceof Boolean) {
+                out.writeInt(TAG_BOOLEAN);
+                out.writeInt((Boolean) constant ? 1 : 0);
+            } else if (constant instanceof Character) {
+                out.writeInt(TAG_CHAR);
+                out.writeInt((Character) constant);
+            } else if (constant instanceof String) {
+                out.writeInt(TAG_STRING);
+                out.writeInt(string((String) constant));
+            } else if (constant instanceof NullObject) {
+                out.writeInt(TAG_NULL);
+            } else if (constant instanceof Short) {
+                out.writeInt(TAG_SHORT);
+                out.writeInt((Short) constant);
+            } else if (constant instanceof Byte) {
+                out.writeInt(TAG_BYTE);
+                out.writeInt((Byte) constant);
+            } else {
+                throw new IllegalArgumentException("ScriptImage#writeConstant:unsupported constant:" + constant);
+            }
+        }
+
+        private int string(String s) {
+            Integer index = stringIndex.get(s);
+            if (index == null) {
+                index = strings.size();
+                strings.add(s);
+                stringIndex.put(s, index);
+            }
+            return index;
+        }
+
+        private static void writeBytes(DataOutputStream out, String s) throws IOException {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    //=================================== 读 ===================================
+
+    /**
+     * 只读取映像的源码哈希。文件不是当前版本的映像时返回null。
+     *
+     * @param path
+     * @return
+     * @throws IOException
+     */
+    public static String readSourceHash(Path path) throws IOException {
+        String result = null;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() >= 12 && buffer.getInt() == MAGIC && buffer.getInt() == VERSION) {
+                result = readString(buffer);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 映射并解码映像文件
+     *
+     * @param path
+     * @return
+     * @throws IOException              读文件失败
+     * @throws IllegalArgumentException 不是当前版本的映像,或者内容已损坏
+     */
+    public static LoweredProgram read(Path path) throws IOException {
+        Args.notNull(path, "ScriptImage#read:path");
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long length = channel.size();
+            Args.check(length <= Integer.MAX_VALUE, "ScriptImage#read:file too large:%s", path);
+            //关闭channel之后映射仍然有效
+            return fromBuffer(channel.map(FileChannel.MapMode.READ_ONLY, 0, length));
+        }
+    }
+
+    /**
+     * 从字节解码映像
+     *
+     * @param buffer
+     * @return
+     * @throws IllegalArgumentException 不是当前版本的映像,或者内容已损坏
+     */
+    public static LoweredProgram fromBuffer(ByteBuffer buffer) {
+        try {
+            return new Reader(buffer).read();
+        } catch (RuntimeException e) {
+            if (e instanceof IllegalArgumentException) {
+                throw e;
+            }
+            throw new IllegalArgumentException("ScriptImage#fromBuffer:corrupted image", e);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static final class Reader {
+        private final ByteBuffer buffer;
+        private String[] strings;
+        private int[] code;
+        private int position;
+
+        Reader(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        LoweredProgram read() {
+            Args.check(buffer.remaining() >= 8 && buffer.getInt() == MAGIC, "ScriptImage#read:not a playc image");
+            int version = buffer.getInt();
+            Args.check(version == VERSION, "ScriptImage#read:unsupported version:%s", version);
+            String sourceHash = readString(buffer);
+
+            strings = new String[buffer.getInt()];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = readString(buffer);
+            }
+
+            int scopeCount = buffer.getInt();
+            List<LoweredScope> scopes = new ArrayList<LoweredScope>(scopeCount);
+            for (int i = 0; i < scopeCount; i++) {
+                LoweredScope scope = new LoweredScope(strings[buffer.getInt()], buffer.getInt(), buffer.getInt());
+                int memberCount = buffer.getInt();
+                for (int j = 0; j < memberCount; j++) {
+                    int kind = buffer.getInt();
+                    if (kind == LoweredScope.MEMBER_SCOPE) {
+                        scope.addScope(buffer.getInt());
+                    } else if (kind == LoweredScope.MEMBER_VARIABLE) {
+                        scope.addVariable(strings[buffer.getInt()], buffer.getInt(), strings[buffer.getInt()]);
+                    } else {
+                        scope.addOther(strings[buffer.getInt()]);
+                    }
+                }
+                scopes.add(scope);
+            }
+
+            Object[] constants = new Object[buffer.getInt()];
+            for (int i = 0; i < constants.length; i++) {
+                constants[i] = readConstant();
+            }
+
+            LoweredFunction[] functions = new LoweredFunction[buffer.getInt()];
+            int[] functionOffsets = new int[functions.length];
+            for (int i = 0; i < functions.length; i++) {
+                functions[i] = new LoweredFunction(buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt());
+                functionOffsets[i] = buffer.getInt();
+            }
+            int mainOffset = buffer.getInt();
+
+            code = new int[buffer.getInt()];
+            buffer.asIntBuffer().get(code);
+
+            for (int i = 0; i < functions.length; i++) {
+                functions[i].setBody(decode(functionOffsets[i]));
+            }
+            return new LoweredProgram(sourceHash, scopes, constants, functions, decode(mainOffset));
+        }
+
+        private Object readConstant() {
+            Object rtn;
+            int tag = buffer.getInt();
+            switch (tag) {
+                case TAG_INTEGER:
+                    rtn = buffer.getInt();
+                    break;
+                case TAG_LONG:
+                    rtn = buffer.getLong();
+                    break;
+                case TAG_FLOAT:
+                    rtn = buffer.getFloat();
+                    break;
+                case TAG_DOUBLE:
+                    rtn = buffer.getDouble();
+                    break;
+                case TAG_BOOLEAN:
+                    rtn = buffer.getInt() != 0;
+                    break;
+                case TAG_CHAR:
+                    rtn = (char) buffer.getInt();
+                    break;
+                case TAG_STRING:
+                    rtn = strings[buffer.getInt()];
+                    break;
+                case TAG_NULL:
+                    rtn = NullObject.instance();
+                    break;
+                case TAG_SHORT:
+                    rtn = (short) buffer.getInt();
+                    break;
+                case TAG_BYTE:
+                    rtn = (byte) buffer.getInt();
+                    break;
+                default:
+                    throw new IllegalArgumentException("ScriptImage#read:unknown constant tag:" + tag);
+            }
+            return rtn;
+        }
+
+        private LoweredNode decode(int offset) {
+            position = offset;
+            return decodeNode();
+        }
+
+        private LoweredNode decodeNode() {
+            int p = position;
+            position += NODE_INTS;
+            LoweredNode[] kids = new LoweredNode[code[p + 5]];
+            for (int i = 0; i < kids.length; i++) {
+                kids[i] = decodeNode();
+            }
+            return new LoweredNode(code[p], code[p + 1], code[p + 2], code[p + 3], code[p + 4], kids);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package play.compiler.script.object;
+
+/**
+ * @Author: zhangchong
+ * @Description: 遇到break语句时产生的对象,用于跳出循环。
+ * 采用单例模式。用instance()方法来获得一个对象实例。
+ */
+public final class BreakObject {
+    private static BreakObject instance = new BreakObject();
+
+    private BreakObject() {
+
+    }
+
+    /**
+     * 获取唯一的实例。
+     *
+     * @return
+     */
+    public static BreakObject instance() {
+        return instance;
+    }
+
+    @Override
+    public String toString() {
+        return "Break";
+    }
+}
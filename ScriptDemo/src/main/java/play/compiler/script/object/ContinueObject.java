@@ -0,0 +1,28 @@
+package play.compiler.script.object;
+
+/**
+ * @Author: zhangchong
+ * @Description: 遇到continue语句时产生的对象,用于结束本次循环。
+ * 采用单例模式。用instance()方法来获得一个对象实例。
+ */
+public final class ContinueObject {
+    private static ContinueObject instance = new ContinueObject();
+
+    private ContinueObject() {
+
+    }
+
+    /**
+     * 获取唯一的实例。
+     *
+     * @return
+     */
+    public static ContinueObject instance() {
+        return instance;
+    }
+
+    @Override
+    public String toString() {
+        return "Continue";
+    }
+}
@@ -20,10 +20,23 @@ public class FunctionObject extends PlayObject {
     protected Variable receiver = null;
 
     public FunctionObject(FunctionScope functionScope) {
+        super(functionScope.getVariableCount());
         this.functionScope = functionScope;
     }
 
+    public FunctionScope getFunctionScope() {
+        return functionScope;
+    }
+
     protected void setFunctionScope(FunctionScope functionScope) {
         this.functionScope = functionScope;
     }
+
+    public Variable getReceiver() {
+        return receiver;
+    }
+
+    public void setReceiver(Variable receiver) {
+        this.receiver = receiver;
+    }
 }
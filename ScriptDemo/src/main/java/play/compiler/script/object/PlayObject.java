@@ -2,21 +2,35 @@ package play.compiler.script.object;
 
 import play.compiler.script.compile.Variable;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
  * @Author: zhangchong
  * @Description: PlayScript的对象
  */
 public class PlayObject {
+    private static final Object[] EMPTY = new Object[0];
+
     /**
-     * 成员变量
+     * 成员变量的值,按变量在所属作用域中的槽位(Variable#getSlot)存放
      */
-    protected Map<Variable, Object> fields = new HashMap<Variable, Object>();
+    protected Object[] fields = EMPTY;
+
+    public PlayObject() {
+    }
+
+    /**
+     * @param capacity 预先分配的槽位数
+     */
+    public PlayObject(int capacity) {
+        if (capacity > 0) {
+            fields = new Object[capacity];
+        }
+    }
 
     public Object getValue(Variable variable) {
-        Object rtn = fields.get(variable);
+        int slot = variable.getSlot();
+        Object rtn = slot >= 0 && slot < fields.length ? fields[slot] : null;
         //TODO 父类的属性如何返回？还是说都在这里了？
 
         /**
@@ -29,6 +43,22 @@ public class PlayObject {
     }
 
     public void setValue(Variable variable, Object value) {
-        fields.put(variable, value);
+        int slot = variable.getSlot();
+        if (slot >= fields.length) {
+            //作用域中后来又加入了变量,比如交互式执行时的全局变量
+            fields = Arrays.copyOf(fields, Math.max(slot + 1, fields.length * 2));
+        }
+        fields[slot] = value;
+    }
+
+    /**
+     * 是否存放了变量的值
+     *
+     * @param variable
+     * @return
+     */
+    protected boolean contains(Variable variable) {
+        int slot = variable.getSlot();
+        return slot >= 0 && slot < fields.length && fields[slot] != null;
     }
 }
@@ -0,0 +1,30 @@
+package play.compiler.script.object;
+
+/**
+ * @Author: zhangchong
+ * @Description: 遇到return语句时产生的对象,用于把返回值一路传回到函数调用处
+ */
+public final class ReturnObject {
+    /**
+     * 真正的返回值
+     */
+    private Object returnValue = null;
+
+    public ReturnObject(Object value) {
+        this.returnValue = value;
+    }
+
+    public Object getReturnValue() {
+        return returnValue;
+    }
+
+    /**
+     * 在打印时输出返回值
+     *
+     * @return
+     */
+    @Override
+    public String toString() {
+        return "ReturnObject";
+    }
+}
@@ -36,7 +36,7 @@ public class StackFrame {
      */
     public StackFrame(BlockScope scope) {
         this.scope = scope;
-        this.object = new PlayObject();
+        this.object = new PlayObject(scope.getVariableCount());
     }
 
     /**
@@ -46,7 +46,7 @@ public class StackFrame {
      */
     public StackFrame(ClassObject object) {
         this.scope = object.type;
-        this.object = new PlayObject();
+        this.object = new PlayObject(object.type.getVariableCount());
     }
 
     /**
@@ -67,12 +67,28 @@ public class StackFrame {
      */
     protected boolean contains(Variable variable) {
         boolean result = false;
-        if (null != object && null != object.fields) {
-            result = object.fields.containsKey(variable);
+        if (null != object) {
+            result = object.contains(variable);
         }
         return result;
     }
 
+    public Scope getScope() {
+        return scope;
+    }
+
+    public StackFrame getParentFrame() {
+        return parentFrame;
+    }
+
+    public void setParentFrame(StackFrame parentFrame) {
+        this.parentFrame = parentFrame;
+    }
+
+    public PlayObject getObject() {
+        return object;
+    }
+
     @Override
     public String toString() {
         StringBuilder builder = new StringBuilder();
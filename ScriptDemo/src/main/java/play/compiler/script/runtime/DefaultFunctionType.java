@@ -5,6 +5,7 @@ import play.compiler.script.compile.Scope;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @Author: zhangchong
@@ -12,16 +13,26 @@ import java.util.List;
  */
 public class DefaultFunctionType implements FunctionType {
     /**
-     * 对于未命名的类型，自动赋予名字
+     * 对于未命名的类型，自动赋予名字。多个线程可能同时在编译，所以用原子计数。
      */
-    private static int nameIndex = 1;
+    private static final AtomicInteger nameIndex = new AtomicInteger(1);
     protected String name = null;
     protected Scope enclosingScope = null;
     protected Type returnType = null;
     protected List<Type> paramTypes = new LinkedList<Type>();
 
     public DefaultFunctionType() {
-        name = "FunctionType" + nameIndex++;
+        name = "FunctionType" + nameIndex.getAndIncrement();
+    }
+
+    /**
+     * @param returnType 返回值类型
+     * @param paramTypes 参数类型
+     */
+    public DefaultFunctionType(Type returnType, List<Type> paramTypes) {
+        this();
+        this.returnType = returnType;
+        this.paramTypes.addAll(paramTypes);
     }
 
     /**
@@ -0,0 +1,9 @@
+package play.compiler.script.runtime;
+
+/**
+ * @Author: zhangchong
+ * @Description: 按操作数类型特化好的运算,语义分析时为每个表达式节点选好,执行时直接调用
+ */
+public interface Operator {
+    Object apply(Object leftObject, Object rightObject);
+}
@@ -53,8 +53,15 @@ public enum PrimitiveType implements Type {
             type = Long;
         } else if (type1 == Integer || type2 == Integer) {
             type = Integer;
+        } else if (isNarrowIntegral(type1) && isNarrowIntegral(type2)) {
+            //byte、short、char之间的运算先提升为int,与Java相同
+            type = Integer;
         } else if (type1 == Short || type2 == Short) {
             type = Short;
+        } else if (type1 == Boolean && type2 == Boolean) {
+            type = Boolean;
+        } else if (type1 == Char || type2 == Char) {
+            type = Char;
         } else {
             type = Byte;
         }
@@ -62,6 +69,36 @@ public enum PrimitiveType implements Type {
         return type;
     }
 
+    /**
+     * 一元运算(-、~)和移位的类型提升:byte、short、char提升为int,其他类型不变
+     *
+     * @param type
+     * @return
+     */
+    public static Type promote(Type type) {
+        return isNarrowIntegral(type) ? Integer : type;
+    }
+
+    /**
+     * 是否是比int窄的整数类型,参与运算之前要提升为int
+     *
+     * @param type
+     * @return
+     */
+    public static boolean isNarrowIntegral(Type type) {
+        return type == Byte || type == Short || type == Char;
+    }
+
+    /**
+     * 是否是数值类型
+     *
+     * @param type
+     * @return
+     */
+    public static boolean isNumeric(Type type) {
+        return type == Integer || type == Long || type == Float || type == Double || type == Short || type == Byte;
+    }
+
     @Override
     public String getName() {
         return name;
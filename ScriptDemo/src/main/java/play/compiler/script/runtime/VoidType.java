@@ -0,0 +1,44 @@
+package play.compiler.script.runtime;
+
+import play.compiler.script.compile.Scope;
+
+/**
+ * @Author: zhangchong
+ * @Description: 函数没有返回值时的返回值类型,采用单例模式
+ */
+public final class VoidType implements Type {
+    private static VoidType instance = new VoidType();
+
+    private VoidType() {
+
+    }
+
+    /**
+     * 获取唯一的实例。
+     *
+     * @return
+     */
+    public static VoidType instance() {
+        return instance;
+    }
+
+    @Override
+    public String getName() {
+        return "void";
+    }
+
+    @Override
+    public Scope getEnclosingScope() {
+        return null;
+    }
+
+    @Override
+    public boolean isType(Type type) {
+        return this == type;
+    }
+
+    @Override
+    public String toString() {
+        return "void";
+    }
+}
@@ -2,6 +2,8 @@ package play.compiler.script.utils;
 
 import play.compiler.script.runtime.PrimitiveType;
 
+import java.util.Objects;
+
 /**
  * @Author: zhangchong
  * @Description: 逻辑运算
@@ -142,6 +144,11 @@ public class LogicUtils {
                 case Short:
                     rtn = ((Number) leftObject).shortValue() == ((Number) rightObject).shortValue();
                     break;
+                case Boolean:
+                case Char:
+                case String:
+                    rtn = Objects.equals(leftObject, rightObject);
+                    break;
                 default:
                     throw new IllegalArgumentException("LE#invalid op=>Unknown type:" + targetType);
             }
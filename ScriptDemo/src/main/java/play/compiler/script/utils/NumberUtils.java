@@ -26,7 +26,9 @@ public class NumberUtils {
                     rtn = ((Number) leftObject).doubleValue() / ((Number) rightObject).doubleValue();
                     break;
                 case Short:
-                    rtn = ((Number) leftObject).shortValue() / ((Number) rightObject).shortValue();
+                case Byte:
+                case Char:
+                    rtn = intValue(leftObject) / intValue(rightObject);
                     break;
                 default:
                     throw new IllegalArgumentException("div#invalid op=>Unknown type:" + targetType);
@@ -54,7 +56,9 @@ public class NumberUtils {
                     rtn = ((Number) leftObject).doubleValue() * ((Number) rightObject).doubleValue();
                     break;
                 case Short:
-                    rtn = ((Number) leftObject).shortValue() * ((Number) rightObject).shortValue();
+                case Byte:
+                case Char:
+                    rtn = intValue(leftObject) * intValue(rightObject);
                     break;
                 default:
                     throw new IllegalArgumentException("mul#invalid op=>Unknown type:" + targetType);
@@ -82,7 +86,9 @@ public class NumberUtils {
                     rtn = ((Number) leftObject).doubleValue() - ((Number) rightObject).doubleValue();
                     break;
                 case Short:
-                    rtn = ((Number) leftObject).shortValue() - ((Number) rightObject).shortValue();
+                case Byte:
+                case Char:
+                    rtn = intValue(leftObject) - intValue(rightObject);
                     break;
                 default:
                     throw new IllegalArgumentException("minus#invalid op=>Unknown type:" + targetType);
@@ -100,6 +106,9 @@ public class NumberUtils {
         Object rtn;
         if (targetType instanceof PrimitiveType) {
             switch ((PrimitiveType) targetType) {
+                case String:
+                    rtn = String.valueOf(leftObject) + rightObject;
+                    break;
                 case Integer:
                     rtn = ((Number) leftObject).intValue() + ((Number) rightObject).intValue();
                     break;
@@ -113,7 +122,9 @@ public class NumberUtils {
                     rtn = ((Number) leftObject).doubleValue() + ((Number) rightObject).doubleValue();
                     break;
                 case Short:
-                    rtn = ((Number) leftObject).shortValue() + ((Number) rightObject).shortValue();
+                case Byte:
+                case Char:
+                    rtn = intValue(leftObject) + intValue(rightObject);
                     break;
                 default:
                     throw new IllegalArgumentException("add#invalid op=>Unknown type:" + targetType);
@@ -123,4 +134,89 @@ public class NumberUtils {
         }
         return rtn;
     }
+
+    public static Object mod(Object leftObject, Object rightObject, Type targetType) {
+        Object rtn;
+        if (targetType instanceof PrimitiveType) {
+            switch ((PrimitiveType) targetType) {
+                case Integer:
+                    rtn = ((Number) leftObject).intValue() % ((Number) rightObject).intValue();
+                    break;
+                case Float:
+                    rtn = ((Number) leftObject).floatValue() % ((Number) rightObject).floatValue();
+                    break;
+                case Long:
+                    rtn = ((Number) leftObject).longValue() % ((Number) rightObject).longValue();
+                    break;
+                case Double:
+                    rtn = ((Number) leftObject).doubleValue() % ((Number) rightObject).doubleValue();
+                    break;
+                case Short:
+                case Byte:
+                case Char:
+                    rtn = intValue(leftObject) % intValue(rightObject);
+                    break;
+                default:
+                    throw new IllegalArgumentException("mod#invalid op=>Unknown type:" + targetType);
+            }
+        } else {
+            throw new IllegalArgumentException("mod#invalid op=>type not PrimitiveType:" + targetType);
+        }
+        return rtn;
+    }
+
+    /**
+     * byte、short、char的值按int取出,与Java的类型提升相同
+     *
+     * @param value Number或者Character
+     * @return
+     */
+    public static int intValue(Object value) {
+        return value instanceof Character ? (Character) value : ((Number) value).intValue();
+    }
+
+    /**
+     * 把数值转换成目标类型,比如给long型变量赋一个int值。char与数值之间按字符的编码转换。
+     * 不是数值或目标类型不是数值类型时,原样返回。
+     *
+     * @param value
+     * @param targetType
+     * @return
+     */
+    public static Object convert(Object value, Type targetType) {
+        Object rtn = value;
+        if (value instanceof Character && targetType instanceof PrimitiveType && targetType != PrimitiveType.Char) {
+            //char按字符的编码转换成数值
+            value = (int) (Character) value;
+        }
+        if (value instanceof Number && targetType instanceof PrimitiveType) {
+            Number number = (Number) value;
+            switch ((PrimitiveType) targetType) {
+                case Integer:
+                    rtn = number.intValue();
+                    break;
+                case Float:
+                    rtn = number.floatValue();
+                    break;
+                case Long:
+                    rtn = number.longValue();
+                    break;
+                case Double:
+                    rtn = number.doubleValue();
+                    break;
+                case Short:
+                    rtn = number.shortValue();
+                    break;
+                case Byte:
+                    rtn = number.byteValue();
+                    break;
+                case Char:
+                    rtn = (char) number.intValue();
+                    break;
+                default:
+                    break;
+            }
+        }
+        return rtn;
+    }
 }
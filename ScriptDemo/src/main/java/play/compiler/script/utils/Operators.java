@@ -0,0 +1,274 @@
+package play.compiler.script.utils;
+
+import play.compiler.script.generate.PlayScriptParser;
+import play.compiler.script.runtime.Operator;
+import play.compiler.script.runtime.PrimitiveType;
+import play.compiler.script.runtime.Type;
+
+import java.util.Objects;
+
+/**
+ * @Author: zhangchong
+ * @Description: 按运算符和操作数类型选择特化的运算,结果与 NumberUtils、LogicUtils 中按类型分派的运算相同。
+ * 没有对应的特化运算时返回null,由调用者退回到按类型分派的运算。
+ */
+public class Operators {
+
+    private Operators() {
+    }
+
+    /**
+     * 选择二元运算
+     *
+     * @param op   运算符,复合赋值用对应的算术运算符
+     * @param type 操作数提升之后的类型
+     * @return
+     */
+    public static Operator binary(int op, Type type) {
+        Operator rtn = null;
+        switch (op) {
+            case PlayScriptParser.ADD:
+                rtn = type == PrimitiveType.String ? (l, r) -> String.valueOf(l) + r : arithmetic(op, type);
+                break;
+            case PlayScriptParser.SUB:
+            case PlayScriptParser.MUL:
+            case PlayScriptParser.DIV:
+            case PlayScriptParser.MOD:
+                rtn = arithmetic(op, type);
+                break;
+            case PlayScriptParser.BITAND:
+            case PlayScriptParser.BITOR:
+            case PlayScriptParser.CARET:
+                rtn = bitwise(op, type);
+                break;
+            case PlayScriptParser.LT:
+            case PlayScriptParser.LE:
+            case PlayScriptParser.GT:
+            case PlayScriptParser.GE:
+                rtn = compare(op, type);
+                break;
+            case PlayScriptParser.EQUAL:
+                rtn = equal(type);
+                break;
+            case PlayScriptParser.NOTEQUAL:
+                Operator equal = equal(type);
+                rtn = equal == null ? null : (l, r) -> !(Boolean) equal.apply(l, r);
+                break;
+            default:
+                break;
+        }
+        return rtn;
+    }
+
+    /**
+     * 复合赋值的运算符对应的算术或位运算符,不是复合赋值或者是移位的复合赋值时返回-1
+     *
+     * @param op
+     * @return
+     */
+    public static int arithmeticOf(int op) {
+        int rtn;
+        switch (op) {
+            case PlayScriptParser.ADD_ASSIGN:
+                rtn = PlayScriptParser.ADD;
+                break;
+            case PlayScriptParser.SUB_ASSIGN:
+                rtn = PlayScriptParser.SUB;
+                break;
+            case PlayScriptParser.MUL_ASSIGN:
+                rtn = PlayScriptParser.MUL;
+                break;
+            case PlayScriptParser.DIV_ASSIGN:
+                rtn = PlayScriptParser.DIV;
+                break;
+            case PlayScriptParser.MOD_ASSIGN:
+                rtn = PlayScriptParser.MOD;
+                break;
+            case PlayScriptParser.AND_ASSIGN:
+                rtn = PlayScriptParser.BITAND;
+                break;
+            case PlayScriptParser.OR_ASSIGN:
+                rtn = PlayScriptParser.BITOR;
+                break;
+            case PlayScriptParser.XOR_ASSIGN:
+                rtn = PlayScriptParser.CARET;
+                break;
+            default:
+                rtn = -1;
+                break;
+        }
+        return rtn;
+    }
+
+    private static Operator arithmetic(int op, Type type) {
+        Operator rtn = null;
+        if (type == PrimitiveType.Integer || type == PrimitiveType.Short) {
+            //short的运算结果也是int,与 NumberUtils 相同
+            boolean isShort = type == PrimitiveType.Short;
+            switch (op) {
+                case PlayScriptParser.ADD:
+                    rtn = isShort ? (l, r) -> ((Number) l).shortValue() + ((Number) r).shortValue()
+                            : (l, r) -> ((Number) l).intValue() + ((Number) r).intValue();
+                    break;
+                case PlayScriptParser.SUB:
+                    rtn = isShort ? (l, r) -> ((Number) l).shortValue() - ((Number) r).shortValue()
+                            : (l, r) -> ((Number) l).intValue() - ((Number) r).intValue();
+                    break;
+                case PlayScriptParser.MUL:
+                    rtn = isShort ? (l, r) -> ((Number) l).shortValue() * ((Number) r).shortValue()
+                            : (l, r) -> ((Number) l).intValue() * ((Number) r).intValue();
+                    break;
+                case PlayScriptParser.DIV:
+                    rtn = isShort ? (l, r) -> ((Number) l).shortValue() / ((Number) r).shortValue()
+                            : (l, r) -> ((Number) l).intValue() / ((Number) r).intValue();
+                    break;
+                default:
+                    rtn = isShort ? (l, r) -> ((Number) l).shortValue() % ((Number) r).shortValue()
+                            : (l, r) -> ((Number) l).intValue() % ((Number) r).intValue();
+                    break;
+            }
+        } else if (type == PrimitiveType.Long) {
+            switch (op) {
+                case PlayScriptParser.ADD:
+                    rtn = (l, r) -> ((Number) l).longValue() + ((Number) r).longValue();
+                    break;
+                case PlayScriptParser.SUB:
+                    rtn = (l, r) -> ((Number) l).longValue() - ((Number) r).longValue();
+                    break;
+                case PlayScriptParser.MUL:
+                    rtn = (l, r) -> ((Number) l).longValue() * ((Number) r).longValue();
+                    break;
+                case PlayScriptParser.DIV:
+                    rtn = (l, r) -> ((Number) l).longValue() / ((Number) r).longValue();
+                    break;
+                default:
+                    rtn = (l, r) -> ((Number) l).longValue() % ((Number) r).longValue();
+                    break;
+            }
+        } else if (type == PrimitiveType.Float) {
+            switch (op) {
+                case PlayScriptParser.ADD:
+                    rtn = (l, r) -> ((Number) l).floatValue() + ((Number) r).floatValue();
+                    break;
+                case PlayScriptParser.SUB:
+                    rtn = (l, r) -> ((Number) l).floatValue() - ((Number) r).floatValue();
+                    break;
+                case PlayScriptParser.MUL:
+                    rtn = (l, r) -> ((Number) l).floatValue() * ((Number) r).floatValue();
+                    break;
+                case PlayScriptParser.DIV:
+                    rtn = (l, r) -> ((Number) l).floatValue() / ((Number) r).floatValue();
+                    break;
+                default:
+                    rtn = (l, r) -> ((Number) l).floatValue() % ((Number) r).floatValue();
+                    break;
+            }
+        } else if (type == PrimitiveType.Double) {
+            switch (op) {
+                case PlayScriptParser.ADD:
+                    rtn = (l, r) -> ((Number) l).doubleValue() + ((Number) r).doubleValue();
+                    break;
+                case PlayScriptParser.SUB:
+                    rtn = (l, r) -> ((Number) l).doubleValue() - ((Number) r).doubleValue();
+                    break;
+                case PlayScriptParser.MUL:
+                    rtn = (l, r) -> ((Number) l).doubleValue() * ((Number) r).doubleValue();
+                    break;
+                case PlayScriptParser.DIV:
+                    rtn = (l, r) -> ((Number) l).doubleValue() / ((Number) r).doubleValue();
+                    break;
+                default:
+                    rtn = (l, r) -> ((Number) l).doubleValue() % ((Number) r).doubleValue();
+                    break;
+            }
+        }
+        return rtn;
+    }
+
+    private static Operator bitwise(int op, Type type) {
+        Operator rtn;
+        if (type == PrimitiveType.Boolean) {
+            rtn = op == PlayScriptParser.BITAND ? (l, r) -> (Boolean) l & (Boolean) r
+                    : (op == PlayScriptParser.BITOR ? (l, r) -> (Boolean) l | (Boolean) r : (l, r) -> (Boolean) l ^ (Boolean) r);
+        } else if (type == PrimitiveType.Long) {
+            rtn = op == PlayScriptParser.BITAND ? (l, r) -> ((Number) l).longValue() & ((Number) r).longValue()
+                    : (op == PlayScriptParser.BITOR ? (l, r) -> ((Number) l).longValue() | ((Number) r).longValue()
+                    : (l, r) -> ((Number) l).longValue() ^ ((Number) r).longValue());
+        } else {
+            rtn = op == PlayScriptParser.BITAND ? (l, r) -> ((Number) l).intValue() & ((Number) r).intValue()
+                    : (op == PlayScriptParser.BITOR ? (l, r) -> ((Number) l).intValue() | ((Number) r).intValue()
+                    : (l, r) -> ((Number) l).intValue() ^ ((Number) r).intValue());
+        }
+        return rtn;
+    }
+
+    private static Operator compare(int op, Type type) {
+        Operator rtn = null;
+        if (type == PrimitiveType.Integer) {
+            switch (op) {
+                case PlayScriptParser.LT:
+                    rtn = (l, r) -> ((Number) l).intValue() < ((Number) r).intValue();
+                    break;
+                case PlayScriptParser.LE:
+                    rtn = (l, r) -> ((Number) l).intValue() <= ((Number) r).intValue();
+                    break;
+                case PlayScriptParser.GT:
+                    rtn = (l, r) -> ((Number) l).intValue() > ((Number) r).intValue();
+                    break;
+                default:
+                    rtn = (l, r) -> ((Number) l).intValue() >= ((Number) r).intValue();
+                    break;
+            }
+        } else if (type == PrimitiveType.Long) {
+            switch (op) {
+                case PlayScriptParser.LT:
+                    rtn = (l, r) -> ((Number) l).longValue() < ((Number) r).longValue();
+                    break;
+                case PlayScriptParser.LE:
+                    rtn = (l, r) -> ((Number) l).longValue() <= ((Number) r).longValue();
+                    break;
+                case PlayScriptParser.GT:
+                    rtn = (l, r) -> ((Number) l).longValue() > ((Number) r).longValue();
+                    break;
+                default:
+                    rtn = (l, r) -> ((Number) l).longValue() >= ((Number) r).longValue();
+                    break;
+            }
+        } else if (type == PrimitiveType.Float || type == PrimitiveType.Double) {
+            //float的比较在double中进行,结果相同
+            switch (op) {
+                case PlayScriptParser.LT:
+                    rtn = (l, r) -> ((Number) l).doubleValue() < ((Number) r).doubleValue();
+                    break;
+                case PlayScriptParser.LE:
+                    rtn = (l, r) -> ((Number) l).doubleValue() <= ((Number) r).doubleValue();
+                    break;
+                case PlayScriptParser.GT:
+                    rtn = (l, r) -> ((Number) l).doubleValue() > ((Number) r).doubleValue();
+                    break;
+                default:
+                    rtn = (l, r) -> ((Number) l).doubleValue() >= ((Number) r).doubleValue();
+                    break;
+            }
+        }
+        return rtn;
+    }
+
+    private static Operator equal(Type type) {
+        Operator rtn = null;
+        if (type == PrimitiveType.Integer) {
+            rtn = (l, r) -> ((Number) l).intValue() == ((Number) r).intValue();
+        } else if (type == PrimitiveType.Long) {
+            rtn = (l, r) -> ((Number) l).longValue() == ((Number) r).longValue();
+        } else if (type == PrimitiveType.Float) {
+            rtn = (l, r) -> ((Number) l).floatValue() == ((Number) r).floatValue();
+        } else if (type == PrimitiveType.Double) {
+            rtn = (l, r) -> ((Number) l).doubleValue() == ((Number) r).doubleValue();
+        } else if (type == PrimitiveType.Boolean || type == PrimitiveType.Char || type == PrimitiveType.String) {
+            rtn = Objects::equals;
+        } else if (!(type instanceof PrimitiveType)) {
+            rtn = (l, r) -> l == r;
+        }
+        return rtn;
+    }
+}
@@ -0,0 +1,79 @@
+package play.compiler.script.vm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 常量池,long、double和对象分开存放,执行时不需要拆箱。相同的常量只存一份
+ */
+final class ConstantPool {
+    private final List<Long> longs = new ArrayList<Long>();
+    private final List<Double> doubles = new ArrayList<Double>();
+    private final List<Object> objects = new ArrayList<Object>();
+
+    private final Map<Long, Integer> longIndexes = new HashMap<Long, Integer>();
+
+    /**
+     * Double#equals按位比较,0.0和-0.0是不同的常量
+     */
+    private final Map<Double, Integer> doubleIndexes = new HashMap<Double, Integer>();
+    private final Map<Object, Integer> objectIndexes = new HashMap<Object, Integer>();
+
+    int addLong(long value) {
+        return add(longs, longIndexes, value);
+    }
+
+    int addDouble(double value) {
+        return add(doubles, doubleIndexes, value);
+    }
+
+    /**
+     * 对象常量按类型和值区分,Integer 1和Long 1是不同的常量
+     *
+     * @param value
+     * @return
+     */
+    int addObject(Object value) {
+        Integer rtn = objectIndexes.get(value);
+        if (rtn == null || objects.get(rtn).getClass() != value.getClass()) {
+            rtn = objects.size();
+            objects.add(value);
+            objectIndexes.put(value, rtn);
+        }
+        return rtn;
+    }
+
+    private static <T> int add(List<T> list, Map<T, Integer> indexes, T value) {
+        Integer rtn = indexes.get(value);
+        if (rtn == null) {
+            rtn = list.size();
+            list.add(value);
+            indexes.put(value, rtn);
+        }
+        return rtn;
+    }
+
+    long[] longs() {
+        long[] rtn = new long[longs.size()];
+        for (int i = 0; i < rtn.length; i++) {
+            rtn[i] = longs.get(i);
+        }
+        return rtn;
+    }
+
+    double[] doubles() {
+        double[] rtn = new double[doubles.size()];
+        for (int i = 0; i < rtn.length; i++) {
+            rtn[i] = doubles.get(i);
+        }
+        return rtn;
+    }
+
+    Object[] objects() {
+        return objects.toArray();
+    }
+}
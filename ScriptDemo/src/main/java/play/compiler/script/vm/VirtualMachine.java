@@ -0,0 +1,634 @@
+package play.compiler.script.vm;
+
+import play.compiler.script.lower.LoweredOp;
+import play.compiler.script.lower.LoweredOperators;
+import play.compiler.script.object.NullObject;
+import play.compiler.script.runtime.PrimitiveType;
+import play.compiler.script.utils.NumberUtils;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 执行 VmProgram 的指令。
+ * 三个操作数栈按种类分开,共用一个栈顶位置;调用函数时参数留在栈上,函数的操作数栈从参数的位置开始,
+ * 返回值写在第一个参数的位置。每次执行脚本用一个新的 VirtualMachine。
+ */
+final class VirtualMachine {
+    private static final int INITIAL_STACK = 256;
+
+    private final VmProgram program;
+
+    private final PrintStream out;
+
+    private long[] longStack = new long[INITIAL_STACK];
+    private double[] doubleStack = new double[INITIAL_STACK];
+    private Object[] objectStack = new Object[INITIAL_STACK];
+
+    /**
+     * 最后保存的语句的值
+     */
+    private Object value = null;
+
+    VirtualMachine(VmProgram program, PrintStream out) {
+        this.program = program;
+        this.out = out;
+    }
+
+    Object execute() {
+        VmFunction main = program.main;
+        run(main, new VmFrame(main, null), 0);
+        Object rtn = objectStack[0];
+        objectStack[0] = null;
+        return rtn;
+    }
+
+    /**
+     * 执行一个函数
+     *
+     * @param function
+     * @param frame    函数的栈桢,参数已经放好
+     * @param base     操作数栈的起始位置,返回值写在这里
+     */
+    private void run(VmFunction function, VmFrame frame, int base) {
+        if (base + function.maxStack + 1 > longStack.length) {
+            int size = Math.max(longStack.length * 2, base + function.maxStack + 1);
+            longStack = Arrays.copyOf(longStack, size);
+            doubleStack = Arrays.copyOf(doubleStack, size);
+            objectStack = Arrays.copyOf(objectStack, size);
+        }
+        long[] js = longStack;
+        double[] ds = doubleStack;
+        Object[] as = objectStack;
+        long[] jl = frame.longs;
+        double[] dl = frame.doubles;
+        Object[] al = frame.objects;
+        int[] code = function.code;
+        int pc = 0;
+        int sp = base;
+        boolean running = true;
+
+        while (running) {
+            switch (code[pc]) {
+                //=================================== 常量和操作数栈 ===================================
+                case VmOp.ICONST:
+                    js[sp++] = code[pc + 1];
+                    pc += 2;
+                    break;
+                case VmOp.LCONST:
+                    js[sp++] = program.longs[code[pc + 1]];
+                    pc += 2;
+                    break;
+                case VmOp.DCONST:
+                    ds[sp++] = program.doubles[code[pc + 1]];
+                    pc += 2;
+                    break;
+                case VmOp.ACONST:
+                    as[sp++] = program.objects[code[pc + 1]];
+                    pc += 2;
+                    break;
+                case VmOp.ACONST_NULL:
+                    as[sp++] = null;
+                    pc++;
+                    break;
+                case VmOp.POP:
+                    sp--;
+                    pc++;
+                    break;
+                case VmOp.APOP:
+                    as[--sp] = null;
+                    pc++;
+                    break;
+                case VmOp.IDUP:
+                    js[sp] = js[sp - 1];
+                    sp++;
+                    pc++;
+                    break;
+                case VmOp.DDUP:
+                    ds[sp] = ds[sp - 1];
+                    sp++;
+                    pc++;
+                    break;
+                case VmOp.ADUP:
+                    as[sp] = as[sp - 1];
+                    sp++;
+                    pc++;
+                    break;
+
+                //=================================== 变量 ===================================
+                case VmOp.ILOAD:
+                    js[sp++] = jl[code[pc + 1]];
+                    pc += 2;
+                    break;
+                case VmOp.ISTORE:
+                    jl[code[pc + 1]] = js[--sp];
+                    pc += 2;
+                    break;
+                case VmOp.DLOAD:
+                    ds[sp++] = dl[code[pc + 1]];
+                    pc += 2;
+                    break;
+                case VmOp.DSTORE:
+                    dl[code[pc + 1]] = ds[--sp];
+                    pc += 2;
+                    break;
+                case VmOp.ALOAD:
+                    as[sp++] = orNull(al[code[pc + 1]]);
+                    pc += 2;
+                    break;
+                case VmOp.ASTORE:
+                    al[code[pc + 1]] = as[--sp];
+                    as[sp] = null;
+                    pc += 2;
+                    break;
+                case VmOp.ACLEAR:
+                    al[code[pc + 1]] = null;
+                    pc += 2;
+                    break;
+                case VmOp.IGET:
+                    js[sp++] = frame.up(code[pc + 1]).longs[code[pc + 2]];
+                    pc += 3;
+                    break;
+                case VmOp.IPUT:
+                    frame.up(code[pc + 1]).longs[code[pc + 2]] = js[--sp];
+                    pc += 3;
+                    break;
+                case VmOp.DGET:
+                    ds[sp++] = frame.up(code[pc + 1]).doubles[code[pc + 2]];
+                    pc += 3;
+                    break;
+                case VmOp.DPUT:
+                    frame.up(code[pc + 1]).doubles[code[pc + 2]] = ds[--sp];
+                    pc += 3;
+                    break;
+                case VmOp.AGET:
+                    as[sp++] = orNull(frame.up(code[pc + 1]).objects[code[pc + 2]]);
+                    pc += 3;
+                    break;
+                case VmOp.APUT:
+                    frame.up(code[pc + 1]).objects[code[pc + 2]] = as[--sp];
+                    as[sp] = null;
+                    pc += 3;
+                    break;
+                case VmOp.IINC:
+                    jl[code[pc + 1]] = (int) (jl[code[pc + 1]] + code[pc + 2]);
+                    pc += 3;
+                    break;
+                case VmOp.LINC:
+                    jl[code[pc + 1]] += code[pc + 2];
+                    pc += 3;
+                    break;
+                case VmOp.FINC:
+                    dl[code[pc + 1]] = (float) (dl[code[pc + 1]] + code[pc + 2]);
+                    pc += 3;
+                    break;
+                case VmOp.DINC:
+                    dl[code[pc + 1]] += code[pc + 2];
+                    pc += 3;
+                    break;
+
+                //=================================== int ===================================
+                case VmOp.IADD:
+                    sp--;
+                    js[sp - 1] = (int) (js[sp - 1] + js[sp]);
+                    pc++;
+                    break;
+                case VmOp.ISUB:
+                    sp--;
+                    js[sp - 1] = (int) (js[sp - 1] - js[sp]);
+                    pc++;
+                    break;
+                case VmOp.IMUL:
+                    sp--;
+                    js[sp - 1] = (int) js[sp - 1] * (int) js[sp];
+                    pc++;
+                    break;
+                case VmOp.IDIV:
+                    sp--;
+                    js[sp - 1] = (int) js[sp - 1] / (int) js[sp];
+                    pc++;
+                    break;
+                case VmOp.IREM:
+                    sp--;
+                    js[sp - 1] = (int) js[sp - 1] % (int) js[sp];
+                    pc++;
+                    break;
+                case VmOp.INEG:
+                    js[sp - 1] = -(int) js[sp - 1];
+                    pc++;
+                    break;
+                case VmOp.ISHL:
+                    sp--;
+                    js[sp - 1] = (int) js[sp - 1] << (int) js[sp];
+                    pc++;
+                    break;
+                case VmOp.ISHR:
+                    sp--;
+                    js[sp - 1] = (int) js[sp - 1] >> (int) js[sp];
+                    pc++;
+                    break;
+                case VmOp.IUSHR:
+                    sp--;
+                    js[sp - 1] = (int) js[sp - 1] >>> (int) js[sp];
+                    pc++;
+                    break;
+                case VmOp.IAND:
+                case VmOp.LAND:
+                    sp--;
+                    js[sp - 1] &= js[sp];
+                    pc++;
+                    break;
+                case VmOp.IOR:
+                case VmOp.LOR:
+                    sp--;
+                    js[sp - 1] |= js[sp];
+                    pc++;
+                    break;
+                case VmOp.IXOR:
+                case VmOp.LXOR:
+                    sp--;
+                    js[sp - 1] ^= js[sp];
+                    pc++;
+                    break;
+
+                //=================================== long ===================================
+                case VmOp.LADD:
+                    sp--;
+                    js[sp - 1] += js[sp];
+                    pc++;
+                    break;
+                case VmOp.LSUB:
+                    sp--;
+                    js[sp - 1] -= js[sp];
+                    pc++;
+                    break;
+                case VmOp.LMUL:
+                    sp--;
+                    js[sp - 1] *= js[sp];
+                    pc++;
+                    break;
+                case VmOp.LDIV:
+                    sp--;
+                    js[sp - 1] /= js[sp];
+                    pc++;
+                    break;
+                case VmOp.LREM:
+                    sp--;
+                    js[sp - 1] %= js[sp];
+                    pc++;
+                    break;
+                case VmOp.LNEG:
+                    js[sp - 1] = -js[sp - 1];
+                    pc++;
+                    break;
+                case VmOp.LSHL:
+                    sp--;
+                    js[sp - 1] <<= (int) js[sp];
+                    pc++;
+                    break;
+                case VmOp.LSHR:
+                    sp--;
+                    js[sp - 1] >>= (int) js[sp];
+                    pc++;
+                    break;
+                case VmOp.LUSHR:
+                    sp--;
+                    js[sp - 1] >>>= (int) js[sp];
+                    pc++;
+                    break;
+
+                //=================================== float、double ===================================
+                case VmOp.FADD:
+                    sp--;
+                    ds[sp - 1] = (float) (ds[sp - 1] + ds[sp]);
+                    pc++;
+                    break;
+                case VmOp.FSUB:
+                    sp--;
+                    ds[sp - 1] = (float) (ds[sp - 1] - ds[sp]);
+                    pc++;
+                    break;
+                case VmOp.FMUL:
+                    sp--;
+                    ds[sp - 1] = (float) (ds[sp - 1] * ds[sp]);
+                    pc++;
+                    break;
+                case VmOp.FDIV:
+                    sp--;
+                    ds[sp - 1] = (float) (ds[sp - 1] / ds[sp]);
+                    pc++;
+                    break;
+                case VmOp.FREM:
+                    sp--;
+                    ds[sp - 1] = (float) (ds[sp - 1] % ds[sp]);
+                    pc++;
+                    break;
+                case VmOp.FNEG:
+                case VmOp.DNEG:
+                    ds[sp - 1] = 0.0 - ds[sp - 1];
+                    pc++;
+                    break;
+                case VmOp.DADD:
+                    sp--;
+                    ds[sp - 1] += ds[sp];
+                    pc++;
+                    break;
+                case VmOp.DSUB:
+                    sp--;
+                    ds[sp - 1] -= ds[sp];
+                    pc++;
+                    break;
+                case VmOp.DMUL:
+                    sp--;
+                    ds[sp - 1] *= ds[sp];
+                    pc++;
+                    break;
+                case VmOp.DDIV:
+                    sp--;
+                    ds[sp - 1] /= ds[sp];
+                    pc++;
+                    break;
+                case VmOp.DREM:
+                    sp--;
+                    ds[sp - 1] %= ds[sp];
+                    pc++;
+                    break;
+
+                //=================================== 类型转换 ===================================
+                case VmOp.L2I:
+                    js[sp - 1] = (int) js[sp - 1];
+                    pc++;
+                    break;
+                case VmOp.L2F:
+                    ds[sp - 1] = (float) js[sp - 1];
+                    pc++;
+                    break;
+                case VmOp.L2D:
+                    ds[sp - 1] = (double) js[sp - 1];
+                    pc++;
+                    break;
+                case VmOp.D2I:
+                    js[sp - 1] = (int) ds[sp - 1];
+                    pc++;
+                    break;
+                case VmOp.D2L:
+                    js[sp - 1] = (long) ds[sp - 1];
+                    pc++;
+                    break;
+                case VmOp.D2F:
+                    ds[sp - 1] = (float) ds[sp - 1];
+                    pc++;
+                    break;
+
+                //=================================== 比较和跳转 ===================================
+                case VmOp.DCMPL:
+                    sp--;
+                    js[sp - 1] = ds[sp - 1] > ds[sp] ? 1 : (ds[sp - 1] == ds[sp] ? 0 : -1);
+                    pc++;
+                    break;
+                case VmOp.DCMPG:
+                    sp--;
+                    js[sp - 1] = ds[sp - 1] < ds[sp] ? -1 : (ds[sp - 1] == ds[sp] ? 0 : 1);
+                    pc++;
+                    break;
+                case VmOp.GOTO:
+                    pc = code[pc + 1];
+                    break;
+                case VmOp.IFEQ:
+                    pc = js[--sp] == 0 ? code[pc + 1] : pc + 2;
+                    break;
+                case VmOp.IFNE:
+                    pc = js[--sp] != 0 ? code[pc + 1] : pc + 2;
+                    break;
+                case VmOp.IFLT:
+                    pc = js[--sp] < 0 ? code[pc + 1] : pc + 2;
+                    break;
+                case VmOp.IFLE:
+                    pc = js[--sp] <= 0 ? code[pc + 1] : pc + 2;
+                    break;
+                case VmOp.IFGT:
+                    pc = js[--sp] > 0 ? code[pc + 1] : pc + 2;
+                    break;
+                case VmOp.IFGE:
+                    pc = js[--sp] >= 0 ? code[pc + 1] : pc + 2;
+                    break;
+                case VmOp.IF_ICMPEQ:
+                    sp -= 2;
+                    pc = js[sp] == js[sp + 1] ? code[pc + 1] : pc + 2;
+                    break;
+                case VmOp.IF_ICMPNE:
+                    sp -= 2;
+                    pc = js[sp] != js[sp + 1] ? code[pc + 1] : pc + 2;
+                    break;
+                case VmOp.IF_ICMPLT:
+                    sp -= 2;
+                    pc = js[sp] < js[sp + 1] ? code[pc + 1] : pc + 2;
+                    break;
+                case VmOp.IF_ICMPLE:
+                    sp -= 2;
+                    pc = js[sp] <= js[sp + 1] ? code[pc + 1] : pc + 2;
+                    break;
+                case VmOp.IF_ICMPGT:
+                    sp -= 2;
+                    pc = js[sp] > js[sp + 1] ? code[pc + 1] : pc + 2;
+                    break;
+                case VmOp.IF_ICMPGE:
+                    sp -= 2;
+                    pc = js[sp] >= js[sp + 1] ? code[pc + 1] : pc + 2;
+                    break;
+
+                //=================================== 装箱和通用运算 ===================================
+                case VmOp.BOX:
+                    as[sp - 1] = box(code[pc + 1], js[sp - 1], ds[sp - 1]);
+                    pc += 2;
+                    break;
+                case VmOp.UNBOX:
+                    unbox(code[pc + 1], sp - 1);
+                    pc += 2;
+                    break;
+                case VmOp.ATRUE:
+                    js[sp - 1] = Boolean.TRUE.equals(as[sp - 1]) ? 1 : 0;
+                    as[sp - 1] = null;
+                    pc++;
+                    break;
+                case VmOp.GBINARY:
+                    sp--;
+                    as[sp - 1] = LoweredOperators.binary(code[pc + 1], as[sp - 1], as[sp],
+                            LoweredOperators.typeOf(code[pc + 2]));
+                    as[sp] = null;
+                    pc += 3;
+                    break;
+                case VmOp.GNEG:
+                    as[sp - 1] = NumberUtils.minus(0, as[sp - 1], LoweredOperators.typeOf(code[pc + 1]));
+                    pc += 2;
+                    break;
+                case VmOp.GCONVERT:
+                    as[sp - 1] = NumberUtils.convert(as[sp - 1], LoweredOperators.typeOf(code[pc + 1]));
+                    pc += 2;
+                    break;
+                case VmOp.GINCDEC:
+                    as[sp++] = incdec(frame.up(code[pc + 1]).objects, code[pc + 2], code[pc + 3], code[pc + 4]);
+                    pc += 5;
+                    break;
+
+                //=================================== 函数和输出 ===================================
+                case VmOp.CALL:
+                    sp = call(frame, code[pc + 1], code[pc + 2], code[pc + 3], sp);
+                    js = longStack;
+                    ds = doubleStack;
+                    as = objectStack;
+                    pc += 4;
+                    break;
+                case VmOp.IRETURN:
+                    js[base] = js[sp - 1];
+                    running = false;
+                    break;
+                case VmOp.DRETURN:
+                    ds[base] = ds[sp - 1];
+                    running = false;
+                    break;
+                case VmOp.ARETURN:
+                    Object result = as[sp - 1];
+                    as[sp - 1] = null;
+                    as[base] = result;
+                    running = false;
+                    break;
+                case VmOp.PRINT:
+                    sp--;
+                    print(code[pc + 1], js[sp], ds[sp], as[sp]);
+                    as[sp] = null;
+                    pc += 2;
+                    break;
+                case VmOp.PRINT_EMPTY:
+                    out.println();
+                    pc++;
+                    break;
+                case VmOp.SAVE:
+                    value = as[--sp];
+                    as[sp] = null;
+                    pc++;
+                    break;
+                case VmOp.RETURN_VALUE:
+                    as[base] = value;
+                    value = null;
+                    running = false;
+                    break;
+                default:
+                    throw new IllegalStateException("VirtualMachine#run:unexpected instruction " + code[pc] + " at " + pc
+                            + " in " + function);
+            }
+        }
+    }
+
+    /**
+     * @return 调用后的栈顶位置
+     */
+    private int call(VmFrame frame, int index, int hops, int argc, int sp) {
+        VmFunction callee = program.functions[index];
+        int base = sp - argc;
+        VmFrame calleeFrame = new VmFrame(callee, frame.up(hops));
+        for (int i = 0; i < argc; i++) {
+            int slot = callee.paramSlots[i];
+            switch (callee.paramKinds[i]) {
+                case VmFunction.KIND_LONG:
+                    calleeFrame.longs[slot] = longStack[base + i];
+                    break;
+                case VmFunction.KIND_DOUBLE:
+                    calleeFrame.doubles[slot] = doubleStack[base + i];
+                    break;
+                default:
+                    calleeFrame.objects[slot] = objectStack[base + i];
+                    objectStack[base + i] = null;
+                    break;
+            }
+        }
+        run(callee, calleeFrame, base);
+        return base + 1;
+    }
+
+    private static Object orNull(Object value) {
+        return value == null ? NullObject.instance() : value;
+    }
+
+    private static Object box(int type, long l, double d) {
+        Object rtn;
+        switch (LoweredOperators.typeOf(type)) {
+            case Integer:
+                rtn = (int) l;
+                break;
+            case Long:
+                rtn = l;
+                break;
+            case Boolean:
+                rtn = l != 0;
+                break;
+            case Float:
+                rtn = (float) d;
+                break;
+            default:
+                rtn = d;
+                break;
+        }
+        return rtn;
+    }
+
+    /**
+     * 与 NumberUtils、LogicUtils 中的强制转换相同,类型不对时抛出 ClassCastException
+     */
+    private void unbox(int type, int index) {
+        Object boxed = objectStack[index];
+        objectStack[index] = null;
+        switch (LoweredOperators.typeOf(type)) {
+            case Integer:
+                longStack[index] = ((Number) boxed).intValue();
+                break;
+            case Long:
+                longStack[index] = ((Number) boxed).longValue();
+                break;
+            case Boolean:
+                longStack[index] = (Boolean) boxed ? 1 : 0;
+                break;
+            case Float:
+                doubleStack[index] = ((Number) boxed).floatValue();
+                break;
+            default:
+                doubleStack[index] = ((Number) boxed).doubleValue();
+                break;
+        }
+    }
+
+    private static Object incdec(Object[] slots, int slot, int flags, int type) {
+        Object old = orNull(slots[slot]);
+        PrimitiveType primitiveType = LoweredOperators.typeOf(type);
+        Object updated = NumberUtils.convert((flags & LoweredOp.INCDEC_DEC) != 0 ? NumberUtils.minus(old, 1, primitiveType)
+                : NumberUtils.add(old, 1, primitiveType), primitiveType);
+        slots[slot] = updated;
+        return (flags & LoweredOp.INCDEC_PREFIX) != 0 ? updated : old;
+    }
+
+    private void print(int type, long l, double d, Object object) {
+        if (type == LoweredOp.NO_TYPE) {
+            out.println(object);
+        } else {
+            switch (LoweredOperators.typeOf(type)) {
+                case Integer:
+                    out.println((int) l);
+                    break;
+                case Long:
+                    out.println(l);
+                    break;
+                case Boolean:
+                    out.println(l != 0);
+                    break;
+                case Float:
+                    out.println((float) d);
+                    break;
+                default:
+                    out.println(d);
+                    break;
+            }
+        }
+    }
+}
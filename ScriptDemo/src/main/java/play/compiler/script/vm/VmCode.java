@@ -0,0 +1,211 @@
+package play.compiler.script.vm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 一个函数的指令流。
+ * 1.记录操作数栈的深度和最大深度,执行前按最大深度准备操作数栈;
+ * 2.无条件跳转和return之后的代码不可达,直到绑定一个有可达跳转指向的标签,不可达的指令不生成。
+ */
+final class VmCode {
+    private int[] code = new int[64];
+    private int length = 0;
+
+    /**
+     * 所有跳转的操作数位置,生成完之后统一回填
+     */
+    private final List<Label> targets = new ArrayList<Label>();
+    private final List<Integer> positions = new ArrayList<Integer>();
+
+    private int stackDepth = 0;
+    private int maxStack = 0;
+
+    private boolean reachable = true;
+
+    boolean isReachable() {
+        return reachable;
+    }
+
+    int getMaxStack() {
+        return maxStack;
+    }
+
+    /**
+     * @param opcode
+     * @param stackDelta 执行后操作数栈深度的变化
+     */
+    void op(int opcode, int stackDelta) {
+        if (reachable) {
+            emit(opcode);
+            adjust(stackDelta);
+            if (opcode == VmOp.IRETURN || opcode == VmOp.DRETURN || opcode == VmOp.ARETURN
+                    || opcode == VmOp.RETURN_VALUE || opcode == VmOp.UNREACHABLE) {
+                reachable = false;
+            }
+        }
+    }
+
+    void op(int opcode, int operand, int stackDelta) {
+        if (reachable) {
+            emit(opcode);
+            emit(operand);
+            adjust(stackDelta);
+        }
+    }
+
+    void op(int opcode, int operand1, int operand2, int stackDelta) {
+        if (reachable) {
+            emit(opcode);
+            emit(operand1);
+            emit(operand2);
+            adjust(stackDelta);
+        }
+    }
+
+    void op(int opcode, int operand1, int operand2, int operand3, int stackDelta) {
+        if (reachable) {
+            emit(opcode);
+            emit(operand1);
+            emit(operand2);
+            emit(operand3);
+            adjust(stackDelta);
+        }
+    }
+
+    void op(int opcode, int operand1, int operand2, int operand3, int operand4, int stackDelta) {
+        if (reachable) {
+            emit(opcode);
+            emit(operand1);
+            emit(operand2);
+            emit(operand3);
+            emit(operand4);
+            adjust(stackDelta);
+        }
+    }
+
+    /**
+     * 跳转指令
+     *
+     * @param opcode     GOTO或者条件跳转
+     * @param target
+     * @param stackDelta 条件跳转弹出的操作数个数的负数
+     */
+    void jump(int opcode, Label target, int stackDelta) {
+        if (reachable) {
+            emit(opcode);
+            adjust(stackDelta);
+            if (target.stackDepth < 0) {
+                target.stackDepth = stackDepth;
+            } else if (target.stackDepth != stackDepth) {
+                throw new IllegalStateException("VmCode#jump:stack depth " + stackDepth + " != " + target.stackDepth);
+            }
+            target.referenced = true;
+            targets.add(target);
+            positions.add(length);
+            emit(-1);
+            if (opcode == VmOp.GOTO) {
+                reachable = false;
+            }
+        }
+    }
+
+    /**
+     * 把标签绑定到当前位置。之前的代码不可达时,只有有跳转指向的标签才使后面的代码可达
+     *
+     * @param label
+     */
+    void bind(Label label) {
+        if (reachable) {
+            if (label.stackDepth >= 0 && label.stackDepth != stackDepth) {
+                throw new IllegalStateException("VmCode#bind:stack depth " + stackDepth + " != " + label.stackDepth);
+            }
+            label.stackDepth = stackDepth;
+            label.referenced = true;
+        } else if (label.referenced) {
+            stackDepth = label.stackDepth;
+            reachable = true;
+        }
+        label.position = length;
+    }
+
+    /**
+     * 循环体放在条件的前面,从底部的条件跳转进入。在跳到条件之前调用,循环可达时循环体也可达
+     *
+     * @param body
+     */
+    void enterLoop(Label body) {
+        if (reachable) {
+            body.stackDepth = stackDepth;
+            body.referenced = true;
+        }
+    }
+
+    /**
+     * 暂停生成指令,只推算表达式的类型时用
+     *
+     * @return 暂停前是否可达,传给 resume
+     */
+    boolean suspend() {
+        boolean rtn = reachable;
+        reachable = false;
+        return rtn;
+    }
+
+    void resume(boolean reachable) {
+        this.reachable = reachable;
+    }
+
+    /**
+     * @return 回填了跳转目标的指令流
+     */
+    int[] toArray() {
+        int[] rtn = Arrays.copyOf(code, length);
+        for (int i = 0; i < targets.size(); i++) {
+            Label target = targets.get(i);
+            if (target.position < 0) {
+                throw new IllegalStateException("VmCode#toArray:label is not bound");
+            }
+            rtn[positions.get(i)] = target.position;
+        }
+        return rtn;
+    }
+
+    private void emit(int value) {
+        if (length == code.length) {
+            code = Arrays.copyOf(code, length * 2);
+        }
+        code[length++] = value;
+    }
+
+    private void adjust(int stackDelta) {
+        stackDepth += stackDelta;
+        if (stackDepth < 0) {
+            throw new IllegalStateException("VmCode#adjust:negative stack depth");
+        }
+        maxStack = Math.max(maxStack, stackDepth);
+    }
+
+    /**
+     * 跳转的目标
+     */
+    static final class Label {
+        /**
+         * 绑定的位置,-1表示还没有绑定
+         */
+        int position = -1;
+
+        /**
+         * 跳转到这里时操作数栈的深度,-1表示还没有跳转到这里
+         */
+        int stackDepth = -1;
+
+        /**
+         * 是否有可达的跳转指向这里
+         */
+        boolean referenced = false;
+    }
+}
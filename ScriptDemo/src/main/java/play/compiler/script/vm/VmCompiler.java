@@ -0,0 +1,1280 @@
+package play.compiler.script.vm;
+
+import play.compiler.script.lower.LoweredFunction;
+import play.compiler.script.lower.LoweredNode;
+import play.compiler.script.lower.LoweredOp;
+import play.compiler.script.lower.LoweredOperators;
+import play.compiler.script.lower.LoweredProgram;
+import play.compiler.script.lower.LoweredScope;
+import play.compiler.script.runtime.PrimitiveType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 把降级后的程序编译成虚拟机的指令,语义与 NodeProgram 相同。
+ * 1.函数(和脚本主体)里的语句块不单独建栈桢,变量按种类放在函数的栈桢里;
+ * 2.变量的声明类型是int、long、float、double、boolean,每次读取前都已赋值,
+ * 并且赋给它的值(包括调用时的参数)的类型都和声明类型相同时,不装箱存放,否则装箱存放;
+ * 3.函数的返回值类型是这几种,所有return都返回这个类型的值、并且不会不经过return结束时,不装箱返回;
+ * 4.第2、3点互相依赖,先假设都不装箱,生成代码时发现不满足就改成装箱,重新生成,直到不再变化;
+ * 5.运算的类型和操作数的类型都确定时用特化的指令,否则装箱后按 LoweredOperators 执行。
+ */
+final class VmCompiler {
+    /**
+     * 比较运算符取反后相对 OP_EQ 的偏移,下标是 运算符 - OP_EQ
+     */
+    private static final int[] NEGATED = {1, 0, 5, 4, 3, 2};
+
+    private final LoweredProgram program;
+
+    private final List<LoweredScope> scopes;
+
+    private final LoweredFunction[] functions;
+
+    //=================================== 变量 ===================================
+
+    /**
+     * 每个作用域的第一个变量的编号,变量按(作用域, 槽位)统一编号
+     */
+    private final int[] keyBase;
+
+    /**
+     * 变量的声明类型
+     */
+    private final PrimitiveType[] declaredTypes;
+
+    /**
+     * 变量在栈桢中的类型,null表示装箱存放
+     */
+    private final PrimitiveType[] kinds;
+
+    /**
+     * 变量在栈桢中对应数组里的下标
+     */
+    private final int[] indexes;
+
+    /**
+     * 可能在赋值前读取的变量
+     */
+    private final boolean[] maybeUnassigned;
+
+    //=================================== 栈桢 ===================================
+
+    /**
+     * 作用域的变量在哪个栈桢里:0是脚本主体,i + 1是第i个函数
+     */
+    private final int[] owners;
+
+    /**
+     * 栈桢的嵌套深度,脚本主体是0
+     */
+    private final int[] depths;
+
+    /**
+     * 每个栈桢三种变量的个数
+     */
+    private int[][] slotCounts;
+
+    /**
+     * 函数返回值的类型,null表示装箱返回
+     */
+    private final PrimitiveType[] returnKinds;
+
+    //=================================== 正在编译的函数 ===================================
+
+    private int activation;
+
+    /**
+     * 从外到内的有栈桢的作用域,与 NodeProgram 中的栈桢(ExecFrame)一一对应
+     */
+    private List<Integer> frames;
+
+    /**
+     * 从外到内的循环:{break的目标, continue的目标}
+     */
+    private final List<VmCode.Label[]> loops = new ArrayList<VmCode.Label[]>();
+
+    private VmCode code;
+
+    private ConstantPool pool;
+
+    /**
+     * 函数声明的返回值类型,脚本主体为null
+     */
+    private PrimitiveType returnType;
+
+    //=================================== 分析 ===================================
+
+    /**
+     * 每个栈桢里所有调用处都已赋值的变量,null表示还没有调用
+     */
+    private final BitSet[] callStates;
+
+    /**
+     * 从其它栈桢读取的变量
+     */
+    private final BitSet outerReads = new BitSet();
+
+    /**
+     * 这一遍生成代码时发现不满足条件、要改成装箱的变量和函数
+     */
+    private final BitSet boxedSlots = new BitSet();
+    private final BitSet boxedReturns = new BitSet();
+
+    private VmCompiler(LoweredProgram program) {
+        this.program = program;
+        this.scopes = program.getScopes();
+        this.functions = program.getFunctions();
+
+        keyBase = new int[scopes.size()];
+        List<PrimitiveType> types = new ArrayList<PrimitiveType>();
+        for (int i = 0; i < scopes.size(); i++) {
+            keyBase[i] = types.size();
+            for (LoweredScope.Member member : scopes.get(i).getMembers()) {
+                if (member.getKind() == LoweredScope.MEMBER_VARIABLE) {
+                    types.add(LoweredOperators.typeOf(member.getType()));
+                }
+            }
+        }
+        declaredTypes = types.toArray(new PrimitiveType[0]);
+        kinds = new PrimitiveType[declaredTypes.length];
+        indexes = new int[declaredTypes.length];
+        maybeUnassigned = new boolean[declaredTypes.length];
+
+        int[] functionOfScope = new int[scopes.size()];
+        Arrays.fill(functionOfScope, -1);
+        for (int i = 0; i < functions.length; i++) {
+            functionOfScope[functions[i].getScope()] = i;
+        }
+        //作用域按先序编号,外层作用域的序号较小
+        owners = new int[scopes.size()];
+        for (int i = 0; i < scopes.size(); i++) {
+            int parent = scopes.get(i).getParent();
+            owners[i] = functionOfScope[i] >= 0 ? functionOfScope[i] + 1 : (parent < 0 ? 0 : owners[parent]);
+        }
+        depths = new int[functions.length + 1];
+        for (int i = 0; i < functions.length; i++) {
+            List<Integer> chain = chainOf(functions[i].getScope());
+            depths[i + 1] = depths[owners[chain.get(chain.size() - 2)]] + 1;
+        }
+
+        returnKinds = new PrimitiveType[functions.length];
+        callStates = new BitSet[functions.length + 1];
+    }
+
+    static VmProgram compile(LoweredProgram program) {
+        return new VmCompiler(program).compile();
+    }
+
+    private VmProgram compile() {
+        analyzeAssignments();
+        for (int key = 0; key < kinds.length; key++) {
+            kinds[key] = maybeUnassigned[key] ? null : unboxed(declaredTypes[key]);
+        }
+        for (int i = 0; i < functions.length; i++) {
+            returnKinds[i] = unboxed(LoweredOperators.typeOf(functions[i].getReturnType()));
+        }
+
+        VmProgram rtn = null;
+        while (rtn == null) {
+            boxedSlots.clear();
+            boxedReturns.clear();
+            VmProgram compiled = compilePass();
+            if (boxedSlots.isEmpty() && boxedReturns.isEmpty()) {
+                rtn = compiled;
+            }
+            for (int key = boxedSlots.nextSetBit(0); key >= 0; key = boxedSlots.nextSetBit(key + 1)) {
+                kinds[key] = null;
+            }
+            for (int i = boxedReturns.nextSetBit(0); i >= 0; i = boxedReturns.nextSetBit(i + 1)) {
+                returnKinds[i] = null;
+            }
+        }
+        return rtn;
+    }
+
+    private VmProgram compilePass() {
+        pool = new ConstantPool();
+        slotCounts = new int[functions.length + 1][3];
+        for (int scope = 0; scope < scopes.size(); scope++) {
+            int[] counts = slotCounts[owners[scope]];
+            for (int slot = 0; slot < scopes.get(scope).getFrameSize(); slot++) {
+                int key = keyBase[scope] + slot;
+                indexes[key] = counts[kindCode(kinds[key])]++;
+            }
+        }
+
+        VmFunction[] compiled = new VmFunction[functions.length];
+        for (int i = 0; i < functions.length; i++) {
+            compiled[i] = compileFunction(i);
+        }
+        VmFunction main = compileMain();
+        return new VmProgram(main, compiled, pool.longs(), pool.doubles(), pool.objects());
+    }
+
+    private VmFunction compileFunction(int index) {
+        LoweredFunction function = functions[index];
+        enter(index + 1, chainOf(function.getScope()));
+        returnType = LoweredOperators.typeOf(function.getReturnType());
+
+        compileStatement(function.getBody(), false);
+        if (code.isReachable()) {
+            if (returnKinds[index] != null) {
+                boxedReturns.set(index);
+                code.op(VmOp.UNREACHABLE, 0);
+            } else {
+                code.op(VmOp.ACONST_NULL, 1);
+                code.op(VmOp.ARETURN, -1);
+            }
+        }
+
+        int[] paramKinds = new int[function.getParamCount()];
+        int[] paramSlots = new int[paramKinds.length];
+        for (int i = 0; i < paramKinds.length; i++) {
+            int key = keyBase[function.getScope()] + i;
+            paramKinds[i] = kindCode(kinds[key]);
+            paramSlots[i] = indexes[key];
+        }
+        return newFunction("f" + index, paramKinds, paramSlots);
+    }
+
+    private VmFunction compileMain() {
+        List<Integer> chain = new ArrayList<Integer>();
+        chain.add(0);
+        enter(0, chain);
+        returnType = null;
+
+        //脚本主体的栈桢就是全局变量,不用清零
+        LoweredNode main = program.getMain();
+        for (int i = 0; i < main.getKidCount(); i++) {
+            compileStatement(main.getKid(i), i == main.getKidCount() - 1);
+        }
+        code.op(VmOp.RETURN_VALUE, 0);
+        return newFunction("main", new int[0], new int[0]);
+    }
+
+    private void enter(int activation, List<Integer> frames) {
+        this.activation = activation;
+        this.frames = frames;
+        loops.clear();
+        code = new VmCode();
+    }
+
+    private VmFunction newFunction(String name, int[] paramKinds, int[] paramSlots) {
+        int[] counts = slotCounts[activation];
+        return new VmFunction(name, code.toArray(), code.getMaxStack(), counts[VmFunction.KIND_LONG],
+                counts[VmFunction.KIND_DOUBLE], counts[VmFunction.KIND_OBJECT], paramKinds, paramSlots);
+    }
+
+    /**
+     * @param scope 函数的作用域
+     * @return 从外到内的有栈桢的作用域,最后是函数自己
+     */
+    private List<Integer> chainOf(int scope) {
+        List<Integer> rtn = new ArrayList<Integer>();
+        for (int s = scope; s >= 0; s = scopes.get(s).getParent()) {
+            if (scopes.get(s).getFrameSize() >= 0) {
+                rtn.add(0, s);
+            }
+        }
+        return rtn;
+    }
+
+    //=================================== 赋值分析 ===================================
+
+    /**
+     * 找出可能在赋值前读取的变量。读到的是 NullObject,只能装箱存放。
+     * 1.函数自己的变量:沿执行顺序推算每一处已经赋值的变量,进入语句块时清空语句块的变量;
+     * 2.外层栈桢的变量:只有外层函数执行到调用时才能读到,要在外层函数的每一处调用时都已经赋值;
+     * 3.调用时少传的参数没有赋值。
+     */
+    private void analyzeAssignments() {
+        for (int i = 0; i < functions.length; i++) {
+            LoweredFunction function = functions[i];
+            enter(i + 1, chainOf(function.getScope()));
+            BitSet assigned = new BitSet();
+            assigned.set(keyBase[function.getScope()], keyBase[function.getScope()] + function.getParamCount());
+            analyze(function.getBody(), assigned);
+        }
+        List<Integer> chain = new ArrayList<Integer>();
+        chain.add(0);
+        enter(0, chain);
+        LoweredNode main = program.getMain();
+        BitSet assigned = new BitSet();
+        for (int i = 0; i < main.getKidCount(); i++) {
+            analyze(main.getKid(i), assigned);
+        }
+
+        for (int key = outerReads.nextSetBit(0); key >= 0; key = outerReads.nextSetBit(key + 1)) {
+            BitSet state = callStates[owners[scopeOfKey(key)]];
+            if (state == null || !state.get(key)) {
+                maybeUnassigned[key] = true;
+            }
+        }
+    }
+
+    /**
+     * @param node     语句或表达式
+     * @param assigned 执行前已经赋值的变量,分析后改成执行后已经赋值的变量
+     */
+    private void analyze(LoweredNode node, BitSet assigned) {
+        switch (node.getOp()) {
+            case LoweredOp.BLOCK:
+                if (node.getA() >= 0) {
+                    enterScope(node.getA(), assigned);
+                }
+                analyzeKids(node, 0, assigned);
+                if (node.getA() >= 0) {
+                    frames.remove(frames.size() - 1);
+                }
+                break;
+            case LoweredOp.FOR:
+                if (node.getA() >= 0) {
+                    enterScope(node.getA(), assigned);
+                }
+                analyze(node.getKid(0), assigned);
+                analyze(node.getKid(1), assigned);
+                BitSet body = (BitSet) assigned.clone();
+                analyze(node.getKid(3), body);
+                analyze(node.getKid(2), body);
+                if (node.getA() >= 0) {
+                    frames.remove(frames.size() - 1);
+                }
+                break;
+            case LoweredOp.WHILE:
+                analyze(node.getKid(0), assigned);
+                analyze(node.getKid(1), (BitSet) assigned.clone());
+                break;
+            case LoweredOp.DO:
+                BitSet entry = (BitSet) assigned.clone();
+                analyzeKids(node, 0, assigned);
+                if (jumpsOut(node.getKid(0))) {
+                    assigned.and(entry);
+                }
+                break;
+            case LoweredOp.IF:
+            case LoweredOp.COND:
+                analyze(node.getKid(0), assigned);
+                BitSet otherwise = (BitSet) assigned.clone();
+                analyze(node.getKid(1), assigned);
+                if (node.getKidCount() > 2) {
+                    analyze(node.getKid(2), otherwise);
+                }
+                assigned.and(otherwise);
+                break;
+            case LoweredOp.AND:
+            case LoweredOp.OR:
+                analyze(node.getKid(0), assigned);
+                analyze(node.getKid(1), (BitSet) assigned.clone());
+                break;
+            case LoweredOp.LOAD:
+                read(scopeAt(node.getA()), node.getB(), assigned);
+                break;
+            case LoweredOp.STORE:
+                analyzeKids(node, 0, assigned);
+                write(scopeAt(node.getA()), node.getB(), assigned);
+                break;
+            case LoweredOp.INCDEC:
+                read(scopeAt(node.getA()), node.getB(), assigned);
+                write(scopeAt(node.getA()), node.getB(), assigned);
+                break;
+            case LoweredOp.CALL:
+                analyzeKids(node, 0, assigned);
+                LoweredFunction function = functions[node.getA()];
+                for (int i = node.getKidCount(); i < function.getParamCount(); i++) {
+                    maybeUnassigned[keyBase[function.getScope()] + i] = true;
+                }
+                if (callStates[activation] == null) {
+                    callStates[activation] = (BitSet) assigned.clone();
+                } else {
+                    callStates[activation].and(assigned);
+                }
+                break;
+            default:
+                analyzeKids(node, 0, assigned);
+                break;
+        }
+    }
+
+    private void analyzeKids(LoweredNode node, int from, BitSet assigned) {
+        for (int i = from; i < node.getKidCount(); i++) {
+            analyze(node.getKid(i), assigned);
+        }
+    }
+
+    private void enterScope(int scope, BitSet assigned) {
+        frames.add(scope);
+        assigned.clear(keyBase[scope], keyBase[scope] + scopes.get(scope).getFrameSize());
+    }
+
+    private void read(int scope, int slot, BitSet assigned) {
+        int key = keyBase[scope] + slot;
+        if (owners[scope] != activation) {
+            outerReads.set(key);
+        } else if (!assigned.get(key)) {
+            maybeUnassigned[key] = true;
+        }
+    }
+
+    private void write(int scope, int slot, BitSet assigned) {
+        if (owners[scope] == activation) {
+            assigned.set(keyBase[scope] + slot);
+        }
+    }
+
+    /**
+     * @param node
+     * @return 是否有跳出这个循环体的break或continue
+     */
+    private static boolean jumpsOut(LoweredNode node) {
+        boolean rtn = node.getOp() == LoweredOp.BREAK || node.getOp() == LoweredOp.CONTINUE;
+        if (node.getOp() != LoweredOp.WHILE && node.getOp() != LoweredOp.DO && node.getOp() != LoweredOp.FOR) {
+            for (int i = 0; i < node.getKidCount() && !rtn; i++) {
+                rtn = jumpsOut(node.getKid(i));
+            }
+        }
+        return rtn;
+    }
+
+    private int scopeOfKey(int key) {
+        int rtn = 0;
+        for (int scope = 0; scope < keyBase.length; scope++) {
+            if (keyBase[scope] <= key && scopes.get(scope).getFrameSize() > key - keyBase[scope]) {
+                rtn = scope;
+            }
+        }
+        return rtn;
+    }
+
+    //=================================== 语句 ===================================
+
+    /**
+     * @param node
+     * @param tail 语句的值是否可能成为脚本的结果。循环里的语句和后面还有语句的语句都不会
+     */
+    private void compileStatement(LoweredNode node, boolean tail) {
+        switch (node.getOp()) {
+            case LoweredOp.NOP:
+                break;
+            case LoweredOp.BLOCK:
+                if (node.getA() >= 0) {
+                    enterFrame(node.getA());
+                }
+                for (int i = 0; i < node.getKidCount(); i++) {
+                    compileStatement(node.getKid(i), tail && i == node.getKidCount() - 1);
+                }
+                if (node.getA() >= 0) {
+                    frames.remove(frames.size() - 1);
+                }
+                break;
+            case LoweredOp.EXPR:
+                if (tail) {
+                    saveValue(compileExpression(node.getKid(0)));
+                } else {
+                    compileEffect(node.getKid(0));
+                }
+                break;
+            case LoweredOp.DECL:
+                //没有初始值的变量已经在进入作用域时清空
+                for (int i = 0; i < node.getKidCount(); i++) {
+                    LoweredNode kid = node.getKid(i);
+                    if (kid.getOp() == LoweredOp.STORE && tail && i == node.getKidCount() - 1) {
+                        saveValue(compileExpression(kid));
+                    } else if (kid.getOp() == LoweredOp.STORE) {
+                        compileEffect(kid);
+                    }
+                }
+                break;
+            case LoweredOp.IF:
+                compileIf(node, tail);
+                break;
+            case LoweredOp.WHILE:
+                compileWhile(node);
+                break;
+            case LoweredOp.DO:
+                compileDo(node);
+                break;
+            case LoweredOp.FOR:
+                compileFor(node);
+                break;
+            case LoweredOp.RETURN:
+                compileReturn(node);
+                break;
+            case LoweredOp.BREAK:
+            case LoweredOp.CONTINUE:
+                if (loops.isEmpty()) {
+                    //循环外的break、continue结束函数或脚本,结果为null
+                    if (activation > 0) {
+                        boxReturn(activation - 1);
+                    }
+                    code.op(VmOp.ACONST_NULL, 1);
+                    code.op(VmOp.ARETURN, -1);
+                } else {
+                    VmCode.Label[] loop = loops.get(loops.size() - 1);
+                    code.jump(VmOp.GOTO, node.getOp() == LoweredOp.BREAK ? loop[0] : loop[1], 0);
+                }
+                break;
+            default:
+                throw new IllegalStateException("VmCompiler#compileStatement:unknown statement:" + node.getOp());
+        }
+    }
+
+    private void compileIf(LoweredNode node, boolean tail) {
+        VmCode.Label otherwise = new VmCode.Label();
+        compileJump(node.getKid(0), false, otherwise, false);
+        compileStatement(node.getKid(1), tail);
+        if (node.getKidCount() > 2) {
+            VmCode.Label end = new VmCode.Label();
+            code.jump(VmOp.GOTO, end, 0);
+            code.bind(otherwise);
+            compileStatement(node.getKid(2), tail);
+            code.bind(end);
+        } else {
+            code.bind(otherwise);
+        }
+    }
+
+    /**
+     * 条件放在循环体后面,每次循环只执行一次条件跳转
+     *
+     * @param node
+     */
+    private void compileWhile(LoweredNode node) {
+        VmCode.Label body = new VmCode.Label();
+        VmCode.Label test = new VmCode.Label();
+        VmCode.Label end = new VmCode.Label();
+        code.enterLoop(body);
+        code.jump(VmOp.GOTO, test, 0);
+        code.bind(body);
+        compileLoopBody(node.getKid(1), end, test);
+        code.bind(test);
+        compileJump(node.getKid(0), true, body, false);
+        code.bind(end);
+    }
+
+    private void compileDo(LoweredNode node) {
+        VmCode.Label body = new VmCode.Label();
+        VmCode.Label test = new VmCode.Label();
+        VmCode.Label end = new VmCode.Label();
+        code.bind(body);
+        compileLoopBody(node.getKid(0), end, test);
+        code.bind(test);
+        compileJump(node.getKid(1), true, body, false);
+        code.bind(end);
+    }
+
+    private void compileFor(LoweredNode node) {
+        if (node.getA() >= 0) {
+            enterFrame(node.getA());
+        }
+        LoweredNode init = node.getKid(0);
+        for (int i = 0; i < init.getKidCount(); i++) {
+            compileEffect(init.getKid(i));
+        }
+
+        LoweredNode condition = node.getKid(1);
+        VmCode.Label body = new VmCode.Label();
+        VmCode.Label next = new VmCode.Label();
+        VmCode.Label test = new VmCode.Label();
+        VmCode.Label end = new VmCode.Label();
+        if (condition.getOp() != LoweredOp.NOP) {
+            code.enterLoop(body);
+            code.jump(VmOp.GOTO, test, 0);
+        }
+        code.bind(body);
+        compileLoopBody(node.getKid(3), end, next);
+        code.bind(next);
+        LoweredNode update = node.getKid(2);
+        for (int i = 0; i < update.getKidCount(); i++) {
+            compileEffect(update.getKid(i));
+        }
+        code.bind(test);
+        if (condition.getOp() != LoweredOp.NOP) {
+            compileJump(condition, true, body, false);
+        } else {
+            code.jump(VmOp.GOTO, body, 0);
+        }
+        code.bind(end);
+
+        if (node.getA() >= 0) {
+            frames.remove(frames.size() - 1);
+        }
+    }
+
+    private void compileLoopBody(LoweredNode body, VmCode.Label exit, VmCode.Label next) {
+        loops.add(new VmCode.Label[]{exit, next});
+        compileStatement(body, false);
+        loops.remove(loops.size() - 1);
+    }
+
+    private void compileReturn(LoweredNode node) {
+        if (activation == 0) {
+            //脚本主体中的return,值就是脚本的结果
+            if (node.getKidCount() > 0) {
+                box(compileExpression(node.getKid(0)));
+            } else {
+                code.op(VmOp.ACONST_NULL, 1);
+            }
+            code.op(VmOp.ARETURN, -1);
+        } else {
+            int index = activation - 1;
+            PrimitiveType kind = returnKinds[index];
+            if (node.getKidCount() == 0) {
+                boxReturn(index);
+                code.op(VmOp.ACONST_NULL, 1);
+                code.op(VmOp.ARETURN, -1);
+            } else {
+                //与 NodeProgram 一样按声明的返回值类型转换
+                PrimitiveType type = convert(compileExpression(node.getKid(0)), returnType);
+                if (kind != null && type != kind) {
+                    boxReturn(index);
+                }
+                if (kind == null) {
+                    box(type);
+                }
+                code.op(kind == null ? VmOp.ARETURN : (isDouble(kind) ? VmOp.DRETURN : VmOp.IRETURN), -1);
+            }
+        }
+    }
+
+    private void boxReturn(int index) {
+        if (returnKinds[index] != null) {
+            boxedReturns.set(index);
+        }
+    }
+
+    /**
+     * 把栈顶的值装箱,作为脚本主体的结果
+     */
+    private void saveValue(PrimitiveType type) {
+        box(type);
+        code.op(VmOp.SAVE, -1);
+    }
+
+    /**
+     * 进入函数里的语句块,语句块的变量在函数的栈桢里,要把可能在赋值前读取的变量清空
+     *
+     * @param scope
+     */
+    private void enterFrame(int scope) {
+        frames.add(scope);
+        for (int slot = 0; slot < scopes.get(scope).getFrameSize(); slot++) {
+            int key = keyBase[scope] + slot;
+            if (kinds[key] == null && maybeUnassigned[key]) {
+                code.op(VmOp.ACLEAR, indexes[key], 0);
+            }
+        }
+    }
+
+    //=================================== 表达式 ===================================
+
+    /**
+     * 只为副作用求值,不在栈上留下值
+     *
+     * @param node
+     */
+    private void compileEffect(LoweredNode node) {
+        switch (node.getOp()) {
+            case LoweredOp.STORE:
+                compileStore(node, false);
+                break;
+            case LoweredOp.INCDEC:
+                compileIncDec(node, false);
+                break;
+            case LoweredOp.PRINTLN:
+                compilePrintln(node);
+                break;
+            default:
+                pop(compileExpression(node));
+                break;
+        }
+    }
+
+    /**
+     * @param node
+     * @return 留在栈上的值的类型,null表示装箱的值
+     */
+    private PrimitiveType compileExpression(LoweredNode node) {
+        PrimitiveType rtn;
+        switch (node.getOp()) {
+            case LoweredOp.NOP:
+                code.op(VmOp.ACONST_NULL, 1);
+                rtn = null;
+                break;
+            case LoweredOp.CONST:
+                rtn = compileConstant(node.getValue());
+                break;
+            case LoweredOp.LOAD:
+                rtn = compileLoad(node);
+                break;
+            case LoweredOp.STORE:
+                rtn = compileStore(node, true);
+                break;
+            case LoweredOp.INCDEC:
+                rtn = compileIncDec(node, true);
+                break;
+            case LoweredOp.BINARY:
+                rtn = node.getA() >= LoweredOp.OP_EQ ? compileBoolean(node) : compileBinary(node);
+                break;
+            case LoweredOp.AND:
+            case LoweredOp.OR:
+            case LoweredOp.NOT:
+                rtn = compileBoolean(node);
+                break;
+            case LoweredOp.COND:
+                rtn = compileConditional(node);
+                break;
+            case LoweredOp.NEG:
+                rtn = compileNeg(node);
+                break;
+            case LoweredOp.BITNOT:
+                rtn = LoweredOperators.typeOf(node.getType()) == PrimitiveType.Long ? PrimitiveType.Long : PrimitiveType.Integer;
+                coerce(compileExpression(node.getKid(0)), rtn);
+                code.op(VmOp.ICONST, -1, 1);
+                code.op(rtn == PrimitiveType.Long ? VmOp.LXOR : VmOp.IXOR, -1);
+                break;
+            case LoweredOp.CONVERT:
+                rtn = convert(compileExpression(node.getKid(0)), LoweredOperators.typeOf(node.getType()));
+                break;
+            case LoweredOp.CALL:
+                rtn = compileCall(node);
+                break;
+            case LoweredOp.PRINTLN:
+                compilePrintln(node);
+                code.op(VmOp.ACONST_NULL, 1);
+                rtn = null;
+                break;
+            default:
+                throw new IllegalStateException("VmCompiler#compileExpression:unknown expression:" + node.getOp());
+        }
+        return rtn;
+    }
+
+    /**
+     * 不生成代码,只推算表达式的值的类型
+     *
+     * @param node
+     * @return
+     */
+    private PrimitiveType typeOf(LoweredNode node) {
+        boolean reachable = code.suspend();
+        PrimitiveType rtn = compileExpression(node);
+        code.resume(reachable);
+        return rtn;
+    }
+
+    private PrimitiveType compileConstant(Object value) {
+        PrimitiveType rtn = null;
+        if (value instanceof Integer) {
+            code.op(VmOp.ICONST, (Integer) value, 1);
+            rtn = PrimitiveType.Integer;
+        } else if (value instanceof Long) {
+            long l = (Long) value;
+            if (l == (int) l) {
+                code.op(VmOp.ICONST, (int) l, 1);
+            } else {
+                code.op(VmOp.LCONST, pool.addLong(l), 1);
+            }
+            rtn = PrimitiveType.Long;
+        } else if (value instanceof Boolean) {
+            code.op(VmOp.ICONST, (Boolean) value ? 1 : 0, 1);
+            rtn = PrimitiveType.Boolean;
+        } else if (value instanceof Float) {
+            code.op(VmOp.DCONST, pool.addDouble((Float) value), 1);
+            rtn = PrimitiveType.Float;
+        } else if (value instanceof Double) {
+            code.op(VmOp.DCONST, pool.addDouble((Double) value), 1);
+            rtn = PrimitiveType.Double;
+        } else if (value == null) {
+            code.op(VmOp.ACONST_NULL, 1);
+        } else {
+            code.op(VmOp.ACONST, pool.addObject(value), 1);
+        }
+        return rtn;
+    }
+
+    private PrimitiveType compileLoad(LoweredNode node) {
+        int scope = scopeAt(node.getA());
+        int key = keyBase[scope] + node.getB();
+        int hops = hopsTo(scope);
+        int kind = kindCode(kinds[key]);
+        if (hops == 0) {
+            code.op(VmOp.ILOAD + 2 * kind, indexes[key], 1);
+        } else {
+            code.op(VmOp.IGET + 2 * kind, hops, indexes[key], 1);
+        }
+        return kinds[key];
+    }
+
+    private PrimitiveType compileStore(LoweredNode node, boolean needValue) {
+        int scope = scopeAt(node.getA());
+        int key = keyBase[scope] + node.getB();
+        PrimitiveType rtn = kinds[key];
+        PrimitiveType type = compileExpression(node.getKid(0));
+        if (rtn != null && type != rtn) {
+            boxedSlots.set(key);
+        }
+        if (rtn == null) {
+            box(type);
+        }
+        int kind = kindCode(rtn);
+        if (needValue) {
+            code.op(VmOp.IDUP + kind, 1);
+        }
+        int hops = hopsTo(scope);
+        if (hops == 0) {
+            code.op(VmOp.ISTORE + 2 * kind, indexes[key], -1);
+        } else {
+            code.op(VmOp.IPUT + 2 * kind, hops, indexes[key], -1);
+        }
+        return rtn;
+    }
+
+    private PrimitiveType compileIncDec(LoweredNode node, boolean needValue) {
+        int scope = scopeAt(node.getA());
+        int key = keyBase[scope] + node.getB();
+        int hops = hopsTo(scope);
+        PrimitiveType rtn = kinds[key];
+        boolean prefix = (node.getC() & LoweredOp.INCDEC_PREFIX) != 0;
+        boolean dec = (node.getC() & LoweredOp.INCDEC_DEC) != 0;
+        if (rtn != null && (!isNumeric(rtn) || LoweredOperators.typeOf(node.getType()) != rtn)) {
+            boxedSlots.set(key);
+        }
+
+        if (!isNumeric(rtn)) {
+            rtn = null;
+            code.op(VmOp.GINCDEC, hops, indexes[key], node.getC(), node.getType(), 1);
+            if (!needValue) {
+                code.op(VmOp.APOP, -1);
+            }
+        } else if (hops == 0) {
+            int kind = kindCode(rtn);
+            if (needValue && !prefix) {
+                code.op(VmOp.ILOAD + 2 * kind, indexes[key], 1);
+            }
+            code.op(VmOp.IINC + arithmeticIndex(rtn), indexes[key], dec ? -1 : 1, 0);
+            if (needValue && prefix) {
+                code.op(VmOp.ILOAD + 2 * kind, indexes[key], 1);
+            }
+        } else {
+            int kind = kindCode(rtn);
+            code.op(VmOp.IGET + 2 * kind, hops, indexes[key], 1);
+            if (needValue && !prefix) {
+                code.op(VmOp.IDUP + kind, 1);
+            }
+            if (isDouble(rtn)) {
+                code.op(VmOp.DCONST, pool.addDouble(1.0), 1);
+            } else {
+                code.op(VmOp.ICONST, 1, 1);
+            }
+            code.op(arithmetic(dec ? LoweredOp.OP_SUB : LoweredOp.OP_ADD, rtn), -1);
+            if (needValue && prefix) {
+                code.op(VmOp.IDUP + kind, 1);
+            }
+            code.op(VmOp.IPUT + 2 * kind, hops, indexes[key], -1);
+        }
+        return rtn;
+    }
+
+    private PrimitiveType compileBinary(LoweredNode node) {
+        PrimitiveType type = LoweredOperators.typeOf(node.getType());
+        int op = node.getA();
+        boolean integral = type == PrimitiveType.Integer || type == PrimitiveType.Long;
+        PrimitiveType rtn = null;
+        if (op <= LoweredOp.OP_MOD && isNumeric(type) || op <= LoweredOp.OP_BITXOR && integral) {
+            if (compileOperands(node, type, type)) {
+                code.op(arithmetic(op, type), -1);
+                rtn = type;
+            }
+        } else if (op >= LoweredOp.OP_SHL && integral) {
+            if (compileOperands(node, type, PrimitiveType.Integer)) {
+                code.op(arithmetic(op, type), -1);
+                rtn = type;
+            }
+        } else if (op >= LoweredOp.OP_BITAND && op <= LoweredOp.OP_BITXOR && type == PrimitiveType.Boolean) {
+            if (compileOperands(node, type, type)) {
+                code.op(arithmetic(op, PrimitiveType.Long), -1);
+                rtn = type;
+            }
+        } else {
+            box(compileExpression(node.getKid(0)));
+            box(compileExpression(node.getKid(1)));
+        }
+        if (rtn == null) {
+            code.op(VmOp.GBINARY, op, node.getType(), -1);
+        }
+        return rtn;
+    }
+
+    /**
+     * 求值两个操作数,并转换成运算的类型。
+     * 左操作数要拆箱(可能抛出异常)而右操作数有副作用时,为了与 NodeProgram 的求值顺序一致,都装箱按通用运算执行
+     *
+     * @param node
+     * @param leftType
+     * @param rightType
+     * @return 是否转换了类型,false时两个操作数都已装箱
+     */
+    private boolean compileOperands(LoweredNode node, PrimitiveType leftType, PrimitiveType rightType) {
+        PrimitiveType left = compileExpression(node.getKid(0));
+        LoweredNode right = node.getKid(1);
+        boolean rtn = !mayFail(left, leftType) || right.getOp() == LoweredOp.CONST || right.getOp() == LoweredOp.LOAD;
+        if (rtn) {
+            coerce(left, leftType);
+            coerce(compileExpression(right), rightType);
+        } else {
+            box(left);
+            box(compileExpression(right));
+        }
+        return rtn;
+    }
+
+    private PrimitiveType compileNeg(LoweredNode node) {
+        PrimitiveType type = LoweredOperators.typeOf(node.getType());
+        PrimitiveType rtn = null;
+        PrimitiveType operand = compileExpression(node.getKid(0));
+        if (isNumeric(type)) {
+            //与 NumberUtils#minus(0, v) 相同,FNEG、DNEG按 0 - v 计算
+            coerce(operand, type);
+            code.op(arithmetic(LoweredOp.OP_ADD, type) + 5, 0);
+            rtn = type;
+        } else {
+            box(operand);
+            code.op(VmOp.GNEG, node.getType(), 0);
+        }
+        return rtn;
+    }
+
+    private PrimitiveType compileConditional(LoweredNode node) {
+        PrimitiveType type = LoweredOperators.typeOf(node.getType());
+        PrimitiveType first = converted(typeOf(node.getKid(1)), type);
+        PrimitiveType second = converted(typeOf(node.getKid(2)), type);
+        PrimitiveType rtn = first == second ? first : null;
+
+        VmCode.Label otherwise = new VmCode.Label();
+        VmCode.Label end = new VmCode.Label();
+        compileJump(node.getKid(0), false, otherwise, true);
+        PrimitiveType value = convert(compileExpression(node.getKid(1)), type);
+        if (rtn == null) {
+            box(value);
+        }
+        code.jump(VmOp.GOTO, end, 0);
+        code.bind(otherwise);
+        value = convert(compileExpression(node.getKid(2)), type);
+        if (rtn == null) {
+            box(value);
+        }
+        code.bind(end);
+        return rtn;
+    }
+
+    private PrimitiveType compileCall(LoweredNode node) {
+        LoweredFunction function = functions[node.getA()];
+        int argc = Math.min(node.getKidCount(), function.getParamCount());
+        for (int i = 0; i < node.getKidCount(); i++) {
+            PrimitiveType type = compileExpression(node.getKid(i));
+            if (i < argc) {
+                int key = keyBase[function.getScope()] + i;
+                if (kinds[key] != null && type != kinds[key]) {
+                    boxedSlots.set(key);
+                }
+                if (kinds[key] == null) {
+                    box(type);
+                }
+            } else {
+                //多余的参数也要求值
+                pop(type);
+            }
+        }
+        code.op(VmOp.CALL, node.getA(), hopsTo(scopeAt(node.getB())), argc, 1 - argc);
+        return returnKinds[node.getA()];
+    }
+
+    private void compilePrintln(LoweredNode node) {
+        if (node.getKidCount() == 0) {
+            code.op(VmOp.PRINT_EMPTY, 0);
+        } else {
+            PrimitiveType type = compileExpression(node.getKid(0));
+            for (int i = 1; i < node.getKidCount(); i++) {
+                compileEffect(node.getKid(i));
+            }
+            code.op(VmOp.PRINT, type == null ? LoweredOp.NO_TYPE : type.ordinal(), -1);
+        }
+    }
+
+    //=================================== 条件 ===================================
+
+    /**
+     * 比较和逻辑运算的值
+     *
+     * @param node
+     * @return
+     */
+    private PrimitiveType compileBoolean(LoweredNode node) {
+        VmCode.Label no = new VmCode.Label();
+        VmCode.Label end = new VmCode.Label();
+        compileJump(node, false, no, true);
+        code.op(VmOp.ICONST, 1, 1);
+        code.jump(VmOp.GOTO, end, 0);
+        code.bind(no);
+        code.op(VmOp.ICONST, 0, 1);
+        code.bind(end);
+        return PrimitiveType.Boolean;
+    }
+
+    /**
+     * @param node
+     * @param when   条件为true时跳转还是为false时跳转
+     * @param target
+     * @param strict 条件的值强制转换成Boolean(逻辑运算的操作数),否则只有Boolean.TRUE算true(条件语句)
+     */
+    private void compileJump(LoweredNode node, boolean when, VmCode.Label target, boolean strict) {
+        switch (node.getOp()) {
+            case LoweredOp.BINARY:
+                if (node.getA() >= LoweredOp.OP_EQ) {
+                    compileCompare(node, when, target);
+                } else {
+                    jumpOn(compileExpression(node), when, target, strict);
+                }
+                break;
+            case LoweredOp.AND:
+            case LoweredOp.OR:
+                boolean and = node.getOp() == LoweredOp.AND;
+                if (when == and) {
+                    //a && b 为true时跳转:a为false时不跳转;a || b 为false时跳转同理
+                    VmCode.Label skip = new VmCode.Label();
+                    compileJump(node.getKid(0), !when, skip, true);
+                    compileJump(node.getKid(1), when, target, true);
+                    code.bind(skip);
+                } else {
+                    compileJump(node.getKid(0), when, target, true);
+                    compileJump(node.getKid(1), when, target, true);
+                }
+                break;
+            case LoweredOp.NOT:
+                compileJump(node.getKid(0), !when, target, true);
+                break;
+            default:
+                jumpOn(compileExpression(node), when, target, strict);
+                break;
+        }
+    }
+
+    private void compileCompare(LoweredNode node, boolean when, VmCode.Label target) {
+        PrimitiveType type = LoweredOperators.typeOf(node.getType());
+        int op = node.getA();
+        int condition = when ? op - LoweredOp.OP_EQ : NEGATED[op - LoweredOp.OP_EQ];
+        boolean equality = op == LoweredOp.OP_EQ || op == LoweredOp.OP_NE;
+        if (isNumeric(type)) {
+            if (!compileOperands(node, type, type)) {
+                code.op(VmOp.GBINARY, op, node.getType(), -1);
+                jumpOn(null, when, target, true);
+            } else if (isDouble(type)) {
+                //有NaN时比较的结果都是false
+                code.op(op == LoweredOp.OP_GT || op == LoweredOp.OP_GE ? VmOp.DCMPL : VmOp.DCMPG, -1);
+                code.jump(VmOp.IFEQ + condition, target, -1);
+            } else {
+                code.jump(VmOp.IF_ICMPEQ + condition, target, -2);
+            }
+        } else if (type == PrimitiveType.Boolean && equality && typeOf(node.getKid(0)) == PrimitiveType.Boolean
+                && typeOf(node.getKid(1)) == PrimitiveType.Boolean) {
+            compileExpression(node.getKid(0));
+            compileExpression(node.getKid(1));
+            code.jump(VmOp.IF_ICMPEQ + condition, target, -2);
+        } else {
+            box(compileExpression(node.getKid(0)));
+            box(compileExpression(node.getKid(1)));
+            code.op(VmOp.GBINARY, op, node.getType(), -1);
+            jumpOn(null, when, target, true);
+        }
+    }
+
+    /**
+     * 按栈顶的值跳转
+     */
+    private void jumpOn(PrimitiveType type, boolean when, VmCode.Label target, boolean strict) {
+        if (type != PrimitiveType.Boolean) {
+            box(type);
+            if (strict) {
+                code.op(VmOp.UNBOX, PrimitiveType.Boolean.ordinal(), 0);
+            } else {
+                code.op(VmOp.ATRUE, 0);
+            }
+        }
+        code.jump(when ? VmOp.IFNE : VmOp.IFEQ, target, -1);
+    }
+
+    //=================================== 类型 ===================================
+
+    private void box(PrimitiveType type) {
+        if (type != null) {
+            code.op(VmOp.BOX, type.ordinal(), 0);
+        }
+    }
+
+    private void pop(PrimitiveType type) {
+        code.op(type == null ? VmOp.APOP : VmOp.POP, -1);
+    }
+
+    /**
+     * 把栈顶的值转换成运算的类型,与 NumberUtils、LogicUtils 的强制转换相同:
+     * 数值之间按Number的xxxValue转换,数值和Boolean之间、装箱的值类型不对时抛出异常
+     *
+     * @param type   栈顶的值的类型
+     * @param target int、long、float、double或boolean
+     */
+    private void coerce(PrimitiveType type, PrimitiveType target) {
+        if (type == null) {
+            code.op(VmOp.UNBOX, target.ordinal(), 0);
+        } else if (isNumeric(type) && isNumeric(target)) {
+            convertNumber(type, target);
+        } else if (type != target) {
+            code.op(VmOp.BOX, type.ordinal(), 0);
+            code.op(VmOp.UNBOX, target.ordinal(), 0);
+        }
+    }
+
+    private static boolean mayFail(PrimitiveType type, PrimitiveType target) {
+        return type == null || isNumeric(type) != isNumeric(target);
+    }
+
+    /**
+     * 与 NumberUtils#convert 相同:只转换数值,目标类型不是数值类型时不变
+     *
+     * @param type
+     * @param target
+     * @return 转换后的类型
+     */
+    private PrimitiveType convert(PrimitiveType type, PrimitiveType target) {
+        PrimitiveType rtn = converted(type, target);
+        if (target != null && (type == null || rtn == null)) {
+            box(type);
+            code.op(VmOp.GCONVERT, target.ordinal(), 0);
+        } else if (rtn != type) {
+            convertNumber(type, rtn);
+        }
+        return rtn;
+    }
+
+    private static PrimitiveType converted(PrimitiveType type, PrimitiveType target) {
+        PrimitiveType rtn = type;
+        if (target != null && isNumeric(type)) {
+            if (isNumeric(target)) {
+                rtn = target;
+            } else if (PrimitiveType.isNarrowIntegral(target)) {
+                rtn = null;
+            }
+        } else if (target != null && type == PrimitiveType.Char && isNumeric(target)) {
+            rtn = null;
+        }
+        return rtn;
+    }
+
+    private void convertNumber(PrimitiveType type, PrimitiveType target) {
+        if (type != target) {
+            boolean fromDouble = isDouble(type);
+            switch (target) {
+                case Integer:
+                    code.op(fromDouble ? VmOp.D2I : VmOp.L2I, 0);
+                    break;
+                case Long:
+                    if (fromDouble) {
+                        code.op(VmOp.D2L, 0);
+                    }
+                    break;
+                case Float:
+                    code.op(fromDouble ? VmOp.D2F : VmOp.L2F, 0);
+                    break;
+                default:
+                    if (!fromDouble) {
+                        code.op(VmOp.L2D, 0);
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * @param op   LoweredOp中的算术、位运算运算符
+     * @param type int、long、float或double
+     * @return
+     */
+    private static int arithmetic(int op, PrimitiveType type) {
+        int base = VmOp.IADD + 12 * arithmeticIndex(type);
+        if (type == PrimitiveType.Double) {
+            base = VmOp.DADD;
+        }
+        int rtn;
+        switch (op) {
+            case LoweredOp.OP_BITAND:
+                rtn = base + 9;
+                break;
+            case LoweredOp.OP_BITOR:
+                rtn = base + 10;
+                break;
+            case LoweredOp.OP_BITXOR:
+                rtn = base + 11;
+                break;
+            case LoweredOp.OP_SHL:
+                rtn = base + 6;
+                break;
+            case LoweredOp.OP_SHR:
+                rtn = base + 7;
+                break;
+            case LoweredOp.OP_USHR:
+                rtn = base + 8;
+                break;
+            default:
+                rtn = base + op - LoweredOp.OP_ADD;
+                break;
+        }
+        return rtn;
+    }
+
+    /**
+     * @param type
+     * @return int、long、float、double依次为0到3
+     */
+    private static int arithmeticIndex(PrimitiveType type) {
+        return type == PrimitiveType.Integer ? 0 : (type == PrimitiveType.Long ? 1 : (type == PrimitiveType.Float ? 2 : 3));
+    }
+
+    private static boolean isNumeric(PrimitiveType type) {
+        return type == PrimitiveType.Integer || type == PrimitiveType.Long || isDouble(type);
+    }
+
+    private static boolean isDouble(PrimitiveType type) {
+        return type == PrimitiveType.Float || type == PrimitiveType.Double;
+    }
+
+    /**
+     * @param type 声明类型
+     * @return 可以不装箱存放时就是声明类型,否则为null
+     */
+    private static PrimitiveType unboxed(PrimitiveType type) {
+        return isNumeric(type) || type == PrimitiveType.Boolean ? type : null;
+    }
+
+    private static int kindCode(PrimitiveType kind) {
+        return kind == null ? VmFunction.KIND_OBJECT : (isDouble(kind) ? VmFunction.KIND_DOUBLE : VmFunction.KIND_LONG);
+    }
+
+    //=================================== 栈桢 ===================================
+
+    private int scopeAt(int hops) {
+        return frames.get(frames.size() - 1 - hops);
+    }
+
+    /**
+     * @param scope
+     * @return 从当前函数的栈桢到scope的变量所在的栈桢要跳过的栈桢数
+     */
+    private int hopsTo(int scope) {
+        return depths[activation] - depths[owners[scope]];
+    }
+}
@@ -0,0 +1,44 @@
+package play.compiler.script.vm;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 函数(或脚本主体)一次执行的栈桢。函数里的语句块的变量也在这个栈桢里,按种类分成三个数组。
+ * parent指向词法上外层函数的栈桢,嵌套的函数和函数里访问全局变量时沿着它向外找。
+ */
+final class VmFrame {
+    private static final long[] NO_LONGS = new long[0];
+    private static final double[] NO_DOUBLES = new double[0];
+    private static final Object[] NO_OBJECTS = new Object[0];
+
+    final long[] longs;
+    final double[] doubles;
+
+    /**
+     * null表示还没有赋值,读取时是 NullObject
+     */
+    final Object[] objects;
+
+    final VmFrame parent;
+
+    VmFrame(VmFunction function, VmFrame parent) {
+        this.longs = function.longSlots == 0 ? NO_LONGS : new long[function.longSlots];
+        this.doubles = function.doubleSlots == 0 ? NO_DOUBLES : new double[function.doubleSlots];
+        this.objects = function.objectSlots == 0 ? NO_OBJECTS : new Object[function.objectSlots];
+        this.parent = parent;
+    }
+
+    /**
+     * 向外跳过hops个栈桢
+     *
+     * @param hops
+     * @return
+     */
+    VmFrame up(int hops) {
+        VmFrame frame = this;
+        for (int i = 0; i < hops; i++) {
+            frame = frame.parent;
+        }
+        return frame;
+    }
+}
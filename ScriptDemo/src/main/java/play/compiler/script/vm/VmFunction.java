@@ -0,0 +1,45 @@
+package play.compiler.script.vm;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 编译后的函数或脚本主体
+ */
+final class VmFunction {
+    static final int KIND_LONG = 0;
+    static final int KIND_DOUBLE = 1;
+    static final int KIND_OBJECT = 2;
+
+    final String name;
+
+    final int[] code;
+
+    final int maxStack;
+
+    final int longSlots;
+    final int doubleSlots;
+    final int objectSlots;
+
+    /**
+     * 参数的种类(KIND_LONG等)和在栈桢中对应数组里的下标
+     */
+    final int[] paramKinds;
+    final int[] paramSlots;
+
+    VmFunction(String name, int[] code, int maxStack, int longSlots, int doubleSlots, int objectSlots,
+               int[] paramKinds, int[] paramSlots) {
+        this.name = name;
+        this.code = code;
+        this.maxStack = maxStack;
+        this.longSlots = longSlots;
+        this.doubleSlots = doubleSlots;
+        this.objectSlots = objectSlots;
+        this.paramKinds = paramKinds;
+        this.paramSlots = paramSlots;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,234 @@
+package play.compiler.script.vm;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 虚拟机的指令。指令和操作数都是int,操作数紧跟在指令后面。
+ * 操作数栈和局部变量按种类分开存放:I是long[](int、long、boolean),
+ * D是double[](float、double,float的值在double中是精确的),A是Object[](装箱的值、字符串、char、short等其它类型的值)。
+ * 指令的前缀表示运算的类型:I是int运算(结果截断成32位),L是long,F是float(结果舍入成float),D是double,
+ * A是引用,G是按 LoweredOperators、NumberUtils 执行的通用运算。
+ */
+final class VmOp {
+    private VmOp() {
+
+    }
+
+    //=================================== 常量和操作数栈 ===================================
+
+    /**
+     * ICONST value:压入int范围内的整数
+     */
+    static final int ICONST = 0;
+    /**
+     * LCONST index:压入常量池中的long
+     */
+    static final int LCONST = 1;
+    /**
+     * DCONST index:压入常量池中的double
+     */
+    static final int DCONST = 2;
+    /**
+     * ACONST index:压入常量池中的对象
+     */
+    static final int ACONST = 3;
+    static final int ACONST_NULL = 4;
+    /**
+     * 弹出I、D栈顶
+     */
+    static final int POP = 5;
+    /**
+     * 弹出A栈顶,并清掉引用
+     */
+    static final int APOP = 6;
+    static final int IDUP = 7;
+    static final int DDUP = 8;
+    static final int ADUP = 9;
+
+    //=================================== 变量 ===================================
+
+    /**
+     * ILOAD slot:当前栈桢的I变量
+     */
+    static final int ILOAD = 10;
+    static final int ISTORE = 11;
+    static final int DLOAD = 12;
+    static final int DSTORE = 13;
+    /**
+     * ALOAD slot:没有赋值的变量是 NullObject
+     */
+    static final int ALOAD = 14;
+    static final int ASTORE = 15;
+    /**
+     * ACLEAR slot:进入作用域时把A变量置为没有赋值
+     */
+    static final int ACLEAR = 16;
+    /**
+     * IGET hops slot:向外跳过hops个栈桢的I变量
+     */
+    static final int IGET = 17;
+    static final int IPUT = 18;
+    static final int DGET = 19;
+    static final int DPUT = 20;
+    static final int AGET = 21;
+    static final int APUT = 22;
+    /**
+     * IINC slot delta:当前栈桢的int变量加delta
+     */
+    static final int IINC = 23;
+    static final int LINC = 24;
+    static final int FINC = 25;
+    static final int DINC = 26;
+
+    //=================================== 算术和位运算 ===================================
+
+    static final int IADD = 30;
+    static final int ISUB = 31;
+    static final int IMUL = 32;
+    static final int IDIV = 33;
+    static final int IREM = 34;
+    static final int INEG = 35;
+    static final int ISHL = 36;
+    static final int ISHR = 37;
+    static final int IUSHR = 38;
+    static final int IAND = 39;
+    static final int IOR = 40;
+    static final int IXOR = 41;
+
+    static final int LADD = 42;
+    static final int LSUB = 43;
+    static final int LMUL = 44;
+    static final int LDIV = 45;
+    static final int LREM = 46;
+    static final int LNEG = 47;
+    static final int LSHL = 48;
+    static final int LSHR = 49;
+    static final int LUSHR = 50;
+    static final int LAND = 51;
+    static final int LOR = 52;
+    static final int LXOR = 53;
+
+    static final int FADD = 54;
+    static final int FSUB = 55;
+    static final int FMUL = 56;
+    static final int FDIV = 57;
+    static final int FREM = 58;
+    /**
+     * 与 NumberUtils#minus(0, v) 相同,0 - 0.0 是 0.0
+     */
+    static final int FNEG = 59;
+
+    static final int DADD = 60;
+    static final int DSUB = 61;
+    static final int DMUL = 62;
+    static final int DDIV = 63;
+    static final int DREM = 64;
+    static final int DNEG = 65;
+
+    //=================================== 类型转换 ===================================
+
+    /**
+     * int在I栈中按符号扩展存放,转成long不需要指令
+     */
+    static final int L2I = 70;
+    static final int L2F = 71;
+    static final int L2D = 72;
+    static final int D2I = 73;
+    static final int D2L = 74;
+    static final int D2F = 75;
+
+    //=================================== 比较和跳转 ===================================
+
+    /**
+     * 比较两个double,有NaN时压入-1
+     */
+    static final int DCMPL = 81;
+    /**
+     * 比较两个double,有NaN时压入1
+     */
+    static final int DCMPG = 82;
+
+    /**
+     * GOTO target:target是指令的下标
+     */
+    static final int GOTO = 83;
+    /**
+     * IFEQ target:弹出I栈顶,等于0时跳转。IFEQ到IFGE的顺序与运算符 OP_EQ 到 OP_GE 相同
+     */
+    static final int IFEQ = 84;
+    static final int IFNE = 85;
+    static final int IFLT = 86;
+    static final int IFLE = 87;
+    static final int IFGT = 88;
+    static final int IFGE = 89;
+    /**
+     * IF_ICMPEQ target:弹出两个I值按long比较,顺序同IFEQ
+     */
+    static final int IF_ICMPEQ = 90;
+    static final int IF_ICMPNE = 91;
+    static final int IF_ICMPLT = 92;
+    static final int IF_ICMPLE = 93;
+    static final int IF_ICMPGT = 94;
+    static final int IF_ICMPGE = 95;
+
+    //=================================== 装箱和通用运算 ===================================
+
+    /**
+     * BOX type:I、D栈顶按PrimitiveType装箱,压入A栈
+     */
+    static final int BOX = 100;
+    /**
+     * UNBOX type:A栈顶按PrimitiveType拆箱。与 NumberUtils 一样强制转换成Number、Boolean、Character,类型不对时抛出异常
+     */
+    static final int UNBOX = 101;
+    /**
+     * A栈顶是Boolean.TRUE时压入1,否则0。条件语句的条件按这个判断
+     */
+    static final int ATRUE = 102;
+    /**
+     * GBINARY op type:LoweredOperators#binary
+     */
+    static final int GBINARY = 103;
+    /**
+     * GNEG type:NumberUtils#minus(0, v)
+     */
+    static final int GNEG = 104;
+    /**
+     * GCONVERT type:NumberUtils#convert
+     */
+    static final int GCONVERT = 105;
+    /**
+     * GINCDEC hops slot flags type:A变量的++、--,flags同 LoweredOp#INCDEC
+     */
+    static final int GINCDEC = 106;
+
+    //=================================== 函数和输出 ===================================
+
+    /**
+     * CALL function hops argc:hops是调用者到被调用函数的外层函数的栈桢数
+     */
+    static final int CALL = 110;
+    static final int IRETURN = 111;
+    static final int DRETURN = 112;
+    static final int ARETURN = 113;
+    /**
+     * 有返回值的函数不经过return结束的位置,不会执行到
+     */
+    static final int UNREACHABLE = 114;
+    /**
+     * PRINT type:弹出栈顶按PrimitiveType输出一行,type为-1时是A栈顶
+     */
+    static final int PRINT = 115;
+    /**
+     * 输出空行
+     */
+    static final int PRINT_EMPTY = 116;
+    /**
+     * 弹出A栈顶,作为语句的值保存
+     */
+    static final int SAVE = 117;
+    /**
+     * 脚本主体结束,返回最后保存的语句的值
+     */
+    static final int RETURN_VALUE = 118;
+}
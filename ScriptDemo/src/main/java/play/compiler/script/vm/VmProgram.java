@@ -0,0 +1,57 @@
+package play.compiler.script.vm;
+
+import play.compiler.script.lower.LoweredProgram;
+
+import java.io.PrintStream;
+
+/**
+ * @author zhangchong
+ * @CodeReviewer zhangqingan
+ * @Description 编译成虚拟机指令的脚本,语义与 ASTEvaluator 相同。
+ * 指令是紧凑的int数组,常量在常量池里,变量按槽位直接寻址;
+ * 类型确定的运算用特化的指令(比如IADD、DCMPL、ILOAD),值放在long[]、double[]的操作数栈和栈桢里,不装箱。
+ * 编译后不再修改,可以在多个线程中同时执行。
+ * 支持的语法与 Lowering 相同:int、long、float、double、boolean、char、byte、short 和 string 类型的变量,
+ * 全部的运算符,if、for、while、do、break、continue、return,函数(包括递归和访问外层变量的嵌套函数)以及 println。
+ * 不支持对象的创建和成员访问、switch、增强的for、数组、函数型的值,这样的脚本在降级时就抛出 UnsupportedOperationException。
+ */
+public final class VmProgram {
+    final VmFunction main;
+
+    final VmFunction[] functions;
+
+    final long[] longs;
+    final double[] doubles;
+    final Object[] objects;
+
+    VmProgram(VmFunction main, VmFunction[] functions, long[] longs, double[] doubles, Object[] objects) {
+        this.main = main;
+        this.functions = functions;
+        this.longs = longs;
+        this.doubles = doubles;
+        this.objects = objects;
+    }
+
+    /**
+     * 把降级后的脚本编译成虚拟机的指令
+     *
+     * @param program
+     * @return
+     */
+    public static VmProgram of(LoweredProgram program) {
+        return VmCompiler.compile(program);
+    }
+
+    /**
+     * 执行脚本,println输出到标准输出
+     *
+     * @return 最后一条语句的值,或者顶层return的值
+     */
+    public Object execute() {
+        return execute(System.out);
+    }
+
+    public Object execute(PrintStream out) {
+        return new VirtualMachine(this, out).execute();
+    }
+}
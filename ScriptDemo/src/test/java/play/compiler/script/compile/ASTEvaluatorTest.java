@@ -0,0 +1,144 @@
+package play.compiler.script.compile;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+/**
+ * @Author: zhangchong
+ * @Description:
+ */
+public class ASTEvaluatorTest {
+
+    @Test
+    public void test_for_loop_and_globals() {
+        Assert.assertEquals(64, run("int age = 44; for(int i = 0;i<10;i++) { age = age + 2;} age;"));
+    }
+
+    @Test
+    public void test_function_call_with_global() {
+        Assert.assertEquals(15, run("int b= 10; int myfunc(int a) {return a+b+3;} myfunc(2);"));
+    }
+
+    @Test
+    public void test_function_called_before_declaration() {
+        Assert.assertEquals(120, run("int r = fact(5); int fact(int n) { if (n <= 1) return 1; return n * fact(n - 1); } r;"));
+    }
+
+    @Test
+    public void test_recursion() {
+        Assert.assertEquals(55, run("int fib(int n) { if (n < 2) { return n; } return fib(n - 1) + fib(n - 2); } fib(10);"));
+    }
+
+    @Test
+    public void test_while_break_continue() {
+        String script = "int sum = 0; int i = 0;"
+                + "while (true) { i++; if (i > 10) break; if (i % 2 == 0) continue; sum += i; }"
+                + "sum;";
+        Assert.assertEquals(25, run(script));
+    }
+
+    @Test
+    public void test_do_while() {
+        Assert.assertEquals(1, run("int n = 0; do { n = n + 1; } while (n < 0); n;"));
+    }
+
+    @Test
+    public void test_nested_blocks_shadowing() {
+        Assert.assertEquals(3, run("int a = 1; { int a = 2; a = a + 5; } { int b = a + 2; a = b; } a;"));
+    }
+
+    @Test
+    public void test_number_types() {
+        Assert.assertEquals(7L, run("long l = 5; l = l + 2; l;"));
+        Assert.assertEquals(2.5f, run("float f = 1; f = f + 1.5; f;"));
+        Assert.assertEquals(6000000000L, run("long big = 3000000000L * 2; big;"));
+        Assert.assertEquals(31, run("0x1F;"));
+        Assert.assertEquals(-7, run("int x = 7; -x;"));
+        Assert.assertEquals(12, run("int x = 3; x << 2;"));
+        Assert.assertEquals(2, run("int x = 7; x & 2;"));
+    }
+
+    @Test
+    public void test_string_and_logic() {
+        Assert.assertEquals("age:46", run("string s = \"age:\"; int age = 44; s + (age + 2);"));
+        Assert.assertEquals(true, run("boolean b = 1 < 2 && 3 > 2; b;"));
+        Assert.assertEquals(false, run("int n = 0; boolean b = n != 0 && 10 / n > 1; b;"));
+        Assert.assertEquals(5, run("int n = 3; n > 2 ? 5 : 6;"));
+        Assert.assertEquals('c', run("char c = 'c'; c;"));
+    }
+
+    /**
+     * char、byte、short与Java一样先提升为int再运算,赋值时转换成变量的类型
+     */
+    @Test
+    public void test_char_byte_short_promotion() {
+        Assert.assertEquals(97, run("int x = 'a'; x;"));
+        Assert.assertEquals(98, run("int x = 'a'; x + 1;"));
+        Assert.assertEquals(97L, run("long l = 'a'; l;"));
+        Assert.assertEquals(97, run("int f(int v) { return v; } f('a');"));
+        Assert.assertEquals(98, run("char c = 'a'; c + 1;"));
+        Assert.assertEquals(1, run("char c = 'b'; c - 'a';"));
+        Assert.assertEquals(-97, run("char c = 'a'; -c;"));
+        Assert.assertEquals(-98, run("char c = 'a'; ~c;"));
+        Assert.assertEquals(194, run("char c = 'a'; c << 1;"));
+        Assert.assertEquals(true, run("char c = 'a'; c < 'b';"));
+        Assert.assertEquals("xa", run("string s = \"x\" + 'a'; s;"));
+        Assert.assertEquals('b', run("char c = 'a'; c++; c;"));
+        Assert.assertEquals('a', run("char c = 'b'; c--; c;"));
+        Assert.assertEquals('b', run("char c = 'a'; c += 1; c;"));
+        Assert.assertEquals((byte) -128, run("byte b = 127; b++; b;"));
+        Assert.assertEquals(300, run("byte b = 100; b * 3;"));
+        Assert.assertEquals((short) 2, run("short s = 1; s++; s;"));
+        Assert.assertEquals(2, run("short s = 1; s + s;"));
+    }
+
+    @Test
+    public void test_println() {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        AnnotatedTree at = new PlayScriptCompiler().compile("int a = 2; println(a * 21); println(\"done\");", false, false);
+        ASTEvaluator evaluator = new ASTEvaluator(at);
+        evaluator.setOut(new PrintStream(buffer, true));
+        evaluator.visit(at.ast);
+
+        Assert.assertEquals(String.format("42%ndone%n"), buffer.toString());
+    }
+
+    @Test
+    public void test_bitwise_and_shift_compound_assignment() {
+        Assert.assertEquals(10, run("int x = 12; x &= 10; x |= 1; x ^= 3; x;"));
+        Assert.assertEquals(8, run("int y = 1; y <<= 4; y >>= 1; y;"));
+        Assert.assertEquals(15, run("int z = -16; z >>>= 28; z;"));
+        Assert.assertEquals(1099511627776L, run("long l = 1; l <<= 40; l;"));
+        Assert.assertEquals(4L, run("long l = 6; l &= 12; l;"));
+        Assert.assertEquals((short) 8, run("short s = 1; s <<= 3; s;"));
+        Assert.assertEquals(2, run("int x = 6; x &= 3L; x;"));
+        Assert.assertEquals(false, run("boolean b = true; b &= false; b;"));
+        Assert.assertEquals(true, run("boolean b = false; b ^= true; b;"));
+        Assert.assertEquals(-8, run("int x = 7; ~x;"));
+        Assert.assertEquals(-8L, run("long l = 7; ~l;"));
+    }
+
+    @Test
+    public void test_binary_operands_left_to_right() {
+        Assert.assertEquals(1207, run("int i = 5; int j = i++ + ++i; j * 100 + i;"));
+        Assert.assertEquals(11, run("int a = 1; int b = a + (a = 10); b;"));
+    }
+
+    @Test
+    public void test_unknown_reference_is_compilation_error() {
+        AnnotatedTree at = new PlayScriptCompiler().compile("int a = b + 1; foo(a);", false, false);
+
+        Assert.assertTrue(at.hasCompilationError());
+        Assert.assertEquals(2, at.getLogs().size());
+    }
+
+    private static Object run(String script) {
+        PlayScriptCompiler compiler = new PlayScriptCompiler();
+        AnnotatedTree at = compiler.compile(script, false, false);
+        Assert.assertFalse(at.getLogs().toString(), at.hasCompilationError());
+        return compiler.Execute(at);
+    }
+}
@@ -0,0 +1,67 @@
+package play.compiler.script.compile;
+
+import org.junit.Assert;
+import org.junit.Test;
+import play.compiler.script.exec.NodeProgram;
+import play.compiler.script.vm.VmProgram;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * @Author: zhangchong
+ * @Description:
+ */
+public class AllocationRateTest {
+
+    private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /**
+     * 只有整数运算的循环,%d是循环次数
+     */
+    private static final List<String> SCRIPTS = Arrays.asList(
+            "int age = 18; for (int i = 0; i < %d; i++) { age = age + 2; } age;",
+            "int s = 0; int i = 0; while (i < %d) { s = s + i %% 7 * 3 - (s >> 4); i++; } s;",
+            "int n = 0; int k = 0; do { k += 3; ++n; } while (n < %d); k;",
+            "long s = 0; for (int i = 0; i < %d; i++) { s = s * 3 + i; s--; } s;");
+
+    private static final int SMALL = 100000;
+    private static final int LARGE = 1100000;
+
+    /**
+     * 两种循环次数分配的字节数之差除以循环次数之差,就是每次循环分配的字节数,执行的固定开销(栈桢、结果)被减掉了。
+     * 每次循环装箱一次就是16字节
+     */
+    @Test
+    public void test_integer_loops_allocate_nothing_per_iteration() {
+        for (String script : SCRIPTS) {
+            AnnotatedTree small = new PlayScriptCompiler().compile(String.format(script, SMALL), false, false);
+            AnnotatedTree large = new PlayScriptCompiler().compile(String.format(script, LARGE), false, false);
+
+            long nodeBytes = allocatedBytes(NodeProgram.of(Lowering.lower(large, ""))::execute)
+                    - allocatedBytes(NodeProgram.of(Lowering.lower(small, ""))::execute);
+            long vmBytes = allocatedBytes(VmProgram.of(Lowering.lower(large, ""))::execute)
+                    - allocatedBytes(VmProgram.of(Lowering.lower(small, ""))::execute);
+            Assert.assertEquals(script, 0, nodeBytes / (LARGE - SMALL));
+            Assert.assertEquals(script, 0, vmBytes / (LARGE - SMALL));
+        }
+    }
+
+    /**
+     * 第一次执行时节点把自己换成特化的版本,不计入;之后取几次中最少的
+     *
+     * @param program 执行一次脚本,比如 program::execute
+     */
+    private static long allocatedBytes(Supplier<?> program) {
+        program.get();
+        long rtn = Long.MAX_VALUE;
+        for (int round = 0; round < 3; round++) {
+            long start = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+            program.get();
+            rtn = Math.min(rtn, THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) - start);
+        }
+        return rtn;
+    }
+}
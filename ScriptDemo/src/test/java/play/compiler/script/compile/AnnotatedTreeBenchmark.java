@@ -0,0 +1,38 @@
+package play.compiler.script.compile;
+
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @Author: zhangchong
+ * @Description: 基准测试:查找节点所在的作用域,与原来逐级查找父节点的算法对比
+ */
+public class AnnotatedTreeBenchmark {
+
+    @Test
+    public void benchmark_enclosing_scope_of_nested_blocks() {
+        AnnotatedTree at = new PlayScriptCompiler().compile(AnnotatedTreeTest.nestedScript(300), false, false);
+        Assert.assertFalse(at.hasCompilationError());
+        final List<ParserRuleContext> nodes = new ArrayList<ParserRuleContext>();
+        AnnotatedTreeTest.collect(at.ast, nodes);
+
+        long walkNanos = BenchmarkSupport.bestOf(20, () -> {
+            for (ParserRuleContext node : nodes) {
+                AnnotatedTreeTest.parentWalk(at, node);
+            }
+            return null;
+        });
+        long lookupNanos = BenchmarkSupport.bestOf(20, () -> {
+            for (ParserRuleContext node : nodes) {
+                at.enclosingScopeOfNode(node);
+            }
+            return null;
+        });
+        BenchmarkSupport.report("AnnotatedTreeBenchmark", "%d nodes: parent walk %d us, lookup %d us",
+                nodes.size(), walkNanos / 1000, lookupNanos / 1000);
+    }
+}
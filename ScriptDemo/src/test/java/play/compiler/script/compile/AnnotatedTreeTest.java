@@ -0,0 +1,111 @@
+package play.compiler.script.compile;
+
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.junit.Assert;
+import org.junit.Test;
+import play.compiler.script.generate.PlayScriptParser.BlockContext;
+import play.compiler.script.generate.PlayScriptParser.VariableDeclaratorIdContext;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @Author: zhangchong
+ * @Description:
+ */
+public class AnnotatedTreeTest {
+
+    @Test
+    public void test_enclosing_scope_of_for_loops() {
+        AnnotatedTree at = new PlayScriptCompiler().compile(
+                "int a = 0;\n"
+                        + "for (int i = 0; i < 3; i++) { int b = i; for (int j = 0; j < i; j++) { int c = j; a = a + b + c; } }\n"
+                        + "int f(int x) { for (int k = 0; k < x; k++) { x = x - 1; } return x; }\n"
+                        + "a;", false, false);
+        Assert.assertFalse(at.hasCompilationError());
+
+        List<ParserRuleContext> nodes = new ArrayList<ParserRuleContext>();
+        collect(at.ast, nodes);
+        for (ParserRuleContext node : nodes) {
+            Assert.assertNotNull(node.getText(), at.enclosingScopeOfNode(node));
+            Assert.assertSame(node.getText(), parentWalk(at, node), at.enclosingScopeOfNode(node));
+            if (node instanceof VariableDeclaratorIdContext) {
+                //变量声明在它所在的作用域中
+                Symbol variable = at.symbolOfNode.get(node);
+                Assert.assertSame(node.getText(), variable.enclosingScope, at.enclosingScopeOfNode(node));
+            }
+        }
+
+        Variable c = (Variable) at.symbolOfNode.get(find(nodes, VariableDeclaratorIdContext.class, "c"));
+        Assert.assertTrue(c.enclosingScope instanceof BlockScope);
+        Assert.assertSame(at.nameSpace, at.enclosingScopeOfNode((ParserRuleContext) at.ast));
+    }
+
+    @Test
+    public void test_enclosing_scope_of_nested_blocks() {
+        int depth = 300;
+        AnnotatedTree at = new PlayScriptCompiler().compile(nestedScript(depth), false, false);
+        Assert.assertFalse(at.hasCompilationError());
+
+        List<ParserRuleContext> nodes = new ArrayList<ParserRuleContext>();
+        collect(at.ast, nodes);
+        int blocks = 0;
+        for (ParserRuleContext node : nodes) {
+            Scope scope = at.enclosingScopeOfNode(node);
+            Assert.assertSame(node.getText(), parentWalk(at, node), scope);
+            if (node instanceof BlockContext) {
+                //块属于外层的作用域,块中的节点属于块自己的作用域
+                Assert.assertSame(at.node2Scope.get(node).enclosingScope, scope);
+                Assert.assertSame(at.node2Scope.get(node), at.enclosingScopeOfNode((ParserRuleContext) node.getChild(1)));
+                blocks++;
+            }
+        }
+        Assert.assertEquals(depth, blocks);
+    }
+
+    /**
+     * 原来的算法:逐级查找父节点
+     */
+    static Scope parentWalk(AnnotatedTree at, ParserRuleContext node) {
+        for (ParserRuleContext parent = node.getParent(); parent != null; parent = parent.getParent()) {
+            Scope scope = at.node2Scope.get(parent);
+            if (scope != null) {
+                return scope;
+            }
+        }
+        return at.nameSpace;
+    }
+
+    /**
+     * 生成depth层嵌套的块,每层声明一个引用外层变量的变量
+     */
+    static String nestedScript(int depth) {
+        StringBuilder script = new StringBuilder("int v0 = 0;\n");
+        for (int i = 1; i <= depth; i++) {
+            script.append("{ int v").append(i).append(" = v").append(i - 1).append(" + 1;\n");
+        }
+        for (int i = 0; i < depth; i++) {
+            script.append("}\n");
+        }
+        return script.toString();
+    }
+
+    private static ParserRuleContext find(List<ParserRuleContext> nodes, Class<?> type, String text) {
+        for (ParserRuleContext node : nodes) {
+            if (type.isInstance(node) && text.equals(node.getText())) {
+                return node;
+            }
+        }
+        throw new AssertionError(text);
+    }
+
+    static void collect(ParseTree tree, List<ParserRuleContext> nodes) {
+        if (tree instanceof ParserRuleContext) {
+            nodes.add((ParserRuleContext) tree);
+            for (int i = 0; i < tree.getChildCount(); i++) {
+                collect(tree.getChild(i), nodes);
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package play.compiler.script.compile;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import play.compiler.script.asm.AsmGenerator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @Author: zhangchong
+ * @Description:
+ */
+public class AsmGeneratorTest {
+
+    private static final List<String> SCRIPTS = Arrays.asList(
+            "int age = 44; for(int i = 0;i<10;i++) { age = age + 2;} age;",
+            "int b= 10; int myfunc(int a) {return a+b+3;} myfunc(2);",
+            "int fib(int n) { if (n < 2) { return n; } return fib(n - 1) + fib(n - 2); } fib(15);",
+            "int sum = 0; int i = 0; while (true) { i++; if (i > 10) break; if (i % 2 == 0) continue; sum += i; } sum;",
+            "int n = 0; do { n = n + 1; } while (n < 0); n;",
+            "int a = 1; { int a = 2; a = a + 5; } { int b = a + 2; a = b; } a;",
+            "long l = 5; l = l + 2; l *= 3; l--; --l; println(l); l;",
+            "long fact(long n) { if (n <= 1) return 1; return n * fact(n - 1); } println(fact(20)); fact(20) % 1000;",
+            "long s = 0; for (int i = 0; i < 100; i++) { s += i * 3 % 7; } println(s); s > 200 && s != 300;",
+            "float f = 1; f = f + 1.5; int r = f * 10; r;",
+            "double x = 0; for (int i = 0; i < 20; i++) { x = x * 0.5 + i; } int r = x * 1000; r;",
+            "double d = 2; int r = (-d + -(0.0) + 7 / 2 + 7.0 % 2) * 10; r;",
+            "double h(double x) { if (x < 1) return x; return h(x / 2) + 1; } int r = h(100) * 100; r;",
+            "long big = 3000000000L * 2; println((big >>> 3) + (big << 2) + (big >> 1)); println(-big / 7 % 1000); 0;",
+            "int x = 7; int y = -x; ~y + (x << 2) + (x >> 1) + (x & 3) + (x | 8) + (x ^ 5);",
+            "int x = 12; x &= 10; x |= 1; x ^= 3; int y = -16; y >>>= 28; y <<= 2; y >>= 1; x * 100 + y;",
+            "long l = 1; l <<= 40; l |= 5; l >>= 1; int s = 1; s <<= 3; boolean b = true; b &= false; println(b); l + s;",
+            "int x = 3; boolean b = x > 2 && x < 5 || !(x == 3); println(b); b ? x : -x;",
+            "boolean b = true; println(b & false | true); println(!b); b ^ true;",
+            "int i = 0; i += 2.5; i *= 3; i -= 1; i /= 2; i %= 3; i;",
+            "char c = 'z'; println(c == 'z'); c != 'y';",
+            "int counter = 0; void inc() { counter++; } for (int i = 0; i < 5; i++) { inc(); } counter;",
+            "int f(int n) { return n <= 0 ? 0 : -f(n - 1) + n; } f(5);",
+            "int i = 5; int j = i++ + ++i; j * 100 + i;",
+            "println(); println(1 + 2); for (int i = 0, j = 10; i < j; i += 3, j--) { println(i * j); }",
+            "int f(int a) { if (a > 0) { for (int i = 0; ; i++) { if (i == a) { return i * 10; } } } return -1; } f(4) + f(0);",
+            "return 42; 1;",
+            "long g = 1; double t = 0.5; float u = 2; void step(int k) { g = g * 3 + k; t = t * u; u--; } for (int i = 0; i < 4; i++) { step(i); } int r = g + t + u; r;",
+            "double nan = 0.0 / 0; (nan < 1) || (nan >= 1) || (nan == nan) ? 1 : (nan != nan ? 2 : 3);",
+            "println(\"年龄\"); println(\"a\\tb\"); 7;",
+            "int x = 0; if (x > 0) { x = 1; }",
+            "int x = 9; if (x > 0) { x = 1; } else { x + 5; }",
+            "int x = 3; while (x > 0) { x--; }",
+            "int k = 2; k = k << 1; k++; { long w = k; w--; w; }",
+            "int m = -2147483647 - 1; println(m / -1); println(m % -1); println(m - 1); println(-7 / 2); println(-7 % 2); 1;",
+            "double inf = 1.0 / 0; double nan = 0.0 / 0; int a = inf; int b = -inf; int c = nan; long d = inf; long e = 1e30; println(a); println(b); println(c); println(d); println(e); 0;",
+            "float f = 7.5; float g = -2; int r = f % g * 10; double d = -7.5 % 2; int s = d * 10; r * 100 + s;",
+            "long add(long a, int b, double c, float d, boolean e, char f) { return e && f == 'q' ? a + b + c + d : 0; } add(1, 2, 3.5, 4.5, true, 'q');",
+            "int s = 0; for (int i = 0; i < 10; i++) { for (int j = 0; j < 10; j++) { if (j > i) break; s += i * j; } } s % 256;",
+            "int x = 5; int y = x++ * 2 + (x += 3) - --x; println(x); y;");
+
+    private static Path dir;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        dir = Files.createTempDirectory("play-asm");
+    }
+
+    /**
+     * 汇编、链接之后执行,与 ASTEvaluator 对比输出和退出码
+     */
+    @Test
+    public void test_matches_evaluator() throws Exception {
+        Assume.assumeTrue(gccAvailable());
+        for (String script : SCRIPTS) {
+            AnnotatedTree at = new PlayScriptCompiler().compile(script, false, false);
+            Assert.assertFalse(script, at.hasCompilationError());
+
+            ByteArrayOutputStream expectedOut = new ByteArrayOutputStream();
+            ASTEvaluator evaluator = new ASTEvaluator(at);
+            evaluator.setOut(new PrintStream(expectedOut, true, "UTF-8"));
+            Object expected = evaluator.visit(at.ast);
+            int expectedStatus = 0;
+            if (expected instanceof Number && !(expected instanceof Float || expected instanceof Double)) {
+                expectedStatus = ((Number) expected).intValue() & 0xFF;
+            } else if (expected instanceof Boolean) {
+                expectedStatus = (Boolean) expected ? 1 : 0;
+            } else if (expected instanceof Character) {
+                expectedStatus = (Character) expected & 0xFF;
+            }
+
+            String[] actual = run(AsmGenerator.generate(Lowering.lower(at, "")), script);
+            Assert.assertEquals(script, expectedOut.toString("UTF-8"), actual[0]);
+            Assert.assertEquals(script, String.valueOf(expectedStatus), actual[1]);
+        }
+    }
+
+    @Test
+    public void test_division_by_zero() throws Exception {
+        Assume.assumeTrue(gccAvailable());
+        String script = "int x = 1; int y = 0; for (int i = 0; i < 3; i++) { println(i); y = x / (2 - i); } y;";
+        String[] actual = run(AsmGenerator.generate(Lowering.lower(new PlayScriptCompiler().compile(script, false, false), "")), script);
+        Assert.assertEquals("0\n1\n2\n", actual[0]);
+        Assert.assertEquals("1", actual[1]);
+    }
+
+    /**
+     * 无法生成的脚本抛出 UnsupportedOperationException
+     */
+    @Test
+    public void test_unsupported_scripts() {
+        List<String> scripts = Arrays.asList(
+                "int outer(int n) { int k = n * 2; int inner(int m) { return m + k; } return inner(1); } outer(20);",
+                "int x; int y = x; y;",
+                "int f(int a) { if (a > 0) { return a; } } f(1);",
+                "string s = \"a\"; s;",
+                "double d = 1.5; println(d);",
+                "short s = 1; s;");
+        for (String script : scripts) {
+            AnnotatedTree at = new PlayScriptCompiler().compile(script, false, false);
+            try {
+                AsmGenerator.generate(Lowering.lower(at, ""));
+                Assert.fail(script);
+            } catch (UnsupportedOperationException e) {
+                //无法生成
+            }
+        }
+    }
+
+    /**
+     * @return {标准输出, 退出码}
+     */
+    static String[] run(String asm, String script) throws Exception {
+        Path source = dir.resolve("prog.s");
+        Path binary = dir.resolve("prog");
+        Files.write(source, asm.getBytes(StandardCharsets.UTF_8));
+        String[] gcc = execute(new ProcessBuilder("gcc", "-o", binary.toString(), source.toString()).redirectErrorStream(true));
+        Assert.assertEquals(script + "\n" + gcc[0] + "\n" + asm, "0", gcc[1]);
+        return execute(new ProcessBuilder(binary.toString()).redirectError(ProcessBuilder.Redirect.appendTo(dir.resolve("stderr").toFile())));
+    }
+
+    private static String[] execute(ProcessBuilder builder) throws Exception {
+        Process process = builder.start();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = process.getInputStream()) {
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+        }
+        int status = process.waitFor();
+        return new String[]{out.toString("UTF-8"), String.valueOf(status)};
+    }
+
+    static boolean gccAvailable() {
+        boolean rtn;
+        try {
+            rtn = new ProcessBuilder("gcc", "--version").start().waitFor() == 0;
+        } catch (IOException | InterruptedException e) {
+            rtn = false;
+        }
+        return rtn;
+    }
+}
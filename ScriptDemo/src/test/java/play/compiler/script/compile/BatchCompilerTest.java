@@ -0,0 +1,162 @@
+package play.compiler.script.compile;
+
+import org.antlr.v4.runtime.tree.Trees;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import play.compiler.script.generate.PlayScriptParser;
+import play.compiler.script.runtime.DefaultFunctionType;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * @Author: zhangchong
+ * @Description:
+ */
+public class BatchCompilerTest {
+
+    private ForkJoinPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        pool = new ForkJoinPool(4);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pool.shutdown();
+    }
+
+    @Test
+    public void test_parallel_results_match_serial() {
+        List<String> sources = new ArrayList<String>();
+        for (int i = 0; i < 200; i++) {
+            sources.add(script(i));
+        }
+
+        BatchCompiler batchCompiler = new BatchCompiler(pool);
+        batchCompiler.setTwoStageParsing(true);
+
+        //多跑几轮,增加线程交错的机会
+        for (int round = 0; round < 5; round++) {
+            List<BatchCompileResult> results = batchCompiler.compileSources(sources);
+            Assert.assertEquals(sources.size(), results.size());
+
+            for (int i = 0; i < sources.size(); i++) {
+                BatchCompileResult result = results.get(i);
+                AnnotatedTree serial = new PlayScriptCompiler().compile(sources.get(i), false, false);
+
+                Assert.assertNull(result.getError());
+                Assert.assertEquals(String.valueOf(i), result.getName());
+                Assert.assertEquals(treeOf(serial), treeOf(result.getAnnotatedTree()));
+                Assert.assertEquals(scopesOf(serial), scopesOf(result.getAnnotatedTree()));
+                Assert.assertEquals(logsOf(serial), logsOf(result.getAnnotatedTree()));
+                Assert.assertEquals(i % 7 != 0, result.isSuccess());
+            }
+        }
+    }
+
+    @Test
+    public void test_diagnostics_are_collected_per_file() {
+        List<BatchCompileResult> results = new BatchCompiler(pool).compileSources(Arrays.asList(
+                "int a = 1; int a = 2;",
+                "int b = 1;",
+                "class A {} class A {}"));
+
+        Assert.assertEquals(1, results.get(0).getLogs().size());
+        Assert.assertTrue(results.get(0).getLogs().get(0).getMessage().contains("a"));
+        Assert.assertTrue(results.get(1).getLogs().isEmpty());
+        Assert.assertTrue(results.get(1).isSuccess());
+        Assert.assertEquals(1, results.get(2).getLogs().size());
+        Assert.assertTrue(results.get(2).getLogs().get(0).getMessage().contains("duplicate class"));
+    }
+
+    @Test
+    public void test_compile_files() {
+        List<Path> paths = Arrays.asList(
+                Paths.get("../TestData/script.play"),
+                Paths.get("../TestData/does-not-exist.play"),
+                Paths.get("../TestData/simple.play"));
+
+        List<BatchCompileResult> results = new BatchCompiler(pool).compileFiles(paths);
+
+        Assert.assertEquals(3, results.size());
+        Assert.assertNotNull(results.get(0).getAnnotatedTree());
+        Assert.assertNotNull(results.get(1).getError());
+        Assert.assertFalse(results.get(1).isSuccess());
+        Assert.assertNotNull(results.get(2).getAnnotatedTree());
+        Assert.assertEquals(paths.get(2).toString(), results.get(2).getName());
+    }
+
+    @Test
+    public void test_function_type_names_are_unique_across_threads() throws Exception {
+        final Set<String> names = ConcurrentHashMap.newKeySet();
+        final int threadCount = 8;
+        final int perThread = 1000;
+        final CountDownLatch start = new CountDownLatch(1);
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < threadCount; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int j = 0; j < perThread; j++) {
+                    names.add(new DefaultFunctionType().getName());
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertEquals(threadCount * perThread, names.size());
+    }
+
+    /**
+     * 生成测试用的脚本,每7个中有一个包含重复声明的错误
+     */
+    private static String script(int i) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("int g").append(i).append(" = ").append(i).append(";\n");
+        builder.append("int f").append(i).append("(int a, int b) { int c = a * b; for (int k = 0; k < a; k++) { c = c + k; } return c; }\n");
+        builder.append("class C").append(i).append(" { int x = 1; int get() { return x; } }\n");
+        for (int j = 0; j < i % 5; j++) {
+            builder.append("{ int local").append(j).append(" = g").append(i).append(" + ").append(j).append("; }\n");
+        }
+        if (i % 7 == 0) {
+            builder.append("int g").append(i).append(" = 0;\n");
+        }
+        builder.append("f").append(i).append("(g").append(i).append(", 2);\n");
+        return builder.toString();
+    }
+
+    private static String treeOf(AnnotatedTree at) {
+        return Trees.toStringTree(at.ast, Arrays.asList(PlayScriptParser.ruleNames));
+    }
+
+    /**
+     * 块作用域的名字来自全局计数,比较时去掉编号
+     */
+    private static String scopesOf(AnnotatedTree at) {
+        return at.getScopeTreeString().replaceAll("block\\d+", "block");
+    }
+
+    private static String logsOf(AnnotatedTree at) {
+        return at.getLogs().toString();
+    }
+}
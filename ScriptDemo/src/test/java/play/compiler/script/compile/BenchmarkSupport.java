@@ -0,0 +1,96 @@
+package play.compiler.script.compile;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.concurrent.Callable;
+
+/**
+ * @Author: zhangchong
+ * @Description: 基准测试共用的测量方法。
+ * 基准测试不属于单元测试:类名以 Benchmark 结尾,默认不执行,用 mvn test -Pbenchmark 执行,只打印测量结果,不按耗时断言。
+ */
+final class BenchmarkSupport {
+
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * 打印一条测量结果
+     *
+     * @param benchmark 基准测试的名称
+     * @param format    格式,见 String#format
+     * @param args
+     */
+    static void report(String benchmark, String format, Object... args) {
+        System.out.println(benchmark + "#" + String.format(format, args));
+    }
+
+    /**
+     * 执行rounds次,取最短的耗时。第一次执行也计入,需要排除类加载和JIT的影响时先自己跑一遍
+     *
+     * @param rounds
+     * @param task
+     * @return 最短的耗时,纳秒
+     */
+    static long bestOf(int rounds, Callable<?> task) {
+        long rtn = Long.MAX_VALUE;
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            call(task);
+            rtn = Math.min(rtn, System.nanoTime() - start);
+        }
+        return rtn;
+    }
+
+    static <T> T call(Callable<T> task) {
+        try {
+            return task.call();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException("BenchmarkSupport#call:" + e.getMessage(), e);
+        }
+    }
+
+    static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    static long peakHeap() {
+        long rtn = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                rtn += pool.getPeakUsage().getUsed();
+            }
+        }
+        return rtn;
+    }
+
+    static long usedHeap() {
+        long rtn = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                rtn += pool.getUsage().getUsed();
+            }
+        }
+        return rtn;
+    }
+
+    /**
+     * 几次GC之后已用的堆,用来测量常驻对象占用的内存
+     *
+     * @return
+     */
+    static long retainedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
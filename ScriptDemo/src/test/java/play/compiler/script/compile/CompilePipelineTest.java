@@ -0,0 +1,106 @@
+package play.compiler.script.compile;
+
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.Interval;
+import org.antlr.v4.runtime.tree.Trees;
+import org.junit.Assert;
+import org.junit.Test;
+import play.compiler.script.generate.PlayScriptLexer;
+import play.compiler.script.generate.PlayScriptParser;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @Author: zhangchong
+ * @Description:
+ */
+public class CompilePipelineTest {
+
+    private static final List<String> CORPUS = Arrays.asList(
+            "int age = 44; for(int i = 0;i<10;i++) { age = age + 2;} int i = 8;",
+            "int b= 10; int myfunc(int a) {return a+b+3;} myfunc(2);",
+            "int fib(int n) { if (n < 2) return n; else return fib(n-1) + fib(n-2); } fib(10);",
+            "long sum = 0; int i = 0; do { sum += i; i++; } while (i <= 100);");
+
+    @Test
+    public void test_pipeline_is_per_thread() throws Exception {
+        final CompilePipeline mine = CompilePipeline.current();
+        Assert.assertSame(mine, CompilePipeline.current());
+
+        final CompilePipeline[] other = new CompilePipeline[1];
+        Thread thread = new Thread(() -> other[0] = CompilePipeline.current());
+        thread.start();
+        thread.join();
+
+        Assert.assertNotNull(other[0]);
+        Assert.assertNotSame(mine, other[0]);
+    }
+
+    @Test
+    public void test_reused_pipeline_keeps_earlier_trees_intact() {
+        CompilePipeline pipeline = CompilePipeline.current();
+        long before = pipeline.getParseCount();
+
+        PlayScriptParser.ProgContext first = pipeline.parse(CharStreams.fromString(CORPUS.get(0)), false);
+        String firstTree = treeOf(first);
+        PlayScriptParser.ProgContext second = pipeline.parse(CharStreams.fromString(CORPUS.get(1)), true);
+
+        Assert.assertEquals(before + 2, pipeline.getParseCount());
+        Assert.assertEquals(PredictionMode.SLL, pipeline.getLastParseMode());
+        Assert.assertEquals(firstTree, treeOf(first));
+        Assert.assertEquals("int age = 44;", first.getStart().getInputStream().getText(
+                new Interval(0, 12)));
+        Assert.assertNotEquals(treeOf(first), treeOf(second));
+
+        //与新建的lexer/parser得到的结果相同
+        PlayScriptParser fresh = new PlayScriptParser(new CommonTokenStream(
+                new PlayScriptLexer(CharStreams.fromString(CORPUS.get(1)))));
+        Assert.assertEquals(treeOf(fresh.prog()), treeOf(second));
+    }
+
+    @Test
+    public void test_reused_pipeline_after_syntax_error() {
+        CompilePipeline pipeline = CompilePipeline.current();
+        pipeline.parse(CharStreams.fromString("int a = ;;; 2+6/3"), true);
+        Assert.assertEquals(PredictionMode.LL, pipeline.getLastParseMode());
+
+        PlayScriptParser.ProgContext prog = pipeline.parse(CharStreams.fromString(CORPUS.get(2)), true);
+        Assert.assertEquals(PredictionMode.SLL, pipeline.getLastParseMode());
+        Assert.assertEquals(CORPUS.get(2).replace(" ", ""), prog.getText().replace("<EOF>", ""));
+    }
+
+    /**
+     * 不认识的语句不能让后面的输入被悄悄丢掉
+     */
+    @Test
+    public void test_input_left_after_prog_is_a_syntax_error() {
+        CompilePipeline pipeline = CompilePipeline.current();
+        pipeline.parse(CharStreams.fromString("final int K = 3; K;"), true, null, new BaseErrorListener());
+        Assert.assertEquals(PredictionMode.LL, pipeline.getLastParseMode());
+        Assert.assertEquals(1, pipeline.getLastSyntaxErrors());
+
+        AnnotatedTree at = new PlayScriptCompiler().compile("int a = 1; final int K = 3; K;", false, false);
+        Assert.assertTrue(at.hasCompilationError());
+        Assert.assertTrue(at.getLogs().toString(), at.getLogs().toString().contains("extraneous input 'final' expecting <EOF>"));
+    }
+
+    @Test
+    public void test_warm_up_reports_cold_and_warm_latency() {
+        PlayScriptCompiler compiler = new PlayScriptCompiler();
+        compiler.setTwoStageParsing(true);
+        WarmUpReport report = compiler.warmUp(CORPUS, 5);
+
+        Assert.assertEquals(CORPUS.size(), report.getScripts());
+        Assert.assertEquals(5, report.getRounds());
+        Assert.assertTrue(report.getColdNanos() > 0);
+        Assert.assertTrue(report.getWarmNanos() > 0);
+    }
+
+    private static String treeOf(PlayScriptParser.ProgContext prog) {
+        return Trees.toStringTree(prog, Arrays.asList(PlayScriptParser.ruleNames));
+    }
+}
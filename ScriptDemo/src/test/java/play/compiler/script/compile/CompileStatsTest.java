@@ -0,0 +1,81 @@
+package play.compiler.script.compile;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.junit.Assert;
+import org.junit.Test;
+import play.compiler.script.generate.PlayScriptLexer;
+
+/**
+ * @Author: zhangchong
+ * @Description:
+ */
+public class CompileStatsTest {
+
+    private static final String SCRIPT = "int b = 10; /* 注释 */ int myfunc(int a) { return a + b + 3; }\n"
+            + "for (int i = 0; i < 3; i++) { b = b + myfunc(i); } { int c = b; }";
+
+    @Test
+    public void test_counts() {
+        AnnotatedTree at = new PlayScriptCompiler().compile(SCRIPT, false, false);
+        CompileStats stats = at.getCompileStats();
+
+        Assert.assertNotNull(stats);
+        Assert.assertEquals(countTokens(SCRIPT), stats.getTokenCount());
+        Assert.assertEquals(countNodes(at.ast), stats.getParseTreeNodeCount());
+        //全局、函数、for和两个块
+        Assert.assertEquals(5, stats.getScopeCount());
+        //全局:b、myfunc、for、块;函数:a;for:i、块;块:c
+        Assert.assertEquals(8, stats.getSymbolCount());
+        Assert.assertEquals(0, stats.getLlFallbackCount());
+        Assert.assertEquals(0, stats.getSllRetryCount());
+    }
+
+    @Test
+    public void test_phase_times() {
+        CompileStats stats = new PlayScriptCompiler().compile(SCRIPT, false, false).getCompileStats();
+
+        long total = 0;
+        for (CompileStats.Phase phase : CompileStats.Phase.values()) {
+            Assert.assertTrue(phase.toString(), stats.getWallNanos(phase) > 0);
+            total += stats.getWallNanos(phase);
+        }
+        Assert.assertEquals(total, stats.getTotalWallNanos());
+        Assert.assertTrue(stats.getTotalCpuNanos() >= 0 || stats.getTotalCpuNanos() == -1);
+        Assert.assertTrue(stats.toString().contains("RESOLVE"));
+    }
+
+    @Test
+    public void test_sll_retry_is_counted() {
+        PlayScriptCompiler compiler = new PlayScriptCompiler();
+        compiler.setTwoStageParsing(true);
+
+        Assert.assertEquals(0, compiler.compile(SCRIPT, false, false).getCompileStats().getSllRetryCount());
+        Assert.assertEquals(1, compiler.compile("int a = ;", false, false).getCompileStats().getSllRetryCount());
+    }
+
+    @Test
+    public void test_cached_result_keeps_stats() {
+        PlayScriptCompiler compiler = new PlayScriptCompiler(new CompiledScriptCache());
+        CompileStats first = compiler.compile(SCRIPT, false, false).getCompileStats();
+        Assert.assertSame(first, compiler.compile(SCRIPT, false, false).getCompileStats());
+    }
+
+    private static int countTokens(String script) {
+        PlayScriptLexer lexer = new PlayScriptLexer(CharStreams.fromString(script));
+        int count = 0;
+        for (Token token = lexer.nextToken(); token.getType() != Token.EOF; token = lexer.nextToken()) {
+            count++;
+        }
+        return count;
+    }
+
+    private static int countNodes(ParseTree tree) {
+        int count = 1;
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            count += countNodes(tree.getChild(i));
+        }
+        return count;
+    }
+}
@@ -0,0 +1,191 @@
+package play.compiler.script.compile;
+
+import org.junit.Assert;
+import org.junit.Test;
+import play.compiler.script.lower.LoweredProgram;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @Author: zhangchong
+ * @Description:
+ */
+public class CompiledScriptCacheTest {
+
+    private static final String SCRIPT = "int age = 44; for(int i = 0;i<10;i++) { age = age + 2;} int i = 8;";
+
+    @Test
+    public void test_repeated_compile_hits_cache() {
+        CompiledScriptCache cache = new CompiledScriptCache();
+        PlayScriptCompiler compiler = new PlayScriptCompiler(cache);
+
+        AnnotatedTree first = compiler.compile(SCRIPT, false, false);
+        AnnotatedTree second = compiler.compile(SCRIPT, false, false);
+        AnnotatedTree third = new PlayScriptCompiler(cache).compile(SCRIPT, false, false);
+
+        Assert.assertSame(first, second);
+        Assert.assertSame(first, third);
+        Assert.assertEquals(1, cache.getMissCount());
+        Assert.assertEquals(2, cache.getHitCount());
+        Assert.assertEquals(1, cache.size());
+        Assert.assertTrue(cache.contains(SCRIPT));
+    }
+
+    @Test
+    public void test_key_is_content_hash() {
+        String copy = new StringBuilder(SCRIPT).toString();
+        Assert.assertNotSame(SCRIPT, copy);
+        Assert.assertEquals(CompiledScriptCache.hashOf(SCRIPT), CompiledScriptCache.hashOf(copy));
+        Assert.assertNotEquals(CompiledScriptCache.hashOf(SCRIPT), CompiledScriptCache.hashOf(SCRIPT + " "));
+        Assert.assertEquals(64, CompiledScriptCache.hashOf("").length());
+    }
+
+    @Test
+    public void test_key_includes_compile_settings() {
+        CompiledScriptCache cache = new CompiledScriptCache();
+        PlayScriptCompiler folding = new PlayScriptCompiler(cache);
+        PlayScriptCompiler plain = new PlayScriptCompiler(cache);
+        plain.setConstantFolding(false);
+        PlayScriptCompiler limited = new PlayScriptCompiler(cache);
+        limited.setErrorLimit(1);
+
+        AnnotatedTree folded = folding.compile(SCRIPT, false, false);
+        AnnotatedTree unfolded = plain.compile(SCRIPT, false, false);
+        Assert.assertNotSame(folded, unfolded);
+        Assert.assertSame(unfolded, plain.compile(SCRIPT, false, false));
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(2, cache.getMissCount());
+        Assert.assertEquals(1, cache.getHitCount());
+
+        //错误数上限不同,得到的编译信息不同
+        String errors = "int a = x; int b = y;";
+        Assert.assertEquals(2, folding.compile(errors, false, false).getLogs().size());
+        Assert.assertEquals(1, limited.compile(errors, false, false).getLogs().size());
+        Assert.assertTrue(cache.contains(errors, limited.getCacheSettings()));
+
+        cache.invalidate(errors);
+        Assert.assertFalse(cache.contains(errors));
+        Assert.assertTrue(cache.contains(SCRIPT));
+    }
+
+    @Test
+    public void test_lru_eviction_by_entries() {
+        CompiledScriptCache cache = new CompiledScriptCache(2);
+        PlayScriptCompiler compiler = new PlayScriptCompiler(cache);
+
+        compiler.compile("int a = 1;", false, false);
+        compiler.compile("int b = 2;", false, false);
+        //访问a,b成为最久未使用的条目
+        compiler.compile("int a = 1;", false, false);
+        compiler.compile("int c = 3;", false, false);
+
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(1, cache.getEvictionCount());
+        Assert.assertTrue(cache.contains("int a = 1;"));
+        Assert.assertFalse(cache.contains("int b = 2;"));
+        Assert.assertTrue(cache.contains("int c = 3;"));
+    }
+
+    @Test
+    public void test_eviction_by_source_size() {
+        CompiledScriptCache cache = new CompiledScriptCache(100, 25);
+        PlayScriptCompiler compiler = new PlayScriptCompiler(cache);
+
+        compiler.compile("int a = 1;", false, false);
+        compiler.compile("int b = 2;", false, false);
+        compiler.compile("int c = 3;", false, false);
+
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(1, cache.getEvictionCount());
+        Assert.assertFalse(cache.contains("int a = 1;"));
+    }
+
+    @Test
+    public void test_concurrent_compiles_run_once() throws Exception {
+        final CompiledScriptCache cache = new CompiledScriptCache();
+        final AtomicInteger compiles = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final int threadCount = 8;
+        final AnnotatedTree[] results = new AnnotatedTree[threadCount];
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < threadCount; i++) {
+            final int index = i;
+            Thread thread = new Thread(() -> results[index] = cache.get(SCRIPT, script -> {
+                compiles.incrementAndGet();
+                started.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return new PlayScriptCompiler().compile(script, false, false);
+            }));
+            threads.add(thread);
+            thread.start();
+        }
+
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        //让其余线程都有机会进入等待
+        Thread.sleep(100);
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertEquals(1, compiles.get());
+        Assert.assertEquals(1, cache.getMissCount());
+        Assert.assertEquals(threadCount - 1, cache.getHitCount());
+        for (AnnotatedTree result : results) {
+            Assert.assertSame(results[0], result);
+        }
+    }
+
+    @Test
+    public void test_failed_compile_is_not_cached() {
+        CompiledScriptCache cache = new CompiledScriptCache();
+        try {
+            cache.get(SCRIPT, script -> {
+                throw new IllegalStateException("boom");
+            });
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("boom", e.getMessage());
+        }
+        Assert.assertEquals(0, cache.size());
+
+        AnnotatedTree at = new PlayScriptCompiler(cache).compile(SCRIPT, false, false);
+        Assert.assertNotNull(at);
+        Assert.assertEquals(2, cache.getMissCount());
+    }
+
+    /**
+     * 降级的结果与注释树分开缓存,常驻的只有 LoweredProgram
+     */
+    @Test
+    public void test_lowered_programs_are_cached_apart_from_trees() {
+        CompiledScriptCache cache = new CompiledScriptCache();
+        PlayScriptCompiler compiler = new PlayScriptCompiler(cache);
+
+        LoweredProgram first = compiler.lower(SCRIPT);
+        Assert.assertSame(first, new PlayScriptCompiler(cache).lower(SCRIPT));
+        Assert.assertEquals(1, cache.size());
+        Assert.assertTrue(cache.contains(SCRIPT));
+        Assert.assertFalse(cache.contains(SCRIPT, compiler.getCacheSettings()));
+        Assert.assertEquals(compiler.Execute(compiler.compile(SCRIPT, false, false)), compiler.Execute(first));
+        Assert.assertEquals(2, cache.size());
+
+        try {
+            compiler.lower("int a = ;");
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("PlayScriptCompiler#lower:compilation errors"));
+        }
+        Assert.assertEquals(2, cache.size());
+    }
+}
@@ -0,0 +1,105 @@
+package play.compiler.script.compile;
+
+import org.junit.Assert;
+import org.junit.Test;
+import play.compiler.script.bytecode.CompiledScript;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @Author: zhangchong
+ * @Description:
+ */
+public class CompiledScriptTest {
+
+    private static final List<String> SCRIPTS = Arrays.asList(
+            "int age = 44; for(int i = 0;i<10;i++) { age = age + 2;} age;",
+            "int b= 10; int myfunc(int a) {return a+b+3;} myfunc(2);",
+            "int fib(int n) { if (n < 2) { return n; } return fib(n - 1) + fib(n - 2); } fib(15);",
+            "int sum = 0; int i = 0; while (true) { i++; if (i > 10) break; if (i % 2 == 0) continue; sum += i; } sum;",
+            "int n = 0; do { n = n + 1; } while (n < 0); n;",
+            "int a = 1; { int a = 2; a = a + 5; } { int b = a + 2; a = b; } a;",
+            "long l = 5; l = l + 2; l *= 3; l--; --l; l;",
+            "long fact(long n) { if (n <= 1) return 1; return n * fact(n - 1); } fact(20);",
+            "long s = 0; for (int i = 0; i < 100; i++) { s += i * 3 % 7; } s > 200 && s != 300;",
+            "float f = 1; f = f + 1.5; f;",
+            "double x = 0; for (int i = 0; i < 20; i++) { x = x * 0.5 + i; } x;",
+            "double d = 2; -d + -(0.0) + 7 / 2 + 7.0 % 2;",
+            "double h(double x) { if (x < 1) return x; return h(x / 2) + 1; } h(100);",
+            "long big = 3000000000L * 2; (big >>> 3) + (big << 2) + (big >> 1);",
+            "int x = 7; int y = -x; ~y + (x << 2) + (x >> 1) + (x & 3) + (x | 8) + (x ^ 5);",
+            "int x = 12; x &= 10; x |= 1; x ^= 3; int y = -16; y >>>= 28; y <<= 2; y >>= 1; x * 100 + y;",
+            "long l = 1; l <<= 40; l |= 5; l >>= 1; int s = 1; s <<= 3; boolean b = true; b &= false; println(b); l + s;",
+            "int x = 3; boolean b = x > 2 && x < 5 || !(x == 3); b ? x : -x;",
+            "boolean b = true; b & false | true;",
+            "int i = 0; i += 2.5; i *= 3; i -= 1; i /= 2; i %= 3; i;",
+            "string s = \"年龄\"; int age = 44; println(s + age); s + \":\" + age;",
+            "char c = 'z'; c == 'z';",
+            "int counter = 0; void inc() { counter++; } for (int i = 0; i < 5; i++) { inc(); } counter;",
+            "int f(int n) { return n <= 0 ? 0 : -f(n - 1) + n; } f(5);",
+            "int i = 5; int j = i++ + ++i; j * 100 + i;",
+            "println(); println(1 + 2); for (int i = 0, j = 10; i < j; i += 3, j--) { println(i * j); }",
+            "int f(int a) { if (a > 0) { for (int i = 0; ; i++) { if (i == a) { return i * 10; } } } return -1; } f(4) + f(0);",
+            "return 42; 1;",
+            "long g = 1; double t = 0.5; float u = 2; void step(int k) { g = g * 3 + k; t = t * u; u--; } for (int i = 0; i < 4; i++) { step(i); } g + t + u;",
+            "double nan = 0.0 / 0; (nan < 1) || (nan >= 1) || (nan == nan) ? 1 : (nan != nan ? 2 : 3);",
+            "string s = \"a\"; boolean same = s == \"a\"; println(same); println(s + 1.5 + 'c' + true); s != \"b\";",
+            "int x = 0; if (x > 0) { x = 1; }",
+            "int x = 9; if (x > 0) { x = 1; } else { x + 5; }",
+            "int x = 3; while (x > 0) { x--; }",
+            "int k = 2; k = k << 1; k++; { long w = k; w--; w; }");
+
+    /**
+     * 与 ASTEvaluator 对比结果和输出。同一个类执行两次,全局变量不共享
+     */
+    @Test
+    public void test_matches_evaluator() throws Exception {
+        EngineTestSupport.assertMatchesEvaluator(SCRIPTS, program -> CompiledScript.of(program)::execute);
+    }
+
+    /**
+     * 无法编译的脚本抛出 UnsupportedOperationException,Execute 改用可执行节点树执行
+     */
+    @Test
+    public void test_unsupported_scripts() {
+        List<String> scripts = Arrays.asList(
+                //嵌套的函数访问外层函数的变量
+                "int outer(int n) { int k = n * 2; int inner(int m) { return m + k; } return inner(1); } outer(20);",
+                //没有初始化的变量的值是 NullObject
+                "int x; int y = x; y;",
+                "int g(int a) { int b = a; return b; } int u; g(1); g(u);",
+                //可能不经过return结束,返回null
+                "int f(int a) { if (a > 0) { return a; } } f(1);",
+                "short s = 1; s;");
+        for (String script : scripts) {
+            AnnotatedTree at = new PlayScriptCompiler().compile(script, false, false);
+            try {
+                CompiledScript.of(Lowering.lower(at, ""));
+                Assert.fail(script);
+            } catch (UnsupportedOperationException e) {
+                //无法编译
+            }
+        }
+
+        PlayScriptCompiler compiler = new PlayScriptCompiler();
+        compiler.setEngine(ExecutionEngine.BYTECODE);
+        AnnotatedTree at = compiler.compile("int x; int y = x; y;", false, false);
+        Assert.assertEquals(ExecutionEngine.NODE_TREE, compiler.engineFor(at));
+        Assert.assertEquals(new ASTEvaluator(at).visit(at.ast), compiler.Execute(at));
+        try {
+            //无法降级的脚本不退回到 ASTEvaluator
+            compiler.Execute(compiler.compile("int f(int a) { return a; } function int(int) g = f; g(1);", false, false));
+            Assert.fail();
+        } catch (UnsupportedOperationException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("LoweredForms#engineFor:BYTECODE cannot execute the script"));
+        }
+        Assert.assertEquals(3, compiler.Execute(compiler.compile("int x = 7; x / 2;", false, false)));
+        try {
+            compiler.Execute(compiler.compile("int x = 1; int y = 0; for (int i = 0; i < 3; i++) { y = x / (2 - i); } y;", false, false));
+            Assert.fail();
+        } catch (ArithmeticException e) {
+            Assert.assertEquals("/ by zero", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package play.compiler.script.compile;
+
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.junit.Assert;
+import org.junit.Test;
+import play.compiler.script.exec.NodeProgram;
+import play.compiler.script.generate.PlayScriptParser.ExpressionContext;
+import play.compiler.script.lower.LoweredFunction;
+import play.compiler.script.lower.LoweredNode;
+import play.compiler.script.lower.LoweredOp;
+import play.compiler.script.lower.LoweredProgram;
+import play.compiler.script.vm.VmProgram;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @Author: zhangchong
+ * @Description:
+ */
+public class ConstantFolderTest {
+
+    private static final String PRUNED = "boolean debug = false; int r = 0; if (debug) { r = 1; } while (debug && r > 0) { r--; } "
+            + "int f() { int n = 3; if (n > 1) { return n; } return 0; } r + f();";
+
+    private static final List<String> SCRIPTS = Arrays.asList(
+            "int a = 45 + 2 * 3; a;",
+            "long l = 1 << 10; int n = 3; l + n * 2 - (7 % 4);",
+            "double d = 1.5 * 2; float f = 3; d / f > 0.5 ? d : f;",
+            "int age = 18; for(int i = 0; i < 10; i++) { age = age + 2; } age;",
+            "int k = 5; int s = 0; while (k > 0) { s += k; k--; } s;",
+            "boolean debug = false; int r = 0; if (debug && r > 1) { r = 1; } else { r = 2; } r;",
+            "string name = \"play\"; string greet = \"hello \" + name; greet;",
+            "int square(int x) { int two = 2; return x * x + two; } int c = 3; square(c) + c;",
+            "int f(int n) { if (n <= 1) return 1; return n * f(n - 1); } int m = 6; f(m);",
+            "int code = 97 + 1; !(code > 97) || true;",
+            "int i = 1; int j = -i + ~i; j;",
+            "int x = 10; { int y = x + 1; x = y; } x;",
+            //左边带括号的赋值也是赋值,变量不传播
+            "int a = 1; (a) = 5; a;",
+            "int a = 1; (a) += 5; a;",
+            "int a = 1; ((a))++; a;",
+            //条件是常量的分支和循环
+            PRUNED,
+            "int i = 0; while (true) { i++; if (i > 3) break; } for (int j = 0; false; j++) { i = 100; } i;",
+            "int i = 0; for (int j = 0; true; j++) { i += j; if (j == 4) { break; } } do { i++; } while (false); i;",
+            "boolean on = true; int v = 0; if (on) { int w = 7; v = w; } else { v = 9; } if (!on) v = 1; else v += 1; v;");
+
+    @Test
+    public void test_results_with_and_without_folding() {
+        for (String script : SCRIPTS) {
+            PlayScriptCompiler folding = new PlayScriptCompiler();
+            AnnotatedTree folded = folding.compile(script, false, false);
+            Assert.assertFalse(script, folded.hasCompilationError());
+
+            PlayScriptCompiler plain = new PlayScriptCompiler();
+            plain.setConstantFolding(false);
+            AnnotatedTree unfolded = plain.compile(script, false, false);
+            Assert.assertEquals(script, 0, unfolded.constantOfNode.size());
+
+            Object expected = new ASTEvaluator(unfolded).visit(unfolded.ast);
+            Object actual = new ASTEvaluator(folded).visit(folded.ast);
+            Assert.assertEquals(script, expected, actual);
+            Assert.assertEquals(script, expected.getClass(), actual.getClass());
+            LoweredProgram program = Lowering.lower(folded, "");
+            Assert.assertEquals(script, expected, NodeProgram.of(program).execute());
+            Assert.assertEquals(script, expected, VmProgram.of(program).execute());
+        }
+    }
+
+    @Test
+    public void test_folded_values() {
+        AnnotatedTree at = new PlayScriptCompiler().compile(
+                "int a = 45 + 2; long b = a * 2; int c = 1; c = c + a; int d = 1 / 0; b + c;", false, false);
+        Assert.assertFalse(at.hasCompilationError());
+
+        Assert.assertEquals(47, at.constantOfNode.get(find(at.ast, "45+2")));
+        //a从来没有被赋值,传播到b的初始化表达式中,按b的类型转换
+        Assert.assertEquals(94, at.constantOfNode.get(find(at.ast, "a*2")));
+        Assert.assertEquals(94L, at.constantOfNode.get(find(at.ast, "b+c").expression(0)));
+        //c被重新赋值过,不传播
+        Assert.assertNull(at.constantOfNode.get(find(at.ast, "c+a")));
+        Assert.assertEquals(47, at.constantOfNode.get(find(at.ast, "c+a").expression(1)));
+        //除以0留到运行时报错
+        Assert.assertNull(at.constantOfNode.get(find(at.ast, "1/0")));
+    }
+
+    /**
+     * 条件是常量的if只降级会执行的分支,条件是常量false的while不降级,条件是常量true的循环不再对条件求值
+     */
+    @Test
+    public void test_prune_constant_conditions() {
+        LoweredProgram folded = Lowering.lower(new PlayScriptCompiler().compile(PRUNED, false, false), "");
+        PlayScriptCompiler plain = new PlayScriptCompiler();
+        plain.setConstantFolding(false);
+        LoweredProgram unfolded = Lowering.lower(plain.compile(PRUNED, false, false), "");
+
+        Assert.assertEquals(2, countOps(unfolded, LoweredOp.IF));
+        Assert.assertEquals(1, countOps(unfolded, LoweredOp.WHILE));
+        Assert.assertEquals(1, countOps(unfolded, LoweredOp.INCDEC));
+        Assert.assertEquals(0, countOps(folded, LoweredOp.IF));
+        Assert.assertEquals(0, countOps(folded, LoweredOp.WHILE));
+        //while的循环体r--没有降级
+        Assert.assertEquals(0, countOps(folded, LoweredOp.INCDEC));
+        Assert.assertEquals(3, NodeProgram.of(folded).execute());
+
+        LoweredProgram loop = Lowering.lower(new PlayScriptCompiler().compile(
+                "int i = 0; while (true) { i++; if (i > 3) break; } for (int j = 0; false; j++) { i = 100; } i;", false, false), "");
+        Assert.assertEquals(0, countOps(loop, LoweredOp.WHILE));
+        Assert.assertEquals(2, countOps(loop, LoweredOp.FOR));
+        //for的条件是常量false,只剩一个store:i = 0、j = 0 之外没有 i = 100
+        Assert.assertEquals(2, countOps(loop, LoweredOp.STORE));
+
+        //全局变量在函数中引用时不传播:调用函数时变量不一定已经初始化
+        AnnotatedTree at = new PlayScriptCompiler().compile("int g = 2; int h() { return g * 3; } h();", false, false);
+        Assert.assertNull(at.constantOfNode.get(find(at.ast, "g*3")));
+        Assert.assertEquals(6, new ASTEvaluator(at).visit(at.ast));
+    }
+
+    private static int countOps(LoweredProgram program, int op) {
+        int rtn = countOps(program.getMain(), op);
+        for (LoweredFunction function : program.getFunctions()) {
+            rtn += countOps(function.getBody(), op);
+        }
+        return rtn;
+    }
+
+    private static int countOps(LoweredNode node, int op) {
+        int rtn = node.getOp() == op ? 1 : 0;
+        for (int i = 0; i < node.getKidCount(); i++) {
+            rtn += countOps(node.getKid(i), op);
+        }
+        return rtn;
+    }
+
+    private static ExpressionContext find(ParseTree tree, String text) {
+        ExpressionContext rtn = null;
+        if (tree instanceof ExpressionContext && tree.getText().equals(text)) {
+            rtn = (ExpressionContext) tree;
+        }
+        for (int i = 0; rtn == null && i < tree.getChildCount(); i++) {
+            rtn = find(tree.getChild(i), text);
+        }
+        return rtn;
+    }
+}
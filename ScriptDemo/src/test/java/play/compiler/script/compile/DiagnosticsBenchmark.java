@@ -0,0 +1,35 @@
+package play.compiler.script.compile;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @Author: zhangchong
+ * @Description: 基准测试:有大量错误的脚本,有错误数上限和没有上限时的编译耗时
+ */
+public class DiagnosticsBenchmark {
+
+    @Test
+    public void benchmark_malformed_script() {
+        String script = DiagnosticsTest.repeat("x%d + 1;", 20000);
+        PlayScriptCompiler limited = new PlayScriptCompiler();
+        PlayScriptCompiler unlimited = new PlayScriptCompiler();
+        unlimited.setErrorLimit(Integer.MAX_VALUE);
+
+        long limitedNanos = Long.MAX_VALUE;
+        long unlimitedNanos = Long.MAX_VALUE;
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            AnnotatedTree at = limited.compile(script, false, false);
+            limitedNanos = Math.min(limitedNanos, System.nanoTime() - start);
+            Assert.assertEquals(Diagnostics.DEFAULT_ERROR_LIMIT, at.getLogs().size());
+
+            start = System.nanoTime();
+            at = unlimited.compile(script, false, false);
+            unlimitedNanos = Math.min(unlimitedNanos, System.nanoTime() - start);
+            Assert.assertEquals(20000, at.getLogs().size());
+        }
+        BenchmarkSupport.report("DiagnosticsBenchmark", "20000 errors: limit %d %d ms, no limit %d ms",
+                Diagnostics.DEFAULT_ERROR_LIMIT, limitedNanos / 1000000, unlimitedNanos / 1000000);
+    }
+}
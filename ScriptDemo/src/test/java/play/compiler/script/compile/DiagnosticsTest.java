@@ -0,0 +1,102 @@
+package play.compiler.script.compile;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonToken;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @Author: zhangchong
+ * @Description:
+ */
+public class DiagnosticsTest {
+
+    @Test
+    public void test_error_limit_aborts_remaining_passes() {
+        PlayScriptCompiler compiler = new PlayScriptCompiler();
+        compiler.setErrorLimit(10);
+        AnnotatedTree at = compiler.compile(repeat("x%d + 1;", 1000), false, false);
+
+        Assert.assertTrue(at.hasCompilationError());
+        Assert.assertTrue(at.getDiagnostics().isLimitReached());
+        Assert.assertEquals(10, at.getLogs().size());
+        Assert.assertEquals("unknown variable or function: x0", at.getLogs().get(0).getMessage());
+        Assert.assertEquals("unknown variable or function: x9", at.getLogs().get(9).getMessage());
+        //后面的语句不再分析
+        Assert.assertEquals(0, at.getDiagnostics().getSuppressedErrors());
+
+        //同一条语句中超过上限的错误只计数
+        at = compiler.compile(repeat("x%d + ", 15) + "1;", false, false);
+        Assert.assertEquals(10, at.getLogs().size());
+        Assert.assertEquals(5, at.getDiagnostics().getSuppressedErrors());
+
+        //语法错误就达到了上限,不再做语义分析
+        at = compiler.compile(repeat("int = %d;", 100), false, false);
+        Assert.assertEquals(10, at.getLogs().size());
+        Assert.assertTrue(at.getLogs().get(0).getMessage().startsWith("syntax error: "));
+        Assert.assertTrue(at.getDiagnostics().isLimitReached());
+        Assert.assertEquals("", at.getScopeTreeString());
+
+        //没有达到上限时与以前一样
+        at = new PlayScriptCompiler().compile("int a = b + 1; foo(a);", false, false);
+        Assert.assertEquals(2, at.getLogs().size());
+        Assert.assertEquals(0, at.getDiagnostics().getSuppressedErrors());
+        Assert.assertFalse(at.getDiagnostics().isLimitReached());
+    }
+
+    @Test
+    public void test_positions_come_from_line_table() {
+        AnnotatedTree at = new PlayScriptCompiler().compile("int a = 1;\n  b + a;\r\n\n   \"年龄\" + c;", false, false);
+        Assert.assertEquals(2, at.getLogs().size());
+        Assert.assertEquals("unknown variable or function: b @2:2", at.getLogs().get(0).toString());
+        Assert.assertEquals("unknown variable or function: c @4:10", at.getLogs().get(1).toString());
+
+        LineTable lines = LineTable.of(CharStreams.fromString("ab\ncd\n\nef"));
+        Assert.assertEquals(4, lines.getLineCount());
+        Assert.assertEquals(1, lines.lineOf(0));
+        Assert.assertEquals(1, lines.lineOf(2));
+        Assert.assertEquals(2, lines.lineOf(3));
+        Assert.assertEquals(3, lines.lineOf(6));
+        Assert.assertEquals(4, lines.lineOf(8));
+        Assert.assertEquals(1, lines.columnOf(8));
+
+        //按码点计数,建表之后字符流的位置不变
+        CharStream input = CharStreams.fromString("a\uD83D\uDE00\nb");
+        input.seek(1);
+        lines = LineTable.of(input);
+        Assert.assertEquals(1, input.index());
+        Assert.assertEquals(2, lines.getLineCount());
+        Assert.assertEquals(1, lines.lineOf(2));
+        Assert.assertEquals(2, lines.lineOf(3));
+        Assert.assertEquals(0, lines.columnOf(3));
+    }
+
+    @Test
+    public void test_messages_are_formatted_lazily() {
+        final int[] formatted = {0};
+        Object argument = new Object() {
+            @Override
+            public String toString() {
+                formatted[0]++;
+                return "lazy";
+            }
+        };
+        CommonToken token = new CommonToken(0, "x");
+        token.setLine(3);
+        token.setCharPositionInLine(4);
+        CompilationLog log = new CompilationLog(CompilationLog.ERROR, "value is %s", new Object[]{argument}, null, token);
+        Assert.assertEquals(0, formatted[0]);
+        Assert.assertEquals("value is lazy", log.getMessage());
+        Assert.assertEquals("value is lazy @3:4", log.toString());
+        Assert.assertEquals(1, formatted[0]);
+    }
+
+    static String repeat(String format, int times) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            builder.append(String.format(format, i)).append('\n');
+        }
+        return builder.toString();
+    }
+}
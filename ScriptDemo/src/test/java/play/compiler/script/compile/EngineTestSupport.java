@@ -0,0 +1,57 @@
+package play.compiler.script.compile;
+
+import org.junit.Assert;
+import play.compiler.script.lower.LoweredProgram;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * @Author: zhangchong
+ * @Description: 各种执行方式共用的差分测试:与 ASTEvaluator 对比结果、结果的类型和输出。
+ */
+final class EngineTestSupport {
+
+    private EngineTestSupport() {
+    }
+
+    /**
+     * 降级后生成的可执行形式,同一个实例会执行多次
+     */
+    interface Executable {
+        Object execute(PrintStream out) throws Exception;
+    }
+
+    /**
+     * 每个脚本生成一次,执行两次,第二次执行时节点已经特化、全局变量不应残留
+     *
+     * @param scripts
+     * @param engine  由降级后的脚本生成可执行形式
+     */
+    static void assertMatchesEvaluator(List<String> scripts, Function<LoweredProgram, Executable> engine) throws Exception {
+        for (String script : scripts) {
+            AnnotatedTree at = new PlayScriptCompiler().compile(script, false, false);
+            Assert.assertFalse(script, at.hasCompilationError());
+
+            ByteArrayOutputStream expectedOut = new ByteArrayOutputStream();
+            ASTEvaluator evaluator = new ASTEvaluator(at);
+            evaluator.setOut(new PrintStream(expectedOut, true, "UTF-8"));
+            Object expected = evaluator.visit(at.ast);
+
+            Executable executable = engine.apply(Lowering.lower(at, CompiledScriptCache.hashOf(script)));
+            for (int round = 0; round < 2; round++) {
+                ByteArrayOutputStream actualOut = new ByteArrayOutputStream();
+                Object actual = executable.execute(new PrintStream(actualOut, true, "UTF-8"));
+                Assert.assertEquals(script, expected, actual);
+                Assert.assertEquals(script, classOf(expected), classOf(actual));
+                Assert.assertEquals(script, expectedOut.toString("UTF-8"), actualOut.toString("UTF-8"));
+            }
+        }
+    }
+
+    private static Class<?> classOf(Object value) {
+        return value == null ? null : value.getClass();
+    }
+}
@@ -0,0 +1,66 @@
+package play.compiler.script.compile;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import play.compiler.script.asm.AsmGenerator;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @Author: zhangchong
+ * @Description: 基准测试:算术循环在各种执行方式下每次迭代的耗时,见 BenchmarkSupport。
+ * 每个脚本用同一个注释树执行,第一次执行包括降级和生成的开销,之后的执行使用缓存的可执行形式。
+ */
+public class ExecutionEngineBenchmark {
+
+    private static final int ITERATIONS = 1000000;
+
+    private static final List<String> SCRIPTS = Arrays.asList(
+            "int age = 18; for(int i = 0;i<" + ITERATIONS + ";i++) { age = age + 2;} age;",
+            "long s = 0; int i = 0; while (i < " + ITERATIONS + ") { s += i * 3 % 7; i++; } s;",
+            "double x = 0; for (int i = 0; i < " + ITERATIONS + "; i++) { x = x * 0.5 + i; } x;",
+            "int f(int n) { return n * 2 + 1; } int s = 0; for (int i = 0; i < " + ITERATIONS + "; i++) { s = s + f(i) % 5; } s;");
+
+    @Test
+    public void benchmark_arithmetic_loop() {
+        for (String script : SCRIPTS) {
+            StringBuilder report = new StringBuilder();
+            Object expected = null;
+            for (ExecutionEngine engine : ExecutionEngine.values()) {
+                PlayScriptCompiler compiler = new PlayScriptCompiler();
+                compiler.setEngine(engine);
+                AnnotatedTree at = compiler.compile(script, false, false);
+                long first = BenchmarkSupport.bestOf(1, () -> compiler.Execute(at));
+                long best = BenchmarkSupport.bestOf(3, () -> compiler.Execute(at));
+                Object actual = compiler.Execute(at);
+                if (expected == null) {
+                    expected = actual;
+                }
+                Assert.assertEquals(script, expected, actual);
+                report.append(String.format(", %s(%s) first %.1f ns, best %.1f ns", engine, compiler.engineFor(at),
+                        first / (double) ITERATIONS, best / (double) ITERATIONS));
+            }
+            BenchmarkSupport.report("ExecutionEngineBenchmark", "%s %d iterations, per iteration%s",
+                    script.substring(0, script.indexOf(';')), ITERATIONS, report);
+        }
+    }
+
+    /**
+     * 生成的汇编链接成可执行文件后的运行时间,包括gcc和进程的启动
+     */
+    @Test
+    public void benchmark_native_arithmetic_loop() throws Exception {
+        Assume.assumeTrue(AsmGeneratorTest.gccAvailable());
+        int iterations = 100000000;
+        String script = "int age = 18; for(int i = 0;i<" + iterations + ";i++) { age = age + i % 3;} println(age); 0;";
+        String asm = AsmGenerator.generate(Lowering.lower(new PlayScriptCompiler().compile(script, false, false), ""));
+        AsmGeneratorTest.setUp();
+        String[][] actual = new String[1][];
+        long nanos = BenchmarkSupport.bestOf(1, () -> actual[0] = AsmGeneratorTest.run(asm, script));
+        Assert.assertEquals("0", actual[0][1]);
+        BenchmarkSupport.report("ExecutionEngineBenchmark", "native %d iterations: %.2f ns/iteration (with gcc)",
+                iterations, nanos / (double) iterations);
+    }
+}
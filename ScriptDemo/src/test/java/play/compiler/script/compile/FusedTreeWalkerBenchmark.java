@@ -0,0 +1,53 @@
+package play.compiler.script.compile;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @Author: zhangchong
+ * @Description: 基准测试:大脚本的语义分析时间,三遍分别遍历与扫描之后融合为一遍遍历
+ */
+public class FusedTreeWalkerBenchmark {
+
+    @Test
+    public void benchmark_semantic_analysis() {
+        String script = script(3000);
+        long separateNanos = Long.MAX_VALUE;
+        long fusedNanos = Long.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            ParseTree ast = CompilePipeline.current().parse(CharStreams.fromString(script), true);
+            long start = System.nanoTime();
+            FusedTreeWalkerTest.analyze(ast, false);
+            separateNanos = Math.min(separateNanos, System.nanoTime() - start);
+
+            ast = CompilePipeline.current().parse(CharStreams.fromString(script), true);
+            start = System.nanoTime();
+            AnnotatedTree at = FusedTreeWalkerTest.analyze(ast, true);
+            fusedNanos = Math.min(fusedNanos, System.nanoTime() - start);
+            Assert.assertFalse(at.hasCompilationError());
+        }
+        BenchmarkSupport.report("FusedTreeWalkerBenchmark", "%d chars: separate walks %d ms, fused walk %d ms",
+                script.length(), separateNanos / 1000000, fusedNanos / 1000000);
+    }
+
+    /**
+     * 生成有size个函数的脚本,每个函数调用后面的函数
+     */
+    private static String script(int size) {
+        StringBuilder builder = new StringBuilder("int total = f0(1);\n");
+        for (int i = 0; i < size; i++) {
+            builder.append("int f").append(i).append("(int a) {\n")
+                    .append("    int b = a * ").append(i).append(" + 1;\n")
+                    .append("    for (int k = 0; k < 3; k++) { b = b + k * (a - 1); }\n");
+            if (i + 1 < size) {
+                builder.append("    return b + f").append(i + 1).append("(a - 1);\n");
+            } else {
+                builder.append("    return b;\n");
+            }
+            builder.append("}\n");
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,117 @@
+package play.compiler.script.compile;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.ParseTreeWalker;
+import org.junit.Assert;
+import org.junit.Test;
+import play.compiler.script.runtime.PrimitiveType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * @Author: zhangchong
+ * @Description:
+ */
+public class FusedTreeWalkerTest {
+
+    private static final List<String> SCRIPTS = Arrays.asList(
+            //调用在后面声明的函数
+            "long r = f(1) + g(2L); int f(int a) { return a * 2; } long g(long a) { return a * 3; } r;",
+            //递归
+            "int fact(int n) { if (n <= 1) return 1; return n * fact(n - 1); } fact(5);",
+            //同一个声明中引用前面的变量
+            "int a = 1, b = a + 1; b;",
+            //在类声明之前使用类
+            "A x; class A { int y = 1; } int z = 2;",
+            //函数型的变量在后面声明
+            "int g() { return h(2); } function int(int) h = twice; int twice(int v) { return v + v; } g();",
+            //嵌套函数和循环
+            "int outer(int n) { int k = n * 2; int inner(int m) { return m + k; } return inner(1); } for (int i = 0; i < 3; i++) { outer(i); }",
+            //错误:未定义的变量、函数和类型
+            "int a = b + 1; c(2); Unknown u; u;",
+            //错误:重复声明
+            "int a = 1; int a = 2; int f() { return 1; } int f() { return 2; }");
+
+    @Test
+    public void test_fused_walk_matches_separate_walks() {
+        for (String script : SCRIPTS) {
+            AnnotatedTree separate = analyze(script, false);
+            AnnotatedTree fused = analyze(script, true);
+
+            //块作用域的名字带有全局的序号
+            Assert.assertEquals(script, separate.getScopeTreeString().replaceAll("block\\d+", "block"),
+                    fused.getScopeTreeString().replaceAll("block\\d+", "block"));
+            Assert.assertEquals(script, messages(separate), messages(fused));
+
+            List<ParserRuleContext> separateNodes = new ArrayList<ParserRuleContext>();
+            List<ParserRuleContext> fusedNodes = new ArrayList<ParserRuleContext>();
+            collect(separate.ast, separateNodes);
+            collect(fused.ast, fusedNodes);
+            for (int i = 0; i < separateNodes.size(); i++) {
+                String node = script + " @ " + separateNodes.get(i).getText();
+                Assert.assertEquals(node, String.valueOf(separate.typeOfNode.get(separateNodes.get(i))),
+                        String.valueOf(fused.typeOfNode.get(fusedNodes.get(i))));
+                Assert.assertEquals(node, String.valueOf(separate.symbolOfNode.get(separateNodes.get(i))),
+                        String.valueOf(fused.symbolOfNode.get(fusedNodes.get(i))));
+            }
+        }
+    }
+
+    @Test
+    public void test_forward_references_are_walked_ahead() {
+        AnnotatedTree at = new AnnotatedTree();
+        ParseTree ast = CompilePipeline.current().parse(CharStreams.fromString(SCRIPTS.get(0)), true);
+        new ParseTreeWalker().walk(new TypeAndScopeScanner(at), ast);
+
+        TypeResolver types = new TypeResolver(at);
+        FusedTreeWalker walker = new FusedTreeWalker(types, new RefResolver(at, types));
+        types.setWalker(walker);
+        walker.walk(ast);
+
+        //f和g的返回值类型和参数列表
+        Assert.assertEquals(4, walker.getWalkedAheadCount());
+        Assert.assertFalse(at.hasCompilationError());
+        Assert.assertEquals(PrimitiveType.Long, at.lookupVariable(at.nameSpace, "r").type);
+    }
+
+    private static AnnotatedTree analyze(String script, boolean fused) {
+        return analyze(CompilePipeline.current().parse(CharStreams.fromString(script), true), fused);
+    }
+
+    static AnnotatedTree analyze(ParseTree ast, boolean fused) {
+        AnnotatedTree at = new AnnotatedTree();
+        at.ast = ast;
+        ParseTreeWalker walker = new ParseTreeWalker();
+        walker.walk(new TypeAndScopeScanner(at), ast);
+        if (fused) {
+            PlayScriptCompiler.resolve(at, ast);
+        } else {
+            walker.walk(new TypeResolver(at), ast);
+            walker.walk(new RefResolver(at), ast);
+        }
+        return at;
+    }
+
+    private static Set<String> messages(AnnotatedTree at) {
+        Set<String> messages = new HashSet<String>();
+        for (CompilationLog log : at.getLogs()) {
+            messages.add(log.getLine() + ":" + log.getPositionInLine() + " " + log.getMessage());
+        }
+        return messages;
+    }
+
+    private static void collect(ParseTree tree, List<ParserRuleContext> nodes) {
+        if (tree instanceof ParserRuleContext) {
+            nodes.add((ParserRuleContext) tree);
+            for (int i = 0; i < tree.getChildCount(); i++) {
+                collect(tree.getChild(i), nodes);
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package play.compiler.script.compile;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.Token;
+import org.junit.Assert;
+import org.junit.Test;
+import play.compiler.script.generate.PlayScriptLexer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * @Author: zhangchong
+ * @Description: 基准测试:比较内存映射加载与基于String的加载在峰值堆内存和加载时间上的差别,见 BenchmarkSupport
+ */
+public class MappedCharStreamBenchmark {
+
+    @Test
+    public void benchmark_ascii_file() throws IOException {
+        benchmark("ascii", "");
+    }
+
+    /**
+     * 每行带一个中文注释,按char存放
+     */
+    @Test
+    public void benchmark_utf8_file() throws IOException {
+        benchmark("utf8", " //中文注释");
+    }
+
+    private static void benchmark(String name, String comment) throws IOException {
+        Path file = Files.createTempFile("mapped-benchmark", ".play");
+        try {
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; builder.length() < 16 * 1024 * 1024; i++) {
+                builder.append("int v").append(i).append(" = ").append(i).append(" * 2 + 1;").append(comment).append('\n');
+            }
+            Files.write(file, builder.toString().getBytes(StandardCharsets.UTF_8));
+            builder = null;
+
+            //先各跑一遍,排除类加载和JIT的影响
+            int expected = lexWithString(file);
+            Assert.assertEquals(expected, lexWithMapped(file));
+
+            for (int round = 0; round < 2; round++) {
+                System.gc();
+                BenchmarkSupport.resetPeakHeap();
+                long base = BenchmarkSupport.usedHeap();
+                long start = System.nanoTime();
+                int stringTokens = lexWithString(file);
+                long stringNanos = System.nanoTime() - start;
+                long stringPeak = BenchmarkSupport.peakHeap() - base;
+
+                System.gc();
+                BenchmarkSupport.resetPeakHeap();
+                base = BenchmarkSupport.usedHeap();
+                start = System.nanoTime();
+                int mappedTokens = lexWithMapped(file);
+                long mappedNanos = System.nanoTime() - start;
+                long mappedPeak = BenchmarkSupport.peakHeap() - base;
+
+                Assert.assertEquals(stringTokens, mappedTokens);
+                BenchmarkSupport.report("MappedCharStreamBenchmark", "%s %d bytes, %d tokens: String load %d ms, peak heap +%d KB; mapped load %d ms, peak heap +%d KB",
+                        name, Files.size(file), mappedTokens, stringNanos / 1000000, stringPeak / 1024,
+                        mappedNanos / 1000000, mappedPeak / 1024);
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static int lexWithString(Path file) throws IOException {
+        String script = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        return countTokens(CharStreams.fromString(script));
+    }
+
+    private static int lexWithMapped(Path file) throws IOException {
+        return countTokens(MappedCharStream.fromPath(file));
+    }
+
+    private static int countTokens(CharStream input) {
+        PlayScriptLexer lexer = new PlayScriptLexer(input);
+        int count = 0;
+        for (Token token = lexer.nextToken(); token.getType() != Token.EOF; token = lexer.nextToken()) {
+            count++;
+        }
+        return count;
+    }
+}
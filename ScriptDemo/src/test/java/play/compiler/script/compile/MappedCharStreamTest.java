@@ -0,0 +1,155 @@
+package play.compiler.script.compile;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.misc.Interval;
+import org.antlr.v4.runtime.tree.Trees;
+import org.junit.Assert;
+import org.junit.Test;
+import play.compiler.script.generate.PlayScriptLexer;
+import play.compiler.script.generate.PlayScriptParser;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @Author: zhangchong
+ * @Description:
+ */
+public class MappedCharStreamTest {
+
+    @Test
+    public void test_ascii_file_matches_char_streams() throws IOException {
+        Path file = Paths.get("../TestData/script.play");
+        MappedCharStream mapped = MappedCharStream.fromPath(file);
+
+        Assert.assertTrue(mapped.isAscii());
+        assertSameStream(CharStreams.fromPath(file), mapped);
+        Assert.assertEquals(file.toString(), mapped.getSourceName());
+    }
+
+    @Test
+    public void test_utf8_file_matches_char_streams() throws IOException {
+        Path file = Files.createTempFile("mapped", ".play");
+        try {
+            String script = "//中文注释 😀\nString s = \"年龄\"; int age = 44; age = age + 2;\n";
+            Files.write(file, script.getBytes(StandardCharsets.UTF_8));
+            MappedCharStream mapped = MappedCharStream.fromPath(file);
+
+            Assert.assertFalse(mapped.isAscii());
+            assertSameStream(CharStreams.fromPath(file), mapped);
+            Assert.assertEquals(script, mapped.toString());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * 码点都不超过 U+00FF、都在基本多文种平面两种情况,分别按字节和char存放
+     */
+    @Test
+    public void test_latin1_and_bmp_files_match_char_streams() throws IOException {
+        for (String script : Arrays.asList("//café\nString s = \"ÿ\"; int age = 44;\n", "//中文注释\nString s = \"年龄\"; int age = 44;\n")) {
+            Path file = Files.createTempFile("mapped", ".play");
+            try {
+                Files.write(file, script.getBytes(StandardCharsets.UTF_8));
+                MappedCharStream mapped = MappedCharStream.fromPath(file);
+
+                Assert.assertFalse(mapped.isAscii());
+                assertSameStream(CharStreams.fromPath(file), mapped);
+                Assert.assertEquals(script, mapped.toString());
+            } finally {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    public void test_malformed_utf8_is_replaced() throws IOException {
+        Path file = Files.createTempFile("mapped", ".play");
+        try {
+            Files.write(file, new byte[]{'a', (byte) 0xC3, 'b', (byte) 0xFF, (byte) 0xE4, (byte) 0xB8});
+            MappedCharStream mapped = MappedCharStream.fromPath(file);
+
+            Assert.assertEquals("a�b��", mapped.toString());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void test_empty_file() throws IOException {
+        Path file = Files.createTempFile("mapped", ".play");
+        try {
+            MappedCharStream mapped = MappedCharStream.fromPath(file);
+            Assert.assertEquals(0, mapped.size());
+            Assert.assertEquals(IntStream.EOF, mapped.LA(1));
+            Assert.assertEquals("", mapped.toString());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void test_compile_mapped_file() throws IOException {
+        Path file = Files.createTempFile("mapped", ".play");
+        try {
+            String script = "int age = 44; for(int i = 0;i<10;i++) { age = age + 2;} int i = 8;";
+            Files.write(file, script.getBytes(StandardCharsets.UTF_8));
+
+            AnnotatedTree mapped = new PlayScriptCompiler().compile(MappedCharStream.fromPath(file), false, false);
+            AnnotatedTree fromString = new PlayScriptCompiler().compile(script, false, false);
+
+            Assert.assertFalse(mapped.hasCompilationError());
+            Assert.assertEquals(Trees.toStringTree(fromString.ast, Arrays.asList(PlayScriptParser.ruleNames)),
+                    Trees.toStringTree(mapped.ast, Arrays.asList(PlayScriptParser.ruleNames)));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static void assertSameStream(CharStream expected, CharStream actual) {
+        Assert.assertEquals(expected.size(), actual.size());
+        Assert.assertEquals(expected.getText(Interval.of(0, expected.size() - 1)),
+                actual.getText(Interval.of(0, actual.size() - 1)));
+        Assert.assertEquals(expected.getText(Interval.of(3, 10)), actual.getText(Interval.of(3, 10)));
+        Assert.assertEquals(expected.getText(Interval.of(5, 1000)), actual.getText(Interval.of(5, 1000)));
+
+        while (expected.LA(1) != IntStream.EOF) {
+            Assert.assertEquals(expected.index(), actual.index());
+            Assert.assertEquals(expected.LA(1), actual.LA(1));
+            Assert.assertEquals(expected.LA(2), actual.LA(2));
+            Assert.assertEquals(expected.LA(-1), actual.LA(-1));
+            expected.consume();
+            actual.consume();
+        }
+        Assert.assertEquals(IntStream.EOF, actual.LA(1));
+
+        expected.seek(2);
+        actual.seek(2);
+        Assert.assertEquals(expected.LA(1), actual.LA(1));
+
+        List<? extends Token> expectedTokens = tokensOf(CharStreams.fromString(expected.getText(Interval.of(0, expected.size() - 1))));
+        actual.seek(0);
+        List<? extends Token> actualTokens = tokensOf(actual);
+        Assert.assertEquals(expectedTokens.size(), actualTokens.size());
+        for (int i = 0; i < expectedTokens.size(); i++) {
+            Assert.assertEquals(expectedTokens.get(i).getType(), actualTokens.get(i).getType());
+            Assert.assertEquals(expectedTokens.get(i).getText(), actualTokens.get(i).getText());
+        }
+    }
+
+    private static List<? extends Token> tokensOf(CharStream input) {
+        CommonTokenStream tokens = new CommonTokenStream(new PlayScriptLexer(input));
+        tokens.fill();
+        return tokens.getTokens();
+    }
+}
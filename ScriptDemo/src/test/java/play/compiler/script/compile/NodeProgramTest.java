@@ -0,0 +1,114 @@
+package play.compiler.script.compile;
+
+import org.junit.Assert;
+import org.junit.Test;
+import play.compiler.script.exec.NodeProgram;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * @Author: zhangchong
+ * @Description:
+ */
+public class NodeProgramTest {
+
+    private static final List<String> SCRIPTS = Arrays.asList(
+            "int age = 44; for(int i = 0;i<10;i++) { age = age + 2;} age;",
+            "int b= 10; int myfunc(int a) {return a+b+3;} myfunc(2);",
+            "int fib(int n) { if (n < 2) { return n; } return fib(n - 1) + fib(n - 2); } fib(15);",
+            "int sum = 0; int i = 0; while (true) { i++; if (i > 10) break; if (i % 2 == 0) continue; sum += i; } sum;",
+            "int n = 0; do { n = n + 1; } while (n < 0); n;",
+            "int a = 1; { int a = 2; a = a + 5; } { int b = a + 2; a = b; } a;",
+            "long l = 5; l = l + 2; l *= 3; l--; --l; l;",
+            "long fact(long n) { if (n <= 1) return 1; return n * fact(n - 1); } fact(20);",
+            "long s = 0; for (int i = 0; i < 100; i++) { s += i * 3 % 7; } s > 200 && s != 300;",
+            "float f = 1; f = f + 1.5; f;",
+            "double x = 0; for (int i = 0; i < 20; i++) { x = x * 0.5 + i; } x;",
+            "double d = 2; -d + -(0.0) + 7 / 2 + 7.0 % 2;",
+            "double h(double x) { if (x < 1) return x; return h(x / 2) + 1; } h(100);",
+            "long big = 3000000000L * 2; (big >>> 3) + (big << 2) + (big >> 1);",
+            "int x = 7; int y = -x; ~y + (x << 2) + (x >> 1) + (x & 3) + (x | 8) + (x ^ 5);",
+            "int x = 12; x &= 10; x |= 1; x ^= 3; int y = -16; y >>>= 28; y <<= 2; y >>= 1; x * 100 + y;",
+            "long l = 1; l <<= 40; l |= 5; l >>= 1; short s = 1; s <<= 3; boolean b = true; b &= false; println(b); l + s;",
+            "int x = 3; boolean b = x > 2 && x < 5 || !(x == 3); b ? x : -x;",
+            "boolean b = true; b & false | true;",
+            "int i = 0; i += 2.5; i *= 3; i -= 1; i /= 2; i %= 3; i;",
+            "string s = \"年龄\"; int age = 44; println(s + age); s + \":\" + age;",
+            "char c = 'z'; c == 'z';",
+            "char c = 'a'; c++; ++c; c += 1; long l = c; println(c); l + (c < 'z' ? c - 'a' : -c);",
+            "byte b = 127; b++; short s = -1; s--; int x = 'a'; println(b); b * 3 + s + x + (x << 1);",
+            "int counter = 0; void inc() { counter++; } for (int i = 0; i < 5; i++) { inc(); } counter;",
+            "int outer(int n) { int k = n * 2; int inner(int m) { return m + k; } return inner(1); } outer(20);",
+            "int f(int n) { return n <= 0 ? 0 : -f(n - 1) + n; } f(5);",
+            "int i = 5; int j = i++ + ++i; j * 100 + i;",
+            "println(); println(1 + 2); for (int i = 0, j = 10; i < j; i += 3, j--) { println(i * j); }",
+            "int f(int a) { if (a > 0) { for (int i = 0; ; i++) { if (i == a) { return i * 10; } } } return -1; } f(4) + f(0);",
+            "int g(int a) { int b = a; return b; } int u; g(1); g(u);",
+            "int x; int y = x; y;",
+            "return 42; 1;");
+
+    /**
+     * 与 ASTEvaluator 对比结果和输出。同一个 NodeProgram 执行两次,第二次执行的是已经特化的节点
+     */
+    @Test
+    public void test_matches_evaluator() throws Exception {
+        EngineTestSupport.assertMatchesEvaluator(SCRIPTS, program -> NodeProgram.of(program)::execute);
+    }
+
+    @Test
+    public void test_execute_falls_back_to_evaluator() {
+        PlayScriptCompiler compiler = new PlayScriptCompiler();
+        Assert.assertEquals(ExecutionEngine.NODE_TREE, compiler.getEngine());
+        //函数型的值无法降级,用 ASTEvaluator 执行
+        AnnotatedTree at = compiler.compile("int twice(int v) { return v + v; } function int(int) h = twice; h(3) + 1;", false, false);
+        Assert.assertEquals(ExecutionEngine.EVALUATOR, compiler.engineFor(at));
+        Assert.assertEquals(7, compiler.Execute(at));
+
+        at = compiler.compile("int x = 7; x / 2;", false, false);
+        Assert.assertEquals(ExecutionEngine.NODE_TREE, compiler.engineFor(at));
+        Assert.assertEquals(3, compiler.Execute(at));
+        Assert.assertEquals(3, compiler.Execute(at));
+        compiler.setEngine(ExecutionEngine.EVALUATOR);
+        Assert.assertEquals(ExecutionEngine.EVALUATOR, compiler.engineFor(at));
+        Assert.assertEquals(3, compiler.Execute(at));
+
+        //特化的除法与通用的一样抛出异常
+        compiler.setEngine(ExecutionEngine.NODE_TREE);
+        try {
+            compiler.Execute(compiler.compile("int x = 1; int y = 0; for (int i = 0; i < 3; i++) { y = x / (2 - i); } y;", false, false));
+            Assert.fail();
+        } catch (ArithmeticException e) {
+            Assert.assertEquals("/ by zero", e.getMessage());
+        }
+    }
+
+    /**
+     * 降级的结果缓存在注释树上,多个线程同时执行同一个注释树时各自借用一个可执行节点树
+     */
+    @Test
+    public void test_execute_reuses_lowered_forms() throws Exception {
+        PlayScriptCompiler compiler = new PlayScriptCompiler();
+        AnnotatedTree at = compiler.compile(SCRIPTS.get(0), false, false);
+        Assert.assertEquals(64, compiler.Execute(at));
+        LoweredForms forms = at.loweredForms();
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Object>> results = new ArrayList<Future<Object>>();
+            for (int i = 0; i < 32; i++) {
+                results.add(pool.submit(() -> compiler.Execute(at)));
+            }
+            for (Future<Object> result : results) {
+                Assert.assertEquals(64, result.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+        Assert.assertSame(forms, at.loweredForms());
+    }
+}
@@ -0,0 +1,58 @@
+package play.compiler.script.compile;
+
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @Author: zhangchong
+ * @Description: 基准测试:用节点编号查找与原来的HashMap查找对比
+ */
+public class NodeTableBenchmark {
+
+    @Test
+    public void benchmark_lookup() {
+        StringBuilder script = new StringBuilder("int total = 0;\n");
+        for (int i = 0; i < 2000; i++) {
+            script.append("total = total + ").append(i).append(" * 2 - (total % 7);\n");
+        }
+        AnnotatedTree at = new PlayScriptCompiler().compile(script.toString(), false, false);
+        Assert.assertFalse(at.hasCompilationError());
+
+        List<ParserRuleContext> nodes = new ArrayList<ParserRuleContext>();
+        NodeTableTest.collect(at.ast, nodes);
+        Map<ParserRuleContext, Object> hashed = new HashMap<ParserRuleContext, Object>();
+        for (ParserRuleContext node : nodes) {
+            if (at.typeOfNode.get(node) != null) {
+                hashed.put(node, at.typeOfNode.get(node));
+            }
+        }
+
+        long tableNanos = Long.MAX_VALUE;
+        long hashNanos = Long.MAX_VALUE;
+        for (int round = 0; round < 20; round++) {
+            long start = System.nanoTime();
+            int found = 0;
+            for (ParserRuleContext node : nodes) {
+                found += at.typeOfNode.get(node) != null ? 1 : 0;
+            }
+            tableNanos = Math.min(tableNanos, System.nanoTime() - start);
+            Assert.assertEquals(hashed.size(), found);
+
+            start = System.nanoTime();
+            found = 0;
+            for (ParserRuleContext node : nodes) {
+                found += hashed.get(node) != null ? 1 : 0;
+            }
+            hashNanos = Math.min(hashNanos, System.nanoTime() - start);
+            Assert.assertEquals(hashed.size(), found);
+        }
+        BenchmarkSupport.report("NodeTableBenchmark", "%d nodes, %d annotated: node table %.1f ns/lookup, HashMap %.1f ns/lookup",
+                nodes.size(), hashed.size(), tableNanos / (double) nodes.size(), hashNanos / (double) nodes.size());
+    }
+}
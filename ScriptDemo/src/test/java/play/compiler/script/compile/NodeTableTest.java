@@ -0,0 +1,71 @@
+package play.compiler.script.compile;
+
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * @Author: zhangchong
+ * @Description:
+ */
+public class NodeTableTest {
+
+    @Test
+    public void test_annotated_nodes_get_dense_ids() {
+        AnnotatedTree at = new PlayScriptCompiler().compile(
+                "int a = 1; int f(int x) { return x * 2; } for (int i = 0; i < 3; i++) { a = a + f(i); } a;", false, false);
+        Assert.assertFalse(at.hasCompilationError());
+
+        List<ParserRuleContext> nodes = new ArrayList<ParserRuleContext>();
+        collect(at.ast, nodes);
+        Set<Integer> ids = new HashSet<Integer>();
+        for (ParserRuleContext node : nodes) {
+            int id = ((AnnotatedContext) node).getNodeId();
+            boolean annotated = at.symbolOfNode.containsKey(node) || at.node2Scope.containsKey(node) || at.typeOfNode.containsKey(node)
+                    || at.scopeOfNode.containsKey(node);
+            Assert.assertEquals(node.getText(), annotated, id >= 0);
+            if (annotated) {
+                Assert.assertTrue(ids.add(id));
+            }
+        }
+        Assert.assertEquals(at.getNodeIdCount(), ids.size());
+    }
+
+    @Test
+    public void test_put_get_remove() {
+        AnnotatedTree at = new AnnotatedTree();
+        NodeTable<String> table = new NodeTable<String>(at);
+        AnnotatedContext a = new AnnotatedContext();
+        AnnotatedContext b = new AnnotatedContext();
+
+        Assert.assertNull(table.get(a));
+        Assert.assertNull(table.put(a, "a"));
+        Assert.assertEquals("a", table.put(a, "A"));
+        Assert.assertNull(table.put(b, "b"));
+        Assert.assertEquals(2, table.size());
+        Assert.assertEquals("A", table.get(a));
+        Assert.assertEquals(0, a.getNodeId());
+        Assert.assertEquals(1, b.getNodeId());
+
+        Assert.assertEquals("A", table.remove(a));
+        Assert.assertNull(table.remove(a));
+        Assert.assertNull(table.get(a));
+        Assert.assertEquals(1, table.size());
+        Assert.assertNull(table.get(new ParserRuleContext()));
+    }
+
+    static void collect(ParseTree tree, List<ParserRuleContext> nodes) {
+        if (tree instanceof ParserRuleContext) {
+            nodes.add((ParserRuleContext) tree);
+            for (int i = 0; i < tree.getChildCount(); i++) {
+                collect(tree.getChild(i), nodes);
+            }
+        }
+    }
+}
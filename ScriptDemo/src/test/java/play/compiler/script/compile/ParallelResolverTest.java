@@ -0,0 +1,144 @@
+package play.compiler.script.compile;
+
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * @Author: zhangchong
+ * @Description:
+ */
+public class ParallelResolverTest {
+
+    private static final List<String> SCRIPTS = Arrays.asList(
+            //函数互相调用,调用在后面声明的函数
+            "long r = f(1) + g(2L); int f(int a) { return a * 2 + h(a); } long g(long a) { return a * 3; } int h(int a) { return a; } r;",
+            //递归和嵌套函数
+            "int fact(int n) { if (n <= 1) return 1; return n * fact(n - 1); } int outer(int n) { int k = n * 2; int inner(int m) { return m + k; } return inner(1); } fact(5) + outer(2);",
+            //引用在后面声明的全局变量和函数型的变量
+            "int g() { return h(2) + total; } function int(int) h = twice; int twice(int v) { return v + v; } int total = 1; g();",
+            //类的方法引用成员变量和其它方法
+            "class A { int y = 1; int get() { return y + twice(y); } int twice(int v) { return v * 2; } } int use(A a) { return 1; } A a = A(); use(a);",
+            //错误:分布在各个函数体中
+            "int f() { return b + 1; } int g() { c(2); Unknown u; return 1; } int h() { int x = 1; int x = 2; return x; } q;",
+            //错误:重复声明的函数和类型错误
+            "int a = 1; int f() { return 1; } int f() { return 2; } int k() { boolean t = true; return t * 2; }");
+
+    private static ForkJoinPool pool;
+
+    @BeforeClass
+    public static void setUp() {
+        pool = new ForkJoinPool(4);
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void test_parallel_matches_serial() {
+        List<String> scripts = new ArrayList<String>(SCRIPTS);
+        scripts.add(script(200));
+        for (String script : scripts) {
+            AnnotatedTree serial = compile(script, null);
+            AnnotatedTree parallel = compile(script, pool);
+
+            //块作用域的名字带有全局的序号
+            Assert.assertEquals(script, serial.getScopeTreeString().replaceAll("block\\d+", "block"),
+                    parallel.getScopeTreeString().replaceAll("block\\d+", "block"));
+            Assert.assertEquals(script, serial.hasCompilationError(), parallel.hasCompilationError());
+            Assert.assertEquals(script, sortedMessages(serial), sortedMessages(parallel));
+            Assert.assertEquals(script, serial.types.size(), parallel.types.size());
+
+            List<ParserRuleContext> serialNodes = new ArrayList<ParserRuleContext>();
+            List<ParserRuleContext> parallelNodes = new ArrayList<ParserRuleContext>();
+            collect(serial.ast, serialNodes);
+            collect(parallel.ast, parallelNodes);
+            Assert.assertEquals(script, serialNodes.size(), parallelNodes.size());
+            for (int i = 0; i < serialNodes.size(); i++) {
+                String node = script + " @ " + serialNodes.get(i).getText();
+                Assert.assertEquals(node, String.valueOf(serial.typeOfNode.get(serialNodes.get(i))),
+                        String.valueOf(parallel.typeOfNode.get(parallelNodes.get(i))));
+                Assert.assertEquals(node, String.valueOf(serial.symbolOfNode.get(serialNodes.get(i))),
+                        String.valueOf(parallel.symbolOfNode.get(parallelNodes.get(i))));
+            }
+        }
+    }
+
+    @Test
+    public void test_parallel_result_is_deterministic() {
+        String script = SCRIPTS.get(4) + script(100);
+        List<String> expected = messages(compile(script, pool));
+        Assert.assertFalse(expected.isEmpty());
+        for (int round = 0; round < 10; round++) {
+            Assert.assertEquals(expected, messages(compile(script, pool)));
+        }
+    }
+
+    @Test
+    public void test_parallel_evaluates_same_result() {
+        String script = script(50) + "int total = f0(3); total;";
+        AnnotatedTree serial = compile(script, null);
+        AnnotatedTree parallel = compile(script, pool);
+        Assert.assertFalse(parallel.hasCompilationError());
+        Assert.assertEquals(new ASTEvaluator(serial).visit(serial.ast), new ASTEvaluator(parallel).visit(parallel.ast));
+    }
+
+    private static AnnotatedTree compile(String script, ForkJoinPool pool) {
+        PlayScriptCompiler compiler = new PlayScriptCompiler();
+        compiler.setAnalysisPool(pool);
+        return compiler.compile(script, false, false);
+    }
+
+    private static List<String> messages(AnnotatedTree at) {
+        List<String> messages = new ArrayList<String>();
+        for (CompilationLog log : at.getLogs()) {
+            messages.add(String.format("%06d:%06d %s", log.getLine(), log.getPositionInLine(), log.getMessage()));
+        }
+        return messages;
+    }
+
+    private static List<String> sortedMessages(AnnotatedTree at) {
+        List<String> messages = messages(at);
+        Collections.sort(messages);
+        return messages;
+    }
+
+    private static void collect(ParseTree tree, List<ParserRuleContext> nodes) {
+        if (tree instanceof ParserRuleContext) {
+            nodes.add((ParserRuleContext) tree);
+            for (int i = 0; i < tree.getChildCount(); i++) {
+                collect(tree.getChild(i), nodes);
+            }
+        }
+    }
+
+    /**
+     * 生成有size个函数的脚本,每个函数调用后面的函数
+     */
+    private static String script(int size) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            builder.append("int f").append(i).append("(int a) {\n")
+                    .append("    int b = a * ").append(i).append(" + 1;\n")
+                    .append("    for (int k = 0; k < 3; k++) { b = b + k * (a - 1); }\n");
+            if (i + 1 < size) {
+                builder.append("    return b + f").append(i + 1).append("(a - 1);\n");
+            } else {
+                builder.append("    return b;\n");
+            }
+            builder.append("}\n");
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,46 @@
+package play.compiler.script.compile;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+/**
+ * @Author: zhangchong
+ * @Description: 基准测试:会话开始和会话很长之后每次输入的耗时,耗时应当不随会话的增长而增长
+ */
+public class ReplSessionBenchmark {
+
+    @Test
+    public void benchmark_latency_stays_flat() {
+        final int lines = 4000;
+        final int window = 500;
+
+        //先跑一遍,排除类加载和JIT的影响
+        ReplSession warmUp = new ReplSession();
+        warmUp.eval("int total = 0; int step(int k) { return k % 7; }");
+        for (int k = 0; k < window; k++) {
+            warmUp.eval(ReplSessionTest.line(k));
+        }
+
+        ReplSession session = new ReplSession();
+        session.eval("int total = 0;");
+        session.eval("int step(int k) { return k % 7; }");
+        long[] nanos = new long[lines];
+        for (int k = 0; k < lines; k++) {
+            long start = System.nanoTime();
+            session.eval(ReplSessionTest.line(k));
+            nanos[k] = System.nanoTime() - start;
+        }
+        Assert.assertEquals(ReplSessionTest.expectedTotal(lines), session.eval("total;"));
+
+        BenchmarkSupport.report("ReplSessionBenchmark", "median per line: first %d lines %d us, last %d lines %d us",
+                window, median(nanos, 0, window) / 1000, window, median(nanos, lines - window, lines) / 1000);
+    }
+
+    private static long median(long[] values, int from, int to) {
+        long[] copy = Arrays.copyOfRange(values, from, to);
+        Arrays.sort(copy);
+        return copy[copy.length / 2];
+    }
+}
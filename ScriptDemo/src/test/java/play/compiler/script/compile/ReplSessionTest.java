@@ -0,0 +1,151 @@
+package play.compiler.script.compile;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @Author: zhangchong
+ * @Description:
+ */
+public class ReplSessionTest {
+
+    @Test
+    public void test_globals_persist_between_lines() {
+        ReplSession session = new ReplSession();
+        Assert.assertEquals(44, session.eval("int age = 44;"));
+        Assert.assertNull(session.eval("for (int i = 0; i < 10; i++) { age = age + 2; }"));
+        Assert.assertEquals(64, session.eval("age;"));
+        Assert.assertEquals(65, session.eval("age = age + 1; age;"));
+        Assert.assertEquals(4, session.getEvalCount());
+    }
+
+    @Test
+    public void test_function_declared_in_earlier_line() {
+        ReplSession session = new ReplSession();
+        session.eval("int base = 10;");
+        session.eval("int add(int a) {\n return a + base;\n}");
+        session.eval("base = 20;");
+
+        Assert.assertEquals(25, session.eval("add(5);"));
+        Assert.assertEquals(30, session.eval("int twice(int a) { return add(a) + add(a) - base; } twice(5);"));
+    }
+
+    @Test
+    public void test_error_line_is_rolled_back() {
+        ReplSession session = new ReplSession();
+        session.eval("int a = 1;");
+
+        Assert.assertNull(session.eval("int b = a + c; int f() { return 1; }"));
+        Assert.assertEquals(1, session.getErrors().size());
+        Assert.assertTrue(session.getErrors().get(0).getMessage().contains("c"));
+        Assert.assertFalse(session.getAnnotatedTree().hasCompilationError());
+
+        //出错的那次输入中声明的b和f都已经撤销
+        Assert.assertEquals(2, session.eval("int b = 2; int f() { return a + 1; } f();"));
+        Assert.assertTrue(session.getErrors().isEmpty());
+        Assert.assertEquals(3, session.eval("a + b;"));
+    }
+
+    @Test
+    public void test_syntax_error() {
+        ReplSession session = new ReplSession();
+        session.eval("int a = 1;");
+
+        Assert.assertNull(session.eval("int b = 2;\na = a + ;"));
+        Assert.assertEquals(1, session.getErrors().size());
+        CompilationLog error = session.getErrors().get(0);
+        Assert.assertTrue(error.getMessage(), error.getMessage().startsWith("syntax error: "));
+        Assert.assertEquals(2, error.getLine());
+        Assert.assertEquals(8, error.getPositionInLine());
+        Assert.assertFalse(session.getAnnotatedTree().hasCompilationError());
+
+        //有语法错误的输入整个不执行,b没有声明
+        Assert.assertEquals(1, session.eval("a;"));
+        Assert.assertNull(session.eval("b;"));
+        Assert.assertFalse(session.getErrors().isEmpty());
+    }
+
+    /**
+     * 撤销有错误的输入时,它解析出来的类型、声明的函数和类、节点上的注释和符号编号都恢复原状
+     */
+    @Test
+    public void test_rollback_restores_types_and_annotations() {
+        ReplSession session = new ReplSession();
+        session.eval("int a = 1; int f(int v) { return v + a; }");
+        AnnotatedTree at = session.getAnnotatedTree();
+        int types = at.types.size();
+        int symbolIds = at.getSymbolIdCount();
+        int annotatedNodes = at.typeOfNode.size();
+        int symbols = at.nameSpace.symbols.size();
+
+        Assert.assertNull(session.eval("class C { int m; } int g(int v) { return v * 2; } int h() { return missing; }"));
+        Assert.assertEquals(1, session.getErrors().size());
+        Assert.assertEquals(types, at.types.size());
+        Assert.assertEquals(symbolIds, at.getSymbolIdCount());
+        Assert.assertEquals(annotatedNodes, at.typeOfNode.size());
+        Assert.assertEquals(symbols, at.nameSpace.symbols.size());
+
+        //撤销的函数和类可以重新声明
+        Assert.assertEquals(6, session.eval("int g(int v) { return v * 3; } class C { int m; } g(2);"));
+        Assert.assertTrue(session.getErrors().isEmpty());
+        Assert.assertEquals(3, session.eval("f(2);"));
+    }
+
+    /**
+     * 长会话中执行完的语句不再保留语义信息,全局变量和函数仍然可用
+     */
+    @Test
+    public void test_long_session_forgets_executed_statements() {
+        final int lines = 4000;
+        ReplSession session = new ReplSession();
+        session.eval("int total = 0;");
+        session.eval("int step(int k) { return k % 7; }");
+        for (int k = 0; k < lines; k++) {
+            session.eval(line(k));
+            Assert.assertTrue(session.getErrors().toString(), session.getErrors().isEmpty());
+        }
+        Assert.assertEquals(expectedTotal(lines), session.eval("total;"));
+
+        AnnotatedTree at = session.getAnnotatedTree();
+        Assert.assertTrue(at.typeOfNode.size() < 50);
+        Assert.assertTrue(at.symbolOfNode.size() < 50);
+    }
+
+    /**
+     * 第k行输入,依次是声明变量、调用函数、块语句和for循环
+     *
+     * @param k
+     * @return
+     */
+    static String line(int k) {
+        String result;
+        if (k % 4 == 0) {
+            result = "int v" + k + " = " + k + ";";
+        } else if (k % 4 == 1) {
+            result = "total = total + v" + (k - 1) + " * 2 + step(" + k + ");";
+        } else if (k % 4 == 2) {
+            result = "{ int t = step(" + k + "); total = total + t; }";
+        } else {
+            result = "for (int i = 0; i < 1; i++) { total += step(" + k + "); }";
+        }
+        return result;
+    }
+
+    /**
+     * 执行完前lines行输入之后total的值
+     *
+     * @param lines
+     * @return
+     */
+    static int expectedTotal(int lines) {
+        long rtn = 0;
+        for (int k = 0; k < lines; k++) {
+            if (k % 4 == 1) {
+                rtn += 2 * (k - 1) + k % 7;
+            } else if (k % 4 != 0) {
+                rtn += k % 7;
+            }
+        }
+        return (int) rtn;
+    }
+}
@@ -0,0 +1,34 @@
+package play.compiler.script.compile;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @Author: zhangchong
+ * @Description: 基准测试:语义分析的时间应当与声明的个数成线性关系
+ */
+public class ScopeBenchmark {
+
+    @Test
+    public void benchmark_analysis_scales_linearly() {
+        //先跑一遍,排除类加载和JIT的影响
+        analysisNanos(ScopeTest.script(10000));
+
+        for (int size = 10; size <= 100000; size *= 10) {
+            String script = ScopeTest.script(size);
+            long best = Long.MAX_VALUE;
+            for (int round = 0; round < (size < 100000 ? 3 : 1); round++) {
+                best = Math.min(best, analysisNanos(script));
+            }
+            BenchmarkSupport.report("ScopeBenchmark", "%d declarations: %d ms, %.0f ns/declaration",
+                    size, best / 1000000, best / (double) size);
+        }
+    }
+
+    private static long analysisNanos(String script) {
+        AnnotatedTree at = new PlayScriptCompiler().compile(script, false, false);
+        Assert.assertFalse(at.hasCompilationError());
+        CompileStats stats = at.getCompileStats();
+        return stats.getWallNanos(CompileStats.Phase.SCAN) + stats.getWallNanos(CompileStats.Phase.RESOLVE);
+    }
+}
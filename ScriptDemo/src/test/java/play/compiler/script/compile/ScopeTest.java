@@ -0,0 +1,86 @@
+package play.compiler.script.compile;
+
+import org.junit.Assert;
+import org.junit.Test;
+import play.compiler.script.runtime.PrimitiveType;
+import play.compiler.script.runtime.Type;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * @Author: zhangchong
+ * @Description:
+ */
+public class ScopeTest {
+
+    @Test
+    public void test_index_follows_add_and_remove() {
+        BlockScope scope = new BlockScope();
+        Variable a = new Variable("a", scope, null);
+        Variable b = new Variable("b", scope, null);
+        FunctionScope f = new FunctionScope("f", scope, null);
+        ClassScope c = new ClassScope("C", null);
+        c.enclosingScope = scope;
+
+        Assert.assertTrue(scope.addSymbol(a));
+        Assert.assertTrue(scope.addSymbol(b));
+        Assert.assertTrue(scope.addSymbol(f));
+        Assert.assertTrue(scope.addSymbol(c));
+        Assert.assertFalse(scope.addSymbol(new Variable("a", scope, null)));
+        Assert.assertFalse(scope.addSymbol(new FunctionScope("f", scope, null)));
+
+        Assert.assertSame(a, scope.getVariable("a"));
+        Assert.assertSame(c, scope.getClass("C"));
+        Assert.assertSame(f, Scope.getFunction(scope, "f"));
+        Assert.assertSame(f, Scope.getFunction(scope, "f", Collections.<Type>emptyList()));
+        Assert.assertNull(scope.getVariable("f"));
+        Assert.assertEquals(Arrays.asList(a, b, f, c), scope.symbols);
+
+        Assert.assertTrue(scope.removeSymbol(b));
+        Assert.assertFalse(scope.removeSymbol(b));
+        Assert.assertNull(scope.getVariable("b"));
+        Assert.assertTrue(scope.addSymbol(b));
+        Assert.assertEquals(Arrays.asList(a, f, c, b), scope.symbols);
+
+        scope.truncateSymbols(1);
+        Assert.assertEquals(Collections.singletonList(a), scope.symbols);
+        Assert.assertNull(scope.getClass("C"));
+        Assert.assertNull(Scope.getFunction(scope, "f"));
+        Assert.assertTrue(scope.addSymbol(new FunctionScope("f", scope, null)));
+    }
+
+    @Test
+    public void test_overloads_resolved_by_parameter_types() {
+        AnnotatedTree at = new PlayScriptCompiler().compile("int f(int a) { return a; } f(1);", false, false);
+        FunctionScope f = Scope.getFunction(at.nameSpace, "f", Collections.<Type>singletonList(PrimitiveType.Integer));
+        Assert.assertNotNull(f);
+        Assert.assertSame(f, Scope.getFunction(at.nameSpace, "f", Collections.<Type>singletonList(PrimitiveType.Long)));
+        Assert.assertNull(Scope.getFunction(at.nameSpace, "f", Collections.<Type>emptyList()));
+    }
+
+    /**
+     * 很多个全局变量互相引用时,每个引用都解析到前一个声明
+     */
+    @Test
+    public void test_many_declarations_resolve() {
+        int size = 20000;
+        AnnotatedTree at = new PlayScriptCompiler().compile(script(size) + "v" + (size - 1) + ";", false, false);
+        Assert.assertFalse(at.hasCompilationError());
+        Assert.assertEquals(size, at.nameSpace.symbols.size());
+        Assert.assertNotNull(at.nameSpace.getVariable("v" + (size - 1)));
+        Assert.assertEquals(size - 1, new ASTEvaluator(at).visit(at.ast));
+    }
+
+    /**
+     * 生成size个全局变量的声明,每个都引用前一个
+     */
+    static String script(int size) {
+        StringBuilder builder = new StringBuilder(size * 24);
+        builder.append("int v0 = 0;\n");
+        for (int i = 1; i < size; i++) {
+            builder.append("int v").append(i).append(" = v").append(i - 1).append(" + 1;\n");
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,101 @@
+package play.compiler.script.compile;
+
+import org.junit.Assert;
+import org.junit.Test;
+import play.compiler.script.lower.LoweredProgram;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @Author: zhangchong
+ * @Description: 基准测试:比较从源码编译和从映像加载的启动时间
+ */
+public class ScriptImageBenchmark {
+
+    @Test
+    public void benchmark_cold_start() throws IOException {
+        Path dir = Files.createTempDirectory("playc-benchmark");
+        List<Path> sources = new ArrayList<Path>();
+        try {
+            for (int i = 0; i < 50; i++) {
+                Path source = dir.resolve("script" + i + ".play");
+                Files.write(source, ScriptImageTest.script(i).getBytes(StandardCharsets.UTF_8));
+                ScriptImageLoader.writeImage(source, ScriptImageLoader.imagePathOf(source));
+                sources.add(source);
+            }
+
+            ScriptImageLoader loader = new ScriptImageLoader();
+            loader.setWriteBack(false);
+            long compileNanos = 0;
+            long imageNanos = 0;
+            for (int round = 0; round < 5; round++) {
+                long start = System.nanoTime();
+                Object fromSource = null;
+                for (Path source : sources) {
+                    String script = new String(Files.readAllBytes(source), StandardCharsets.UTF_8);
+                    fromSource = ScriptImageTest.execute(ScriptImageLoader.compile(script));
+                }
+                compileNanos = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                Object fromImage = null;
+                for (Path source : sources) {
+                    fromImage = ScriptImageTest.execute(loader.load(source));
+                }
+                imageNanos = System.nanoTime() - start;
+
+                Assert.assertEquals(fromSource, fromImage);
+                BenchmarkSupport.report("ScriptImageBenchmark", "%d scripts: compile from source %d ms, load image %d ms",
+                        sources.size(), compileNanos / 1000000, imageNanos / 1000000);
+            }
+            Assert.assertEquals(0, loader.getSourceCompiles());
+        } finally {
+            for (Path source : sources) {
+                Files.deleteIfExists(ScriptImageLoader.imagePathOf(source));
+                Files.deleteIfExists(source);
+            }
+            Files.delete(dir);
+        }
+    }
+
+    /**
+     * 常驻内存的编译结果占用的堆:保留注释树(语法树、Token和各个按节点查找的表)时,
+     * 与只保留降级后的 LoweredProgram 时,每个脚本平均占用的字节数
+     */
+    @Test
+    public void benchmark_retained_heap() {
+        List<String> corpus = Arrays.asList(ScriptImageTest.script(0), ScriptImageTest.script(1), ScriptImageTest.script(2));
+        int copies = 50;
+        int count = corpus.size() * copies;
+        PlayScriptCompiler compiler = new PlayScriptCompiler();
+
+        List<Object> retained = new ArrayList<Object>(count);
+        long base = BenchmarkSupport.retainedHeap();
+        for (int i = 0; i < copies; i++) {
+            for (String script : corpus) {
+                retained.add(compiler.compile(script, false, false));
+            }
+        }
+        long treeBytes = BenchmarkSupport.retainedHeap() - base;
+        int parseTreeNodes = ((AnnotatedTree) retained.get(0)).getCompileStats().getParseTreeNodeCount();
+
+        retained.clear();
+        base = BenchmarkSupport.retainedHeap();
+        for (int i = 0; i < copies; i++) {
+            for (String script : corpus) {
+                retained.add(compiler.lower(script));
+            }
+        }
+        long loweredBytes = BenchmarkSupport.retainedHeap() - base;
+        int loweredNodes = ((LoweredProgram) retained.get(0)).getNodeCount();
+
+        BenchmarkSupport.report("ScriptImageBenchmark", "%d scripts: annotated tree %d bytes each (%d parse tree nodes), lowered %d bytes each (%d nodes)",
+                count, treeBytes / count, parseTreeNodes, loweredBytes / count, loweredNodes);
+    }
+}
@@ -0,0 +1,183 @@
+package play.compiler.script.compile;
+
+import org.junit.Assert;
+import org.junit.Test;
+import play.compiler.script.exec.NodeProgram;
+import play.compiler.script.lower.LoweredProgram;
+import play.compiler.script.lower.ScriptImage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @Author: zhangchong
+ * @Description:
+ */
+public class ScriptImageTest {
+
+    private static final List<String> SCRIPTS = Arrays.asList(
+            "int age = 44; for(int i = 0;i<10;i++) { age = age + 2;} age;",
+            "int b= 10; int myfunc(int a) {return a+b+3;} myfunc(2);",
+            "int r = fact(5); int fact(int n) { if (n <= 1) return 1; return n * fact(n - 1); } r;",
+            "int fib(int n) { if (n < 2) { return n; } return fib(n - 1) + fib(n - 2); } fib(15);",
+            "int sum = 0; int i = 0; while (true) { i++; if (i > 10) break; if (i % 2 == 0) continue; sum += i; } sum;",
+            "int n = 0; do { n = n + 1; } while (n < 0); n;",
+            "int a = 1; { int a = 2; a = a + 5; } { int b = a + 2; a = b; } a;",
+            "long l = 5; l = l + 2; l *= 3; l;",
+            "float f = 1; f = f + 1.5; f;",
+            "long big = 3000000000L * 2; big >>> 3;",
+            "int x = 7; int y = -x; ~y + (x << 2) + (x >> 1) + (x & 3) + (x | 8) + (x ^ 5);",
+            "int x = 3; boolean b = x > 2 && x < 5 || !(x == 3); b ? x : -x;",
+            "string s = \"年龄\"; int age = 44; println(s + age); s + \":\" + age;",
+            "char c = 'z'; c == 'z';",
+            "int counter = 0; void inc() { counter++; } for (int i = 0; i < 5; i++) { inc(); } counter;",
+            "int outer(int n) { int k = n * 2; int inner(int m) { return m + k; } return inner(1); } outer(20);",
+            "int i = 5; int j = i++ + ++i; j * 100 + i;",
+            "println(); println(1 + 2); for (int i = 0, j = 10; i < j; i += 3, j--) { println(i * j); }",
+            "int f(int a) { if (a > 0) { for (int i = 0; ; i++) { if (i == a) { return i * 10; } } } return -1; } f(4) + f(0);",
+            "double d = 1.5; int k = 2; d * k / 4;",
+            "class A { int x = 1; } int a = 3; a;",
+            "int g = 1; { int h = 2; { { int k = 3; g = g + h + k; } } } g;",
+            "return 42; 1;");
+
+    @Test
+    public void test_round_trip_matches_evaluator() throws Exception {
+        for (String script : SCRIPTS) {
+            AnnotatedTree at = new PlayScriptCompiler().compile(script, false, false);
+            Assert.assertFalse(script, at.hasCompilationError());
+
+            ByteArrayOutputStream expectedOut = new ByteArrayOutputStream();
+            ASTEvaluator evaluator = new ASTEvaluator(at);
+            evaluator.setOut(new PrintStream(expectedOut, true, "UTF-8"));
+            Object expected = evaluator.visit(at.ast);
+
+            byte[] image = ScriptImage.toBytes(Lowering.lower(at, CompiledScriptCache.hashOf(script)));
+            LoweredProgram program = ScriptImage.fromBuffer(ByteBuffer.wrap(image));
+
+            Assert.assertEquals(script, at.getScopeTreeString(), program.getScopeTreeString());
+            Assert.assertEquals(CompiledScriptCache.hashOf(script), program.getSourceHash());
+
+            ByteArrayOutputStream actualOut = new ByteArrayOutputStream();
+            Object actual = NodeProgram.of(program).execute(new PrintStream(actualOut, true, "UTF-8"));
+            Assert.assertEquals(script, expected, actual);
+            Assert.assertEquals(script, expectedOut.toString("UTF-8"), actualOut.toString("UTF-8"));
+        }
+    }
+
+    @Test
+    public void test_image_is_deterministic() {
+        String script = SCRIPTS.get(15);
+        Assert.assertArrayEquals(ScriptImage.toBytes(ScriptImageLoader.compile(script)),
+                ScriptImage.toBytes(ScriptImageLoader.compile(script)));
+    }
+
+    @Test
+    public void test_folded_constants_are_lowered() throws Exception {
+        String script = "int k = 3 * 4; int r = 0; for (int i = 0; i < k + 1; i++) { r = r + k * 2; } r;";
+        AnnotatedTree folded = new PlayScriptCompiler().compile(script, false, false);
+        PlayScriptCompiler plain = new PlayScriptCompiler();
+        plain.setConstantFolding(false);
+        AnnotatedTree unfolded = plain.compile(script, false, false);
+
+        LoweredProgram foldedProgram = Lowering.lower(folded, CompiledScriptCache.hashOf(script));
+        LoweredProgram unfoldedProgram = Lowering.lower(unfolded, CompiledScriptCache.hashOf(script));
+        Assert.assertTrue(foldedProgram.getNodeCount() < unfoldedProgram.getNodeCount());
+        Assert.assertEquals(execute(unfoldedProgram), execute(foldedProgram));
+        Assert.assertEquals(312, execute(foldedProgram));
+    }
+
+    /**
+     * 降级后的节点比语法树少得多,常驻内存时只保留降级后的脚本,见 ScriptImageBenchmark
+     */
+    @Test
+    public void test_lowered_program_is_smaller_than_parse_tree() {
+        for (int i = 0; i < 3; i++) {
+            String script = script(i);
+            AnnotatedTree at = new PlayScriptCompiler().compile(script, false, false);
+            LoweredProgram program = new PlayScriptCompiler().lower(script);
+            int parseTreeNodes = at.getCompileStats().getParseTreeNodeCount();
+            Assert.assertTrue(program.getNodeCount() + " vs " + parseTreeNodes, program.getNodeCount() * 2 < parseTreeNodes);
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void test_unsupported_construct_is_rejected() {
+        ScriptImageLoader.compile("int f(int a) { return a; } function int(int) g = f; g(1);");
+    }
+
+    @Test
+    public void test_stale_image_falls_back_to_source() throws IOException {
+        Path dir = Files.createTempDirectory("playc");
+        Path source = dir.resolve("script.play");
+        Path image = ScriptImageLoader.imagePathOf(source);
+        try {
+            Assert.assertEquals(dir.resolve("script.playc"), image);
+            Files.write(source, "int a = 2; a * 21;".getBytes(StandardCharsets.UTF_8));
+
+            ScriptImageLoader loader = new ScriptImageLoader();
+            Assert.assertEquals(42, execute(loader.load(source)));
+            Assert.assertEquals(1, loader.getSourceCompiles());
+            Assert.assertTrue(Files.exists(image));
+
+            Assert.assertEquals(42, execute(loader.load(source)));
+            Assert.assertEquals(1, loader.getImageLoads());
+
+            //源码改了,映像过期
+            Files.write(source, "int a = 3; a * 21;".getBytes(StandardCharsets.UTF_8));
+            Assert.assertEquals(63, execute(loader.load(source)));
+            Assert.assertEquals(2, loader.getSourceCompiles());
+            Assert.assertEquals(63, execute(loader.load(source)));
+            Assert.assertEquals(2, loader.getImageLoads());
+
+            //映像损坏
+            byte[] bytes = Files.readAllBytes(image);
+            Files.write(image, Arrays.copyOf(bytes, bytes.length / 2));
+            Assert.assertEquals(63, execute(loader.load(source)));
+            Assert.assertEquals(3, loader.getSourceCompiles());
+
+            //版本不对
+            bytes = Files.readAllBytes(image);
+            bytes[7] = (byte) (ScriptImage.VERSION + 1);
+            Files.write(image, bytes);
+            Assert.assertNull(ScriptImage.readSourceHash(image));
+            Assert.assertEquals(63, execute(loader.load(source)));
+            Assert.assertEquals(4, loader.getSourceCompiles());
+            Assert.assertEquals(2, loader.getImageLoads());
+        } finally {
+            Files.deleteIfExists(image);
+            Files.deleteIfExists(source);
+            Files.delete(dir);
+        }
+    }
+
+    static Object execute(LoweredProgram program) throws UnsupportedEncodingException {
+        return NodeProgram.of(program).execute(new PrintStream(new ByteArrayOutputStream(), true, "UTF-8"));
+    }
+
+    /**
+     * 生成测试用的脚本,有若干函数和嵌套的循环
+     */
+    static String script(int i) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("int total = ").append(i).append(";\n");
+        for (int j = 0; j < 40; j++) {
+            builder.append("int f").append(j).append("(int a, int b) {\n")
+                    .append("    int c = a * b + ").append(j).append(";\n")
+                    .append("    for (int k = 0; k < a; k++) { if (k % 3 == 0) { c = c + k; } else { c -= 1; } }\n")
+                    .append("    while (c > 1000) { c = c / 2; }\n")
+                    .append("    return c;\n")
+                    .append("}\n");
+            builder.append("total = total + f").append(j).append("(").append(j % 7).append(", total % 13);\n");
+        }
+        builder.append("total;\n");
+        return builder.toString();
+    }
+}
@@ -0,0 +1,37 @@
+package play.compiler.script.compile;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @Author: zhangchong
+ * @Description: 基准测试:PlayScript 中的热循环,按栈桢距离存取变量与沿栈桢按作用域查找。
+ * 10^8 次循环太慢,这里跑 10^6 次,按每次循环的耗时推算
+ */
+public class SlotResolverBenchmark {
+
+    @Test
+    public void benchmark_hot_loop() {
+        int iterations = 1000000;
+        String script = "int age = 18; for(int i = 0;i<" + iterations + ";i++) { age = age + 2;} age;";
+        AnnotatedTree at = new PlayScriptCompiler().compile(script, false, false);
+        IntNodeTable distances = at.frameDistanceOfNode;
+        IntNodeTable none = new IntNodeTable(at);
+
+        long slotNanos = Long.MAX_VALUE;
+        long searchNanos = Long.MAX_VALUE;
+        for (int round = 0; round < 3; round++) {
+            at.frameDistanceOfNode = distances;
+            long start = System.nanoTime();
+            Assert.assertEquals(18 + 2 * iterations, new ASTEvaluator(at).visit(at.ast));
+            slotNanos = Math.min(slotNanos, System.nanoTime() - start);
+
+            at.frameDistanceOfNode = none;
+            start = System.nanoTime();
+            Assert.assertEquals(18 + 2 * iterations, new ASTEvaluator(at).visit(at.ast));
+            searchNanos = Math.min(searchNanos, System.nanoTime() - start);
+        }
+        BenchmarkSupport.report("SlotResolverBenchmark", "%d iterations: frame distance %.1f ns/iteration (%.1f s per 10^8), frame search %.1f ns/iteration",
+                iterations, slotNanos / (double) iterations, slotNanos / (double) iterations / 10, searchNanos / (double) iterations);
+    }
+}
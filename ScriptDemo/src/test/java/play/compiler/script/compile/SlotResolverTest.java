@@ -0,0 +1,96 @@
+package play.compiler.script.compile;
+
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.junit.Assert;
+import org.junit.Test;
+import play.compiler.script.generate.PlayScriptParser.PrimaryContext;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @Author: zhangchong
+ * @Description:
+ */
+public class SlotResolverTest {
+
+    @Test
+    public void test_slots_and_frame_distances() {
+        AnnotatedTree at = new PlayScriptCompiler().compile(
+                "int g = 1; int f(int a, int b) { int c = a + b; for (int i = 0; i < 2; i++) { { int d = g + c + i; } } return c; } f(1, 2);",
+                false, false);
+        Assert.assertFalse(at.hasCompilationError());
+
+        FunctionScope f = at.lookupFunction(at.nameSpace, "f");
+        //参数占最前面的槽位
+        Assert.assertEquals(0, f.parameters.get(0).getSlot());
+        Assert.assertEquals(1, f.parameters.get(1).getSlot());
+        Assert.assertEquals(2, f.getVariable("c").getSlot());
+        Assert.assertEquals(3, f.getVariableCount());
+        Assert.assertEquals(0, at.nameSpace.getVariable("g").getSlot());
+
+        //d的初始化表达式所在的块 -> for的循环体 -> for -> f -> 全局,i第一次出现在for的条件中
+        Assert.assertEquals(Arrays.asList(4, 3, 0), distancesOf(at, "g", "c", "i"));
+    }
+
+    @Test
+    public void test_evaluate_with_and_without_frame_distances() {
+        List<String> scripts = Arrays.asList(
+                "int age = 18; for (int i = 0; i < 10; i++) { age = age + 2; } age;",
+                "int fact(int n) { if (n <= 1) return 1; return n * fact(n - 1); } fact(10);",
+                "int outer(int n) { int k = n * 2; int inner(int m) { return m + k; } return inner(1) + inner(2); } outer(3);",
+                "int twice(int v) { return v + v; } function int(int) h = twice; int s = 0; { int j = 1; while (j < 4) { s = s + h(j); j++; } } s;",
+                "long total = 0; for (int i = 0; i < 5; i++) { for (int j = 0; j < i; j++) { int k = i * j; total += k; } } total;");
+        for (String script : scripts) {
+            AnnotatedTree at = new PlayScriptCompiler().compile(script, false, false);
+            Assert.assertFalse(script, at.hasCompilationError());
+            Object expected = new ASTEvaluator(at).visit(at.ast);
+            at.frameDistanceOfNode = new IntNodeTable(at);
+            Assert.assertEquals(script, expected, new ASTEvaluator(at).visit(at.ast));
+        }
+    }
+
+    /**
+     * 按栈桢距离走到的栈桢与变量的作用域对不上是内部错误,不会悄悄退回到查找
+     */
+    @Test
+    public void test_frame_mismatch_is_an_internal_error() {
+        AnnotatedTree at = new PlayScriptCompiler().compile("int g = 1; { int b = g + 1; g = g + b; } g;", false, false);
+        Assert.assertFalse(at.hasCompilationError());
+        ParserRuleContext b = firstPrimary(at.ast, "b");
+        Assert.assertEquals(0, at.frameDistanceOfNode.get(b));
+        Assert.assertEquals(3, new ASTEvaluator(at).visit(at.ast));
+
+        at.frameDistanceOfNode.put(b, 1);
+        try {
+            new ASTEvaluator(at).visit(at.ast);
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("ASTEvaluator#containerOf:frame 1 levels up"));
+        }
+    }
+
+    /**
+     * 按出现的顺序找出第一个引用了这些变量的节点,返回它们的栈桢距离
+     */
+    private static List<Integer> distancesOf(AnnotatedTree at, String... names) {
+        List<Integer> rtn = new ArrayList<Integer>();
+        for (String name : names) {
+            rtn.add(at.frameDistanceOfNode.get(firstPrimary(at.ast, name)));
+        }
+        return rtn;
+    }
+
+    private static ParserRuleContext firstPrimary(ParseTree tree, String name) {
+        ParserRuleContext rtn = null;
+        if (tree instanceof PrimaryContext && tree.getText().equals(name)) {
+            rtn = (ParserRuleContext) tree;
+        }
+        for (int i = 0; rtn == null && i < tree.getChildCount(); i++) {
+            rtn = firstPrimary(tree.getChild(i), name);
+        }
+        return rtn;
+    }
+}
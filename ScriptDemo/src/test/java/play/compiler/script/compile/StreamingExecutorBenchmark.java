@@ -0,0 +1,33 @@
+package play.compiler.script.compile;
+
+import org.junit.Assert;
+import org.junit.Test;
+import play.compiler.script.compile.StreamingExecutorTest.GeneratedScript;
+
+/**
+ * @Author: zhangchong
+ * @Description: 基准测试:流式执行很长的脚本时的耗时和峰值堆内存,峰值内存应当不随语句数增长
+ */
+public class StreamingExecutorBenchmark {
+
+    @Test
+    public void benchmark_large_script_memory() {
+        //先跑一遍,排除类加载和JIT的影响
+        new StreamingExecutor().execute(new GeneratedScript(10000));
+
+        for (int statements : new int[]{20000, 200000}) {
+            System.gc();
+            BenchmarkSupport.resetPeakHeap();
+            long base = BenchmarkSupport.usedHeap();
+            long start = System.nanoTime();
+            StreamingExecutor executor = new StreamingExecutor();
+            Object result = executor.execute(new GeneratedScript(statements));
+            long nanos = System.nanoTime() - start;
+            long peak = BenchmarkSupport.peakHeap() - base;
+
+            Assert.assertEquals(GeneratedScript.expectedTotal(statements), result);
+            BenchmarkSupport.report("StreamingExecutorBenchmark", "%d statements: %d ms, peak heap +%d KB, max %d tokens per statement",
+                    executor.getStatementCount(), nanos / 1000000, peak / 1024, executor.getMaxStatementTokens());
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package play.compiler.script.compile;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * @Author: zhangchong
+ * @Description:
+ */
+public class StreamingExecutorTest {
+
+    @Test
+    public void test_same_result_as_compile() {
+        String script = "int total = 0; int twice(int x) { return x * 2; }"
+                + "for (int i = 0; i < 10; i++) { total = total + twice(i); }"
+                + "{ int local = 5; total = total + local; }"
+                + "long big = total; big = big * 1000000000L; total;";
+
+        PlayScriptCompiler compiler = new PlayScriptCompiler();
+        Object expected = compiler.Execute(compiler.compile(script, false, false));
+
+        StreamingExecutor executor = new StreamingExecutor();
+        Assert.assertEquals(expected, executor.execute(new StringReader(script)));
+        Assert.assertEquals(7, executor.getStatementCount());
+        Assert.assertFalse(executor.getAnnotatedTree().hasCompilationError());
+    }
+
+    @Test
+    public void test_println_and_utf8_input() throws UnsupportedEncodingException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        StreamingExecutor executor = new StreamingExecutor();
+        executor.setOut(new PrintStream(buffer, true, "UTF-8"));
+
+        executor.execute(new StringReader("//中文注释\nstring s = \"年龄:\"; int age = 44; println(s + age);"));
+
+        Assert.assertEquals(String.format("年龄:44%n"), buffer.toString("UTF-8"));
+    }
+
+    @Test
+    public void test_statement_annotations_are_released() {
+        StreamingExecutor executor = new StreamingExecutor();
+        Object result = executor.execute(new GeneratedScript(5000));
+        AnnotatedTree at = executor.getAnnotatedTree();
+
+        Assert.assertEquals(GeneratedScript.expectedTotal(5000), result);
+        //只保留函数声明的语义信息
+        int functionNodes = at.typeOfNode.size();
+        Assert.assertTrue(String.valueOf(functionNodes), functionNodes < 50);
+        Assert.assertTrue(at.symbolOfNode.size() < 50);
+        Assert.assertEquals(1, at.node2Scope.size());
+        //释放的节点编号被重用,编号的个数不随语句数增长
+        Assert.assertTrue(String.valueOf(at.getNodeIdCount()), at.getNodeIdCount() < 200);
+        //全局命名空间中只剩下全局变量和函数,语句的块作用域都已经去掉
+        for (Symbol symbol : at.nameSpace.symbols) {
+            Assert.assertFalse(symbol.toString(), symbol instanceof BlockScope);
+            if (symbol instanceof Variable) {
+                Assert.assertNull(symbol.ctx.getParent());
+            }
+        }
+        Assert.assertEquals(2, at.nameSpace.symbols.size());
+    }
+
+    @Test
+    public void test_stops_at_syntax_error() {
+        StreamingExecutor executor = new StreamingExecutor();
+        Object result = executor.execute(new StringReader("int a = 1; a = a + 1; a = a + ; int b = 2;"));
+
+        Assert.assertEquals(2, result);
+        Assert.assertEquals(2, executor.getStatementCount());
+        Assert.assertTrue(executor.getAnnotatedTree().hasCompilationError());
+    }
+
+    @Test
+    public void test_stops_at_semantic_error() {
+        StreamingExecutor executor = new StreamingExecutor();
+        //流式执行时函数要先声明后调用
+        executor.execute(new StringReader("int a = 1; a = later(a); int later(int x) { return x; }"));
+
+        Assert.assertEquals(1, executor.getStatementCount());
+        Assert.assertTrue(executor.getAnnotatedTree().getLogs().get(0).getMessage().contains("later"));
+    }
+
+    /**
+     * 流式执行一个很长的脚本,执行完的语句不再保留语义信息,所以峰值内存只取决于最大的一条语句。
+     * 内存和耗时的测量见 StreamingExecutorBenchmark
+     */
+    @Test
+    public void test_large_script_forgets_executed_statements() {
+        StreamingExecutor executor = new StreamingExecutor();
+        Object result = executor.execute(new GeneratedScript(20000));
+
+        Assert.assertEquals(GeneratedScript.expectedTotal(20000), result);
+        Assert.assertEquals(20003, executor.getStatementCount());
+        Assert.assertTrue(executor.getMaxStatementTokens() < 100);
+        AnnotatedTree at = executor.getAnnotatedTree();
+        Assert.assertTrue(at.typeOfNode.size() < 50);
+        Assert.assertTrue(at.symbolOfNode.size() < 50);
+    }
+
+    /**
+     * 边读边生成的脚本,不会在内存中保存整个脚本
+     */
+    static class GeneratedScript extends Reader {
+        private final int statements;
+        private int next = 0;
+        private String current = "int total = 0;\nint weight(int k) { return k % 7; }\n";
+        private int position = 0;
+
+        GeneratedScript(int statements) {
+            this.statements = statements;
+        }
+
+        /**
+         * 生成的脚本最后一条语句的值
+         */
+        static Object expectedTotal(int statements) {
+            int total = 0;
+            for (int k = 0; k < statements; k++) {
+                if (k % 100 == 99) {
+                    for (int j = 0; j < 3; j++) {
+                        total = total + j;
+                    }
+                } else if (k % 10 == 9) {
+                    int t = k % 5;
+                    total = total - t;
+                } else {
+                    total = total + k % 7;
+                }
+            }
+            return total;
+        }
+
+        private String statement(int k) {
+            String result;
+            if (k % 100 == 99) {
+                result = "for (int j = 0; j < 3; j++) { total = total + j; }\n";
+            } else if (k % 10 == 9) {
+                result = "{ int t = " + k + " % 5; total = total - t; }\n";
+            } else {
+                result = "total = total + weight(" + k + ");\n";
+            }
+            return result;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            if (position == current.length()) {
+                if (next > statements) {
+                    return -1;
+                }
+                current = next < statements ? statement(next) : "total;\n";
+                position = 0;
+                next++;
+            }
+            int count = Math.min(length, current.length() - position);
+            current.getChars(position, position + count, buffer, offset);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
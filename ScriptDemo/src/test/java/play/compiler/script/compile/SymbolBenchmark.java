@@ -0,0 +1,107 @@
+package play.compiler.script.compile;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * @Author: zhangchong
+ * @Description: 基准测试:深层嵌套块中的变量存取。
+ * 原来Symbol的哈希值沿enclosingScope递归计算,LegacyKey按原来的算法重现,用来对比
+ */
+public class SymbolBenchmark {
+
+    @Test
+    public void benchmark_nested_variable_access() {
+        int depth = 200;
+        AnnotatedTree at = new PlayScriptCompiler().compile(SymbolTest.nestedScript(depth, 2000), false, false);
+        Assert.assertFalse(at.hasCompilationError());
+        Variable deepest = at.nameSpace.getVariable("total");
+        Scope scope = at.nameSpace;
+        while (scope.getVariable("v") == null) {
+            scope = firstBlock(scope);
+        }
+        Variable inner = scope.getVariable("v");
+        Assert.assertNotNull(inner);
+
+        Map<Variable, Object> byId = new HashMap<Variable, Object>();
+        Map<LegacyKey, Object> legacy = new HashMap<LegacyKey, Object>();
+        byId.put(inner, 1);
+        byId.put(deepest, 2);
+        legacy.put(new LegacyKey(inner), 1);
+        legacy.put(new LegacyKey(deepest), 2);
+
+        int lookups = 200000;
+        long legacyNanos = Long.MAX_VALUE;
+        long idNanos = Long.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            long sum = 0;
+            for (int i = 0; i < lookups; i++) {
+                sum += (Integer) legacy.get(new LegacyKey(inner));
+            }
+            legacyNanos = Math.min(legacyNanos, System.nanoTime() - start);
+            Assert.assertEquals(lookups, sum);
+
+            start = System.nanoTime();
+            sum = 0;
+            for (int i = 0; i < lookups; i++) {
+                sum += (Integer) byId.get(inner);
+            }
+            idNanos = Math.min(idNanos, System.nanoTime() - start);
+            Assert.assertEquals(lookups, sum);
+        }
+
+        long start = System.nanoTime();
+        Object result = new ASTEvaluator(at).visit(at.ast);
+        long evaluateNanos = System.nanoTime() - start;
+        Assert.assertEquals(2000, result);
+
+        BenchmarkSupport.report("SymbolBenchmark", "depth %d: recursive hash %.1f ns/lookup, id hash %.1f ns/lookup, evaluate %d ms",
+                depth, legacyNanos / (double) lookups, idNanos / (double) lookups, evaluateNanos / 1000000);
+    }
+
+    private static Scope firstBlock(Scope scope) {
+        Scope rtn = null;
+        for (Symbol symbol : scope.symbols) {
+            if (symbol instanceof BlockScope) {
+                rtn = (Scope) symbol;
+                break;
+            }
+        }
+        return rtn;
+    }
+
+    /**
+     * 按原来的Symbol#equals和Symbol#hashCode比较的键
+     */
+    private static final class LegacyKey {
+        private final Symbol symbol;
+
+        private LegacyKey(Symbol symbol) {
+            this.symbol = symbol;
+        }
+
+        private static boolean legacyEquals(Symbol a, Symbol b) {
+            return a == b || (a != null && b != null && a.getClass() == b.getClass() && a.visibility == b.visibility
+                    && Objects.equals(a.name, b.name) && legacyEquals(a.enclosingScope, b.enclosingScope));
+        }
+
+        private static int legacyHash(Symbol symbol) {
+            return symbol == null ? 0 : Objects.hash(symbol.name, legacyHash(symbol.enclosingScope), symbol.visibility);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof LegacyKey && legacyEquals(symbol, ((LegacyKey) o).symbol);
+        }
+
+        @Override
+        public int hashCode() {
+            return legacyHash(symbol);
+        }
+    }
+}
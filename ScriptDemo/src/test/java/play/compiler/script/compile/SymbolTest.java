@@ -0,0 +1,85 @@
+package play.compiler.script.compile;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * @Author: zhangchong
+ * @Description:
+ */
+public class SymbolTest {
+
+    @Test
+    public void test_ids_are_dense_and_unique() {
+        AnnotatedTree at = new PlayScriptCompiler().compile(
+                "int a = 1; int f(int x) { { int y = x; return y; } } class C { int z = 2; } for (int i = 0; i < 2; i++) { a++; }",
+                false, false);
+        Assert.assertFalse(at.hasCompilationError());
+
+        Set<Integer> ids = new HashSet<Integer>();
+        collectIds(at.nameSpace, ids);
+        Assert.assertEquals(at.getSymbolIdCount(), ids.size());
+        for (int id = 0; id < at.getSymbolIdCount(); id++) {
+            Assert.assertTrue(String.valueOf(id), ids.contains(id));
+        }
+    }
+
+    @Test
+    public void test_equality_is_identity() {
+        BlockScope scope = new BlockScope();
+        Variable a1 = new Variable("a", scope, null);
+        Variable a2 = new Variable("a", scope, null);
+        Assert.assertNotEquals(a1, a2);
+        Assert.assertTrue(a1.isSameDeclaration(a2));
+        Assert.assertFalse(a1.isSameDeclaration(new Variable("a", new BlockScope(), null)));
+
+        //重复声明照样能发现
+        Assert.assertTrue(scope.addSymbol(a1));
+        Assert.assertFalse(scope.addSymbol(a2));
+        Assert.assertTrue(new PlayScriptCompiler().compile("int a = 1; int a = 2;", false, false).hasCompilationError());
+    }
+
+    /**
+     * 深层嵌套块中的变量按声明存取,不会与其他块中同名的变量混淆
+     */
+    @Test
+    public void test_nested_variable_access() {
+        AnnotatedTree at = new PlayScriptCompiler().compile(nestedScript(200, 2000), false, false);
+        Assert.assertFalse(at.hasCompilationError());
+        Assert.assertEquals(2000, new ASTEvaluator(at).visit(at.ast));
+    }
+
+    private static void collectIds(Scope scope, Set<Integer> ids) {
+        Assert.assertTrue(scope.name, ids.add(scope.getId()));
+        for (Symbol symbol : scope.symbols) {
+            if (symbol instanceof Scope) {
+                collectIds((Scope) symbol, ids);
+            } else {
+                Assert.assertTrue(symbol.name, ids.add(symbol.getId()));
+            }
+        }
+        if (scope instanceof ClassScope && !scope.symbols.contains(((ClassScope) scope).getThisRef())) {
+            Assert.assertTrue(ids.add(((ClassScope) scope).getThisRef().getId()));
+        }
+    }
+
+    /**
+     * 生成depth层嵌套的块,在最里层循环count次存取外层和本层的变量
+     */
+    static String nestedScript(int depth, int count) {
+        StringBuilder builder = new StringBuilder("int total = 0;\n");
+        for (int i = 0; i < depth; i++) {
+            builder.append("{ int b").append(i).append(" = ").append(i).append(";\n");
+        }
+        builder.append("int v = 0;\n");
+        builder.append("for (int i = 0; i < ").append(count).append("; i++) { v = v + 1; total = v; }\n");
+        for (int i = 0; i < depth; i++) {
+            builder.append("}\n");
+        }
+        builder.append("total;\n");
+        return builder.toString();
+    }
+}
@@ -0,0 +1,92 @@
+package play.compiler.script.compile;
+
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.tree.Trees;
+import org.junit.Assert;
+import org.junit.Test;
+import play.compiler.script.generate.PlayScriptParser;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @Author: zhangchong
+ * @Description: 两阶段(SLL->LL)语法分析与只用LL模式分析得到的AST必须完全相同
+ */
+public class TwoStageParsingTest {
+
+    /**
+     * PlayScriptCompilerTest 中的程序,以及一些其他合法的程序
+     */
+    private static final String[] PROGRAMS = {
+            "int age = 44; for(int i = 0;i<10;i++) { age = age + 2;} int i = 8;",
+            "int b= 10; int myfunc(int a) {return a+b+3;} myfunc(2);",
+            "int fib(int n) { if (n < 2) return n; else return fib(n-1) + fib(n-2); } fib(10);",
+            "class Mammal { int weight = 10; void speak() { } } int x = 1; while (x < 10) { x = x * 2; }",
+            "long sum = 0; int i = 0; do { sum += i; i++; } while (i <= 100);",
+    };
+
+    @Test
+    public void test_programs_parse_identically() {
+        for (String script : PROGRAMS) {
+            AnnotatedTree ll = compile(script, false);
+            AnnotatedTree twoStage = compile(script, true);
+
+            Assert.assertEquals(PredictionMode.LL, ll.getParseMode());
+            Assert.assertEquals(script, PredictionMode.SLL, twoStage.getParseMode());
+            Assert.assertEquals(script, treeOf(ll), treeOf(twoStage));
+        }
+    }
+
+    @Test
+    public void test_test_data_parse_identically() throws IOException {
+        List<Path> files = playFiles();
+        Assert.assertFalse(files.isEmpty());
+
+        for (Path file : files) {
+            String script = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+            AnnotatedTree ll = compile(script, false);
+            AnnotatedTree twoStage = compile(script, true);
+
+            Assert.assertNotNull(twoStage.getParseMode());
+            Assert.assertEquals(file.toString(), treeOf(ll), treeOf(twoStage));
+        }
+    }
+
+    @Test
+    public void test_syntax_error_falls_back_to_ll() {
+        String script = "int a = 1; 2+6/3";
+        AnnotatedTree ll = compile(script, false);
+        AnnotatedTree twoStage = compile(script, true);
+
+        Assert.assertEquals(PredictionMode.LL, twoStage.getParseMode());
+        Assert.assertEquals(treeOf(ll), treeOf(twoStage));
+    }
+
+    private static AnnotatedTree compile(String script, boolean twoStage) {
+        PlayScriptCompiler compiler = new PlayScriptCompiler();
+        compiler.setTwoStageParsing(twoStage);
+        return compiler.compile(script, false, false);
+    }
+
+    private static String treeOf(AnnotatedTree at) {
+        return Trees.toStringTree(at.ast, Arrays.asList(PlayScriptParser.ruleNames));
+    }
+
+    private static List<Path> playFiles() throws IOException {
+        List<Path> files = new ArrayList<Path>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get("../TestData"), "*.play")) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+}
@@ -0,0 +1,112 @@
+package play.compiler.script.compile;
+
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.junit.Assert;
+import org.junit.Test;
+import play.compiler.script.generate.PlayScriptParser.ExpressionContext;
+import play.compiler.script.runtime.Operator;
+import play.compiler.script.runtime.PrimitiveType;
+import play.compiler.script.runtime.Type;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @Author: zhangchong
+ * @Description:
+ */
+public class TypeCheckerTest {
+
+    private static final List<String> SCRIPTS = Arrays.asList(
+            "int a = 7; long b = 3L; a < b;",
+            "int a = 7; long b = 3L; a * b + a / 2 - b % 2;",
+            "float f = 1.5f; double d = 2; f * d > d;",
+            "short s = 3; s = s + s; s * s;",
+            "int i = 5; i += 2L; i -= 1; i *= 3; i /= 2; i %= 5; i;",
+            "int i = 0; int j = i++ + ++i - i-- - --i; -j;",
+            "long l = 6; (l & 3) + (l | 8) + (l ^ 1) + (7 & 2);",
+            "boolean t = true; boolean f = false; (t & f) == (t ^ f) != (t | f);",
+            "string s = \"n=\" + 1; s += 2; s == \"n=12\";",
+            "int k = 3; k == 3L && k != 4 || k >= 5 ? k <= 2 : k > 0;");
+
+    @Test
+    public void test_operand_types_are_recorded_for_every_expression() {
+        for (String script : SCRIPTS) {
+            AnnotatedTree at = new PlayScriptCompiler().compile(script, false, false);
+            Assert.assertFalse(script, at.hasCompilationError());
+            for (ExpressionContext exp : expressions(at.ast)) {
+                Assert.assertNotNull(script + " @ " + exp.getText(), at.operandTypeOfNode.get(exp));
+            }
+        }
+
+        AnnotatedTree at = new PlayScriptCompiler().compile(SCRIPTS.get(0), false, false);
+        ExpressionContext compare = last(expressions(at.ast), "a<b");
+        Assert.assertEquals(PrimitiveType.Boolean, at.typeOfNode.get(compare));
+        Assert.assertEquals(PrimitiveType.Long, at.operandTypeOfNode.get(compare));
+        Assert.assertNotNull(at.operatorOfNode.get(compare));
+    }
+
+    @Test
+    public void test_specialized_operators_match_generic_dispatch() {
+        for (String script : SCRIPTS) {
+            AnnotatedTree at = new PlayScriptCompiler().compile(script, false, false);
+            Object expected = new ASTEvaluator(at).visit(at.ast);
+            at.operatorOfNode = new NodeTable<Operator>(at);
+            at.operandTypeOfNode = new NodeTable<Type>(at);
+            Object generic = new ASTEvaluator(at).visit(at.ast);
+            Assert.assertEquals(script, generic, expected);
+            Assert.assertEquals(script, generic.getClass(), expected.getClass());
+        }
+    }
+
+    @Test
+    public void test_type_errors() {
+        List<String> errors = Arrays.asList(
+                "if (1) { }",
+                "int i = 0; while (i) { i++; }",
+                "for (int i = 0; i + 1; i++) { }",
+                "int x = \"s\";",
+                "string s = 1;",
+                "boolean b = true; b = 2;",
+                "boolean b = 1 && true;",
+                "!3;",
+                "int i = 1; i > 0 ? 1 : 2; i ? 1 : 2;");
+        for (String script : errors) {
+            Assert.assertTrue(script, new PlayScriptCompiler().compile(script, false, false).hasCompilationError());
+        }
+
+        List<String> valid = Arrays.asList(
+                "long l = 1; double d = l; float f = 2; int i = 3L; short s = 4;",
+                "char c = 'a'; int i = c;",
+                "string s = null; boolean b = !(1 < 2) || s == null;");
+        for (String script : valid) {
+            Assert.assertFalse(script, new PlayScriptCompiler().compile(script, false, false).hasCompilationError());
+        }
+    }
+
+    private static List<ExpressionContext> expressions(ParseTree tree) {
+        List<ExpressionContext> rtn = new ArrayList<ExpressionContext>();
+        collect(tree, rtn);
+        return rtn;
+    }
+
+    private static void collect(ParseTree tree, List<ExpressionContext> expressions) {
+        if (tree instanceof ExpressionContext) {
+            expressions.add((ExpressionContext) tree);
+        }
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            collect(tree.getChild(i), expressions);
+        }
+    }
+
+    private static ExpressionContext last(List<ExpressionContext> expressions, String text) {
+        ExpressionContext rtn = null;
+        for (ExpressionContext exp : expressions) {
+            if (exp.getText().equals(text)) {
+                rtn = exp;
+            }
+        }
+        return rtn;
+    }
+}
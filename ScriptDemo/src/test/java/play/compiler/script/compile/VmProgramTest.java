@@ -0,0 +1,135 @@
+package play.compiler.script.compile;
+
+import org.junit.Assert;
+import org.junit.Test;
+import play.compiler.script.object.NullObject;
+import play.compiler.script.vm.VmProgram;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @Author: zhangchong
+ * @Description:
+ */
+public class VmProgramTest {
+
+    private static final List<String> SCRIPTS = Arrays.asList(
+            "int age = 44; for(int i = 0;i<10;i++) { age = age + 2;} age;",
+            "int b= 10; int myfunc(int a) {return a+b+3;} myfunc(2);",
+            "int fib(int n) { if (n < 2) { return n; } return fib(n - 1) + fib(n - 2); } fib(15);",
+            "int sum = 0; int i = 0; while (true) { i++; if (i > 10) break; if (i % 2 == 0) continue; sum += i; } sum;",
+            "int n = 0; do { n = n + 1; } while (n < 0); n;",
+            "int i = 0; int s = 0; do { i++; if (i % 2 == 0) continue; s += i; } while (i < 9); s;",
+            "int i = 0; for (;;) { i++; if (i == 4) break; } i;",
+            "int a = 1; { int a = 2; a = a + 5; } { int b = a + 2; a = b; } a;",
+            "long l = 5; l = l + 2; l *= 3; l--; --l; l;",
+            "long fact(long n) { if (n <= 1) return 1; return n * fact(n - 1); } fact(20);",
+            "long s = 0; for (int i = 0; i < 100; i++) { s += i * 3 % 7; } s > 200 && s != 300;",
+            "float f = 1; f = f + 1.5; f++; f;",
+            "float f = 2.5; int i = 2; f * i + f / i - f % i;",
+            "double x = 0; for (int i = 0; i < 20; i++) { x = x * 0.5 + i; } x;",
+            "double d = 2; -d + -(0.0) + 7 / 2 + 7.0 % 2;",
+            "double d = 3.7; int i = d; long l = d; float f = d; println(i); println(l); println(f); i + l + f;",
+            "double d = 0.0 / 0.0; println(d < 1); println(d > 1); println(d <= 1); println(d >= 1); d != d;",
+            "double h(double x) { if (x < 1) return x; return h(x / 2) + 1; } h(100);",
+            "long big = 3000000000L * 2; (big >>> 3) + (big << 2) + (big >> 1);",
+            "int x = 7; int y = -x; ~y + (x << 2) + (x >> 1) + (x & 3) + (x | 8) + (x ^ 5);",
+            "int x = 2147483647; x + 1;",
+            "int x = 12; x &= 10; x |= 1; x ^= 3; int y = -16; y >>>= 28; y <<= 2; y >>= 1; x * 100 + y;",
+            "long l = 1; l <<= 40; l |= 5; l >>= 1; short s = 1; s <<= 3; boolean b = true; b &= false; println(b); l + s;",
+            "int x = 3; boolean b = x > 2 && x < 5 || !(x == 3); b ? x : -x;",
+            "boolean b = true; b & false | true;",
+            "boolean t = true; boolean f = false; println(t == f); t != f;",
+            "int i = 0; i += 2.5; i *= 3; i -= 1; i /= 2; i %= 3; i;",
+            "int x = 3; long y = 4; x > 2 ? x : y;",
+            "string s = \"年龄\"; int age = 44; println(s + age); s + \":\" + age;",
+            "double d = 1.5; \"v=\" + d + 1;",
+            "char c = 'z'; c == 'z';",
+            "int counter = 0; void inc() { counter++; } for (int i = 0; i < 5; i++) { inc(); } counter;",
+            "int cnt = 0; int next() { cnt = cnt + 1; return cnt; } int a = next() * 10 + next(); a;",
+            "int outer(int n) { int k = n * 2; int inner(int m) { return m + k; } return inner(1); } outer(20);",
+            "int total = 0; { int base = 100; int add(int v) { return base + v; } total = add(5); } total;",
+            "int f(int n) { return n <= 0 ? 0 : -f(n - 1) + n; } f(5);",
+            "int f(int n) { if (n > 0) { return n; } } f(1) + 1; f(-1);",
+            "int add3(int a) { return a + 3; } long l = add3(4); l * 2;",
+            "void p(int v) { println(v); } p(3); p(4);",
+            "int i = 5; int j = i++ + ++i; j * 100 + i;",
+            "println(); println(1 + 2); for (int i = 0, j = 10; i < j; i += 3, j--) { println(i * j); }",
+            "int f(int a) { if (a > 0) { for (int i = 0; ; i++) { if (i == a) { return i * 10; } } } return -1; } f(4) + f(0);",
+            "int g(int a) { int b = a; return b; } int u; g(1); g(u);",
+            "boolean b = 1 > 2; if (b) 1; else 2;",
+            //没有赋值的变量、char赋给int、short运算、使用在声明之前的变量,都与 ASTEvaluator 一样
+            "int x; int y = x; y;",
+            "int x = 'a'; x;",
+            "short s = 3; short t = 4; s + t;",
+            "short s = 3; s = s * 2; s;",
+            "short s = 3; s++; s;",
+            //char、byte、short按Java的规则提升为int运算,自增和复合赋值的结果转换回原来的类型
+            "int x = 'a'; x + 1;",
+            "char c = 'a'; c++; ++c; c += 1; println(c); c + 1;",
+            "char c = 'b'; (c < 'c') && (c - 'a' == 1) ? -c : ~c;",
+            "byte b = 127; b++; short s = -1; s--; println(b); b * 3 + s + (c2() << 1); char c2() { return 'A'; }",
+            "int r = g; int g = 5; r;",
+            "int f() { return g; } int r = f(); int g = 5; r;",
+            "for (int i = 0; i < 3; i++) { int k; println(k); k = 5; println(k); }",
+            "return 42; 1;");
+
+    /**
+     * 与 ASTEvaluator 对比结果和输出,同一个 VmProgram 执行两次
+     */
+    @Test
+    public void test_matches_evaluator() throws Exception {
+        EngineTestSupport.assertMatchesEvaluator(SCRIPTS, program -> VmProgram.of(program)::execute);
+    }
+
+    /**
+     * 特化的指令与通用运算一样抛出异常
+     */
+    @Test
+    public void test_errors_match_evaluator() {
+        PlayScriptCompiler compiler = new PlayScriptCompiler();
+        compiler.setEngine(ExecutionEngine.VM);
+        try {
+            compiler.Execute(compiler.compile("int x = 1; int y = 0; for (int i = 0; i < 3; i++) { y = x / (2 - i); } y;", false, false));
+            Assert.fail();
+        } catch (ArithmeticException e) {
+            Assert.assertEquals("/ by zero", e.getMessage());
+        }
+        try {
+            compiler.Execute(compiler.compile("int z; z++;", false, false));
+            Assert.fail();
+        } catch (ClassCastException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("NullObject"));
+        }
+        Assert.assertEquals(NullObject.instance(), compiler.Execute(compiler.compile("boolean b; b;", false, false)));
+    }
+
+    /**
+     * 无法降级的脚本不悄悄退回到 ASTEvaluator,抛出的异常中有 Lowering 拒绝的语法
+     */
+    @Test
+    public void test_unsupported_script_is_rejected() {
+        PlayScriptCompiler compiler = new PlayScriptCompiler();
+        Assert.assertEquals(ExecutionEngine.NODE_TREE, compiler.getEngine());
+        compiler.setEngine(ExecutionEngine.VM);
+        AnnotatedTree at = compiler.compile("int twice(int v) { return v + v; } function int(int) h = twice; h(3) + 1;", false, false);
+        try {
+            compiler.Execute(at);
+            Assert.fail();
+        } catch (UnsupportedOperationException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("VM cannot execute the script, Lowering#lowerPrimary:function value twice"));
+        }
+        //默认的 NODE_TREE 退回到 ASTEvaluator
+        compiler.setEngine(ExecutionEngine.NODE_TREE);
+        Assert.assertEquals(ExecutionEngine.EVALUATOR, compiler.engineFor(at));
+        Assert.assertEquals(7, compiler.Execute(at));
+
+        compiler.setEngine(ExecutionEngine.VM);
+        at = compiler.compile("long x = 7; x / 2;", false, false);
+        Assert.assertEquals(ExecutionEngine.VM, compiler.engineFor(at));
+        Assert.assertEquals(3L, compiler.Execute(at));
+        compiler.setEngine(ExecutionEngine.NODE_TREE);
+        Assert.assertEquals(3L, compiler.Execute(at));
+    }
+}